@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.client.PokerClient.PokerClientInitException;
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+
+/**
+ * A client without a GUI, played by a {@link Strategy}.
+ * <p>
+ * Events are read on the thread that runs the client and handed to a {@link StrategyRunner.Session}, which makes
+ * the decisions on the runner's pool. Any number of bots can share one runner.
+ *
+ * @author Jeremy Collette
+ */
+public class BotClient implements Runnable {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(BotClient.class);
+
+    private final Socket socket;
+    private final ObjectOutputStream dataOut;
+    private final ObjectInputStream dataIn;
+    private final StrategyRunner.Session session;
+    private final ClientLog.Logger log;
+    private final EventRing ring;
+    private final int ringStream;
+
+    /**
+     * Joins a game
+     * @param s Socket connected to the server
+     * @param name Our name at the table
+     * @param runner Runs the strategy
+     * @param strategy Decides what we do
+     * @param budgetMillis Time the strategy has for each decision
+     * @throws PokerClientInitException If we couldn't join
+     */
+    public BotClient(Socket s, String name, StrategyRunner runner, Strategy strategy, long budgetMillis) throws PokerClientInitException
+    {
+        try
+        {
+            socket = s;
+            dataOut = new ObjectOutputStream(s.getOutputStream());
+            dataIn = new ObjectInputStream(s.getInputStream());
+            PokerClient.doHandshake(dataOut, dataIn);
+            dataOut.writeObject(new Event.NewMessageEvent(name));
+            dataOut.flush();
+        }
+        catch(Exception e)
+        {
+            throw new PokerClientInitException("Bot initialisation failed: "+e.getMessage(), e);
+        }
+
+        String tableId = s.getInetAddress().getHostAddress()+":"+s.getPort()+"/"+name;
+        log = LOG.forSession(tableId);
+        ring = EventRing.getShared();
+        ringStream = ring == null ? 0 : ring.openStream(tableId);
+        session = runner.newSession(tableId, strategy, budgetMillis, new StrategyRunner.Sink()
+        {
+            @Override
+            public void send(ClientCommand c) throws IOException {
+                synchronized (dataOut)
+                {
+                    dataOut.writeObject(c);
+                    dataOut.flush();
+                }
+                if (ring != null)
+                {
+                    ring.publish(ringStream, c, true);
+                }
+            }
+        });
+        log.info("Connected as "+name+", played by "+strategy.getName());
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                Event e = (Event) dataIn.readObject();
+                if (ring != null)
+                {
+                    ring.publish(ringStream, e, false);
+                }
+                session.receiveEvent(e);
+                if (GameOverEvent.class.isInstance(e))
+                {
+                    log.info("Game over, won by seat "+((GameOverEvent)e).winnerIndex);
+                    break;
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            log.error("Lost connection to the server", e);
+        }
+
+        try
+        {
+            socket.close();
+        }
+        catch(IOException e)
+        {
+            /* We don't care! */
+        }
+    }
+
+    /**
+     * Runs a bot
+     * @param args The server's host and port, our name, and optionally the strategy's class name and the time budget
+     * in milliseconds
+     * @throws Exception If the bot couldn't start
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 3)
+        {
+            System.out.println("Usage: BotClient <host> <port> <name> [strategy class] [budget ms]");
+            return;
+        }
+        Strategy strategy = args.length > 3
+                ? (Strategy)Class.forName(args[3]).getDeclaredConstructor().newInstance()
+                : new EquityStrategy();
+        long budget = args.length > 4 ? Long.parseLong(args[4]) : StrategyRunner.DEFAULT_BUDGET_MILLIS;
+
+        HandEvaluator.init();
+        BotClient bot = new BotClient(new Socket(args[0], Integer.parseInt(args[1])), args[2],
+                StrategyRunner.getShared(), strategy, budget);
+        bot.run();
+        ClientLog.flush(1000);
+    }
+}
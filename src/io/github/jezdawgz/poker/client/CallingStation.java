@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+
+/**
+ * A {@link Strategy} that never bets and never folds: it checks when it can and calls everything else.
+ * Useful as a baseline to measure other strategies against.
+ *
+ * @author Jeremy Collette
+ */
+public class CallingStation implements Strategy {
+
+    @Override
+    public String getName()
+    {
+        return "CallingStation";
+    }
+
+    @Override
+    public ClientCommand decide(TableView table)
+    {
+        return table.toCall() > 0 ? new ClientCommand.ClientCallCommand() : new ClientCommand.ClientCheckCommand();
+    }
+}
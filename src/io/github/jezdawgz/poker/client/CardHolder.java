@@ -29,7 +29,10 @@ import javax.swing.JLabel;
  */
  public class CardHolder extends javax.swing.JPanel {
     
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(CardHolder.class);
+    
     private Card.CardSet cards;
+    private long mask;
     public JLabel lbl;
 
     public CardHolder()
@@ -43,19 +46,22 @@ import javax.swing.JLabel;
     public void addCard(Card c)
     {
         cards.addCard(c);
+        mask |= CardMask.of(c);
         refreshComponent();
     }
       
     public void setCards(Card[] newCards)
     {
-        System.out.println(newCards[0].toString());
         this.cards = new Card.CardSet(newCards);
+        mask = CardMask.of(newCards);
+        LOG.debug("Cards set to "+CardMask.toString(mask));
         refreshComponent();
     }
     
     public void clearCards()
     {
         cards.clearCards();
+        mask = CardMask.EMPTY;
         refreshComponent();
     }
     
@@ -63,6 +69,15 @@ import javax.swing.JLabel;
     {
         return cards.getCards();
     }
+    
+    /**
+     * Gets the held cards without copying them
+     * @return The held cards as a {@link CardMask}
+     */
+    public long getCardMask()
+    {
+        return mask;
+    }
 
     private void refreshComponent()
     {
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Card;
+import io.github.jezdawgz.poker.server.Card.Suit;
+import io.github.jezdawgz.poker.server.Card.Value;
+
+/**
+ * Represents a set of {@link Card}s as a primitive <code>long</code> bitmask.
+ * <p>
+ * Each suit owns a 16 bit lane of the mask (clubs, diamonds, hearts, spades from the lowest lane up) and
+ * the lowest 13 bits of each lane are the ranks from two to ace. The card index used throughout is
+ * therefore <code>suit*16 + rank</code>. None of the operations here allocate, so masks can be used
+ * freely in hand and equity loops in place of {@link Card.CardSet}.
+ *
+ * @author Jeremy Collette
+ */
+public final class CardMask {
+
+    public static final int NUM_SUITS = 4;
+    public static final int NUM_RANKS = 13;
+    public static final int NUM_CARDS = NUM_SUITS * NUM_RANKS;
+
+    /** Bits per suit lane */
+    public static final int LANE = 16;
+
+    /** The 13 rank bits of a single lane */
+    public static final int RANK_BITS = (1 << NUM_RANKS) - 1;
+
+    /** An empty set of cards */
+    public static final long EMPTY = 0L;
+
+    /** All 52 cards */
+    public static final long FULL_DECK;
+
+    private static final Suit[] SUITS = new Suit[]{Suit.CLUBS, Suit.DIAMONDS, Suit.HEARTS, Suit.SPADES};
+    private static final Value[] VALUES = new Value[]{Value.TWO, Value.THREE, Value.FOUR, Value.FIVE, Value.SIX, Value.SEVEN,
+        Value.EIGHT, Value.NINE, Value.TEN, Value.JACK, Value.QUEEN, Value.KING, Value.ACE};
+    private static final Card[] CARDS = new Card[NUM_SUITS * LANE];
+    private static final char[] RANK_CHARS = "23456789TJQKA".toCharArray();
+    private static final char[] SUIT_CHARS = "cdhs".toCharArray();
+
+    static
+    {
+        long deck = 0;
+        for (int s = 0; s < NUM_SUITS; s++)
+        {
+            deck |= ((long)RANK_BITS) << (s * LANE);
+            for (int r = 0; r < NUM_RANKS; r++)
+            {
+                CARDS[s * LANE + r] = new Card(SUITS[s], VALUES[r]);
+            }
+        }
+        FULL_DECK = deck;
+    }
+
+    private CardMask()
+    {
+    }
+
+    /**
+     * Gets the suit number (0-3) of a {@link Suit}
+     * @param s The suit
+     * @return The suit number
+     */
+    public static int suitOf(Suit s)
+    {
+        switch (s)
+        {
+            case CLUBS:    return 0;
+            case DIAMONDS: return 1;
+            case HEARTS:   return 2;
+            case SPADES:   return 3;
+            default:       throw new IllegalArgumentException("Unknown suit: "+s);
+        }
+    }
+
+    /**
+     * Gets the rank number (0 for a two, up to 12 for an ace) of a {@link Value}
+     * @param v The value
+     * @return The rank number
+     */
+    public static int rankOf(Value v)
+    {
+        switch (v)
+        {
+            case TWO:   return 0;
+            case THREE: return 1;
+            case FOUR:  return 2;
+            case FIVE:  return 3;
+            case SIX:   return 4;
+            case SEVEN: return 5;
+            case EIGHT: return 6;
+            case NINE:  return 7;
+            case TEN:   return 8;
+            case JACK:  return 9;
+            case QUEEN: return 10;
+            case KING:  return 11;
+            case ACE:   return 12;
+            default:    throw new IllegalArgumentException("Unknown value: "+v);
+        }
+    }
+
+    /**
+     * Gets the index of a card
+     * @param suit Suit number (0-3)
+     * @param rank Rank number (0-12)
+     * @return The card index
+     */
+    public static int index(int suit, int rank)
+    {
+        return suit * LANE + rank;
+    }
+
+    /**
+     * Gets the index of a {@link Card}
+     * @param c The card
+     * @return The card index
+     */
+    public static int indexOf(Card c)
+    {
+        return index(suitOf(c.getSuit()), rankOf(c.getValue()));
+    }
+
+    /**
+     * Gets the suit number of a card index
+     * @param index The card index
+     * @return The suit number
+     */
+    public static int suitOfIndex(int index)
+    {
+        return index >>> 4;
+    }
+
+    /**
+     * Gets the rank number of a card index
+     * @param index The card index
+     * @return The rank number
+     */
+    public static int rankOfIndex(int index)
+    {
+        return index & (LANE - 1);
+    }
+
+    /**
+     * Gets the single card mask of a card index
+     * @param index The card index
+     * @return The mask
+     */
+    public static long of(int index)
+    {
+        return 1L << index;
+    }
+
+    /**
+     * Gets the single card mask of a {@link Card}
+     * @param c The card
+     * @return The mask
+     */
+    public static long of(Card c)
+    {
+        return 1L << indexOf(c);
+    }
+
+    /**
+     * Gets the mask of an array of {@link Card}s
+     * @param cards The cards
+     * @return The mask
+     */
+    public static long of(Card[] cards)
+    {
+        long mask = EMPTY;
+        for (Card c : cards)
+        {
+            mask |= of(c);
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the mask of a {@link Card.CardSet}
+     * @param set The card set
+     * @return The mask
+     */
+    public static long of(Card.CardSet set)
+    {
+        return of(set.getCards());
+    }
+
+    /**
+     * Gets the shared {@link Card} instance for a card index
+     * @param index The card index
+     * @return The card
+     */
+    public static Card toCard(int index)
+    {
+        return CARDS[index];
+    }
+
+    /**
+     * Converts a mask back into {@link Card}s, lowest index first
+     * @param mask The mask
+     * @return The cards
+     */
+    public static Card[] toCards(long mask)
+    {
+        Card[] cards = new Card[count(mask)];
+        int i = 0;
+        for (long m = mask; m != 0; m &= m - 1)
+        {
+            cards[i++] = CARDS[Long.numberOfTrailingZeros(m)];
+        }
+        return cards;
+    }
+
+    /**
+     * Converts a mask back into a {@link Card.CardSet}
+     * @param mask The mask
+     * @return The card set
+     */
+    public static Card.CardSet toCardSet(long mask)
+    {
+        return new Card.CardSet(toCards(mask));
+    }
+
+    public static long union(long a, long b)
+    {
+        return a | b;
+    }
+
+    public static long intersection(long a, long b)
+    {
+        return a & b;
+    }
+
+    public static long without(long a, long b)
+    {
+        return a & ~b;
+    }
+
+    public static boolean intersects(long a, long b)
+    {
+        return (a & b) != 0;
+    }
+
+    public static int count(long mask)
+    {
+        return Long.bitCount(mask);
+    }
+
+    public static boolean contains(long mask, int index)
+    {
+        return (mask & (1L << index)) != 0;
+    }
+
+    public static boolean contains(long mask, Card c)
+    {
+        return contains(mask, indexOf(c));
+    }
+
+    public static boolean containsAll(long mask, long other)
+    {
+        return (mask & other) == other;
+    }
+
+    /**
+     * Gets the lowest card index in a mask
+     * @param mask The (non-empty) mask
+     * @return The lowest card index
+     */
+    public static int lowest(long mask)
+    {
+        return Long.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * Gets the ranks held in one suit
+     * @param mask The mask
+     * @param suit Suit number (0-3)
+     * @return 13 bit rank mask
+     */
+    public static int suitMask(long mask, int suit)
+    {
+        return (int)(mask >>> (suit * LANE)) & RANK_BITS;
+    }
+
+    /**
+     * Gets the ranks held in any suit
+     * @param mask The mask
+     * @return 13 bit rank mask
+     */
+    public static int rankMask(long mask)
+    {
+        return (int)(mask | (mask >>> LANE) | (mask >>> (2 * LANE)) | (mask >>> (3 * LANE))) & RANK_BITS;
+    }
+
+    /**
+     * Gets every card of a rank
+     * @param rank Rank number (0-12)
+     * @return The mask
+     */
+    public static long ofRank(int rank)
+    {
+        return 0x0001000100010001L << rank;
+    }
+
+    /**
+     * Gets every card of a suit
+     * @param suit Suit number (0-3)
+     * @return The mask
+     */
+    public static long ofSuit(int suit)
+    {
+        return ((long)RANK_BITS) << (suit * LANE);
+    }
+
+    /**
+     * Gets how many cards of a rank are held
+     * @param mask The mask
+     * @param rank Rank number (0-12)
+     * @return Number of cards of that rank
+     */
+    public static int rankCount(long mask, int rank)
+    {
+        return Long.bitCount(mask & ofRank(rank));
+    }
+
+    /**
+     * Parses a short string such as "AsKd" (the reverse of {@link #toString(long)})
+     * @param cards The cards, two characters each
+     * @return The mask
+     * @throws IllegalArgumentException If a card can't be understood
+     */
+    public static long parse(String cards)
+    {
+        if (cards.length() % 2 != 0)
+        {
+            throw new IllegalArgumentException("Can't understand cards: "+cards);
+        }
+        long mask = EMPTY;
+        for (int i = 0; i < cards.length(); i += 2)
+        {
+            int rank = new String(RANK_CHARS).indexOf(Character.toUpperCase(cards.charAt(i)));
+            int suit = new String(SUIT_CHARS).indexOf(Character.toLowerCase(cards.charAt(i + 1)));
+            if (rank < 0 || suit < 0)
+            {
+                throw new IllegalArgumentException("Can't understand card: "+cards.substring(i, i + 2));
+            }
+            mask |= of(index(suit, rank));
+        }
+        return mask;
+    }
+
+    /**
+     * Gets a short string such as "AsKd" for a mask
+     * @param mask The mask
+     * @return The string
+     */
+    public static String toString(long mask)
+    {
+        StringBuilder sb = new StringBuilder(count(mask) * 2);
+        for (long m = mask; m != 0; m &= m - 1)
+        {
+            int i = Long.numberOfTrailingZeros(m);
+            sb.append(RANK_CHARS[rankOfIndex(i)]).append(SUIT_CHARS[suitOfIndex(i)]);
+        }
+        return sb.toString();
+    }
+}
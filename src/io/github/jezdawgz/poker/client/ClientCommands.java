@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import java.lang.reflect.Field;
+
+/**
+ * Reads what the server's commands carry, for code that handles them without sending them: the event ring,
+ * the observer relay and self-play.
+ * <p>
+ * {@link ClientCommand.ClientBetCommand} has no getter for its total, so it is read from the field named by the
+ * "pokerclient.betAmountField" system property ("amount" by default). If the server's class has no such int
+ * field, the first read throws rather than guessing.
+ *
+ * @author Jeremy Collette
+ */
+public final class ClientCommands {
+
+    public static final String DEFAULT_BET_AMOUNT_FIELD = "amount";
+
+    private static final Field BET_AMOUNT = findBetAmount(System.getProperty("pokerclient.betAmountField", DEFAULT_BET_AMOUNT_FIELD));
+
+    private ClientCommands()
+    {
+    }
+
+    private static Field findBetAmount(String name)
+    {
+        try
+        {
+            Field f = ClientCommand.ClientBetCommand.class.getDeclaredField(name);
+            if (f.getType() != int.class)
+            {
+                return null;
+            }
+            f.setAccessible(true);
+            return f;
+        }
+        catch(NoSuchFieldException | SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the total a bet command asks to have on the table
+     * @param c A {@link ClientCommand.ClientBetCommand}
+     * @return The total
+     * @throws IllegalStateException If the server's bet command doesn't have the expected field
+     */
+    public static int betAmount(ClientCommand c)
+    {
+        if (BET_AMOUNT == null)
+        {
+            throw new IllegalStateException(ClientCommand.ClientBetCommand.class.getName()+" has no int field \""
+                    +System.getProperty("pokerclient.betAmountField", DEFAULT_BET_AMOUNT_FIELD)
+                    +"\" - set pokerclient.betAmountField to the name of its total");
+        }
+        try
+        {
+            return BET_AMOUNT.getInt(c);
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
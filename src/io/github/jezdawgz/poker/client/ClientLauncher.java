@@ -22,6 +22,8 @@ package io.github.jezdawgz.poker.client;
 import io.github.jezdawgz.poker.client.PokerClient.PokerClientInitException;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
 import javax.swing.JOptionPane;
 import javax.swing.JSpinner.NumberEditor;
 
@@ -31,6 +33,9 @@ import javax.swing.JSpinner.NumberEditor;
  */
 public class ClientLauncher extends javax.swing.JFrame {    
     
+    /* Servers connected to so far, so connecting to one again counts as a reconnect. Only used on the EDT. */
+    private static final Set<String> connectedTo = new HashSet<>();
+    
     /**
      * Creates new form ConnectionDialog
      */
@@ -227,6 +232,12 @@ public class ClientLauncher extends javax.swing.JFrame {
             //System.out.println("Attempting to connect to "+host+" on "+port+"...");            
             Socket s = new Socket(getIpAddress(), getPort());
             PokerClient client = new PokerClient(s, getName());
+            Metrics metrics = Metrics.get();
+            if (!connectedTo.add(s.getInetAddress().getHostAddress()+":"+s.getPort()))
+            {
+                metrics.counter(Metrics.RECONNECTS).increment();
+            }
+            metrics.counter(Metrics.CONNECTS).increment();
             Thread t = new Thread(client);
             t.start();           
         }
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The client's log. Lines are written as JSON, one per line, to "client.log" in the data directory.
+ * <p>
+ * Logging never waits on the disk. Each call claims a slot in a ring buffer that is allocated up front, fills
+ * it in and moves on; a background thread formats the slots and writes them out, and sleeps until it is woken
+ * when there is nothing to write. If the writer falls so far behind that the ring is full, or the file can't be
+ * written, lines are dropped and counted rather than holding up the caller.
+ * The log is rotated at {@value #MAX_FILE_BYTES} bytes, keeping {@value #MAX_FILES} old files.
+ * <p>
+ * The lowest level written is set with the "pokerclient.log.level" system property (INFO by default).
+ *
+ * @author Jeremy Collette
+ */
+public final class ClientLog implements Runnable {
+
+    public enum Level
+    {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    public static final int RING_SIZE = 4096;
+    public static final int MAX_FILE_BYTES = 4 << 20;
+    public static final int MAX_FILES = 5;
+
+    private static final String FILE_NAME = "client.log";
+    private static final ClientLog INSTANCE = new ClientLog(Utils.getDataDirectory());
+
+    private final File dir;
+    private final Level minLevel;
+
+    /* The ring: a slot is ready to write once its published number is the sequence number it was claimed with */
+    private final long[] times = new long[RING_SIZE];
+    private final Level[] levels = new Level[RING_SIZE];
+    private final String[] sessions = new String[RING_SIZE];
+    private final String[] tags = new String[RING_SIZE];
+    private final String[] threads = new String[RING_SIZE];
+    private final String[] messages = new String[RING_SIZE];
+    private final Throwable[] errors = new Throwable[RING_SIZE];
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    /* Set while the writer is parked, or about to be, so loggers know to wake it */
+    private volatile boolean sleeping;
+
+    /* Only used by the writer */
+    private OutputStream out;
+    private long written;
+    private int bufferedLines;
+    private boolean writeFailed;
+
+    /**
+     * Logs for one part of the client, and optionally one session (such as a connection to a table)
+     */
+    public static final class Logger
+    {
+        private final String tag;
+        private final String session;
+
+        private Logger(String tag, String session)
+        {
+            this.tag = tag;
+            this.session = session;
+        }
+
+        /**
+         * Gets a logger that tags its lines with a session as well
+         * @param session The session, e.g. the table we're connected to
+         * @return The logger
+         */
+        public Logger forSession(String session)
+        {
+            return new Logger(tag, session);
+        }
+
+        public boolean isEnabled(Level level)
+        {
+            return level.compareTo(INSTANCE.minLevel) >= 0;
+        }
+
+        public void debug(String message)
+        {
+            INSTANCE.log(Level.DEBUG, session, tag, message, null);
+        }
+
+        public void info(String message)
+        {
+            INSTANCE.log(Level.INFO, session, tag, message, null);
+        }
+
+        public void warn(String message)
+        {
+            INSTANCE.log(Level.WARN, session, tag, message, null);
+        }
+
+        public void warn(String message, Throwable t)
+        {
+            INSTANCE.log(Level.WARN, session, tag, message, t);
+        }
+
+        public void error(String message, Throwable t)
+        {
+            INSTANCE.log(Level.ERROR, session, tag, message, t);
+        }
+    }
+
+    private ClientLog(File dir)
+    {
+        this.dir = dir;
+        Level level = Level.INFO;
+        try
+        {
+            level = Level.valueOf(System.getProperty("pokerclient.log.level", "INFO").toUpperCase());
+        }
+        catch(IllegalArgumentException e)
+        {
+            /* Stick with INFO */
+        }
+        minLevel = level;
+
+        for (int i = 0; i < RING_SIZE; i++)
+        {
+            published.set(i, -1);
+        }
+
+        writer = new Thread(this, "Client log writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            @Override
+            public void run() {
+                flush(1000);
+            }
+        }));
+    }
+
+    /**
+     * Gets a logger
+     * @param tag What's logging, usually the class name
+     * @return The logger
+     */
+    public static Logger getLogger(String tag)
+    {
+        return new Logger(tag, null);
+    }
+
+    public static Logger getLogger(Class<?> c)
+    {
+        return getLogger(c.getSimpleName());
+    }
+
+    /**
+     * Gets how many lines were dropped because the writer couldn't keep up or couldn't write them
+     * @return The number of lines
+     */
+    public static long getDropped()
+    {
+        return INSTANCE.dropped.get();
+    }
+
+    /**
+     * Waits for everything logged so far to be written
+     * @param timeoutMillis Longest to wait
+     */
+    public static void flush(long timeoutMillis)
+    {
+        long target = INSTANCE.head.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (INSTANCE.tail < target && System.currentTimeMillis() < deadline)
+        {
+            LockSupport.unpark(INSTANCE.writer);
+            LockSupport.parkNanos(1000000);
+        }
+    }
+
+    private void log(Level level, String session, String tag, String message, Throwable t)
+    {
+        if (level.compareTo(minLevel) < 0)
+        {
+            return;
+        }
+
+        /* Claim a slot, unless the ring is full */
+        long seq;
+        do
+        {
+            seq = head.get();
+            if (seq - tail >= RING_SIZE)
+            {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        while (!head.compareAndSet(seq, seq + 1));
+
+        int slot = (int)(seq & (RING_SIZE - 1));
+        times[slot] = System.currentTimeMillis();
+        levels[slot] = level;
+        sessions[slot] = session;
+        tags[slot] = tag;
+        threads[slot] = Thread.currentThread().getName();
+        messages[slot] = message;
+        errors[slot] = t;
+        /* Publishing with a full fence means we can't miss the writer going to sleep, nor it miss the line */
+        published.set(slot, seq);
+        if (sleeping)
+        {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder sb = new StringBuilder(4096);
+        long reportedDrops = 0;
+
+        while (true)
+        {
+            long seq = tail;
+            int slot = (int)(seq & (RING_SIZE - 1));
+            if (published.get(slot) != seq)
+            {
+                /* Nothing ready - write out what we have and sleep until a line is logged */
+                if (sb.length() > 0)
+                {
+                    write(sb);
+                }
+                sleeping = true;
+                if (published.get(slot) != seq)
+                {
+                    LockSupport.park(this);
+                }
+                sleeping = false;
+                continue;
+            }
+
+            sb.append("{\"time\":\"").append(df.format(new Date(times[slot]))).append("\",\"level\":\"").append(levels[slot]).append('"');
+            if (sessions[slot] != null)
+            {
+                field(sb, "session", sessions[slot]);
+            }
+            field(sb, "tag", tags[slot]);
+            field(sb, "thread", threads[slot]);
+            field(sb, "message", messages[slot]);
+            if (errors[slot] != null)
+            {
+                StringWriter trace = new StringWriter();
+                errors[slot].printStackTrace(new PrintWriter(trace));
+                field(sb, "error", trace.toString());
+            }
+            sb.append("}\n");
+            bufferedLines++;
+
+            sessions[slot] = null;
+            tags[slot] = null;
+            threads[slot] = null;
+            messages[slot] = null;
+            errors[slot] = null;
+            tail = seq + 1;
+
+            long drops = dropped.get();
+            if (drops != reportedDrops)
+            {
+                sb.append("{\"time\":\"").append(df.format(new Date())).append("\",\"level\":\"WARN\"");
+                field(sb, "tag", "ClientLog");
+                field(sb, "message", (drops - reportedDrops)+" lines dropped");
+                sb.append("}\n");
+                bufferedLines++;
+                reportedDrops = drops;
+            }
+            if (sb.length() > 64 * 1024)
+            {
+                write(sb);
+            }
+        }
+    }
+
+    private void write(StringBuilder sb)
+    {
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        int lines = bufferedLines;
+        sb.setLength(0);
+        bufferedLines = 0;
+        try
+        {
+            if (out == null)
+            {
+                open();
+            }
+            if (written > 0 && written + bytes.length > MAX_FILE_BYTES)
+            {
+                rotate();
+            }
+            out.write(bytes);
+            out.flush();
+            written += bytes.length;
+        }
+        catch(IOException e)
+        {
+            /* The lines are lost. Say so once on stderr, since the log can't, and try again with the next lines. */
+            dropped.addAndGet(lines);
+            if (!writeFailed)
+            {
+                System.err.println("Could not write "+new File(dir, FILE_NAME)+", dropping log lines: "+e);
+                writeFailed = true;
+            }
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch(IOException e2)
+                {
+                    /* We don't care! */
+                }
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Carries on from the end of client.log
+     */
+    private void open() throws IOException
+    {
+        File current = new File(dir, FILE_NAME);
+        out = new FileOutputStream(current, true);
+        written = current.length();
+    }
+
+    /**
+     * Moves client.log to client.log.1, client.log.1 to client.log.2 and so on, and starts a new client.log
+     */
+    private void rotate() throws IOException
+    {
+        out.close();
+        out = null;
+        new File(dir, FILE_NAME + "." + MAX_FILES).delete();
+        for (int i = MAX_FILES - 1; i >= 1; i--)
+        {
+            new File(dir, FILE_NAME + "." + i).renameTo(new File(dir, FILE_NAME + "." + (i + 1)));
+        }
+        new File(dir, FILE_NAME).renameTo(new File(dir, FILE_NAME + ".1"));
+        open();
+    }
+
+    private static void field(StringBuilder sb, String name, String value)
+    {
+        sb.append(",\"").append(name).append("\":");
+        TraceExporter.quote(sb, value);
+    }
+}
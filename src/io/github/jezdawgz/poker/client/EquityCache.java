@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of equity results shared by every table in the JVM.
+ * <p>
+ * Keys are built by {@link #key(long, long, int)} from a canonical form of the hole cards and board: the suits
+ * are relabelled into a fixed order, so spots that only differ by which suit is which share one entry.
+ * Keys and values are both primitive <code>long</code>s.
+ * <p>
+ * The cache is set-associative. Each key can only live in one small set of slots, and when that set is full
+ * a CLOCK sweep over the set evicts an entry that hasn't been used since the hand last went past it.
+ * Sets are guarded by striped locks, so lookups from different tables rarely contend.
+ *
+ * @author Jeremy Collette
+ */
+public class EquityCache {
+
+    /** Default number of entries in the shared cache */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int WAYS = 8;
+    private static final int NUM_LOCKS = 64;
+    private static final long NO_KEY = -1L;
+
+    private static final EquityCache SHARED = new EquityCache(DEFAULT_CAPACITY);
+
+    private final long[] keys;
+    private final long[] values;
+    private final boolean[] referenced;
+    private final int[] hands;
+    private final int setMask;
+    private final Object[] locks;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache
+     * @param capacity Most entries to hold (rounded up to a power of two, at least 8)
+     */
+    public EquityCache(int capacity)
+    {
+        int sets = Math.max(1, Integer.highestOneBit(Math.max(WAYS, capacity) - 1) * 2 / WAYS);
+        keys = new long[sets * WAYS];
+        values = new long[sets * WAYS];
+        referenced = new boolean[sets * WAYS];
+        hands = new int[sets];
+        setMask = sets - 1;
+        Arrays.fill(keys, NO_KEY);
+
+        locks = new Object[NUM_LOCKS];
+        for (int i = 0; i < NUM_LOCKS; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Gets the cache shared by every table in the JVM
+     * @return The shared cache
+     */
+    public static EquityCache getShared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Builds the key of a spot. Spots that are the same apart from the names of the suits get the same key.
+     * @param hole Our hole cards (2 cards)
+     * @param board Community cards (0 to 5 cards)
+     * @param opponents Number of opponents (up to 7)
+     * @return The key
+     */
+    public static long key(long hole, long board, int opponents)
+    {
+        /* Order the suits by what they hold - identical suits are interchangeable so ties don't matter */
+        int[] lanes = new int[CardMask.NUM_SUITS];
+        for (int s = 0; s < CardMask.NUM_SUITS; s++)
+        {
+            lanes[s] = (CardMask.suitMask(hole, s) << CardMask.NUM_RANKS) | CardMask.suitMask(board, s);
+        }
+        for (int i = 1; i < lanes.length; i++)
+        {
+            int v = lanes[i];
+            int j = i - 1;
+            while (j >= 0 && lanes[j] < v)
+            {
+                lanes[j + 1] = lanes[j];
+                j--;
+            }
+            lanes[j + 1] = v;
+        }
+
+        long canonicalHole = 0, canonicalBoard = 0;
+        for (int s = 0; s < CardMask.NUM_SUITS; s++)
+        {
+            canonicalHole |= ((long)(lanes[s] >>> CardMask.NUM_RANKS)) << (s * CardMask.LANE);
+            canonicalBoard |= ((long)(lanes[s] & CardMask.RANK_BITS)) << (s * CardMask.LANE);
+        }
+
+        /* Pack each card into 6 bits: opponents, then the hole cards, then the board padded with 63s */
+        long key = opponents;
+        for (long m = canonicalHole; m != 0; m &= m - 1)
+        {
+            key = (key << 6) | CardMask.lowest(m);
+        }
+        int boardCards = 0;
+        for (long m = canonicalBoard; m != 0; m &= m - 1)
+        {
+            key = (key << 6) | CardMask.lowest(m);
+            boardCards++;
+        }
+        for (; boardCards < 5; boardCards++)
+        {
+            key = (key << 6) | 63;
+        }
+        return key;
+    }
+
+    /**
+     * Packs an equity and its confidence interval into a cache value
+     * @param equity The equity
+     * @param halfWidth Half width of its 95% confidence interval
+     * @return The value
+     */
+    public static long value(double equity, double halfWidth)
+    {
+        return ((long)Float.floatToIntBits((float)equity) << 32) | (Float.floatToIntBits((float)halfWidth) & 0xFFFFFFFFL);
+    }
+
+    public static double equityOf(long value)
+    {
+        return Float.intBitsToFloat((int)(value >>> 32));
+    }
+
+    public static double halfWidthOf(long value)
+    {
+        return Float.intBitsToFloat((int)value);
+    }
+
+    /**
+     * Looks up a key
+     * @param key The key
+     * @param absent Returned if the key isn't cached
+     * @return The value, or absent
+     */
+    public long get(long key, long absent)
+    {
+        int set = setOf(key);
+        int base = set * WAYS;
+        synchronized (locks[set & (NUM_LOCKS - 1)])
+        {
+            for (int i = base; i < base + WAYS; i++)
+            {
+                if (keys[i] == key)
+                {
+                    referenced[i] = true;
+                    hits.increment();
+                    return values[i];
+                }
+            }
+        }
+        misses.increment();
+        return absent;
+    }
+
+    /**
+     * Adds or replaces a value
+     * @param key The key
+     * @param value The value
+     */
+    public void put(long key, long value)
+    {
+        int set = setOf(key);
+        int base = set * WAYS;
+        synchronized (locks[set & (NUM_LOCKS - 1)])
+        {
+            int free = -1;
+            for (int i = base; i < base + WAYS; i++)
+            {
+                if (keys[i] == key)
+                {
+                    values[i] = value;
+                    referenced[i] = true;
+                    return;
+                }
+                if (free < 0 && keys[i] == NO_KEY)
+                {
+                    free = i;
+                }
+            }
+
+            if (free < 0)
+            {
+                /* CLOCK: sweep the hand round, giving each referenced entry a second chance */
+                while (true)
+                {
+                    int i = base + hands[set];
+                    hands[set] = (hands[set] + 1) % WAYS;
+                    if (!referenced[i])
+                    {
+                        free = i;
+                        evictions.increment();
+                        break;
+                    }
+                    referenced[i] = false;
+                }
+            }
+
+            keys[free] = key;
+            values[free] = value;
+            referenced[free] = false;
+        }
+    }
+
+    private int setOf(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 40) & setMask;
+    }
+
+    public int capacity()
+    {
+        return keys.length;
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "EquityCache: "+getHits()+" hits, "+getMisses()+" misses, "+getEvictions()+" evictions";
+    }
+}
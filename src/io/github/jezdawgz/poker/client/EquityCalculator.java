@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+
+/**
+ * Estimates the equity of our hole cards against a number of random opponent hands by Monte Carlo rollouts.
+ * <p>
+ * Each calculation runs one worker per core on a {@link ForkJoinPool}, each with its own {@link SplittableRandom}.
+ * Workers play small batches of rollouts and stop once the 95% confidence interval is narrower than the
+ * requested width, or as soon as the calculation is cancelled. Progress is handed to a {@link Listener} on the
+ * Event Dispatch Thread, so nothing here ever blocks the GUI.
+ * <p>
+ * Once the flop is out and there are few enough runouts, the equity is enumerated exactly by {@link ExactEquity}
+ * instead. Before the flop it is looked up in {@link PreflopEquity} when the tables are available. Finished
+ * results are kept in an {@link EquityCache}, so a spot that comes round again is answered straight away.
+ *
+ * @author Jeremy Collette
+ */
+public class EquityCalculator {
+
+    /** Default half width of the 95% confidence interval to stop at (half a percent) */
+    public static final double DEFAULT_HALF_WIDTH = 0.005;
+
+    /** Default most rollouts to play before giving up on the confidence interval */
+    public static final long DEFAULT_MAX_SAMPLES = 2000000;
+
+    private static final long MIN_SAMPLES = 5000;
+    private static final int BATCH_SIZE = 512;
+    private static final long PUBLISH_INTERVAL_NANOS = 100000000L;
+    private static final double Z_95 = 1.96;
+
+    /** Most hand evaluations we'll spend on an exact answer before sampling instead */
+    private static final double MAX_EXACT_EVALUATIONS = 5000000;
+
+    /** Not a value {@link EquityCache#value} can produce (it's a NaN equity) */
+    private static final long NO_VALUE = -1L;
+
+    /**
+     * Receives the progress of a calculation on the Event Dispatch Thread
+     */
+    public interface Listener
+    {
+        void equityUpdated(Result result);
+    }
+
+    /**
+     * A snapshot of a calculation
+     */
+    public static class Result
+    {
+        /** Our share of the pot (0-1), ties counted as a split */
+        public final double equity;
+        /** Half width of the 95% confidence interval */
+        public final double halfWidth;
+        public final long samples;
+        public final double samplesPerSecond;
+        public final int opponents;
+        /** True once the calculation has stopped */
+        public final boolean done;
+
+        public Result(double equity, double halfWidth, long samples, double samplesPerSecond, int opponents, boolean done)
+        {
+            this.equity = equity;
+            this.halfWidth = halfWidth;
+            this.samples = samples;
+            this.samplesPerSecond = samplesPerSecond;
+            this.opponents = opponents;
+            this.done = done;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (done && halfWidth == 0)
+            {
+                return String.format("%.1f%% (exact) vs %d", equity * 100, opponents);
+            }
+            return String.format("%.1f%% (+/-%.1f) vs %d", equity * 100, halfWidth * 100, opponents);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final EquityCache cache;
+    private final ExactEquity exact;
+    private final SplittableRandom seeds;
+    private final double targetHalfWidth;
+    private final long maxSamples;
+    private Calculation current;
+
+    public EquityCalculator()
+    {
+        this(ForkJoinPool.commonPool(), EquityCache.getShared(), DEFAULT_HALF_WIDTH, DEFAULT_MAX_SAMPLES);
+    }
+
+    public EquityCalculator(ForkJoinPool pool, EquityCache cache, double targetHalfWidth, long maxSamples)
+    {
+        this.pool = pool;
+        this.cache = cache;
+        this.exact = new ExactEquity(pool);
+        this.seeds = new SplittableRandom();
+        this.targetHalfWidth = targetHalfWidth;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Starts a new calculation, cancelling the one before it
+     * @param hole Our hole cards
+     * @param board Community cards dealt so far
+     * @param opponents Number of opponents still in the hand
+     * @param listener Receives progress on the Event Dispatch Thread
+     */
+    public synchronized void start(long hole, long board, int opponents, Listener listener)
+    {
+        cancel();
+
+        current = new Calculation(hole, board, opponents, listener);
+
+        long cached = cache.get(current.key, NO_VALUE);
+        if (cached != NO_VALUE)
+        {
+            current.publish(new Result(EquityCache.equityOf(cached), EquityCache.halfWidthOf(cached), 0, 0, opponents, true));
+            return;
+        }
+
+        if (board == CardMask.EMPTY && opponents <= PreflopEquity.MAX_OPPONENTS)
+        {
+            PreflopEquity preflop = PreflopEquity.getInstance();
+            if (preflop != null)
+            {
+                double e = preflop.vsRandom(PreflopEquity.classOf(hole), opponents);
+                current.publish(new Result(e, preflop.vsRandomHalfWidth(e), PreflopEquity.VS_RANDOM_SAMPLES, 0, opponents, true));
+                return;
+            }
+        }
+
+        final HandRange[] ranges = new HandRange[opponents];
+        Arrays.fill(ranges, HandRange.random());
+        final double evaluations = ExactEquity.countEvaluations(hole, board, ranges);
+        if (CardMask.count(board) >= 3 && evaluations <= MAX_EXACT_EVALUATIONS)
+        {
+            final Calculation c = current;
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run() {
+                    c.enumerate(ranges, evaluations);
+                }
+            });
+            return;
+        }
+
+        for (int i = 0; i < pool.getParallelism(); i++)
+        {
+            final Calculation c = current;
+            final SplittableRandom rnd = seeds.split();
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run() {
+                    c.work(rnd);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the current calculation straight away. No more results will be delivered for it.
+     */
+    public synchronized void cancel()
+    {
+        if (current != null)
+        {
+            current.cancelled.set(true);
+            current = null;
+        }
+    }
+
+    /**
+     * One running calculation
+     */
+    private class Calculation
+    {
+        private final long hole;
+        private final long board;
+        private final int opponents;
+        private final long key;
+        private final int missing;
+        private final int[] deck;
+        private final Listener listener;
+        private final long startTime;
+        private final AtomicLong lastPublish;
+
+        private final AtomicBoolean cancelled;
+        private volatile boolean finished;
+        private long samples;
+        private double sum;
+        private double sumSquares;
+
+        Calculation(long hole, long board, int opponents, Listener listener)
+        {
+            this.hole = hole;
+            this.board = board;
+            this.opponents = opponents;
+            this.key = EquityCache.key(hole, board, opponents);
+            this.missing = 5 - CardMask.count(board);
+            this.deck = new int[CardMask.count(CardMask.FULL_DECK & ~(hole | board))];
+            this.listener = listener;
+            this.startTime = System.nanoTime();
+            this.lastPublish = new AtomicLong(startTime);
+            this.cancelled = new AtomicBoolean();
+
+            int i = 0;
+            for (long m = CardMask.FULL_DECK & ~(hole | board); m != 0; m &= m - 1)
+            {
+                deck[i++] = CardMask.lowest(m);
+            }
+        }
+
+        void work(SplittableRandom rnd)
+        {
+            int[] cards = deck.clone();
+            int needed = 2 * opponents + missing;
+
+            while (!cancelled.get() && !finished)
+            {
+                double batchSum = 0, batchSquares = 0;
+                for (int s = 0; s < BATCH_SIZE; s++)
+                {
+                    /* Partial shuffle - just the cards we need end up at the front */
+                    for (int i = 0; i < needed; i++)
+                    {
+                        int j = i + rnd.nextInt(cards.length - i);
+                        int t = cards[i]; cards[i] = cards[j]; cards[j] = t;
+                    }
+
+                    long fullBoard = board;
+                    for (int i = 2 * opponents; i < needed; i++)
+                    {
+                        fullBoard |= CardMask.of(cards[i]);
+                    }
+
+                    double share = rollout(cards, fullBoard);
+                    batchSum += share;
+                    batchSquares += share * share;
+                }
+                addBatch(batchSum, batchSquares);
+            }
+        }
+
+        void enumerate(HandRange[] ranges, double evaluations)
+        {
+            try
+            {
+                double[] equity = exact.calculate(hole, board, ranges, cancelled);
+                double secs = (System.nanoTime() - startTime) / 1e9;
+                finished = true;
+                publish(new Result(equity[0], 0, (long)evaluations, secs > 0 ? evaluations / secs : 0, opponents, true));
+            }
+            catch(CancellationException e)
+            {
+                /* A newer calculation has taken over */
+            }
+        }
+
+        /**
+         * Plays out one deal
+         * @return Our share of the pot
+         */
+        private double rollout(int[] cards, long fullBoard)
+        {
+            int ours = HandEvaluator.evaluate(hole | fullBoard);
+            int tied = 0;
+            for (int o = 0; o < opponents; o++)
+            {
+                int theirs = HandEvaluator.evaluate(CardMask.of(cards[2*o]) | CardMask.of(cards[2*o + 1]) | fullBoard);
+                if (theirs > ours)
+                {
+                    return 0;
+                }
+                if (theirs == ours)
+                {
+                    tied++;
+                }
+            }
+            return 1.0 / (tied + 1);
+        }
+
+        private void addBatch(double batchSum, double batchSquares)
+        {
+            Result r;
+            synchronized (this)
+            {
+                if (cancelled.get() || finished)
+                {
+                    return;
+                }
+                samples += BATCH_SIZE;
+                sum += batchSum;
+                sumSquares += batchSquares;
+
+                double halfWidth = halfWidth();
+                if (samples >= maxSamples || (samples >= MIN_SAMPLES && halfWidth <= targetHalfWidth))
+                {
+                    finished = true;
+                }
+                r = snapshot(halfWidth);
+            }
+
+            long now = System.nanoTime();
+            long last = lastPublish.get();
+            if (r.done || (now - last >= PUBLISH_INTERVAL_NANOS && lastPublish.compareAndSet(last, now)))
+            {
+                publish(r);
+            }
+        }
+
+        private double halfWidth()
+        {
+            double mean = sum / samples;
+            double variance = Math.max(0, sumSquares / samples - mean * mean);
+            return Z_95 * Math.sqrt(variance / samples);
+        }
+
+        private Result snapshot(double halfWidth)
+        {
+            double secs = (System.nanoTime() - startTime) / 1e9;
+            return new Result(sum / samples, halfWidth, samples, secs > 0 ? samples / secs : 0, opponents, finished);
+        }
+
+        private void publish(final Result r)
+        {
+            if (r.done && r.samples > 0)
+            {
+                cache.put(key, EquityCache.value(r.equity, r.halfWidth));
+            }
+
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run() {
+                    /* A new card or round may have come in since */
+                    if (!cancelled.get())
+                    {
+                        listener.equityUpdated(r);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import java.util.SplittableRandom;
+
+/**
+ * A simple {@link Strategy} that plays by pot odds.
+ * <p>
+ * It estimates its equity against random hands by Monte Carlo rollouts, stopping after {@link #MAX_SAMPLES} or once
+ * most of its time budget is used, whichever comes first. It bets when its equity is well above an even share of
+ * the pot, calls when the equity is worth the price, and otherwise checks or folds.
+ *
+ * @author Jeremy Collette
+ */
+public class EquityStrategy implements Strategy {
+
+    /** Most rollouts per decision */
+    public static final int MAX_SAMPLES = 20000;
+
+    private static final int BATCH_SIZE = 256;
+
+    /** How far above an even share of the pot our equity must be to bet */
+    private final double aggression;
+
+    public EquityStrategy()
+    {
+        this(1.5);
+    }
+
+    /**
+     * Creates the strategy
+     * @param aggression Bet when our equity is this many times an even share of the pot
+     */
+    public EquityStrategy(double aggression)
+    {
+        this.aggression = aggression;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "EquityStrategy";
+    }
+
+    @Override
+    public ClientCommand decide(TableView table)
+    {
+        int opponents = Math.max(1, table.opponents());
+        double equity = equity(table, opponents);
+        int toCall = table.toCall();
+        int stack = table.stacks[table.seat];
+
+        if (equity * (opponents + 1) >= aggression && stack > toCall)
+        {
+            /* Half the pot on top of the call, but never less than the minimum and never more than we have */
+            int total = Math.max(table.minTotalBet, table.currentBet + (table.pot + toCall) / 2);
+            return new ClientCommand.ClientBetCommand(Math.min(total, table.onTable[table.seat] + stack));
+        }
+        if (toCall == 0)
+        {
+            return new ClientCommand.ClientCheckCommand();
+        }
+        double potOdds = (double)Math.min(toCall, stack) / (table.pot + Math.min(toCall, stack));
+        return equity >= potOdds ? new ClientCommand.ClientCallCommand() : new ClientCommand.ClientFoldCommand();
+    }
+
+    /**
+     * Estimates our share of the pot against random hands, within most of the time left
+     * @param table The table
+     * @param opponents Number of opponents
+     * @return The equity (0-1)
+     */
+    private double equity(TableView table, int opponents)
+    {
+        long dead = table.hole | table.board;
+        int[] cards = new int[CardMask.count(CardMask.FULL_DECK & ~dead)];
+        int n = 0;
+        for (long m = CardMask.FULL_DECK & ~dead; m != 0; m &= m - 1)
+        {
+            cards[n++] = CardMask.lowest(m);
+        }
+        int missing = 5 - CardMask.count(table.board);
+        int needed = 2 * opponents + missing;
+        if (CardMask.count(table.hole) < 2 || needed > cards.length)
+        {
+            return 0;
+        }
+
+        /* Leave a fifth of the budget for sending the answer */
+        long stopAt = System.nanoTime() + table.timeLeft() * 4 / 5;
+        SplittableRandom rnd = new SplittableRandom();
+        double sum = 0;
+        int samples = 0;
+        while (samples < MAX_SAMPLES && (samples == 0 || System.nanoTime() < stopAt))
+        {
+            for (int s = 0; s < BATCH_SIZE; s++)
+            {
+                for (int i = 0; i < needed; i++)
+                {
+                    int j = i + rnd.nextInt(cards.length - i);
+                    int t = cards[i]; cards[i] = cards[j]; cards[j] = t;
+                }
+                long board = table.board;
+                for (int i = 2 * opponents; i < needed; i++)
+                {
+                    board |= CardMask.of(cards[i]);
+                }
+
+                int ours = HandEvaluator.evaluate(table.hole | board);
+                int tied = 0;
+                boolean lost = false;
+                for (int o = 0; o < opponents && !lost; o++)
+                {
+                    int theirs = HandEvaluator.evaluate(CardMask.of(cards[2*o]) | CardMask.of(cards[2*o + 1]) | board);
+                    lost = theirs > ours;
+                    tied += theirs == ours ? 1 : 0;
+                }
+                sum += lost ? 0 : 1.0 / (tied + 1);
+            }
+            samples += BATCH_SIZE;
+        }
+        return sum / samples;
+    }
+}
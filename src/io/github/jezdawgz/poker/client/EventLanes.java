@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.ArrayDeque;
+
+/**
+ * A queue with two priority lanes: one for game events and one for cosmetic ones such as chat.
+ * <p>
+ * Game events come out strictly in the order they went in, and always before any cosmetic item that is still
+ * waiting, so a burst of chat can't hold up the turn that arrived behind it. Cosmetic items keep their order
+ * among themselves. The cosmetic lane is bounded: once it is full the oldest cosmetic item is dropped to make
+ * room, and the drops are counted so they can be summarised instead of shown one by one.
+ * <p>
+ * The game lane can be bounded too, but never drops or merges anything: every game event matters to someone
+ * downstream. Past its limit nothing more is taken at all, and {@link #add(Object, boolean)} says so, so whoever is feeding the lanes can give up rather than fall further behind.
+ * <p>
+ * Both lanes share one lock. There is one producer and one consumer on each side of a table, so it is never
+ * contended for long.
+ *
+ * @param <T> What is queued
+ * @author Jeremy Collette
+ */
+public class EventLanes<T> {
+
+    /** Default most cosmetic items kept waiting */
+    public static final int DEFAULT_COSMETIC_CAPACITY = 256;
+
+    private final ArrayDeque<T> game = new ArrayDeque<>();
+    private final ArrayDeque<T> cosmetic = new ArrayDeque<>();
+    private final int cosmeticCapacity;
+    private final int gameCapacity;
+    private int coalesced;
+    private int highWater;
+    private boolean waiting;
+
+    public EventLanes()
+    {
+        this(DEFAULT_COSMETIC_CAPACITY);
+    }
+
+    public EventLanes(int cosmeticCapacity)
+    {
+        this(cosmeticCapacity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates the lanes
+     * @param cosmeticCapacity Most cosmetic items kept waiting before the oldest are dropped
+     * @param gameCapacity Most game items kept waiting before {@link #add(Object, boolean)} refuses more
+     */
+    public EventLanes(int cosmeticCapacity, int gameCapacity)
+    {
+        this.cosmeticCapacity = Math.max(1, cosmeticCapacity);
+        this.gameCapacity = Math.max(1, gameCapacity);
+    }
+
+    /**
+     * Tells whether an event is only cosmetic, and can wait behind (or be dropped in favour of) game events
+     * @param e The event
+     * @return True for chat, false for everything that changes the state of the game
+     */
+    public static boolean isCosmetic(Event e)
+    {
+        return NewMessageEvent.class.isInstance(e);
+    }
+
+    /**
+     * Adds an item to the back of its lane
+     * @param item The item
+     * @param isCosmetic True to add it to the cosmetic lane, false for the game lane
+     * @return False if the game lane is full and the item wasn't added
+     */
+    public synchronized boolean add(T item, boolean isCosmetic)
+    {
+        if (isCosmetic)
+        {
+            if (cosmetic.size() >= cosmeticCapacity)
+            {
+                cosmetic.poll();
+                coalesced++;
+            }
+            cosmetic.add(item);
+        }
+        else
+        {
+            if (game.size() >= gameCapacity)
+            {
+                return false;
+            }
+            game.add(item);
+        }
+        highWater = Math.max(highWater, game.size() + cosmetic.size());
+        if (waiting)
+        {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next item, game events first
+     * @return The item, or null if both lanes are empty
+     */
+    public synchronized T poll()
+    {
+        T item = game.poll();
+        return item != null ? item : cosmetic.poll();
+    }
+
+    /**
+     * Takes the next game event, leaving cosmetic items where they are
+     * @return The item, or null if the game lane is empty
+     */
+    public synchronized T pollGame()
+    {
+        return game.poll();
+    }
+
+    /**
+     * Takes the next item, game events first, waiting for one if both lanes are empty
+     * @param timeoutMillis Longest to wait
+     * @return The item, or null if none arrived in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized T take(long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        T item;
+        while ((item = poll()) == null)
+        {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+            {
+                return null;
+            }
+            waiting = true;
+            try
+            {
+                wait(left);
+            }
+            finally
+            {
+                waiting = false;
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Tells whether any game events are waiting
+     * @return True if the game lane isn't empty
+     */
+    public synchronized boolean hasGame()
+    {
+        return !game.isEmpty();
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return game.isEmpty() && cosmetic.isEmpty();
+    }
+
+    public synchronized int size()
+    {
+        return game.size() + cosmetic.size();
+    }
+
+    /**
+     * Gets the most items that have been waiting at once
+     * @return The high water mark
+     */
+    public synchronized int getHighWater()
+    {
+        return highWater;
+    }
+
+    /**
+     * Gets how many cosmetic items have been dropped since this was last called
+     * @return The number dropped
+     */
+    public synchronized int takeCoalesced()
+    {
+        int n = coalesced;
+        coalesced = 0;
+        return n;
+    }
+}
@@ -0,0 +1,756 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A memory-mapped ring of every event the client reads and every command it sends, for other processes to follow.
+ * <p>
+ * The client is the only writer. Any number of readers, in this process or others, can map the same file and
+ * follow along, and come and go as they like: the writer never looks at them, so a reader that falls behind is
+ * simply lapped. It finds out from the sequence numbers, which are counted as lost, and carries on from the
+ * newest record. It is only written when the "pokerclient.ring.file" system property names the file;
+ * "pokerclient.ring.size" sets the size of the ring in bytes (4MB by default, rounded up to a power of two).
+ * <p>
+ * Everything is little-endian. The file starts with a {@value #HEADER_SIZE} byte header:
+ * <pre>
+ *   0  int   magic, 0x504B5247 ("PKRG")
+ *   4  int   version, 1
+ *   8  int   capacity of the ring in bytes, a power of two
+ *  12  int   header size - the ring starts here
+ *  16  long  epoch: when the writer opened the file, in milliseconds. A new writer starts the ring again.
+ *  64  long  tail intent: where the tail will be once the record being written is finished
+ * 128  long  tail: bytes ever written, the end of the last finished record
+ * </pre>
+ * A record sits at (position mod capacity) in the ring, always starts on an 8 byte boundary and never wraps
+ * round the end - a padding record fills the rest of the ring instead. Each record starts with a
+ * {@value #RECORD_HEADER} byte header:
+ * <pre>
+ *   0  int   length of the record in bytes, header included. The next record starts at the next 8 byte boundary.
+ *   4  short type
+ *   6  short flags: bit 0 is set for something we sent to the server, clear for something it sent us
+ *   8  int   stream: which table it belongs to
+ *  12  int   unused
+ *  16  long  sequence number, counting up from 0 with no gaps
+ *  24  long  time written, in milliseconds
+ * </pre>
+ * The rest is the payload, which depends on the type. Ints are 4 bytes; strings are an int byte length followed
+ * by that many bytes of UTF-8; cards are ints from {@link CardMask#index(int, int)}: suit * 16 + rank, with suits
+ * clubs, diamonds, hearts, spades from 0 and ranks two (0) to ace (12). Seats are the server's player indexes.
+ * <pre>
+ *   0  padding            (just the length and type)
+ *   1  stream opened      name
+ *   2  snapshot           only sent by {@link ObserverRelay} - see there
+ *  16  new game           our seat, starting stack, small blind, big blind, players, then each player's name
+ *  17  new hand           dealer's seat
+ *  18  hole card          card
+ *  19  board card         card
+ *  20  turn               seat
+ *  21  fold               seat
+ *  22  check              seat
+ *  23  chips on table     seat, total on table, chips remaining, pot
+ *  24  bet                seat, total on table, chips remaining, pot, minimum total to raise to
+ *  25  blinds             seat, total on table, chips remaining, pot
+ *  26  wins chips         seat, amount won, pot remaining
+ *  27  disconnect         seat
+ *  28  game over          winner's seat
+ *  29  message            text
+ *  31  other event        class name
+ *  32  fold command
+ *  33  check command
+ *  34  call command
+ *  35  bet command        total to have on the table, or {@value #UNKNOWN_AMOUNT} if it couldn't be read
+ * </pre>
+ * To write a record the writer moves the tail intent past it, writes it, then moves the tail. A reader reads the
+ * tail, copies the record, then reads the tail intent: if that has moved more than a ring past the record, the
+ * copy may be torn and is thrown away. {@link Reader} does all of this.
+ *
+ * @author Jeremy Collette
+ */
+public class EventRing {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(EventRing.class);
+
+    public static final int MAGIC = 0x504B5247;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 256;
+    public static final int RECORD_HEADER = 32;
+    public static final int DEFAULT_CAPACITY = 1 << 22;
+    public static final int MIN_CAPACITY = 1 << 16;
+
+    /** Longest string written, in bytes. Longer ones are cut short. */
+    public static final int MAX_STRING = 1024;
+
+    /* Header fields */
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int HEADER_SIZE_OFFSET = 12;
+    private static final int EPOCH_OFFSET = 16;
+    private static final int TAIL_INTENT_OFFSET = 64;
+    private static final int TAIL_OFFSET = 128;
+
+    /* Record types */
+    public static final int PADDING = 0;
+    public static final int STREAM = 1;
+    public static final int SNAPSHOT = 2;
+    public static final int NEW_GAME = 16;
+    public static final int NEW_HAND = 17;
+    public static final int HOLE_CARD = 18;
+    public static final int BOARD_CARD = 19;
+    public static final int TURN = 20;
+    public static final int FOLD = 21;
+    public static final int CHECK = 22;
+    public static final int CHIPS_ON_TABLE = 23;
+    public static final int BET = 24;
+    public static final int BLINDS = 25;
+    public static final int WINS_CHIPS = 26;
+    public static final int DISCONNECT = 27;
+    public static final int GAME_OVER = 28;
+    public static final int MESSAGE = 29;
+    public static final int OTHER_EVENT = 31;
+    public static final int FOLD_COMMAND = 32;
+    public static final int CHECK_COMMAND = 33;
+    public static final int CALL_COMMAND = 34;
+    public static final int BET_COMMAND = 35;
+
+    /** Written as a bet command's total when the command's total can't be read */
+    public static final int UNKNOWN_AMOUNT = -1;
+
+    /** Flag set on records of things we sent */
+    public static final int SENT = 1;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static EventRing shared;
+    private static boolean sharedOpened;
+
+    /* Set after the first failure is logged, so it's only logged once */
+    private static volatile boolean encodeFailed, betAmountFailed;
+
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer bulk;
+    private final int capacity;
+    private final LongAdder published = Metrics.get().counter(Metrics.RING_RECORDS);
+
+    /* Guarded by this */
+    private final ByteBuffer scratch;
+    private long tail;
+    private long sequence;
+    private int streams;
+
+    /**
+     * Creates a ring, replacing whatever the file held
+     * @param f The file
+     * @param capacity Size of the ring in bytes, rounded up to a power of two
+     * @throws IOException If the file can't be created or mapped
+     */
+    public EventRing(File f, int capacity) throws IOException
+    {
+        this.capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, capacity - 1) << 1);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            raf.setLength(HEADER_SIZE + this.capacity);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + this.capacity);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        bulk = buffer.duplicate();
+        scratch = ByteBuffer.allocate(this.capacity / 2).order(ByteOrder.LITTLE_ENDIAN);
+
+        /* The magic number goes in last, so a reader never sees a half-written header */
+        buffer.putInt(0, 0);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, this.capacity);
+        buffer.putInt(HEADER_SIZE_OFFSET, HEADER_SIZE);
+        buffer.putLong(EPOCH_OFFSET, System.currentTimeMillis());
+        buffer.putLong(TAIL_INTENT_OFFSET, 0);
+        LONGS.setRelease((ByteBuffer)buffer, TAIL_OFFSET, 0L);
+        buffer.putInt(0, MAGIC);
+        buffer.force();
+    }
+
+    /**
+     * Gets the ring named by the "pokerclient.ring.file" system property, opening it the first time
+     * @return The ring, or null if there isn't one or it couldn't be opened
+     */
+    public static synchronized EventRing getShared()
+    {
+        if (!sharedOpened)
+        {
+            sharedOpened = true;
+            String file = System.getProperty("pokerclient.ring.file");
+            if (file != null)
+            {
+                try
+                {
+                    shared = new EventRing(new File(file), Integer.getInteger("pokerclient.ring.size", DEFAULT_CAPACITY));
+                    LOG.info("Publishing events to "+file);
+                }
+                catch(IOException e)
+                {
+                    LOG.warn("Could not open event ring "+file, e);
+                }
+            }
+        }
+        return shared;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Starts a new stream of records, one for each table
+     * @param name The stream's name, such as the table's address
+     * @return The stream number to publish with
+     */
+    public synchronized int openStream(String name)
+    {
+        int stream = ++streams;
+        scratch.clear();
+        putString(scratch, name);
+        write(STREAM, 0, stream);
+        return stream;
+    }
+
+    /**
+     * Writes an event read from the server, or a command sent to it
+     * @param stream The stream from {@link #openStream(String)}
+     * @param e The event or command
+     * @param sent True if we sent it, false if the server did
+     */
+    public synchronized void publish(int stream, Event e, boolean sent)
+    {
+        scratch.clear();
+        write(encode(e, scratch), sent ? SENT : 0, stream);
+    }
+
+    /**
+     * Writes an event's payload in the layout described above. If the payload can't be read from the event it is
+     * written as an other event rather than throwing.
+     * @param e The event or command
+     * @param scratch Little-endian buffer to write the payload to
+     * @return The record type
+     */
+    static int encode(Event e, ByteBuffer scratch)
+    {
+        /* Recording an event must never get in the way of handling or sending it */
+        try
+        {
+            return encodePayload(e, scratch);
+        }
+        catch(RuntimeException ex)
+        {
+            if (!encodeFailed)
+            {
+                encodeFailed = true;
+                LOG.warn("Could not encode "+e.getClass().getName()+" - recording it as an other event", ex);
+            }
+            scratch.clear();
+            putString(scratch, e.getClass().getName());
+            return OTHER_EVENT;
+        }
+    }
+
+    private static int encodePayload(Event e, ByteBuffer scratch)
+    {
+        if (ClientCommand.ClientFoldCommand.class.isInstance(e))
+        {
+            return FOLD_COMMAND;
+        }
+        if (ClientCommand.ClientCheckCommand.class.isInstance(e))
+        {
+            return CHECK_COMMAND;
+        }
+        if (ClientCommand.ClientCallCommand.class.isInstance(e))
+        {
+            return CALL_COMMAND;
+        }
+        if (ClientCommand.ClientBetCommand.class.isInstance(e))
+        {
+            int amount;
+            try
+            {
+                amount = ClientCommands.betAmount((ClientCommand)e);
+            }
+            catch(RuntimeException ex)
+            {
+                if (!betAmountFailed)
+                {
+                    betAmountFailed = true;
+                    LOG.warn("Could not read bet totals - recording them as "+UNKNOWN_AMOUNT, ex);
+                }
+                amount = UNKNOWN_AMOUNT;
+            }
+            scratch.putInt(amount);
+            return BET_COMMAND;
+        }
+        if (NewGameEvent.class.isInstance(e))
+        {
+            NewGameEvent evt = (NewGameEvent)e;
+            scratch.putInt(evt.clientIndex).putInt(evt.startingStack).putInt(evt.smallBlind).putInt(evt.bigBlind);
+            scratch.putInt(evt.playerNames.length);
+            for (String name : evt.playerNames)
+            {
+                putString(scratch, name);
+            }
+            return NEW_GAME;
+        }
+        if (NewRoundEvent.class.isInstance(e))
+        {
+            scratch.putInt(((NewRoundEvent)e).dealerIndex);
+            return NEW_HAND;
+        }
+        if (NewPlayerCardEvent.class.isInstance(e))
+        {
+            scratch.putInt(CardMask.indexOf(((NewPlayerCardEvent)e).newCard));
+            return HOLE_CARD;
+        }
+        if (NewCommunityCardEvent.class.isInstance(e))
+        {
+            scratch.putInt(CardMask.indexOf(((NewCommunityCardEvent)e).newCard));
+            return BOARD_CARD;
+        }
+        if (PlayerTurnEvent.class.isInstance(e))
+        {
+            scratch.putInt(((PlayerTurnEvent)e).playerIndex);
+            return TURN;
+        }
+        if (PlayerFoldEvent.class.isInstance(e))
+        {
+            scratch.putInt(((PlayerFoldEvent)e).playerIndex);
+            return FOLD;
+        }
+        if (PlayerCheckEvent.class.isInstance(e))
+        {
+            scratch.putInt(((PlayerCheckEvent)e).playerIndex);
+            return CHECK;
+        }
+        if (PlayerChipsOnTableEvent.class.isInstance(e))
+        {
+            PlayerChipsOnTableEvent evt = (PlayerChipsOnTableEvent)e;
+            scratch.putInt(evt.playerIndex).putInt(evt.amount).putInt(evt.chipsRemaining).putInt(evt.totalPot);
+            if (PlayerBetEvent.class.isInstance(e))
+            {
+                scratch.putInt(((PlayerBetEvent)e).minTotalBet);
+                return BET;
+            }
+            return PlayerPostBlindsEvent.class.isInstance(e) ? BLINDS : CHIPS_ON_TABLE;
+        }
+        if (PlayerWinsChipsEvent.class.isInstance(e))
+        {
+            PlayerWinsChipsEvent evt = (PlayerWinsChipsEvent)e;
+            scratch.putInt(evt.playerIndex).putInt(evt.amountWon).putInt(evt.remainingPot);
+            return WINS_CHIPS;
+        }
+        if (PlayerDisconnectEvent.class.isInstance(e))
+        {
+            scratch.putInt(((PlayerDisconnectEvent)e).playerIndex);
+            return DISCONNECT;
+        }
+        if (GameOverEvent.class.isInstance(e))
+        {
+            scratch.putInt(((GameOverEvent)e).winnerIndex);
+            return GAME_OVER;
+        }
+        if (NewMessageEvent.class.isInstance(e))
+        {
+            putString(scratch, ((NewMessageEvent)e).message);
+            return MESSAGE;
+        }
+        putString(scratch, e.getClass().getName());
+        return OTHER_EVENT;
+    }
+
+    /**
+     * Writes a string as an int byte length and UTF-8, cut short at {@value #MAX_STRING} bytes
+     * @param scratch Little-endian buffer to write to
+     * @param s The string
+     */
+    static void putString(ByteBuffer scratch, String s)
+    {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(bytes.length, MAX_STRING);
+        /* Don't cut a character in half */
+        while (n < bytes.length && n > 0 && (bytes[n] & 0xC0) == 0x80)
+        {
+            n--;
+        }
+        scratch.putInt(n).put(bytes, 0, n);
+    }
+
+    /**
+     * Copies the scratch buffer into the ring as one record
+     */
+    private void write(int type, int flags, int stream)
+    {
+        int length = RECORD_HEADER + scratch.position();
+        int size = align(length);
+        int at = (int)(tail & (capacity - 1));
+        int padding = capacity - at < size ? capacity - at : 0;
+
+        /* Readers must see the tail intent move before any of the bytes it covers change */
+        LONGS.setOpaque((ByteBuffer)buffer, TAIL_INTENT_OFFSET, tail + padding + size);
+        VarHandle.releaseFence();
+
+        if (padding > 0)
+        {
+            buffer.putInt(HEADER_SIZE + at, padding);
+            buffer.putShort(HEADER_SIZE + at + 4, (short)PADDING);
+            at = 0;
+        }
+        int p = HEADER_SIZE + at;
+        buffer.putInt(p, length);
+        buffer.putShort(p + 4, (short)type);
+        buffer.putShort(p + 6, (short)flags);
+        buffer.putInt(p + 8, stream);
+        buffer.putInt(p + 12, 0);
+        buffer.putLong(p + 16, sequence++);
+        buffer.putLong(p + 24, System.currentTimeMillis());
+        bulk.position(p + RECORD_HEADER);
+        bulk.put(scratch.array(), 0, scratch.position());
+
+        tail += padding + size;
+        LONGS.setRelease((ByteBuffer)buffer, TAIL_OFFSET, tail);
+        published.increment();
+    }
+
+    private static int align(int length)
+    {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * Reads a string from a payload
+     * @param b The payload, positioned at the string
+     * @return The string
+     */
+    public static String getString(ByteBuffer b)
+    {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Describes a record
+     * @param type The record type
+     * @param p The payload, positioned at its start
+     * @return One line of text
+     */
+    public static String describe(int type, ByteBuffer p)
+    {
+        StringBuilder sb = new StringBuilder();
+        switch (type)
+        {
+            case STREAM:         return sb.append("stream ").append(getString(p)).toString();
+            case NEW_GAME:
+                sb.append("new game: seat ").append(p.getInt()).append(", stack ").append(p.getInt());
+                sb.append(", blinds ").append(p.getInt()).append('/').append(p.getInt()).append(',');
+                for (int i = p.getInt(); i > 0; i--)
+                {
+                    sb.append(' ').append(getString(p));
+                }
+                return sb.toString();
+            case NEW_HAND:       return sb.append("new hand: dealer ").append(p.getInt()).toString();
+            case HOLE_CARD:      return sb.append("hole card ").append(CardMask.toString(CardMask.of(p.getInt()))).toString();
+            case BOARD_CARD:     return sb.append("board card ").append(CardMask.toString(CardMask.of(p.getInt()))).toString();
+            case TURN:           return sb.append("turn: seat ").append(p.getInt()).toString();
+            case FOLD:           return sb.append("fold: seat ").append(p.getInt()).toString();
+            case CHECK:          return sb.append("check: seat ").append(p.getInt()).toString();
+            case CHIPS_ON_TABLE:
+            case BET:
+            case BLINDS:
+                sb.append(type == BET ? "bet" : type == BLINDS ? "blinds" : "chips on table");
+                sb.append(": seat ").append(p.getInt()).append(", total ").append(p.getInt());
+                sb.append(", remaining ").append(p.getInt()).append(", pot ").append(p.getInt());
+                return type == BET ? sb.append(", min raise to ").append(p.getInt()).toString() : sb.toString();
+            case WINS_CHIPS:
+                sb.append("wins: seat ").append(p.getInt()).append(", amount ").append(p.getInt());
+                return sb.append(", pot left ").append(p.getInt()).toString();
+            case DISCONNECT:     return sb.append("disconnect: seat ").append(p.getInt()).toString();
+            case GAME_OVER:      return sb.append("game over: winner ").append(p.getInt()).toString();
+            case MESSAGE:        return sb.append("message: ").append(getString(p)).toString();
+            case OTHER_EVENT:    return sb.append(getString(p)).toString();
+            case FOLD_COMMAND:   return sb.append("fold").toString();
+            case CHECK_COMMAND:  return sb.append("check").toString();
+            case CALL_COMMAND:   return sb.append("call").toString();
+            case BET_COMMAND:    return sb.append("bet ").append(p.getInt()).toString();
+            default:             return sb.append("type ").append(type).toString();
+        }
+    }
+
+    /**
+     * Follows a ring from another process, or this one. Each reader has its own position; the writer never waits
+     * for it.
+     */
+    public static class Reader implements Closeable
+    {
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer bulk;
+        private final int capacity;
+        private final Map<Integer, String> streamNames = new HashMap<>();
+        private long epoch;
+        private long position;
+        private long nextSequence = -1;
+        private long lost;
+        private byte[] record = new byte[256];
+        private ByteBuffer current;
+
+        /**
+         * Attaches to a ring, starting from the newest record
+         * @param f The ring's file
+         * @throws IOException If it isn't a ring or can't be mapped
+         */
+        public Reader(File f) throws IOException
+        {
+            raf = new RandomAccessFile(f, "r");
+            try
+            {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (raf.length() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                {
+                    throw new IOException(f+" is not an event ring");
+                }
+                bulk = buffer.duplicate();
+                capacity = buffer.getInt(CAPACITY_OFFSET);
+                if (buffer.getInt(HEADER_SIZE_OFFSET) != HEADER_SIZE || Integer.bitCount(capacity) != 1
+                        || raf.length() < HEADER_SIZE + (long)capacity)
+                {
+                    throw new IOException(f+" is not an event ring");
+                }
+            }
+            catch(IOException e)
+            {
+                raf.close();
+                throw e;
+            }
+            skipToEnd();
+        }
+
+        /**
+         * Skips everything written so far
+         */
+        public void skipToEnd()
+        {
+            epoch = buffer.getLong(EPOCH_OFFSET);
+            position = (long)LONGS.getAcquire((ByteBuffer)buffer, TAIL_OFFSET);
+            nextSequence = -1;
+        }
+
+        /**
+         * Moves on to the next record, if one has been written
+         * @return True if there is a record to look at, false if we are up to date
+         */
+        public boolean next()
+        {
+            while (true)
+            {
+                if (buffer.getLong(EPOCH_OFFSET) != epoch)
+                {
+                    /* A new writer has started the ring again */
+                    streamNames.clear();
+                    epoch = buffer.getLong(EPOCH_OFFSET);
+                    position = 0;
+                    nextSequence = 0;
+                }
+                long tail = (long)LONGS.getAcquire((ByteBuffer)buffer, TAIL_OFFSET);
+                if (position == tail)
+                {
+                    return false;
+                }
+                if (tail - position > capacity || tail < position)
+                {
+                    /* Lapped - the records we wanted are gone */
+                    position = tail;
+                    continue;
+                }
+
+                int at = (int)(position & (capacity - 1));
+                int length = buffer.getInt(HEADER_SIZE + at);
+                int type = buffer.getShort(HEADER_SIZE + at + 4);
+                boolean valid = type == PADDING ? length == capacity - at
+                        : length >= RECORD_HEADER && length <= capacity - at;
+                if (valid && type != PADDING)
+                {
+                    if (record.length < length)
+                    {
+                        record = new byte[Integer.highestOneBit(length) << 1];
+                    }
+                    bulk.position(HEADER_SIZE + at);
+                    bulk.get(record, 0, length);
+                }
+
+                /* Whatever we just copied only counts if the writer hasn't started on that part of the ring since */
+                VarHandle.acquireFence();
+                long intent = (long)LONGS.getVolatile((ByteBuffer)buffer, TAIL_INTENT_OFFSET);
+                if (intent - position > capacity)
+                {
+                    position = (long)LONGS.getAcquire((ByteBuffer)buffer, TAIL_OFFSET);
+                    continue;
+                }
+                if (!valid)
+                {
+                    throw new IllegalStateException("Corrupt record at "+position);
+                }
+
+                position += type == PADDING ? length : align(length);
+                if (type == PADDING)
+                {
+                    continue;
+                }
+
+                current = ByteBuffer.wrap(record, 0, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+                long sequence = current.getLong(16);
+                if (nextSequence >= 0 && sequence > nextSequence)
+                {
+                    lost += sequence - nextSequence;
+                }
+                nextSequence = sequence + 1;
+                if (type == STREAM)
+                {
+                    streamNames.put(getStream(), getString(getPayload()));
+                }
+                return true;
+            }
+        }
+
+        public int getType()
+        {
+            return current.getShort(4);
+        }
+
+        public boolean isSent()
+        {
+            return (current.getShort(6) & SENT) != 0;
+        }
+
+        public int getStream()
+        {
+            return current.getInt(8);
+        }
+
+        public long getSequence()
+        {
+            return current.getLong(16);
+        }
+
+        public long getTime()
+        {
+            return current.getLong(24);
+        }
+
+        /**
+         * Gets the current record's payload
+         * @return A little-endian buffer over the payload, positioned at its start. Only valid until the next call
+         * to {@link #next()}.
+         */
+        public ByteBuffer getPayload()
+        {
+            ByteBuffer b = current.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            b.position(RECORD_HEADER);
+            return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Gets a stream's name, if its record has been read since attaching
+         * @param stream The stream number
+         * @return The name, or null if it isn't known
+         */
+        public String getStreamName(int stream)
+        {
+            return streamNames.get(stream);
+        }
+
+        /**
+         * Gets how many records were overwritten before we could read them
+         * @return Records lost since attaching
+         */
+        public long getLost()
+        {
+            return lost;
+        }
+
+        /**
+         * Describes the current record
+         * @return One line of text
+         */
+        @Override
+        public String toString()
+        {
+            return getSequence()+" "+getStream()+(isSent() ? " > " : " < ")+describe(getType(), getPayload());
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Prints every record written to a ring as it arrives
+     * @param args The ring's file
+     * @throws Exception If the ring can't be read
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: EventRing <ring file>");
+            return;
+        }
+        try (Reader r = new Reader(new File(args[0])))
+        {
+            long lost = 0;
+            while (true)
+            {
+                if (!r.next())
+                {
+                    Thread.sleep(1);
+                    continue;
+                }
+                if (r.getLost() != lost)
+                {
+                    System.out.println("... lost "+(r.getLost() - lost)+" records");
+                    lost = r.getLost();
+                }
+                System.out.println(r);
+            }
+        }
+    }
+}
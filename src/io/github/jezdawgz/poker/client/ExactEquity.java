@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Works out equity exactly by enumerating every deal of the opponents' {@link HandRange}s and every
+ * completion of the board. Meant for the flop, turn and river, where there are few enough runouts
+ * that sampling only adds noise.
+ * <p>
+ * The opponents' deals are split across a {@link ForkJoinPool}. For each deal the board completions are
+ * evaluated in batches into one flat rank array per player and the pot shares are then worked out with
+ * a second branch-light pass over those arrays, which keeps the inner loops simple enough for the JIT to
+ * unroll and vectorise.
+ *
+ * @author Jeremy Collette
+ */
+public class ExactEquity {
+
+    /** How many board completions are evaluated per batch */
+    private static final int BATCH_SIZE = 256;
+
+    /** How many opponent deals a single fork join task handles before it splits */
+    private static final int DEALS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+
+    public ExactEquity()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ExactEquity(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Estimates how many hand evaluations {@link #calculate} would do, without doing any of them
+     * @param hole Our hole cards
+     * @param board Community cards dealt so far
+     * @param ranges Each opponent's range
+     * @return An upper bound on the number of hand evaluations
+     */
+    public static double countEvaluations(long hole, long board, HandRange[] ranges)
+    {
+        long dead = hole | board;
+        double deals = 1;
+        for (HandRange r : ranges)
+        {
+            deals *= r.getCombos(dead).length;
+        }
+        int remaining = CardMask.NUM_CARDS - CardMask.count(dead) - 2 * ranges.length;
+        return deals * choose(remaining, 5 - CardMask.count(board)) * (ranges.length + 1);
+    }
+
+    /**
+     * Works out every player's equity. Blocks until done, so don't call it from the Event Dispatch Thread.
+     * @param hole Our hole cards
+     * @param board Community cards dealt so far
+     * @param ranges Each opponent's range
+     * @param cancelled Checked between batches - set it to give up early (may be null)
+     * @return Equity of each player (0-1), ours first and then each opponent's in order
+     * @throws CancellationException If cancelled was set before the calculation finished
+     */
+    public double[] calculate(long hole, long board, HandRange[] ranges, AtomicBoolean cancelled)
+    {
+        long dead = hole | board;
+        long[][] combos = new long[ranges.length][];
+        for (int i = 0; i < ranges.length; i++)
+        {
+            combos[i] = ranges[i].getCombos(dead);
+        }
+
+        /* Every way of dealing the opponents' cards without collisions */
+        ArrayList<long[]> deals = new ArrayList<>();
+        collectDeals(combos, 0, dead, new long[ranges.length], deals);
+        if (deals.isEmpty())
+        {
+            return new double[ranges.length + 1];
+        }
+
+        long[] completions = completions(CardMask.FULL_DECK & ~dead, 5 - CardMask.count(board));
+        double[] shares = pool.invoke(new DealTask(hole, board, deals.toArray(new long[0][]), 0, deals.size(),
+                completions, cancelled));
+
+        if (cancelled != null && cancelled.get())
+        {
+            throw new CancellationException();
+        }
+
+        /* The last slot holds how many runouts were played */
+        double total = shares[shares.length - 1];
+        double[] equity = new double[ranges.length + 1];
+        for (int p = 0; p < equity.length; p++)
+        {
+            equity[p] = total > 0 ? shares[p] / total : 0;
+        }
+        return equity;
+    }
+
+    private static void collectDeals(long[][] combos, int depth, long used, long[] deal, ArrayList<long[]> deals)
+    {
+        if (depth == combos.length)
+        {
+            deals.add(deal.clone());
+            return;
+        }
+        for (long c : combos[depth])
+        {
+            if ((c & used) == 0)
+            {
+                deal[depth] = c;
+                collectDeals(combos, depth + 1, used | c, deal, deals);
+            }
+        }
+    }
+
+    /**
+     * Gets every way of choosing k cards from the given cards
+     */
+    static long[] completions(long cards, int k)
+    {
+        int n = CardMask.count(cards);
+        int[] idx = new int[n];
+        int i = 0;
+        for (long m = cards; m != 0; m &= m - 1)
+        {
+            idx[i++] = CardMask.lowest(m);
+        }
+
+        long[] out = new long[(int)choose(n, k)];
+        int[] pick = new int[k];
+        for (int j = 0; j < k; j++)
+        {
+            pick[j] = j;
+        }
+
+        int o = 0;
+        while (true)
+        {
+            long m = 0;
+            for (int j = 0; j < k; j++)
+            {
+                m |= CardMask.of(idx[pick[j]]);
+            }
+            out[o++] = m;
+
+            int j = k - 1;
+            while (j >= 0 && pick[j] == n - k + j)
+            {
+                j--;
+            }
+            if (j < 0)
+            {
+                break;
+            }
+            pick[j]++;
+            for (int l = j + 1; l < k; l++)
+            {
+                pick[l] = pick[l-1] + 1;
+            }
+        }
+        return out;
+    }
+
+    private static double choose(int n, int k)
+    {
+        if (k < 0 || k > n)
+        {
+            return 0;
+        }
+        double c = 1;
+        for (int i = 0; i < k; i++)
+        {
+            c = c * (n - i) / (i + 1);
+        }
+        return Math.rint(c);
+    }
+
+    /**
+     * Enumerates the board for a slice of the opponents' deals
+     */
+    private static class DealTask extends RecursiveTask<double[]>
+    {
+        private final long hole;
+        private final long board;
+        private final long[][] deals;
+        private final int from;
+        private final int to;
+        private final long[] completions;
+        private final AtomicBoolean cancelled;
+
+        DealTask(long hole, long board, long[][] deals, int from, int to, long[] completions, AtomicBoolean cancelled)
+        {
+            this.hole = hole;
+            this.board = board;
+            this.deals = deals;
+            this.from = from;
+            this.to = to;
+            this.completions = completions;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected double[] compute()
+        {
+            if (to - from > DEALS_PER_TASK)
+            {
+                int mid = (from + to) >>> 1;
+                DealTask left = new DealTask(hole, board, deals, from, mid, completions, cancelled);
+                DealTask right = new DealTask(hole, board, deals, mid, to, completions, cancelled);
+                left.fork();
+                double[] r = right.compute();
+                double[] l = left.join();
+                for (int i = 0; i < r.length; i++)
+                {
+                    r[i] += l[i];
+                }
+                return r;
+            }
+            return enumerate(hole, board, deals, from, to, completions, cancelled);
+        }
+    }
+
+    /**
+     * Plays every board completion for each deal in [from, to)
+     * @return Each player's pot share, followed by the number of runouts
+     */
+    static double[] enumerate(long hole, long board, long[][] deals, int from, int to, long[] completions,
+            AtomicBoolean cancelled)
+    {
+        int players = (to > from ? deals[from].length : 0) + 1;
+        double[] shares = new double[players + 1];
+        long[] holes = new long[players];
+        holes[0] = hole;
+        long[] runouts = new long[BATCH_SIZE];
+        int[][] ranks = new int[players][BATCH_SIZE];
+        int[] best = new int[BATCH_SIZE];
+        int[] winners = new int[BATCH_SIZE];
+
+        for (int d = from; d < to; d++)
+        {
+            if (cancelled != null && cancelled.get())
+            {
+                break;
+            }
+
+            long used = 0;
+            for (int p = 1; p < players; p++)
+            {
+                holes[p] = deals[d][p-1];
+                used |= holes[p];
+            }
+
+            int c = 0;
+            while (c < completions.length)
+            {
+                /* Gather a batch of completions that don't clash with this deal */
+                int n = 0;
+                while (n < BATCH_SIZE && c < completions.length)
+                {
+                    long runout = completions[c++];
+                    if ((runout & used) == 0)
+                    {
+                        runouts[n++] = runout | board;
+                    }
+                }
+
+                /* One flat pass per player over the batch */
+                for (int p = 0; p < players; p++)
+                {
+                    int[] r = ranks[p];
+                    long h = holes[p];
+                    for (int i = 0; i < n; i++)
+                    {
+                        r[i] = HandEvaluator.evaluate(h | runouts[i]);
+                    }
+                }
+
+                Arrays.fill(best, 0, n, -1);
+                Arrays.fill(winners, 0, n, 0);
+                for (int p = 0; p < players; p++)
+                {
+                    int[] r = ranks[p];
+                    for (int i = 0; i < n; i++)
+                    {
+                        best[i] = Math.max(best[i], r[i]);
+                    }
+                }
+                for (int p = 0; p < players; p++)
+                {
+                    int[] r = ranks[p];
+                    for (int i = 0; i < n; i++)
+                    {
+                        winners[i] += r[i] == best[i] ? 1 : 0;
+                    }
+                }
+                for (int p = 0; p < players; p++)
+                {
+                    int[] r = ranks[p];
+                    double share = 0;
+                    for (int i = 0; i < n; i++)
+                    {
+                        if (r[i] == best[i])
+                        {
+                            share += 1.0 / winners[i];
+                        }
+                    }
+                    shares[p] += share;
+                }
+                shares[players] += n;
+            }
+        }
+        return shares;
+    }
+}
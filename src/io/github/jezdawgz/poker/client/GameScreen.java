@@ -22,12 +22,19 @@ import io.github.jezdawgz.poker.server.Card;
 import io.github.jezdawgz.poker.server.Event;
 import io.github.jezdawgz.poker.server.Event.*;
 import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.AbstractAction;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
 import javax.swing.JOptionPane;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.text.DefaultCaret;
@@ -38,13 +45,16 @@ import javax.swing.text.DefaultCaret;
  * @author Jeremy Collette
  */
 public class GameScreen extends javax.swing.JFrame {
+    
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(GameScreen.class);
 
     private final PlayerPanel[] PLAYER_PANELS;
     private final JButton[] PLAYER_BUTTONS;
     private final Component[] RAISE_COMPONENTS;
+    private final JCheckBox[] PRE_ACTION_BOXES;
     private int playerIndex;
     private int toActIndex;
-    private final LinkedList<Event> eventsToSend;
+    private final EventLanes<Event> eventsToSend;
     private static final SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");
     
     private int ourChips;    
@@ -54,6 +64,24 @@ public class GameScreen extends javax.swing.JFrame {
     private int smallBlind;
     private int bigBlind;
     private int pot;
+    private int numPlayers;
+    private final EquityCalculator equity;
+    private final SidePotTracker sidePots;
+    private final IcmCalculator icm;
+    private final StatsTracker stats;
+    private final HandRecorder recorder;
+    private final LogIndex logIndex;
+    private final Histogram applyTime;
+    private final AtomicReference<Object> turnEvent;
+    private String tableId;
+    private final Metrics.Gauge outboundQueue;
+    private ClientLog.Logger log;
+    private final HandTracer tracer;
+    private int lastAggressor;
+    private final StringBuilder pendingLog;
+    private final PreActions preActions;
+    private SpeculativeAction speculation;
+    private final Runnable logFlusher;
     
     /**
      * The default constructor
@@ -85,9 +113,41 @@ public class GameScreen extends javax.swing.JFrame {
         PLAYER_PANELS = new PlayerPanel[]{playerPanel1, playerPanel2, playerPanel3, playerPanel4, playerPanel5, playerPanel6, playerPanel7, playerPanel8};
         PLAYER_BUTTONS = new JButton[]{btnFold, btnCheck, btnBet, btnCall};
         RAISE_COMPONENTS = new Component[]{btnMinRaise, btnHalfPot, btnWholePot, btnAllIn, sldBetAmt};
+        PRE_ACTION_BOXES = new JCheckBox[]{chkCheckFold, chkCheck, chkCall, chkCallAny};
         setButtonsEnabled(false);        
+        preActions = new PreActions();
+        setPreActionsEnabled(false);
+        
+        /* hotkeys act now on our turn, and pick the matching pre-action before it */
+        addHotkey(KeyEvent.VK_F, btnFold, chkCheckFold);
+        addHotkey(KeyEvent.VK_K, btnCheck, chkCheck);
+        addHotkey(KeyEvent.VK_C, btnCall, chkCallAny);
+        addHotkey(KeyEvent.VK_B, btnBet, null);
         toActIndex = -1;        
-        eventsToSend = new LinkedList<>();
+        eventsToSend = new EventLanes<>();
+        equity = new EquityCalculator();
+        sidePots = new SidePotTracker();
+        stats = new StatsTracker();
+        HandHistoryStore history = HandHistoryStore.getShared();
+        recorder = history == null ? null : new HandRecorder(history);
+        logIndex = LogIndex.getShared();
+        applyTime = Metrics.get().histogram(Metrics.APPLY);
+        turnEvent = new AtomicReference<>();
+        tableId = "";
+        log = LOG;
+        TraceExporter exporter = TraceExporter.getShared();
+        tracer = exporter == null ? null : new HandTracer(exporter);
+        outboundQueue = queueSize(eventsToSend);
+        icm = new IcmCalculator(IcmCalculator.parsePayouts(System.getProperty("pokerclient.payouts")));
+        lastAggressor = -1;
+        pendingLog = new StringBuilder();
+        logFlusher = new Runnable()
+        {
+            @Override
+            public void run() {
+                flushLog();
+            }
+        };
        
         /* set log to auto-scroll */
         DefaultCaret caret = (DefaultCaret) txtLog.getCaret();
@@ -104,6 +164,147 @@ public class GameScreen extends javax.swing.JFrame {
         return eventsToSend.poll();
     }
     
+    /**
+     * Gets the next Client event to send, waiting for one if there are none. Commands come before anything else.
+     * @param timeoutMillis Longest to wait
+     * @return Next Client event, or null if there was none in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Event takeNextClientEvent(long timeoutMillis) throws InterruptedException
+    {
+        return eventsToSend.take(timeoutMillis);
+    }
+    
+    /**
+     * Called once a command has been written to the server, by the thread that wrote it
+     * @param e The command
+     */
+    public void clientEventSent(Event e)
+    {
+        if (ClientCommand.class.isInstance(e))
+        {
+            turnAnswered(e);
+            if (tracer != null)
+            {
+                tracer.commandSent(e);
+            }
+        }
+    }
+    
+    /**
+     * Starts timing our turn. Called from the reader thread as soon as our turn is read, before it waits to be
+     * applied.
+     */
+    public void turnStarted()
+    {
+        turnEvent.set(JfrEvents.beginTurn());
+    }
+    
+    /**
+     * Follows an event in the hand's trace. Called from the reader thread as soon as the event is read, so a
+     * pre-action sent straight back is traced in order with it.
+     * @param e The event
+     */
+    public void traceEvent(Event e)
+    {
+        if (tracer != null)
+        {
+            tracer.receiveEvent(e);
+        }
+    }
+    
+    /**
+     * Starts tracing a pre-action's send. Called from the reader thread just before it writes the command.
+     * @param c The command
+     */
+    public void preActionSending(ClientCommand c)
+    {
+        if (tracer != null)
+        {
+            tracer.commandQueued(c);
+        }
+    }
+    
+    /**
+     * Finishes timing our turn, once a command for it has been written
+     * @param command The command
+     */
+    private void turnAnswered(Event command)
+    {
+        JfrEvents.endTurn(turnEvent.getAndSet(null), command.getClass(), tableId);
+    }
+    
+    /**
+     * Sets the name of the table we're playing at, used to tell tables apart in diagnostics
+     * @param tableId The table's name
+     */
+    public void setTableId(String tableId)
+    {
+        Metrics.get().removeGauge(Metrics.sessionName(Metrics.OUTBOUND_QUEUE, this.tableId), outboundQueue);
+        Metrics.get().gauge(Metrics.sessionName(Metrics.OUTBOUND_QUEUE, tableId), outboundQueue);
+        this.tableId = tableId;
+        this.log = LOG.forSession(tableId);
+        if (tracer != null)
+        {
+            tracer.setTable(tableId);
+        }
+    }
+    
+    public String getTableId()
+    {
+        return tableId;
+    }
+    
+    /**
+     * Stops reporting this table's metrics, once its connection is closed
+     */
+    public void sessionEnded()
+    {
+        Metrics.get().removeGauge(Metrics.sessionName(Metrics.OUTBOUND_QUEUE, tableId), outboundQueue);
+    }
+    
+    /**
+     * Makes a gauge of how many commands are waiting to be sent. Static, so the gauge doesn't keep the screen
+     * reachable.
+     */
+    private static Metrics.Gauge queueSize(final EventLanes<Event> lanes)
+    {
+        return new Metrics.Gauge()
+        {
+            @Override
+            public long getValue() {
+                return lanes.size();
+            }
+        };
+    }
+    
+    /**
+     * Gets the actions picked before our turn, which the reader thread sends as soon as our turn arrives
+     * @return The pre-actions
+     */
+    public PreActions getPreActions()
+    {
+        return preActions;
+    }
+    
+    /**
+     * Gets our hole cards
+     * @return Our hole cards as a {@link CardMask}
+     */
+    long getOurHoleCards()
+    {
+        return PLAYER_PANELS[playerIndex].getCardMask();
+    }
+    
+    /**
+     * Gets the community cards dealt so far
+     * @return The community cards as a {@link CardMask}
+     */
+    long getBoardCards()
+    {
+        return communityCards.getCardMask();
+    }
+    
     /**
      * Sets client buttons to be enabled/disabled
      * @param enabled If true enables buttons, false disables buttons.
@@ -134,6 +335,97 @@ public class GameScreen extends javax.swing.JFrame {
         
     }
           
+    /**
+     * Lets the player pick pre-actions, or clears and stops them
+     * @param enabled If true enables the pre-action boxes, false unticks and disables them
+     */
+    private void setPreActionsEnabled(boolean enabled)
+    {
+        if (!enabled)
+        {
+            clearPreActions();
+        }
+        for (JCheckBox b : PRE_ACTION_BOXES)
+        {
+            b.setEnabled(enabled);
+        }
+    }
+    
+    /**
+     * Unticks every pre-action box and disarms the pre-action
+     */
+    private void clearPreActions()
+    {
+        for (JCheckBox b : PRE_ACTION_BOXES)
+        {
+            b.setSelected(false);
+        }
+        preActions.arm(null, 0);
+    }
+    
+    /**
+     * Disarms the pre-actions that only hold for the current bet, after it changes
+     */
+    private void betChanged()
+    {
+        PreActions.Action armed = preActions.getArmed();
+        if (armed == PreActions.Action.CHECK || armed == PreActions.Action.CALL)
+        {
+            clearPreActions();
+        }
+        int toCall = currentBet - ourChipsOnTable;
+        chkCall.setText(toCall > 0 ? "Call ("+toCall+")" : "Call");
+    }
+    
+    /**
+     * Player ticks or unticks a pre-action. Only one can be ticked at a time.
+     * @param box The box clicked
+     * @param action The pre-action it stands for
+     */
+    private void preActionClicked(JCheckBox box, PreActions.Action action)
+    {
+        for (JCheckBox b : PRE_ACTION_BOXES)
+        {
+            if (b != box)
+            {
+                b.setSelected(false);
+            }
+        }
+        preActions.arm(box.isSelected() ? action : null, currentBet - ourChipsOnTable);
+    }
+    
+    /**
+     * Binds a key to a button, or to a pre-action box while the button can't be pressed
+     * @param keyCode The key, from {@link KeyEvent}
+     * @param button The button pressed on our turn
+     * @param preAction The box ticked before our turn, or null for none
+     */
+    private void addHotkey(int keyCode, final JButton button, final JCheckBox preAction)
+    {
+        String name = "hotkey."+KeyEvent.getKeyText(keyCode);
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+        getRootPane().getActionMap().put(name, new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (button.isEnabled())
+                {
+                    button.doClick();
+                }
+                else if (preAction != null && preAction.isEnabled())
+                {
+                    preAction.doClick();
+                }
+            }
+        });
+        String key = KeyEvent.getKeyText(keyCode);
+        button.setToolTipText("Hotkey: "+key);
+        if (preAction != null)
+        {
+            preAction.setToolTipText("Hotkey: "+key);
+        }
+    }
+          
     /**
      * Updates client to reflect that a {@link Player} has folded
      * @param index The index of the folded Player
@@ -141,7 +433,13 @@ public class GameScreen extends javax.swing.JFrame {
     private void playerFolded(int index)
     {
         PLAYER_PANELS[index].setTitle("FOLDED");
+        PLAYER_PANELS[index].setFolded(true);
+        if (index == playerIndex)
+        {
+            setPreActionsEnabled(false);
+        }
         addToLog(PLAYER_PANELS[index].getPlayerName()+" folded!");
+        updateEquity();
     }
     
     /**
@@ -152,7 +450,45 @@ public class GameScreen extends javax.swing.JFrame {
     {
         PLAYER_PANELS[index].setTitle("DISCONNECTED");
         PLAYER_PANELS[index].setChipsInStack(0);
+        PLAYER_PANELS[index].setFolded(true);
+        if (index == playerIndex)
+        {
+            setPreActionsEnabled(false);
+        }
         addToLog(PLAYER_PANELS[index].getPlayerName()+" disconnected!");
+        updateEquity();
+    }
+    
+    /**
+     * Starts working out the equity of our hand against the opponents still in it.
+     * Any calculation for an earlier card or round is cancelled first.
+     */
+    private void updateEquity()
+    {
+        int opponents = 0;
+        for (int i = 0; i < PLAYER_PANELS.length; i++)
+        {
+            if (i != playerIndex && !PLAYER_PANELS[i].isFolded())
+            {
+                opponents++;
+            }
+        }
+        
+        if (CardMask.count(getOurHoleCards()) < 2 || PLAYER_PANELS[playerIndex].isFolded() || opponents == 0)
+        {
+            equity.cancel();
+            lblEquity.setText("");
+            return;
+        }
+        
+        equity.start(getOurHoleCards(), getBoardCards(), opponents, new EquityCalculator.Listener()
+        {
+            @Override
+            public void equityUpdated(EquityCalculator.Result result) {
+                lblEquity.setText("Equity: "+result);
+                lblEquity.setToolTipText(String.format("%,d samples, %,.0f samples/s", result.samples, result.samplesPerSecond));
+            }
+        });
     }
     
     /**
@@ -246,7 +582,11 @@ public class GameScreen extends javax.swing.JFrame {
     private void sendCommandToServer(ClientCommand c)
     {
         setButtonsEnabled(false);
-        eventsToSend.add(c);
+        if (tracer != null)
+        {
+            tracer.commandQueued(c);
+        }
+        eventsToSend.add(c, false);
     }
     
     /**
@@ -270,7 +610,9 @@ public class GameScreen extends javax.swing.JFrame {
      */
     private void playerClickedBetButton()
     {
-        sendCommandToServer(new ClientCommand.ClientBetCommand(getBetAmount()));
+        int amount = getBetAmount();
+        sendCommandToServer(new ClientCommand.ClientBetCommand(amount));
+        speculate(amount);
     }
     
     /**
@@ -279,14 +621,58 @@ public class GameScreen extends javax.swing.JFrame {
     private void playerClickedCallButton()
     {
         sendCommandToServer(new ClientCommand.ClientCallCommand());
+        speculate(currentBet);
+    }
+    
+    /**
+     * Shows the chips we're putting on the table straight away, before the server confirms them
+     * @param total The total we'll have on the table this street
+     */
+    private void speculate(int total)
+    {
+        PlayerPanel us = PLAYER_PANELS[playerIndex];
+        speculation = new SpeculativeAction(playerIndex, us.getChipsInStack(), ourChipsOnTable, pot, total);
+        us.setChipsOnTable(speculation.onTable);
+        us.setChipsInStack(speculation.stack);
+        lblPot.setText("Pot: "+speculation.pot);
+        btnCall.setText("Call");
+    }
+    
+    /**
+     * Checks a shown prediction against an event from the server, and puts the table back if it was wrong.
+     * Our chips going on the table are applied by {@link #applyEvent(Event)} as usual, which replaces the prediction.
+     * @param e The event
+     */
+    private void reconcile(Event e)
+    {
+        if (speculation.isAnsweredBy(e))
+        {
+            if (!speculation.confirm((PlayerChipsOnTableEvent)e))
+            {
+                log.debug("Predicted "+speculation.onTable+" on the table but the server has "+((PlayerChipsOnTableEvent)e).amount);
+            }
+            speculation = null;
+        }
+        else if (speculation.isContradictedBy(e))
+        {
+            speculation.rollBack();
+            log.debug("Rolled back prediction after "+e.getClass().getSimpleName());
+            PLAYER_PANELS[playerIndex].setChipsOnTable(speculation.onTableBefore);
+            PLAYER_PANELS[playerIndex].setChipsInStack(speculation.stackBefore);
+            setPotAmount(pot);
+            int toCall = currentBet - ourChipsOnTable;
+            btnCall.setText(toCall > 0 ? "Call ("+toCall+")" : "Call");
+            speculation = null;
+        }
     }
     
    
     /** 
      * Reflect change in player turn
      * @param index Index of the player whose turn it is
+     * @param preAction The command already sent for our turn by a pre-action, or null if there wasn't one
      */
-    private void newPlayerTurn(int index)
+    private void newPlayerTurn(int index, ClientCommand preAction)
     {
         if (toActIndex >= 0)
         {
@@ -297,8 +683,20 @@ public class GameScreen extends javax.swing.JFrame {
         
         addToLog("The action is on "+PLAYER_PANELS[toActIndex].getPlayerName());
         
-        if(toActIndex == playerIndex)
+        if (toActIndex == playerIndex && preAction != null)
+        {
+            addToLog("Pre-selected action sent: "+preAction.getClass().getSimpleName().replace("Client", "").replace("Command", ""));
+            setPreActionsEnabled(false);
+            setButtonsEnabled(false);
+            if (ClientCommand.ClientCallCommand.class.isInstance(preAction))
+            {
+                speculate(currentBet);
+            }
+        }
+        else if(toActIndex == playerIndex)
         {
+            setPreActionsEnabled(false);
+            updateIcm();
             setMinBetAmount(minBet);
             setButtonsEnabled(true);
             java.awt.Toolkit.getDefaultToolkit().beep();
@@ -306,7 +704,31 @@ public class GameScreen extends javax.swing.JFrame {
         else
         {
             setButtonsEnabled(false);
+            setPreActionsEnabled(!PLAYER_PANELS[playerIndex].isFolded());
+        }
+    }
+    
+    /**
+     * Shows what chance of winning we need to call the last bet, by ICM and by plain pot odds
+     */
+    private void updateIcm()
+    {
+        int toCall = currentBet - ourChipsOnTable;
+        if (toCall <= 0 || lastAggressor < 0 || lastAggressor == playerIndex)
+        {
+            lblIcm.setText("");
+            return;
+        }
+        
+        int[] stacks = new int[numPlayers];
+        for (int i = 0; i < numPlayers; i++)
+        {
+            stacks[i] = PLAYER_PANELS[i].getChipsInStack();
         }
+        
+        double needed = icm.requiredCallEquity(stacks, playerIndex, lastAggressor, toCall, pot);
+        double potOdds = (double)Math.min(toCall, stacks[playerIndex]) / (pot + Math.min(toCall, stacks[playerIndex]));
+        lblIcm.setText(String.format("To call: %.0f%% (ICM), %.0f%% (pot odds)", needed * 100, potOdds * 100));
     }
     
     /**
@@ -315,17 +737,64 @@ public class GameScreen extends javax.swing.JFrame {
      */
     private void setPotAmount(int pot)
     {
-        this.lblPot.setText("Pot: "+pot);
+        if (sidePots.getNumPots() > 1)
+        {
+            this.lblPot.setText("Pot: "+pot+" ("+sidePots+")");
+        }
+        else
+        {
+            this.lblPot.setText("Pot: "+pot);
+        }
         this.pot = pot;
     }
     
+    /**
+     * Gets the main pot and side pots of the current hand
+     * @return The pots
+     */
+    SidePotTracker getSidePots()
+    {
+        return sidePots;
+    }
+    
     /**
      * Add message to chat log
      * @param toLog Message to add
      */
     private void addToLog(String toLog)
     {
-        txtLog.append("["+df.format(new Date())+"]   "+toLog+"\n");
+        Date now = new Date();
+        if (pendingLog.length() == 0)
+        {
+            /* Lines added while handling a batch of events go into the text area together afterwards */
+            SwingUtilities.invokeLater(logFlusher);
+        }
+        pendingLog.append("[").append(df.format(now)).append("]   ").append(toLog).append("\n");
+        if (logIndex != null)
+        {
+            logIndex.add(now.getTime(), toLog);
+        }
+    }
+    
+    /**
+     * Adds the lines waiting for the chat log to it in one go
+     */
+    private void flushLog()
+    {
+        if (pendingLog.length() > 0)
+        {
+            txtLog.append(pendingLog.toString());
+            pendingLog.setLength(0);
+        }
+    }
+    
+    /**
+     * Notes in the chat log that chat messages were dropped because they arrived faster than they could be shown
+     * @param count How many were dropped
+     */
+    public void messagesSkipped(int count)
+    {
+        addToLog("("+count+" chat message"+(count == 1 ? "" : "s")+" skipped)");
     }
     
     /**
@@ -334,6 +803,7 @@ public class GameScreen extends javax.swing.JFrame {
      */
     public void exitDueToError(Exception e)
     {
+        log.error("Lost connection to the server", e);
         JOptionPane.showMessageDialog(null, "An error has occured communicating with the server:\n" + e.getMessage());
         
         /* This will close our frame and actually end the process */
@@ -346,10 +816,43 @@ public class GameScreen extends javax.swing.JFrame {
      */
     public void receiveEvent(Event e)
     {
+        Metrics.get().countEvent(e.getClass());
+        Object jfr = JfrEvents.beginApply();
+        long start = System.nanoTime();
+        try
+        {
+            applyEvent(e);
+        }
+        finally
+        {
+            applyTime.record(System.nanoTime() - start);
+            JfrEvents.endApply(jfr, e.getClass(), tableId);
+        }
+    }
+    
+    /**
+     * Updates the game with an Event from the server
+     * @param e Event to apply
+     */
+    private void applyEvent(Event e)
+    {
+        if (speculation != null)
+        {
+            reconcile(e);
+        }
+        preActions.applied(e);
+        sidePots.receiveEvent(e);
+        stats.receiveEvent(e);
+        if (recorder != null)
+        {
+            recorder.receiveEvent(e);
+        }
+        
         if (NewGameEvent.class.isInstance(e))        
         {
             NewGameEvent evt = (NewGameEvent)e;       
             playerIndex = evt.clientIndex;
+            numPlayers = evt.playerNames.length;
             
             for (int i = 0; i < PLAYER_PANELS.length && i < evt.playerNames.length; i++)
             {
@@ -384,16 +887,27 @@ public class GameScreen extends javax.swing.JFrame {
             currentBet = 0;
             ourChipsOnTable = 0;        
             setPotAmount(0);
+            lastAggressor = -1;
+            lblIcm.setText("");
+            setPreActionsEnabled(false);
+            equity.cancel();
+            lblEquity.setText("");
                                    
             NewRoundEvent evt = (NewRoundEvent)e;
-            for (PlayerPanel p : PLAYER_PANELS)
+            for (int i = 0; i < PLAYER_PANELS.length; i++)
             {
-                p.reset();
+                PLAYER_PANELS[i].reset();
+                
+                /* Players who are out of chips (or seats nobody is in) aren't dealt in */
+                PLAYER_PANELS[i].setFolded(i >= numPlayers || PLAYER_PANELS[i].getChipsInStack() == 0);
+                PLAYER_PANELS[i].setStats(i == playerIndex ? null : stats.getSeatStats(i));
             }
             
             communityCards.clearCards();
             
             PLAYER_PANELS[evt.dealerIndex].setTitle("(D)");
+            setPreActionsEnabled(!PLAYER_PANELS[playerIndex].isFolded());
+            betChanged();
             java.awt.Toolkit.getDefaultToolkit().beep();
         }
 
@@ -402,6 +916,7 @@ public class GameScreen extends javax.swing.JFrame {
             Card c = ((NewPlayerCardEvent)e).newCard;
             PLAYER_PANELS[playerIndex].addCard(c);
             addToLog("You were dealt the card "+c.toString());          
+            updateEquity();
         }
         
         else if (NewCommunityCardEvent.class.isInstance(e))
@@ -421,13 +936,15 @@ public class GameScreen extends javax.swing.JFrame {
             }
             
             ourChips = PLAYER_PANELS[playerIndex].getTotalChips();
+            betChanged();
             
             addToLog("The community card "+c.toString()+" was dealt.");
+            updateEquity();
         }
 
         else if (PlayerTurnEvent.class.isInstance(e))
         {
-            newPlayerTurn(((PlayerTurnEvent)e).playerIndex);
+            newPlayerTurn(((PlayerTurnEvent)e).playerIndex, preActions.takeFired(e));
         }
         
         else if (PlayerFoldEvent.class.isInstance(e))
@@ -443,6 +960,10 @@ public class GameScreen extends javax.swing.JFrame {
             addToLog(PLAYER_PANELS[evt.playerIndex].getPlayerName() +" put "+evt.amount+" chips on the table!");
             setPotAmount(evt.totalPot);
                      
+            if (evt.amount > currentBet)
+            {
+                lastAggressor = evt.playerIndex;
+            }
             currentBet = evt.amount;
             ourChips = PLAYER_PANELS[playerIndex].getTotalChips();
             setMinBetAmount(minBet);
@@ -457,6 +978,11 @@ public class GameScreen extends javax.swing.JFrame {
             /* Or if someone else put the chips on the table... */
             else
             {
+                if (evt.amount > ourChipsOnTable)
+                {
+                    betChanged();
+                }
+                
                 /* How much do we have to call? */
                 int amountToCall = evt.amount - ourChipsOnTable;
                 if (amountToCall > 0)
@@ -524,7 +1050,7 @@ public class GameScreen extends javax.swing.JFrame {
                        
         else 
         {
-            System.out.println("Unhandled event: "+e.getClass().getCanonicalName());
+            log.warn("Unhandled event: "+e.getClass().getCanonicalName());
         }
             
     }
@@ -552,6 +1078,8 @@ public class GameScreen extends javax.swing.JFrame {
         btnCheck = new javax.swing.JButton();
         btnBet = new javax.swing.JButton();
         lblPot = new javax.swing.JLabel();
+        lblEquity = new javax.swing.JLabel();
+        lblIcm = new javax.swing.JLabel();
         jScrollPane1 = new javax.swing.JScrollPane();
         txtLog = new javax.swing.JTextArea();
         lblTitle = new javax.swing.JLabel();
@@ -560,6 +1088,10 @@ public class GameScreen extends javax.swing.JFrame {
         sldBetAmt = new javax.swing.JSlider();
         lblSlideLower = new javax.swing.JLabel();
         btnCall = new javax.swing.JButton();
+        chkCheckFold = new javax.swing.JCheckBox();
+        chkCheck = new javax.swing.JCheckBox();
+        chkCall = new javax.swing.JCheckBox();
+        chkCallAny = new javax.swing.JCheckBox();
         btnAllIn = new javax.swing.JButton();
         btnMinRaise = new javax.swing.JButton();
         btnHalfPot = new javax.swing.JButton();
@@ -619,6 +1151,8 @@ public class GameScreen extends javax.swing.JFrame {
 
         lblPot.setText("Pot: 0");
         getContentPane().add(lblPot, new org.netbeans.lib.awtextra.AbsoluteConstraints(330, 250, -1, -1));
+        getContentPane().add(lblEquity, new org.netbeans.lib.awtextra.AbsoluteConstraints(280, 215, 200, -1));
+        getContentPane().add(lblIcm, new org.netbeans.lib.awtextra.AbsoluteConstraints(280, 270, 220, -1));
 
         txtLog.setEditable(false);
         txtLog.setColumns(20);
@@ -650,6 +1184,38 @@ public class GameScreen extends javax.swing.JFrame {
         });
         getContentPane().add(btnCall, new org.netbeans.lib.awtextra.AbsoluteConstraints(200, 470, 100, 31));
 
+        chkCheckFold.setText("Check/Fold");
+        chkCheckFold.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkCheckFoldActionPerformed(evt);
+            }
+        });
+        getContentPane().add(chkCheckFold, new org.netbeans.lib.awtextra.AbsoluteConstraints(40, 440, 100, -1));
+
+        chkCheck.setText("Check");
+        chkCheck.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkCheckActionPerformed(evt);
+            }
+        });
+        getContentPane().add(chkCheck, new org.netbeans.lib.awtextra.AbsoluteConstraints(140, 440, 70, -1));
+
+        chkCall.setText("Call");
+        chkCall.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkCallActionPerformed(evt);
+            }
+        });
+        getContentPane().add(chkCall, new org.netbeans.lib.awtextra.AbsoluteConstraints(210, 440, 100, -1));
+
+        chkCallAny.setText("Call Any");
+        chkCallAny.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                chkCallAnyActionPerformed(evt);
+            }
+        });
+        getContentPane().add(chkCallAny, new org.netbeans.lib.awtextra.AbsoluteConstraints(310, 440, 100, -1));
+
         btnAllIn.setText("All-In");
         btnAllIn.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -710,6 +1276,38 @@ public class GameScreen extends javax.swing.JFrame {
         pack();
     }// </editor-fold>//GEN-END:initComponents
 
+    /**
+     * Player ticks or unticks the "Check/Fold" pre-action
+     * @param evt Check box click event
+     */
+    private void chkCheckFoldActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkCheckFoldActionPerformed
+        preActionClicked(chkCheckFold, PreActions.Action.CHECK_FOLD);
+    }//GEN-LAST:event_chkCheckFoldActionPerformed
+
+    /**
+     * Player ticks or unticks the "Check" pre-action
+     * @param evt Check box click event
+     */
+    private void chkCheckActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkCheckActionPerformed
+        preActionClicked(chkCheck, PreActions.Action.CHECK);
+    }//GEN-LAST:event_chkCheckActionPerformed
+
+    /**
+     * Player ticks or unticks the "Call" pre-action
+     * @param evt Check box click event
+     */
+    private void chkCallActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkCallActionPerformed
+        preActionClicked(chkCall, PreActions.Action.CALL);
+    }//GEN-LAST:event_chkCallActionPerformed
+
+    /**
+     * Player ticks or unticks the "Call Any" pre-action
+     * @param evt Check box click event
+     */
+    private void chkCallAnyActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_chkCallAnyActionPerformed
+        preActionClicked(chkCallAny, PreActions.Action.CALL_ANY);
+    }//GEN-LAST:event_chkCallAnyActionPerformed
+
     /** 
      * Player clicks the "Fold" button
      * @param evt Button click event
@@ -823,10 +1421,16 @@ public class GameScreen extends javax.swing.JFrame {
     private javax.swing.JButton btnHalfPot;
     private javax.swing.JButton btnMinRaise;
     private javax.swing.JButton btnWholePot;
+    private javax.swing.JCheckBox chkCall;
+    private javax.swing.JCheckBox chkCallAny;
+    private javax.swing.JCheckBox chkCheck;
+    private javax.swing.JCheckBox chkCheckFold;
     private io.github.jezdawgz.poker.client.CardHolder communityCards;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JLabel lblBlinds;
+    private javax.swing.JLabel lblEquity;
+    private javax.swing.JLabel lblIcm;
     private javax.swing.JLabel lblPot;
     private javax.swing.JLabel lblSlideLower;
     private javax.swing.JLabel lblSlideUpper;
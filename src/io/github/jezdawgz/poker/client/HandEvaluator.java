@@ -0,0 +1,472 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Table driven evaluator giving any 5, 6 or 7 card {@link CardMask} a single comparable rank.
+ * <p>
+ * A higher rank is a better hand and equal ranks split. The category is kept in the bits above 20 and
+ * the five deciding ranks in 4 bit nibbles below it, so a rank can be decoded with {@link #category(int)}.
+ * <p>
+ * Hands with five or more cards of one suit are looked up by that suit's 13 bit rank mask. All other
+ * hands are looked up by a perfect hash of their per-rank card counts (a base 5 number with a fixed
+ * digit sum). With at most seven cards a flush can never be beaten by quads or a full house, so only
+ * one lookup is ever needed. The tables are generated once and cached in {@link Utils#getDataDirectory()}.
+ *
+ * @author Jeremy Collette
+ */
+public final class HandEvaluator {
+
+    public static final int HIGH_CARD = 0;
+    public static final int PAIR = 1;
+    public static final int TWO_PAIR = 2;
+    public static final int THREE_OF_A_KIND = 3;
+    public static final int STRAIGHT = 4;
+    public static final int FLUSH = 5;
+    public static final int FULL_HOUSE = 6;
+    public static final int FOUR_OF_A_KIND = 7;
+    public static final int STRAIGHT_FLUSH = 8;
+
+    private static final String[] CATEGORY_NAMES = new String[]{"High card", "Pair", "Two pair", "Three of a kind",
+        "Straight", "Flush", "Full house", "Four of a kind", "Straight flush"};
+
+    private static final int CATEGORY_SHIFT = 20;
+    private static final int MIN_CARDS = 5;
+    private static final int MAX_CARDS = 7;
+
+    private static final String TABLE_FILE = "handranks.dat";
+    private static final int TABLE_MAGIC = 0x504B4852;
+    private static final int TABLE_VERSION = 1;
+
+    /** DP[len][sum] - how many base 5 strings of length len have digits adding up to sum */
+    private static final int[][] DP = new int[CardMask.NUM_RANKS + 1][MAX_CARDS + 1];
+
+    /** HASH_PART[pos][remaining][count] - what a rank at pos with count cards adds to the hash */
+    private static final int[][][] HASH_PART = new int[CardMask.NUM_RANKS][MAX_CARDS + 1][CardMask.NUM_SUITS + 1];
+
+    static
+    {
+        DP[0][0] = 1;
+        for (int len = 1; len <= CardMask.NUM_RANKS; len++)
+        {
+            for (int sum = 0; sum <= MAX_CARDS; sum++)
+            {
+                for (int d = 0; d <= CardMask.NUM_SUITS && d <= sum; d++)
+                {
+                    DP[len][sum] += DP[len-1][sum-d];
+                }
+            }
+        }
+
+        for (int pos = 0; pos < CardMask.NUM_RANKS; pos++)
+        {
+            for (int rem = 0; rem <= MAX_CARDS; rem++)
+            {
+                for (int q = 1; q <= CardMask.NUM_SUITS; q++)
+                {
+                    int d = q - 1;
+                    HASH_PART[pos][rem][q] = HASH_PART[pos][rem][q-1] + (rem-d >= 0 ? DP[pos][rem-d] : 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lazily loaded lookup tables
+     */
+    private static class Tables
+    {
+        static final int[] FLUSH_RANKS;
+        static final int[][] RANKS;
+
+        static
+        {
+            int[] flush = null;
+            int[][] ranks = null;
+            File f = new File(Utils.getDataDirectory(), TABLE_FILE);
+            try
+            {
+                int[][] loaded = load(f);
+                flush = loaded[0];
+                ranks = new int[][]{loaded[1], loaded[2], loaded[3]};
+            }
+            catch(IOException | RuntimeException e)
+            {
+                /* Missing, stale or corrupt - build them again, and don't leave a bad file to trip over next time */
+                f.delete();
+            }
+
+            if (flush == null)
+            {
+                flush = generateFlushRanks();
+                ranks = new int[MAX_CARDS - MIN_CARDS + 1][];
+                for (int n = MIN_CARDS; n <= MAX_CARDS; n++)
+                {
+                    ranks[n - MIN_CARDS] = generateRanks(n);
+                }
+
+                try
+                {
+                    save(f, new int[][]{flush, ranks[0], ranks[1], ranks[2]});
+                }
+                catch(IOException e)
+                {
+                    /* We can still evaluate, it'll just be generated again next time */
+                }
+            }
+
+            FLUSH_RANKS = flush;
+            RANKS = ranks;
+        }
+    }
+
+    private HandEvaluator()
+    {
+    }
+
+    /**
+     * Makes sure the lookup tables are loaded, so the first evaluation does not pay for it
+     */
+    public static void init()
+    {
+        Tables.FLUSH_RANKS.getClass();
+    }
+
+    /**
+     * Evaluates a hand of 5, 6 or 7 cards
+     * @param cards The hand as a {@link CardMask}
+     * @return The rank of the hand's best five cards (higher is better)
+     */
+    public static int evaluate(long cards)
+    {
+        for (int s = 0; s < CardMask.NUM_SUITS; s++)
+        {
+            int suited = CardMask.suitMask(cards, s);
+            if (Integer.bitCount(suited) >= MIN_CARDS)
+            {
+                return Tables.FLUSH_RANKS[suited];
+            }
+        }
+
+        int n = Long.bitCount(cards);
+        int rem = n;
+        int hash = 0;
+        for (int r = CardMask.NUM_RANKS - 1; r >= 0 && rem > 0; r--)
+        {
+            int q = Long.bitCount(cards & CardMask.ofRank(r));
+            hash += HASH_PART[r][rem][q];
+            rem -= q;
+        }
+        return Tables.RANKS[n - MIN_CARDS][hash];
+    }
+
+    /**
+     * Evaluates our hole cards together with the board
+     * @param hole Hole cards
+     * @param board Community cards
+     * @return The rank of the best five cards
+     */
+    public static int evaluate(long hole, long board)
+    {
+        return evaluate(hole | board);
+    }
+
+    /**
+     * Gets the category of a rank, e.g. {@link #FLUSH}
+     * @param rank A rank returned by {@link #evaluate(long)}
+     * @return The category
+     */
+    public static int category(int rank)
+    {
+        return rank >>> CATEGORY_SHIFT;
+    }
+
+    /**
+     * Gets a readable name for the category of a rank
+     * @param rank A rank returned by {@link #evaluate(long)}
+     * @return The category name, e.g. "Full house"
+     */
+    public static String describe(int rank)
+    {
+        return CATEGORY_NAMES[category(rank)];
+    }
+
+    /**
+     * Builds a rank from a category and up to five deciding ranks, most significant first
+     */
+    private static int makeRank(int category, int... ranks)
+    {
+        int r = category << CATEGORY_SHIFT;
+        for (int i = 0; i < ranks.length; i++)
+        {
+            r |= ranks[i] << (16 - 4*i);
+        }
+        return r;
+    }
+
+    /**
+     * Gets the high rank of the best straight in a rank mask
+     * @return The high rank, or -1 if there is no straight
+     */
+    private static int straightHigh(int rankBits)
+    {
+        for (int h = CardMask.NUM_RANKS - 1; h >= 4; h--)
+        {
+            int run = 0x1F << (h - 4);
+            if ((rankBits & run) == run)
+            {
+                return h;
+            }
+        }
+
+        /* The wheel: A-2-3-4-5 */
+        if ((rankBits & 0x100F) == 0x100F)
+        {
+            return 3;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the highest ranks in a rank mask
+     */
+    private static int[] topRanks(int rankBits, int howMany)
+    {
+        int[] top = new int[howMany];
+        int i = 0;
+        for (int r = CardMask.NUM_RANKS - 1; r >= 0 && i < howMany; r--)
+        {
+            if ((rankBits & (1 << r)) != 0)
+            {
+                top[i++] = r;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Ranks a single suit holding five or more cards
+     */
+    static int rankFlush(int suited)
+    {
+        int high = straightHigh(suited);
+        if (high >= 0)
+        {
+            return makeRank(STRAIGHT_FLUSH, high);
+        }
+        return makeRank(FLUSH, topRanks(suited, 5));
+    }
+
+    /**
+     * Ranks a hand with no flush from the number of cards held of each rank
+     */
+    static int rankCounts(int[] counts)
+    {
+        int quads = -1, trips = -1, pair1 = -1, pair2 = -1, rankBits = 0;
+        for (int r = CardMask.NUM_RANKS - 1; r >= 0; r--)
+        {
+            int c = counts[r];
+            if (c == 0)
+            {
+                continue;
+            }
+            rankBits |= 1 << r;
+
+            if (c == 4)
+            {
+                quads = r;
+            }
+            else if (c == 3 && trips < 0)
+            {
+                trips = r;
+            }
+            /* A second set of trips can only be used as a pair */
+            else if (c >= 2 && pair1 < 0)
+            {
+                pair1 = r;
+            }
+            else if (c >= 2 && pair2 < 0)
+            {
+                pair2 = r;
+            }
+        }
+
+        if (quads >= 0)
+        {
+            return makeRank(FOUR_OF_A_KIND, quads, topRanks(rankBits & ~(1 << quads), 1)[0]);
+        }
+        if (trips >= 0 && pair1 >= 0)
+        {
+            return makeRank(FULL_HOUSE, trips, pair1);
+        }
+
+        int high = straightHigh(rankBits);
+        if (high >= 0)
+        {
+            return makeRank(STRAIGHT, high);
+        }
+
+        if (trips >= 0)
+        {
+            int[] k = topRanks(rankBits & ~(1 << trips), 2);
+            return makeRank(THREE_OF_A_KIND, trips, k[0], k[1]);
+        }
+        if (pair2 >= 0)
+        {
+            return makeRank(TWO_PAIR, pair1, pair2, topRanks(rankBits & ~(1 << pair1) & ~(1 << pair2), 1)[0]);
+        }
+        if (pair1 >= 0)
+        {
+            int[] k = topRanks(rankBits & ~(1 << pair1), 3);
+            return makeRank(PAIR, pair1, k[0], k[1], k[2]);
+        }
+        return makeRank(HIGH_CARD, topRanks(rankBits, 5));
+    }
+
+    private static int[] generateFlushRanks()
+    {
+        int[] table = new int[1 << CardMask.NUM_RANKS];
+        for (int m = 0; m < table.length; m++)
+        {
+            if (Integer.bitCount(m) >= MIN_CARDS)
+            {
+                table[m] = rankFlush(m);
+            }
+        }
+        return table;
+    }
+
+    private static int[] generateRanks(int n)
+    {
+        int[] table = new int[DP[CardMask.NUM_RANKS][n]];
+        fillRanks(table, new int[CardMask.NUM_RANKS], CardMask.NUM_RANKS - 1, n, 0);
+        return table;
+    }
+
+    /**
+     * Walks every way of spreading the remaining cards over ranks pos down to 0, in hash order
+     */
+    private static void fillRanks(int[] table, int[] counts, int pos, int rem, int hash)
+    {
+        if (pos < 0)
+        {
+            if (rem == 0)
+            {
+                table[hash] = rankCounts(counts);
+            }
+            return;
+        }
+
+        for (int q = 0; q <= CardMask.NUM_SUITS && q <= rem; q++)
+        {
+            counts[pos] = q;
+            fillRanks(table, counts, pos - 1, rem - q, hash + HASH_PART[pos][rem][q]);
+        }
+        counts[pos] = 0;
+    }
+
+    private static int[][] load(File f) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f))))
+        {
+            if (in.readInt() != TABLE_MAGIC || in.readInt() != TABLE_VERSION)
+            {
+                throw new IOException("Stale hand rank table: "+f);
+            }
+
+            /* The lengths are checked before anything is allocated, so a corrupt file can't ask for too much */
+            CRC32 crc = new CRC32();
+            if (in.readInt() != 1 + MAX_CARDS - MIN_CARDS + 1)
+            {
+                throw new IOException("Corrupt hand rank table: "+f);
+            }
+            int[][] tables = new int[1 + MAX_CARDS - MIN_CARDS + 1][];
+            for (int t = 0; t < tables.length; t++)
+            {
+                int length = in.readInt();
+                if (length != (t == 0 ? 1 << CardMask.NUM_RANKS : DP[CardMask.NUM_RANKS][t - 1 + MIN_CARDS]))
+                {
+                    throw new IOException("Corrupt hand rank table: "+f);
+                }
+                tables[t] = new int[length];
+                for (int i = 0; i < tables[t].length; i++)
+                {
+                    int v = in.readInt();
+                    tables[t][i] = v;
+                    updateCrc(crc, v);
+                }
+            }
+
+            if (in.readLong() != crc.getValue())
+            {
+                throw new IOException("Corrupt hand rank table: "+f);
+            }
+            return tables;
+        }
+    }
+
+    private static void save(File f, int[][] tables) throws IOException
+    {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+        {
+            CRC32 crc = new CRC32();
+            out.writeInt(TABLE_MAGIC);
+            out.writeInt(TABLE_VERSION);
+            out.writeInt(tables.length);
+            for (int[] t : tables)
+            {
+                out.writeInt(t.length);
+                for (int v : t)
+                {
+                    out.writeInt(v);
+                    updateCrc(crc, v);
+                }
+            }
+            out.writeLong(crc.getValue());
+        }
+
+        if (!tmp.renameTo(f))
+        {
+            f.delete();
+            if (!tmp.renameTo(f))
+            {
+                throw new IOException("Could not write "+f);
+            }
+        }
+    }
+
+    private static void updateCrc(CRC32 crc, int v)
+    {
+        crc.update(v >>> 24);
+        crc.update(v >>> 16);
+        crc.update(v >>> 8);
+        crc.update(v);
+    }
+}
@@ -0,0 +1,706 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads directories of hand history text files into a {@link HandHistoryStore} and a {@link StatsTracker},
+ * and writes a store back out as text so it can be moved to another machine.
+ * <p>
+ * Each hand in a history file is a header line followed by a line for each player:
+ * <pre>
+ * Hand &lt;time in ms&gt; &lt;board, e.g. AsKd2c, or -&gt;
+ * &lt;position&gt; &lt;chips in&gt; &lt;chips won&gt; &lt;hole cards or -&gt; &lt;actions&gt; &lt;name&gt;
+ * </pre>
+ * The actions are the four streets separated by '/', each a letter per action: P (post), X (check),
+ * C (call), B (bet or raise) and F (fold), or '.' if the player did nothing on that street.
+ * <p>
+ * Files are memory-mapped and parsed on a fork-join pool, big files being split at hand boundaries so
+ * they are parsed in parallel too. Files are taken a batch at a time: the batch's hands are sorted by time
+ * and added to the stores, and then the files are written to a checkpoint so an interrupted import picks
+ * up from the first batch it didn't finish.
+ * <p>
+ * Each batch goes in all or nothing. The store writes blocks and the stats tracker saves players part way
+ * through a batch, so before a batch starts the checkpoint notes how long the store is, and the stats are
+ * saved to a staging directory. Only once the batch's files and a commit line are in the checkpoint are the
+ * stats moved into place. A batch with no commit line is rolled back when the import is resumed: the store is
+ * cut back to where the batch began and the staged stats are thrown away. The store and stats are locked
+ * while importing, so a running client can't write to them at the same time.
+ *
+ * @author Jeremy Collette
+ */
+public class HandHistoryImporter {
+
+    /** Files bigger than this are split between tasks */
+    private static final int CHUNK_SIZE = 8 << 20;
+
+    /** Most bytes of files to parse before adding them to the stores */
+    private static final long BATCH_BYTES = 64L << 20;
+
+    private static final byte[] HAND = "Hand ".getBytes(StandardCharsets.US_ASCII);
+    private static final String ACTION_CHARS = ".PXCBF";
+
+    /* Checkpoint lines either side of a batch's files */
+    private static final String BEGIN = "begin";
+    private static final String COMMIT = "commit";
+
+    private final HandHistoryStore store;
+    private final StatsTracker stats;
+    private final ForkJoinPool pool;
+    private final File checkpoint;
+
+    /**
+     * Receives the progress of an import, after each batch
+     */
+    public interface Progress
+    {
+        /**
+         * @param bytesDone Bytes of files imported so far
+         * @param bytesTotal Bytes of files to import
+         * @param hands Hands imported so far
+         * @param nanos Time spent so far
+         */
+        void update(long bytesDone, long bytesTotal, long hands, long nanos);
+    }
+
+    /**
+     * Creates an importer
+     * @param store Where to put the hands
+     * @param stats Stats to add the hands to, or null
+     * @param pool Pool to parse on
+     * @param checkpoint File to keep the list of imported files in
+     */
+    public HandHistoryImporter(HandHistoryStore store, StatsTracker stats, ForkJoinPool pool, File checkpoint)
+    {
+        this.store = store;
+        this.stats = stats;
+        this.pool = pool;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Imports every file in a directory that hasn't been imported already
+     * @param dir The directory
+     * @param progress Receives progress, or null
+     * @return The number of hands imported
+     * @throws IOException If a file can't be read or the stores can't be written
+     */
+    public long importDirectory(File dir, Progress progress) throws IOException
+    {
+        File[] listed = dir.listFiles();
+        if (listed == null)
+        {
+            throw new IOException("Can't list "+dir);
+        }
+        Arrays.sort(listed);
+
+        if (stats != null)
+        {
+            stats.lockExclusive();
+        }
+        Set<String> done = new HashSet<>();
+        long rollBackTo = loadCheckpoint(done);
+        if (rollBackTo >= 0)
+        {
+            store.rollBack(rollBackTo);
+            if (stats != null)
+            {
+                stats.discardBatch();
+            }
+        }
+        else if (stats != null)
+        {
+            /* Finish moving the stats of a batch that was committed just before we stopped */
+            stats.commitBatch();
+        }
+
+        List<File> files = new ArrayList<>();
+        long total = 0;
+        for (File f : listed)
+        {
+            if (f.isFile() && !done.contains(checkpointKey(f)))
+            {
+                files.add(f);
+                total += f.length();
+            }
+        }
+
+        long start = System.nanoTime();
+        long bytesDone = 0, hands = 0;
+        int next = 0;
+        while (next < files.size())
+        {
+            List<File> batch = new ArrayList<>();
+            long batchBytes = 0;
+            while (next < files.size() && batchBytes < BATCH_BYTES)
+            {
+                File f = files.get(next++);
+                batch.add(f);
+                batchBytes += f.length();
+            }
+
+            long began = store.getCommittedLength();
+            appendCheckpoint(BEGIN+"\t"+began+"\n");
+            if (stats != null)
+            {
+                stats.beginBatch();
+            }
+
+            List<HandHistoryStore.Hand> parsed;
+            try
+            {
+                parsed = pool.invoke(new FilesTask(batch, 0, batch.size()));
+                Collections.sort(parsed, new Comparator<HandHistoryStore.Hand>()
+                {
+                    @Override
+                    public int compare(HandHistoryStore.Hand a, HandHistoryStore.Hand b) {
+                        return Long.compare(a.time, b.time);
+                    }
+                });
+                for (HandHistoryStore.Hand h : parsed)
+                {
+                    store.record(h);
+                    if (stats != null)
+                    {
+                        for (int i = 0; i < h.players.length; i++)
+                        {
+                            stats.addHistory(h.players[i], h.actions[i]);
+                        }
+                    }
+                }
+                /* Fails if any of the batch's blocks were dropped, not just the last */
+                store.flush();
+                if (stats != null)
+                {
+                    stats.flush();
+                }
+            }
+            catch(IOException | RuntimeException e)
+            {
+                /* No commit line, so the batch is tried again next time. Don't leave its blocks in the store. */
+                try
+                {
+                    store.rollBack(began);
+                    if (stats != null)
+                    {
+                        stats.discardBatch();
+                    }
+                }
+                catch(IOException ex)
+                {
+                    e.addSuppressed(ex);
+                }
+                throw e;
+            }
+            StringBuilder keys = new StringBuilder();
+            for (File f : batch)
+            {
+                keys.append(checkpointKey(f)).append('\n');
+            }
+            appendCheckpoint(keys.append(COMMIT).append('\n').toString());
+            if (stats != null)
+            {
+                stats.commitBatch();
+            }
+
+            bytesDone += batchBytes;
+            hands += parsed.size();
+            if (progress != null)
+            {
+                progress.update(bytesDone, total, hands, System.nanoTime() - start);
+            }
+        }
+        return hands;
+    }
+
+    private static String checkpointKey(File f)
+    {
+        return f.getAbsolutePath()+"\t"+f.length()+"\t"+f.lastModified();
+    }
+
+    /**
+     * Reads the files that have been imported
+     * @param done Receives the files of every committed batch
+     * @return The store length to roll back to if the last batch wasn't committed, or -1 if it was
+     */
+    private long loadCheckpoint(Set<String> done) throws IOException
+    {
+        long begun = -1;
+        List<String> batch = new ArrayList<>();
+        if (checkpoint.exists())
+        {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), StandardCharsets.UTF_8)))
+            {
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    if (line.startsWith(BEGIN+"\t"))
+                    {
+                        begun = Long.parseLong(line.substring(BEGIN.length() + 1));
+                        batch.clear();
+                    }
+                    else if (line.equals(COMMIT))
+                    {
+                        done.addAll(batch);
+                        begun = -1;
+                        batch.clear();
+                    }
+                    else if (begun >= 0)
+                    {
+                        batch.add(line);
+                    }
+                    else
+                    {
+                        /* From before batches were marked */
+                        done.add(line);
+                    }
+                }
+            }
+        }
+        return begun;
+    }
+
+    private void appendCheckpoint(String lines) throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream(checkpoint, true))
+        {
+            out.write(lines.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Parses a range of a batch's files, splitting it until each task has one file
+     */
+    private static final class FilesTask extends RecursiveTask<List<HandHistoryStore.Hand>>
+    {
+        private final List<File> files;
+        private final int from, to;
+
+        FilesTask(List<File> files, int from, int to)
+        {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<HandHistoryStore.Hand> compute()
+        {
+            if (to - from > 1)
+            {
+                int mid = (from + to) >>> 1;
+                FilesTask left = new FilesTask(files, from, mid);
+                left.fork();
+                List<HandHistoryStore.Hand> hands = new FilesTask(files, mid, to).compute();
+                hands.addAll(0, left.join());
+                return hands;
+            }
+            if (from == to)
+            {
+                return new ArrayList<>();
+            }
+
+            File f = files.get(from);
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel())
+            {
+                if (ch.size() > Integer.MAX_VALUE)
+                {
+                    throw new IOException(f+" is too big to import");
+                }
+                MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                return new ChunkTask(buffer, 0, (int)ch.size()).compute();
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException("Could not import "+f, e);
+            }
+        }
+    }
+
+    /**
+     * Parses part of a mapped file, splitting big parts at the start of a hand
+     */
+    private static final class ChunkTask extends RecursiveTask<List<HandHistoryStore.Hand>>
+    {
+        private final MappedByteBuffer buffer;
+        private final int start, end;
+
+        ChunkTask(MappedByteBuffer buffer, int start, int end)
+        {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<HandHistoryStore.Hand> compute()
+        {
+            if (end - start > CHUNK_SIZE)
+            {
+                int split = nextHand(buffer, start + (end - start) / 2, end);
+                if (split < end)
+                {
+                    ChunkTask left = new ChunkTask(buffer, start, split);
+                    left.fork();
+                    List<HandHistoryStore.Hand> hands = new ChunkTask(buffer, split, end).compute();
+                    hands.addAll(0, left.join());
+                    return hands;
+                }
+            }
+            return parse(buffer, start, end);
+        }
+    }
+
+    /**
+     * Finds the start of the first hand at or after a position
+     */
+    private static int nextHand(MappedByteBuffer b, int from, int end)
+    {
+        for (int i = from; i + HAND.length < end; i++)
+        {
+            if (b.get(i) == '\n' && startsWith(b, i + 1, HAND))
+            {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static boolean startsWith(MappedByteBuffer b, int pos, byte[] prefix)
+    {
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (b.get(pos + i) != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the hands in part of a mapped file
+     */
+    private static List<HandHistoryStore.Hand> parse(MappedByteBuffer b, int start, int end)
+    {
+        List<HandHistoryStore.Hand> hands = new ArrayList<>();
+        HandBuilder current = null;
+        byte[] line = new byte[256];
+
+        int pos = start;
+        while (pos < end)
+        {
+            int eol = pos;
+            while (eol < end && b.get(eol) != '\n')
+            {
+                eol++;
+            }
+            int len = eol - pos;
+            if (len > 0 && b.get(eol - 1) == '\r')
+            {
+                len--;
+            }
+            if (line.length < len)
+            {
+                line = new byte[len * 2];
+            }
+            for (int i = 0; i < len; i++)
+            {
+                line[i] = b.get(pos + i);
+            }
+            pos = eol + 1;
+            if (len == 0)
+            {
+                continue;
+            }
+
+            String s = new String(line, 0, len, StandardCharsets.UTF_8);
+            if (s.startsWith("Hand "))
+            {
+                if (current != null)
+                {
+                    hands.add(current.build());
+                }
+                String[] parts = s.split(" ");
+                current = new HandBuilder(Long.parseLong(parts[1]), parts.length > 2 ? cards(parts[2]) : 0);
+            }
+            else if (current != null)
+            {
+                current.addPlayer(s);
+            }
+        }
+        if (current != null)
+        {
+            hands.add(current.build());
+        }
+        return hands;
+    }
+
+    private static long cards(String s)
+    {
+        return s.equals("-") ? 0 : CardMask.parse(s);
+    }
+
+    /**
+     * Collects the players of a hand as their lines are parsed
+     */
+    private static final class HandBuilder
+    {
+        private final long time;
+        private final long board;
+        private final List<String[]> players = new ArrayList<>();
+
+        HandBuilder(long time, long board)
+        {
+            this.time = time;
+            this.board = board;
+        }
+
+        void addPlayer(String line)
+        {
+            String[] parts = line.split(" ", 6);
+            if (parts.length < 6)
+            {
+                throw new IllegalArgumentException("Can't understand player line: "+line);
+            }
+            players.add(parts);
+        }
+
+        HandHistoryStore.Hand build()
+        {
+            int n = players.size();
+            HandHistoryStore.Hand h = new HandHistoryStore.Hand();
+            h.time = time;
+            h.board = board;
+            h.players = new String[n];
+            h.positions = new int[n];
+            h.actions = new int[n][];
+            h.invested = new int[n];
+            h.won = new int[n];
+            h.hole = new long[n];
+            for (int i = 0; i < n; i++)
+            {
+                String[] p = players.get(i);
+                h.positions[i] = Integer.parseInt(p[0]);
+                h.invested[i] = Integer.parseInt(p[1]);
+                h.won[i] = Integer.parseInt(p[2]);
+                h.hole[i] = cards(p[3]);
+                h.actions[i] = parseActions(p[4]);
+                h.players[i] = p[5];
+            }
+            return h;
+        }
+    }
+
+    private static int[] parseActions(String s)
+    {
+        int[] actions = new int[HandHistoryStore.NUM_STREETS];
+        String[] streets = s.split("/");
+        for (int st = 0; st < streets.length && st < actions.length; st++)
+        {
+            int n = 0;
+            for (char c : streets[st].toCharArray())
+            {
+                int a = ACTION_CHARS.indexOf(c);
+                if (a > 0 && n < HandHistoryStore.MAX_ACTIONS)
+                {
+                    actions[st] |= a << (4 * n++);
+                }
+            }
+        }
+        return actions;
+    }
+
+    private static String formatActions(int[] packed)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int st = 0; st < packed.length; st++)
+        {
+            if (st > 0)
+            {
+                sb.append('/');
+            }
+            if (packed[st] == 0)
+            {
+                sb.append('.');
+            }
+            for (int a = packed[st]; a != 0; a >>>= 4)
+            {
+                sb.append(ACTION_CHARS.charAt(a & 0xF));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes everything in a store out as a history file
+     * @param store The store
+     * @param out The file to write
+     * @return The number of hands written
+     * @throws IOException If the store can't be read or the file written
+     */
+    public static long export(final HandHistoryStore store, File out) throws IOException
+    {
+        final long[] hands = new long[1];
+        try (final BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)))
+        {
+            final IOException[] error = new IOException[1];
+            store.scan(new HandHistoryStore.Filter(), new HandHistoryStore.Visitor()
+            {
+                private long lastHand = -1;
+                private final int[] actions = new int[HandHistoryStore.NUM_STREETS];
+
+                @Override
+                public void visit(HandHistoryStore.Columns b, int[] selected, int count) {
+                    try
+                    {
+                        for (int j = 0; j < count; j++)
+                        {
+                            int i = selected[j];
+                            /* A hand's rows are next to each other, though they can run into the next block */
+                            if (b.hand[i] != lastHand)
+                            {
+                                lastHand = b.hand[i];
+                                hands[0]++;
+                                w.write("Hand "+b.time[i]+" "+(b.board[i] == 0 ? "-" : CardMask.toString(b.board[i]))+"\n");
+                            }
+                            for (int st = 0; st < actions.length; st++)
+                            {
+                                actions[st] = b.actions[st][i];
+                            }
+                            w.write(b.position[i]+" "+b.invested[i]+" "+b.won[i]+" "+
+                                    (b.hole[i] == 0 ? "-" : CardMask.toString(b.hole[i]))+" "+
+                                    formatActions(actions)+" "+store.getPlayerName(b.player[i])+"\n");
+                        }
+                    }
+                    catch(IOException e)
+                    {
+                        error[0] = e;
+                    }
+                }
+            });
+            if (error[0] != null)
+            {
+                throw error[0];
+            }
+        }
+        return hands[0];
+    }
+
+    /**
+     * Rebuilds everyone's stats from the history store
+     * @param store The store
+     * @param stats The stats, which are cleared first
+     * @throws IOException If the store can't be read
+     */
+    public static void rebuildStats(HandHistoryStore store, final StatsTracker stats) throws IOException
+    {
+        /* Running clients could be saving the files we're about to delete */
+        stats.lockExclusive();
+        stats.clear();
+        final HandHistoryStore s = store;
+        store.scan(new HandHistoryStore.Filter(), new HandHistoryStore.Visitor()
+        {
+            private final int[] actions = new int[HandHistoryStore.NUM_STREETS];
+
+            @Override
+            public void visit(HandHistoryStore.Columns b, int[] selected, int count) {
+                for (int j = 0; j < count; j++)
+                {
+                    int i = selected[j];
+                    for (int st = 0; st < actions.length; st++)
+                    {
+                        actions[st] = b.actions[st][i];
+                    }
+                    stats.addHistory(s.getPlayerName(b.player[i]), actions);
+                }
+            }
+        });
+        stats.flush();
+    }
+
+    /**
+     * Imports a directory of history files into the client's stores, printing progress
+     * @param args The directory to import, "--export &lt;file&gt;" or "--rebuild-stats"
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: HandHistoryImporter <directory> | --export <file> | --rebuild-stats");
+            return;
+        }
+
+        HandHistoryStore store = new HandHistoryStore(new File(Utils.getDataDirectory(), "history"));
+        StatsTracker stats = new StatsTracker();
+        long start = System.nanoTime();
+
+        if (args[0].equals("--export") && args.length > 1)
+        {
+            long hands = export(store, new File(args[1]));
+            System.out.println("Exported "+hands+" hands in "+(System.nanoTime() - start) / 1000000+"ms");
+        }
+        else if (args[0].equals("--rebuild-stats"))
+        {
+            rebuildStats(store, stats);
+            System.out.println("Rebuilt stats in "+(System.nanoTime() - start) / 1000000+"ms");
+        }
+        else
+        {
+            HandHistoryImporter importer = new HandHistoryImporter(store, stats, ForkJoinPool.commonPool(),
+                    new File(Utils.getDataDirectory(), "import.done"));
+            long hands = importer.importDirectory(new File(args[0]), new Progress()
+            {
+                @Override
+                public void update(long bytesDone, long bytesTotal, long hands, long nanos) {
+                    double secs = Math.max(nanos, 1) / 1e9;
+                    System.out.println(String.format("%5.1f%%  %d hands  %.1f MB/s  %.0f hands/s",
+                            bytesTotal == 0 ? 100.0 : 100.0 * bytesDone / bytesTotal, hands,
+                            bytesDone / secs / (1 << 20), hands / secs));
+                }
+            });
+            System.out.println("Imported "+hands+" hands in "+(System.nanoTime() - start) / 1000000+"ms");
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,948 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores every hand we've played, one row per player per hand, in a compressed column-oriented file.
+ * <p>
+ * Rows are appended in blocks of up to {@value #BLOCK_ROWS}. Within a block each column (hand, time, player,
+ * position, the actions on each street, chips put in, chips won, board and hole cards) is stored one after
+ * the other as variable-length integers, and the whole block is deflated. In front of each block is a small
+ * header with the block's zone map: the range of hands and times it covers, and which players appear in it.
+ * Scans read the headers and only inflate blocks that could match, then decode the columns they hold into
+ * plain arrays and filter those a column at a time.
+ * <p>
+ * Hands are handed to {@link #record(Hand)} as they finish and written on a background thread, so the
+ * thread reading the server's events never waits on the disk.
+ *
+ * @author Jeremy Collette
+ */
+public class HandHistoryStore implements Closeable {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(HandHistoryStore.class);
+
+    public static final int BLOCK_ROWS = 4096;
+
+    public static final int PRE_FLOP = 0;
+    public static final int FLOP = 1;
+    public static final int TURN = 2;
+    public static final int RIVER = 3;
+    public static final int NUM_STREETS = 4;
+
+    /* Actions, packed 4 bits each (first action lowest) into one int per street - up to 8 per street */
+    public static final int POST = 1;
+    public static final int CHECK = 2;
+    public static final int CALL = 3;
+    public static final int BET = 4;
+    public static final int FOLD = 5;
+    public static final int MAX_ACTIONS = 8;
+
+    private static final String DATA_FILE = "hands.col";
+    private static final String NAMES_FILE = "players.txt";
+    private static final int FILE_MAGIC = 0x48485331;
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_MAGIC = 0x424C4B31;
+
+    /* Block header: magic, rows, first and last hand, first and last time, player mask, compressed and raw length */
+    private static final int BLOCK_HEADER_SIZE = 4 + 4 + 5 * 8 + 4 + 4;
+
+    private static HandHistoryStore shared;
+
+    private final File file;
+    private final File namesFile;
+    private final ExecutorService writer;
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final HashMap<String, Integer> ids = new HashMap<>();
+
+    /* Held for as long as the store is open, so only one process writes to it */
+    private final FileLock lock;
+
+    /* Only touched on the writer thread */
+    private final RandomAccessFile out;
+    private final Columns pending = new Columns(BLOCK_ROWS);
+    private long nextHandId;
+
+    /* The first write to fail since the last flush, so the flush can report it. Only touched on the writer thread. */
+    private IOException writeError;
+
+    /* Everything before this is whole blocks that scans can read */
+    private volatile long committed;
+
+    /**
+     * A finished hand, with one entry in each array per player who took part
+     */
+    public static final class Hand
+    {
+        public long time;
+        public long board;
+        public String[] players;
+        public int[] positions;
+        /** Packed actions of each player on each street */
+        public int[][] actions;
+        public int[] invested;
+        public int[] won;
+        /** Hole cards of each player, 0 if we never saw them */
+        public long[] hole;
+    }
+
+    /**
+     * Which rows a scan wants. Unset bounds match everything.
+     */
+    public static final class Filter
+    {
+        public long minHand = Long.MIN_VALUE;
+        public long maxHand = Long.MAX_VALUE;
+        public long minTime = Long.MIN_VALUE;
+        public long maxTime = Long.MAX_VALUE;
+        /** Player name, or null for every player */
+        public String player;
+    }
+
+    /**
+     * Receives the rows of a block that passed a scan's filter
+     */
+    public interface Visitor
+    {
+        /**
+         * @param block The decoded block
+         * @param selected Indexes of the matching rows in the block
+         * @param count Number of matching rows
+         */
+        void visit(Columns block, int[] selected, int count);
+    }
+
+    /**
+     * Totals over the rows matching a filter
+     */
+    public static final class Summary
+    {
+        public long rows;
+        public long invested;
+        public long won;
+        public long vpip;
+        public long pfr;
+        public long sawFlop;
+
+        public long getNet()
+        {
+            return won - invested;
+        }
+
+        @Override
+        public String toString()
+        {
+            return rows+" hands, net "+getNet()+", VPIP "+vpip+", PFR "+pfr+", saw flop "+sawFlop;
+        }
+    }
+
+    /**
+     * One block of rows, a plain array per column
+     */
+    public static final class Columns
+    {
+        public int rows;
+        public final long[] hand;
+        public final long[] time;
+        public final int[] player;
+        public final int[] position;
+        public final int[][] actions;
+        public final int[] invested;
+        public final int[] won;
+        public final long[] board;
+        public final long[] hole;
+
+        Columns(int capacity)
+        {
+            hand = new long[capacity];
+            time = new long[capacity];
+            player = new int[capacity];
+            position = new int[capacity];
+            actions = new int[NUM_STREETS][capacity];
+            invested = new int[capacity];
+            won = new int[capacity];
+            board = new long[capacity];
+            hole = new long[capacity];
+        }
+    }
+
+    /**
+     * Opens a store, creating it if needed
+     * @param dir Directory to keep the store in
+     * @throws IOException If the store can't be opened
+     */
+    public HandHistoryStore(File dir) throws IOException
+    {
+        dir.mkdirs();
+        file = new File(dir, DATA_FILE);
+        namesFile = new File(dir, NAMES_FILE);
+        loadNames();
+
+        out = new RandomAccessFile(file, "rw");
+        lock = lock(out);
+        if (out.length() < FILE_HEADER_SIZE)
+        {
+            out.setLength(0);
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+        }
+        else if (out.readInt() != FILE_MAGIC || out.readInt() != FILE_VERSION)
+        {
+            out.close();
+            throw new IOException(file+" is not a hand history store");
+        }
+        recover();
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Hand history writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Gets the store in the data directory, opening it the first time. It is closed when the JVM exits.
+     * @return The store, or null if it can't be opened
+     */
+    public static synchronized HandHistoryStore getShared()
+    {
+        if (shared == null)
+        {
+            try
+            {
+                shared = new HandHistoryStore(new File(Utils.getDataDirectory(), "history"));
+                final HandHistoryStore store = shared;
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+                {
+                    @Override
+                    public void run() {
+                        try
+                        {
+                            store.close();
+                        }
+                        catch(IOException e)
+                        {
+                            /* Nothing we can do on the way out */
+                        }
+                    }
+                }));
+            }
+            catch(IOException e)
+            {
+                LOG.warn("Could not open the hand history", e);
+                return null;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Takes the store's file for ourselves, so a client and an import can't write it at once
+     */
+    private FileLock lock(RandomAccessFile raf) throws IOException
+    {
+        FileLock l;
+        try
+        {
+            l = raf.getChannel().tryLock();
+        }
+        catch(OverlappingFileLockException e)
+        {
+            l = null;
+        }
+        if (l == null)
+        {
+            raf.close();
+            throw new IOException(file+" is in use by another client or import");
+        }
+        return l;
+    }
+
+    /**
+     * Walks the blocks to find where the last whole one ends, cutting off any half-written one
+     */
+    private void recover() throws IOException
+    {
+        long length = out.length();
+        long pos = FILE_HEADER_SIZE;
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+        while (pos + BLOCK_HEADER_SIZE <= length)
+        {
+            out.seek(pos);
+            out.readFully(header);
+            ByteBuffer b = ByteBuffer.wrap(header);
+            if (b.getInt(0) != BLOCK_MAGIC)
+            {
+                break;
+            }
+            long end = pos + BLOCK_HEADER_SIZE + b.getInt(48);
+            if (end > length)
+            {
+                break;
+            }
+            nextHandId = b.getLong(16) + 1;
+            pos = end;
+        }
+        if (pos != length)
+        {
+            out.setLength(pos);
+        }
+        committed = pos;
+    }
+
+    /**
+     * Gets where the whole blocks end, to roll back to later
+     * @return The length of the store's committed blocks
+     */
+    public long getCommittedLength()
+    {
+        return committed;
+    }
+
+    /**
+     * Throws away every block written after a point, and any rows still waiting to be written
+     * @param length A length from {@link #getCommittedLength()}
+     * @throws IOException If the store couldn't be cut back
+     */
+    public void rollBack(final long length) throws IOException
+    {
+        try
+        {
+            writer.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws IOException {
+                    pending.rows = 0;
+                    writeError = null;
+                    if (length < committed)
+                    {
+                        out.setLength(Math.max(length, FILE_HEADER_SIZE));
+                        nextHandId = 0;
+                        recover();
+                    }
+                    return null;
+                }
+            }).get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rolling back "+file);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void loadNames() throws IOException
+    {
+        if (!namesFile.exists())
+        {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(namesFile), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                ids.put(line, names.size());
+                names.add(line);
+            }
+        }
+    }
+
+    /**
+     * Gets the number a player's name is stored as, adding it if it's new
+     */
+    private int idOf(String name) throws IOException
+    {
+        String n = name.replace('\n', ' ').replace('\r', ' ');
+        synchronized (names)
+        {
+            Integer id = ids.get(n);
+            if (id == null)
+            {
+                try (Writer w = new OutputStreamWriter(new FileOutputStream(namesFile, true), StandardCharsets.UTF_8))
+                {
+                    w.write(n + "\n");
+                }
+                id = names.size();
+                ids.put(n, id);
+                names.add(n);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Gets the number a player's name is stored as
+     * @param name The player's name
+     * @return The number, or -1 if they aren't in the store
+     */
+    public int getPlayerId(String name)
+    {
+        synchronized (names)
+        {
+            Integer id = ids.get(name);
+            return id == null ? -1 : id;
+        }
+    }
+
+    public String getPlayerName(int id)
+    {
+        synchronized (names)
+        {
+            return names.get(id);
+        }
+    }
+
+    /**
+     * Adds a finished hand. It is written on the store's own thread.
+     * @param h The hand
+     */
+    public void record(final Hand h)
+    {
+        writer.execute(new Runnable()
+        {
+            @Override
+            public void run() {
+                try
+                {
+                    append(h);
+                }
+                catch(IOException e)
+                {
+                    /* Losing a hand of history isn't worth interrupting the game for, but the next flush says so */
+                    LOG.warn("Could not write hand to "+file, e);
+                    if (writeError == null)
+                    {
+                        writeError = e;
+                    }
+                }
+            }
+        });
+    }
+
+    private void append(Hand h) throws IOException
+    {
+        long id = nextHandId++;
+        for (int i = 0; i < h.players.length; i++)
+        {
+            int player = idOf(h.players[i]);
+            int row = pending.rows++;
+            pending.hand[row] = id;
+            pending.time[row] = h.time;
+            pending.player[row] = player;
+            pending.position[row] = h.positions[i];
+            for (int s = 0; s < NUM_STREETS; s++)
+            {
+                pending.actions[s][row] = h.actions[i][s];
+            }
+            pending.invested[row] = h.invested[i];
+            pending.won[row] = h.won[i];
+            pending.board[row] = h.board;
+            pending.hole[row] = h.hole[i];
+
+            if (pending.rows == BLOCK_ROWS)
+            {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes any rows still waiting to disk, as a (possibly short) block
+     * @throws IOException If they couldn't be written, or any block recorded since the last flush was dropped
+     */
+    public void flush() throws IOException
+    {
+        try
+        {
+            writer.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws IOException {
+                    IOException error = writeError;
+                    writeError = null;
+                    try
+                    {
+                        writeBlock();
+                    }
+                    catch(IOException e)
+                    {
+                        if (error == null)
+                        {
+                            throw e;
+                        }
+                        error.addSuppressed(e);
+                    }
+                    if (error != null)
+                    {
+                        throw error;
+                    }
+                    return null;
+                }
+            }).get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing "+file);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (writer.isShutdown())
+        {
+            return;
+        }
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            writer.shutdown();
+            try
+            {
+                writer.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            lock.release();
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException
+    {
+        Columns c = pending;
+        int n = c.rows;
+        if (n == 0)
+        {
+            return;
+        }
+
+        long minHand = Long.MAX_VALUE, maxHand = Long.MIN_VALUE, minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        long playerMask = 0;
+        for (int i = 0; i < n; i++)
+        {
+            minHand = Math.min(minHand, c.hand[i]);
+            maxHand = Math.max(maxHand, c.hand[i]);
+            minTime = Math.min(minTime, c.time[i]);
+            maxTime = Math.max(maxTime, c.time[i]);
+            playerMask |= 1L << (c.player[i] & 63);
+        }
+
+        /* Hands and times are stored relative to the start of the block, and mostly repeat or climb slowly */
+        VarBuffer raw = new VarBuffer(n * 32);
+        long prev = minHand;
+        for (int i = 0; i < n; i++)
+        {
+            raw.putSigned(c.hand[i] - prev);
+            prev = c.hand[i];
+        }
+        prev = minTime;
+        for (int i = 0; i < n; i++)
+        {
+            raw.putSigned(c.time[i] - prev);
+            prev = c.time[i];
+        }
+        raw.putAll(c.player, n);
+        raw.putAll(c.position, n);
+        for (int s = 0; s < NUM_STREETS; s++)
+        {
+            raw.putAll(c.actions[s], n);
+        }
+        raw.putAll(c.invested, n);
+        for (int i = 0; i < n; i++)
+        {
+            raw.putSigned(c.won[i]);
+        }
+        for (int i = 0; i < n; i++)
+        {
+            raw.put(c.board[i]);
+        }
+        for (int i = 0; i < n; i++)
+        {
+            raw.put(c.hole[i]);
+        }
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw.bytes, 0, raw.length);
+        deflater.finish();
+        byte[] packed = new byte[raw.length + 64];
+        int packedLength = 0;
+        while (!deflater.finished())
+        {
+            if (packedLength == packed.length)
+            {
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            }
+            packedLength += deflater.deflate(packed, packedLength, packed.length - packedLength);
+        }
+        deflater.end();
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + packedLength);
+        block.putInt(BLOCK_MAGIC).putInt(n);
+        block.putLong(minHand).putLong(maxHand).putLong(minTime).putLong(maxTime).putLong(playerMask);
+        block.putInt(packedLength).putInt(raw.length);
+        block.put(packed, 0, packedLength);
+
+        try
+        {
+            out.seek(committed);
+            out.write(block.array());
+            committed += block.capacity();
+        }
+        catch(IOException e)
+        {
+            /* Drop the block rather than keep failing on it, and cut off whatever part of it was written */
+            LOG.error("Dropped "+n+" rows that could not be written to "+file, e);
+            try
+            {
+                out.setLength(committed);
+            }
+            catch(IOException ex)
+            {
+                /* The next open cuts it off instead */
+            }
+            throw e;
+        }
+        finally
+        {
+            c.rows = 0;
+        }
+    }
+
+    /**
+     * Goes through every stored row matching a filter, skipping blocks whose zone maps rule them out.
+     * Rows still waiting to be written are not included.
+     * @param f The filter
+     * @param v Receives the matching rows of each block
+     * @throws IOException If the store can't be read
+     */
+    public void scan(Filter f, Visitor v) throws IOException
+    {
+        int player = -1;
+        if (f.player != null)
+        {
+            player = getPlayerId(f.player);
+            if (player < 0)
+            {
+                return;
+            }
+        }
+
+        long end = committed;
+        Columns block = new Columns(BLOCK_ROWS);
+        int[] selected = new int[BLOCK_ROWS];
+        byte[] header = new byte[BLOCK_HEADER_SIZE];
+        byte[] packed = new byte[0];
+        byte[] raw = new byte[0];
+        Inflater inflater = new Inflater();
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"))
+        {
+            long pos = FILE_HEADER_SIZE;
+            while (pos < end)
+            {
+                in.seek(pos);
+                in.readFully(header);
+                ByteBuffer h = ByteBuffer.wrap(header);
+                int rows = h.getInt(4);
+                long minHand = h.getLong(8), maxHand = h.getLong(16);
+                long minTime = h.getLong(24), maxTime = h.getLong(32);
+                long playerMask = h.getLong(40);
+                int packedLength = h.getInt(48), rawLength = h.getInt(52);
+                pos += BLOCK_HEADER_SIZE + packedLength;
+
+                /* Zone maps */
+                if (maxHand < f.minHand || minHand > f.maxHand || maxTime < f.minTime || minTime > f.maxTime)
+                {
+                    continue;
+                }
+                if (player >= 0 && (playerMask & (1L << (player & 63))) == 0)
+                {
+                    continue;
+                }
+
+                if (packed.length < packedLength)
+                {
+                    packed = new byte[packedLength];
+                }
+                if (raw.length < rawLength)
+                {
+                    raw = new byte[rawLength];
+                }
+                in.readFully(packed, 0, packedLength);
+                inflater.reset();
+                inflater.setInput(packed, 0, packedLength);
+                try
+                {
+                    inflater.inflate(raw, 0, rawLength);
+                }
+                catch(DataFormatException e)
+                {
+                    throw new IOException("Corrupt block in "+file, e);
+                }
+                decode(raw, rows, minHand, minTime, block);
+
+                /* Narrow the selection one column at a time */
+                int count = 0;
+                for (int i = 0; i < rows; i++)
+                {
+                    selected[count] = i;
+                    count += (block.hand[i] >= f.minHand & block.hand[i] <= f.maxHand) ? 1 : 0;
+                }
+                int kept = 0;
+                for (int j = 0; j < count; j++)
+                {
+                    int i = selected[j];
+                    selected[kept] = i;
+                    kept += (block.time[i] >= f.minTime & block.time[i] <= f.maxTime) ? 1 : 0;
+                }
+                count = kept;
+                if (player >= 0)
+                {
+                    kept = 0;
+                    for (int j = 0; j < count; j++)
+                    {
+                        int i = selected[j];
+                        selected[kept] = i;
+                        kept += block.player[i] == player ? 1 : 0;
+                    }
+                    count = kept;
+                }
+
+                if (count > 0)
+                {
+                    v.visit(block, selected, count);
+                }
+            }
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Adds up the rows matching a filter
+     * @param f The filter
+     * @return The totals
+     * @throws IOException If the store can't be read
+     */
+    public Summary summarise(Filter f) throws IOException
+    {
+        final Summary s = new Summary();
+        scan(f, new Visitor()
+        {
+            @Override
+            public void visit(Columns b, int[] selected, int count) {
+                s.rows += count;
+                for (int j = 0; j < count; j++)
+                {
+                    int i = selected[j];
+                    int pre = b.actions[PRE_FLOP][i];
+                    s.invested += b.invested[i];
+                    s.won += b.won[i];
+                    s.vpip += hasAction(pre, CALL) || hasAction(pre, BET) ? 1 : 0;
+                    s.pfr += hasAction(pre, BET) ? 1 : 0;
+                    s.sawFlop += b.actions[FLOP][i] != 0 ? 1 : 0;
+                }
+            }
+        });
+        return s;
+    }
+
+    /**
+     * Checks a street's packed actions for an action
+     * @param packed The packed actions
+     * @param action The action
+     * @return Whether it was taken
+     */
+    public static boolean hasAction(int packed, int action)
+    {
+        for (int a = packed; a != 0; a >>>= 4)
+        {
+            if ((a & 0xF) == action)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void decode(byte[] raw, int n, long minHand, long minTime, Columns c)
+    {
+        VarBuffer in = new VarBuffer(raw);
+        long prev = minHand;
+        for (int i = 0; i < n; i++)
+        {
+            prev += in.getSigned();
+            c.hand[i] = prev;
+        }
+        prev = minTime;
+        for (int i = 0; i < n; i++)
+        {
+            prev += in.getSigned();
+            c.time[i] = prev;
+        }
+        in.getAll(c.player, n);
+        in.getAll(c.position, n);
+        for (int s = 0; s < NUM_STREETS; s++)
+        {
+            in.getAll(c.actions[s], n);
+        }
+        in.getAll(c.invested, n);
+        for (int i = 0; i < n; i++)
+        {
+            c.won[i] = (int)in.getSigned();
+        }
+        for (int i = 0; i < n; i++)
+        {
+            c.board[i] = in.get();
+        }
+        for (int i = 0; i < n; i++)
+        {
+            c.hole[i] = in.get();
+        }
+        c.rows = n;
+    }
+
+    /**
+     * Bytes holding variable-length integers, 7 bits to a byte
+     */
+    private static final class VarBuffer
+    {
+        byte[] bytes;
+        int length;
+        int pos;
+
+        VarBuffer(int capacity)
+        {
+            bytes = new byte[capacity];
+        }
+
+        VarBuffer(byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        void put(long v)
+        {
+            if (length + 10 > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2 + 10);
+            }
+            while ((v & ~0x7FL) != 0)
+            {
+                bytes[length++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte)v;
+        }
+
+        void putSigned(long v)
+        {
+            put((v << 1) ^ (v >> 63));
+        }
+
+        void putAll(int[] values, int n)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                put(values[i] & 0xFFFFFFFFL);
+            }
+        }
+
+        long get()
+        {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do
+            {
+                b = bytes[pos++];
+                v |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            return v;
+        }
+
+        long getSigned()
+        {
+            long v = get();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        void getAll(int[] values, int n)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                values[i] = (int)get();
+            }
+        }
+    }
+}
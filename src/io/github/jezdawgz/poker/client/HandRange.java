@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.Arrays;
+
+/**
+ * A range of hole cards an opponent might hold, as two card {@link CardMask}s.
+ * <p>
+ * Ranges can be parsed from the usual shorthand, separated by commas: "AA" (every combination of a pair),
+ * "AKs" (suited), "AKo" (offsuit), "AK" (both), "QQ+" and "ATs+" (the hand and everything above it with the
+ * same top card), or exact cards such as "AsKd".
+ *
+ * @author Jeremy Collette
+ */
+public class HandRange {
+
+    private static final String RANKS = "23456789TJQKA";
+    private static final String SUITS = "cdhs";
+
+    private static final HandRange RANDOM;
+
+    static
+    {
+        long[] all = new long[CardMask.NUM_CARDS * (CardMask.NUM_CARDS - 1) / 2];
+        int n = 0;
+        for (long a = CardMask.FULL_DECK; a != 0; a &= a - 1)
+        {
+            long first = a & -a;
+            for (long b = a & (a - 1); b != 0; b &= b - 1)
+            {
+                all[n++] = first | (b & -b);
+            }
+        }
+        RANDOM = new HandRange(all);
+    }
+
+    private final long[] combos;
+
+    /**
+     * Creates a range from two card masks
+     * @param combos The hole card combinations
+     */
+    public HandRange(long[] combos)
+    {
+        this.combos = combos;
+    }
+
+    /**
+     * Gets the range of every possible pair of hole cards
+     * @return A random hand
+     */
+    public static HandRange random()
+    {
+        return RANDOM;
+    }
+
+    /**
+     * Gets the combinations in this range
+     * @return The combinations (not a copy - don't modify it)
+     */
+    public long[] getCombos()
+    {
+        return combos;
+    }
+
+    public int size()
+    {
+        return combos.length;
+    }
+
+    /**
+     * Gets the combinations that don't use any of the given cards
+     * @param dead Cards that are already out
+     * @return The remaining combinations
+     */
+    public long[] getCombos(long dead)
+    {
+        long[] live = new long[combos.length];
+        int n = 0;
+        for (long c : combos)
+        {
+            if ((c & dead) == 0)
+            {
+                live[n++] = c;
+            }
+        }
+        return Arrays.copyOf(live, n);
+    }
+
+    /**
+     * Parses a range such as "QQ+, AKs, AsKd"
+     * @param range The range
+     * @return The parsed range
+     * @throws IllegalArgumentException If the range can't be understood
+     */
+    public static HandRange parse(String range)
+    {
+        long[] found = new long[RANDOM.size()];
+        int n = 0;
+        for (String part : range.split(","))
+        {
+            part = part.trim();
+            if (part.isEmpty())
+            {
+                continue;
+            }
+            for (long c : parsePart(part))
+            {
+                boolean duplicate = false;
+                for (int i = 0; i < n && !duplicate; i++)
+                {
+                    duplicate = found[i] == c;
+                }
+                if (!duplicate)
+                {
+                    found[n++] = c;
+                }
+            }
+        }
+        return new HandRange(Arrays.copyOf(found, n));
+    }
+
+    private static long[] parsePart(String part)
+    {
+        /* Exact cards, e.g. AsKd */
+        if (part.length() == 4 && SUITS.indexOf(part.charAt(1)) >= 0 && SUITS.indexOf(part.charAt(3)) >= 0)
+        {
+            long cards = CardMask.parse(part);
+            if (CardMask.count(cards) != 2)
+            {
+                throw new IllegalArgumentException("Same card twice: "+part);
+            }
+            return new long[]{cards};
+        }
+
+        boolean plus = part.endsWith("+");
+        String hand = plus ? part.substring(0, part.length() - 1) : part;
+        if (hand.length() < 2 || hand.length() > 3)
+        {
+            throw new IllegalArgumentException("Can't understand hand: "+part);
+        }
+
+        int high = rank(hand.charAt(0), part);
+        int low = rank(hand.charAt(1), part);
+        boolean suited = hand.length() < 3 || hand.charAt(2) == 's';
+        boolean offsuit = hand.length() < 3 || hand.charAt(2) == 'o';
+        if (hand.length() == 3 && !suited && !offsuit)
+        {
+            throw new IllegalArgumentException("Can't understand hand: "+part);
+        }
+        if (low > high)
+        {
+            int t = low; low = high; high = t;
+        }
+
+        long[] out = new long[RANDOM.size()];
+        int n = 0;
+        int top = plus ? (high == low ? CardMask.NUM_RANKS - 1 : high - 1) : low;
+        for (int r = low; r <= top; r++)
+        {
+            int h = high == low ? r : high;
+            for (int s1 = 0; s1 < CardMask.NUM_SUITS; s1++)
+            {
+                for (int s2 = 0; s2 < CardMask.NUM_SUITS; s2++)
+                {
+                    if ((s1 == s2 && (!suited || h == r)) || (s1 != s2 && !offsuit && h != r))
+                    {
+                        continue;
+                    }
+                    if (h == r && s2 <= s1)
+                    {
+                        continue;
+                    }
+                    out[n++] = CardMask.of(CardMask.index(s1, h)) | CardMask.of(CardMask.index(s2, r));
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int rank(char c, String part)
+    {
+        int r = RANKS.indexOf(Character.toUpperCase(c));
+        if (r < 0)
+        {
+            throw new IllegalArgumentException("Unknown rank '"+c+"' in "+part);
+        }
+        return r;
+    }
+
+    @Override
+    public String toString()
+    {
+        return combos.length+" combinations";
+    }
+}
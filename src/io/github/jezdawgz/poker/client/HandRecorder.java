@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.Arrays;
+
+/**
+ * Follows a hand through the server's {@link Event}s, from the {@link NewRoundEvent} to the last
+ * {@link PlayerWinsChipsEvent}, and passes it to a {@link HandHistoryStore} once it is over.
+ *
+ * @author Jeremy Collette
+ */
+public class HandRecorder {
+
+    private static final int MAX_SEATS = SidePotTracker.MAX_SEATS;
+
+    private final HandHistoryStore store;
+
+    private String[] names = new String[0];
+    private int clientIndex;
+    private int dealer;
+    private boolean inHand;
+    private int street;
+    private long board;
+    private long ourHole;
+
+    private final boolean[] played = new boolean[MAX_SEATS];
+    private final int[] actions = new int[MAX_SEATS * HandHistoryStore.NUM_STREETS];
+    private final int[] numActions = new int[MAX_SEATS * HandHistoryStore.NUM_STREETS];
+    private final int[] invested = new int[MAX_SEATS];
+    private final int[] onTable = new int[MAX_SEATS];
+    private final int[] won = new int[MAX_SEATS];
+    private int currentBet;
+
+    /**
+     * Creates a recorder
+     * @param store Where to put finished hands
+     */
+    public HandRecorder(HandHistoryStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * Follows an event from the server
+     * @param e The event
+     */
+    public void receiveEvent(Event e)
+    {
+        if (NewGameEvent.class.isInstance(e))
+        {
+            NewGameEvent evt = (NewGameEvent)e;
+            names = evt.playerNames.clone();
+            clientIndex = evt.clientIndex;
+            inHand = false;
+        }
+        else if (NewRoundEvent.class.isInstance(e))
+        {
+            newHand(((NewRoundEvent)e).dealerIndex);
+        }
+        else if (NewPlayerCardEvent.class.isInstance(e))
+        {
+            ourHole |= CardMask.of(((NewPlayerCardEvent)e).newCard);
+        }
+        else if (NewCommunityCardEvent.class.isInstance(e))
+        {
+            board |= CardMask.of(((NewCommunityCardEvent)e).newCard);
+            street = Math.max(street, Math.min(CardMask.count(board) - 2, HandHistoryStore.RIVER));
+            Arrays.fill(onTable, 0);
+            currentBet = 0;
+        }
+        else if (PlayerChipsOnTableEvent.class.isInstance(e))
+        {
+            PlayerChipsOnTableEvent evt = (PlayerChipsOnTableEvent)e;
+            int action;
+            if (PlayerPostBlindsEvent.class.isInstance(e))
+            {
+                action = HandHistoryStore.POST;
+            }
+            else
+            {
+                action = evt.amount > currentBet ? HandHistoryStore.BET : HandHistoryStore.CALL;
+            }
+            if (seated(evt.playerIndex))
+            {
+                invested[evt.playerIndex] += evt.amount - onTable[evt.playerIndex];
+                onTable[evt.playerIndex] = evt.amount;
+            }
+            currentBet = Math.max(currentBet, evt.amount);
+            act(evt.playerIndex, action);
+        }
+        else if (PlayerCheckEvent.class.isInstance(e))
+        {
+            act(((PlayerCheckEvent)e).playerIndex, HandHistoryStore.CHECK);
+        }
+        else if (PlayerFoldEvent.class.isInstance(e))
+        {
+            act(((PlayerFoldEvent)e).playerIndex, HandHistoryStore.FOLD);
+        }
+        else if (PlayerDisconnectEvent.class.isInstance(e))
+        {
+            act(((PlayerDisconnectEvent)e).playerIndex, HandHistoryStore.FOLD);
+        }
+        else if (PlayerWinsChipsEvent.class.isInstance(e))
+        {
+            PlayerWinsChipsEvent evt = (PlayerWinsChipsEvent)e;
+            if (seated(evt.playerIndex))
+            {
+                won[evt.playerIndex] += evt.amountWon;
+            }
+            if (evt.remainingPot == 0)
+            {
+                finishHand();
+            }
+        }
+    }
+
+    private void newHand(int dealerIndex)
+    {
+        dealer = dealerIndex;
+        inHand = true;
+        street = HandHistoryStore.PRE_FLOP;
+        board = 0;
+        ourHole = 0;
+        currentBet = 0;
+        Arrays.fill(played, false);
+        Arrays.fill(actions, 0);
+        Arrays.fill(numActions, 0);
+        Arrays.fill(invested, 0);
+        Arrays.fill(onTable, 0);
+        Arrays.fill(won, 0);
+    }
+
+    private boolean seated(int seat)
+    {
+        return seat >= 0 && seat < names.length && seat < MAX_SEATS;
+    }
+
+    private void act(int seat, int action)
+    {
+        if (!inHand || !seated(seat))
+        {
+            return;
+        }
+        played[seat] = true;
+        int slot = seat * HandHistoryStore.NUM_STREETS + street;
+        if (numActions[slot] < HandHistoryStore.MAX_ACTIONS)
+        {
+            actions[slot] |= action << (4 * numActions[slot]++);
+        }
+    }
+
+    private void finishHand()
+    {
+        if (!inHand)
+        {
+            return;
+        }
+        inHand = false;
+
+        int n = 0;
+        for (int s = 0; s < names.length && s < MAX_SEATS; s++)
+        {
+            n += played[s] ? 1 : 0;
+        }
+        if (n == 0)
+        {
+            return;
+        }
+
+        HandHistoryStore.Hand h = new HandHistoryStore.Hand();
+        h.time = System.currentTimeMillis();
+        h.board = board;
+        h.players = new String[n];
+        h.positions = new int[n];
+        h.actions = new int[n][HandHistoryStore.NUM_STREETS];
+        h.invested = new int[n];
+        h.won = new int[n];
+        h.hole = new long[n];
+        int row = 0;
+        for (int s = 0; s < names.length && s < MAX_SEATS; s++)
+        {
+            if (!played[s])
+            {
+                continue;
+            }
+            h.players[row] = names[s];
+            h.positions[row] = (s - dealer + names.length) % names.length;
+            for (int st = 0; st < HandHistoryStore.NUM_STREETS; st++)
+            {
+                h.actions[row][st] = actions[s * HandHistoryStore.NUM_STREETS + st];
+            }
+            h.invested[row] = invested[s];
+            h.won[row] = won[s];
+            h.hole[row] = s == clientIndex ? ourHole : 0;
+            row++;
+        }
+        store.record(h);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Traces each hand from the server's {@link Event}s: a trace per hand, a span for each street inside it, and
+ * spans for each of our decisions and for sending the command we decided on.
+ * <p>
+ * Events are followed on the reader thread as soon as they are read. Commands are queued from the Event Dispatch
+ * Thread, or from the reader thread for a pre-action, so the tracer is locked. Each send span is kept with its
+ * command until {@link #commandSent(Event)} is called for that command by the thread that wrote it.
+ *
+ * @author Jeremy Collette
+ */
+public class HandTracer {
+
+    private static final String[] STREETS = {"preflop", "flop", "turn", "river"};
+
+    private final TraceExporter exporter;
+    private final Map<Event, Span> sends = Collections.synchronizedMap(new IdentityHashMap<Event, Span>());
+
+    private String table = "";
+    private String[] names = new String[0];
+    private int ourSeat = -1;
+    private int handNumber;
+    private int boardCards;
+
+    private Span hand;
+    private Span street;
+    private Span decision;
+
+    /**
+     * Creates a tracer
+     * @param exporter Where to send finished spans
+     */
+    public HandTracer(TraceExporter exporter)
+    {
+        this.exporter = exporter;
+    }
+
+    public synchronized void setTable(String table)
+    {
+        this.table = table;
+    }
+
+    /**
+     * Follows an event from the server
+     * @param e The event
+     */
+    public synchronized void receiveEvent(Event e)
+    {
+        if (NewGameEvent.class.isInstance(e))
+        {
+            NewGameEvent evt = (NewGameEvent)e;
+            names = evt.playerNames.clone();
+            ourSeat = evt.clientIndex;
+        }
+        else if (NewRoundEvent.class.isInstance(e))
+        {
+            endHand();
+            hand = Span.startTrace(exporter, "hand")
+                    .set("table", table)
+                    .set("hand.number", ++handNumber)
+                    .set("hand.dealer", ((NewRoundEvent)e).dealerIndex)
+                    .set("hand.players", names.length);
+            boardCards = 0;
+            startStreet(0);
+        }
+        else if (NewCommunityCardEvent.class.isInstance(e) && hand != null)
+        {
+            /* The flop comes a card at a time - its span starts with the first */
+            boardCards++;
+            if (boardCards == 1 || boardCards == 4 || boardCards == 5)
+            {
+                startStreet(Math.max(1, boardCards - 2));
+            }
+        }
+        else if (PlayerTurnEvent.class.isInstance(e) && street != null)
+        {
+            if (((PlayerTurnEvent)e).playerIndex == ourSeat)
+            {
+                endDecision();
+                decision = street.startChild("decision").set("table", table);
+            }
+        }
+        else if (PlayerWinsChipsEvent.class.isInstance(e) && hand != null)
+        {
+            PlayerWinsChipsEvent evt = (PlayerWinsChipsEvent)e;
+            hand.set("hand.winner", evt.playerIndex < names.length ? names[evt.playerIndex] : String.valueOf(evt.playerIndex));
+            hand.set("hand.amount_won", evt.amountWon);
+            if (evt.remainingPot == 0)
+            {
+                endHand();
+            }
+        }
+        else if (GameOverEvent.class.isInstance(e) || (PlayerDisconnectEvent.class.isInstance(e) && ((PlayerDisconnectEvent)e).playerIndex == ourSeat))
+        {
+            endHand();
+        }
+    }
+
+    /**
+     * We've decided what to do - ends the decision and starts timing the command being sent
+     * @param command The command
+     */
+    public synchronized void commandQueued(Event command)
+    {
+        String type = command.getClass().getSimpleName();
+        if (decision != null)
+        {
+            decision.set("action", type);
+            endDecision();
+        }
+        if (street != null)
+        {
+            sends.put(command, street.startChild("send").set("table", table).set("command", type));
+        }
+    }
+
+    /**
+     * A command has been written to the server - ends its send span
+     * @param command The command, the same object that was queued
+     */
+    public void commandSent(Event command)
+    {
+        Span s = sends.remove(command);
+        if (s != null)
+        {
+            s.end();
+        }
+    }
+
+    private void startStreet(int index)
+    {
+        endDecision();
+        if (street != null)
+        {
+            street.end();
+        }
+        street = hand.startChild(STREETS[index]).set("table", table);
+    }
+
+    private void endDecision()
+    {
+        if (decision != null)
+        {
+            decision.end();
+            decision = null;
+        }
+    }
+
+    private void endHand()
+    {
+        endDecision();
+        if (street != null)
+        {
+            street.end();
+            street = null;
+        }
+        if (hand != null)
+        {
+            hand.end();
+            hand = null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records a spread of values (usually nanoseconds) cheaply enough to do on every event, HDR histogram style.
+ * <p>
+ * Values are counted in buckets that are linear within each power of two: {@value #SUB_BUCKETS} buckets per
+ * power, so any value is known to within about 3%. Recording is a couple of bit operations and an atomic
+ * increment, with no allocation and no locks.
+ *
+ * @author Jeremy Collette
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value
+     * @param value The value (negative values are counted as 0)
+     */
+    public void record(long value)
+    {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(v));
+        count.increment();
+        sum.add(v);
+        long m = max.get();
+        while (v > m && !max.compareAndSet(m, v))
+        {
+            m = max.get();
+        }
+    }
+
+    private static int bucketOf(long v)
+    {
+        int magnitude = 63 - Long.numberOfLeadingZeros(v | 1);
+        if (magnitude < SUB_BITS)
+        {
+            return (int)v;
+        }
+        int shift = magnitude - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the highest value a bucket holds
+     */
+    private static long highestIn(int bucket)
+    {
+        if (bucket < 2 * SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public double getMean()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : (double)sum.sum() / n;
+    }
+
+    /**
+     * Gets a percentile of the recorded values
+     * @param percentile The percentile (0-100)
+     * @return The value, to within one bucket
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank)
+            {
+                return Math.min(highestIn(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d max=%d", getCount(), getMean(),
+                getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(99.9), getMax());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Works out each player's Independent Chip Model (Malmuth-Harville) share of the prize pool from their stacks.
+ * <p>
+ * Rather than walking every finishing order (which is factorial in players) this runs a dynamic program over
+ * the subsets of players who have already finished above a given place, as bitmasks. That is 2^n * n steps:
+ * 2048 for a full table of 8. Stack totals of every subset are worked out once per call, and recent results are
+ * remembered per set of stacks. Results depend on the exact stacks, so there is nothing worth working out ahead
+ * of time for a payout structure - the cache is what saves the work when the same stacks come up again.
+ *
+ * @author Jeremy Collette
+ */
+public class IcmCalculator {
+
+    /** The winner takes everything - ICM equity is then just chips */
+    public static final double[] WINNER_TAKES_ALL = new double[]{1};
+
+    /** Most players we'll work ICM out for */
+    public static final int MAX_PLAYERS = 16;
+
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final double[] payouts;
+    private final Map<StacksKey, double[]> cache;
+
+    public IcmCalculator(double[] payouts)
+    {
+        this(payouts, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a calculator for a payout structure
+     * @param payouts Share of the prize pool for 1st, 2nd, 3rd... place
+     * @param cacheSize How many sets of stacks to remember the equities of
+     */
+    public IcmCalculator(double[] payouts, final int cacheSize)
+    {
+        this.payouts = payouts.clone();
+        this.cache = new LinkedHashMap<StacksKey, double[]>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StacksKey, double[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a payout structure from a string of percentages such as "50,30,20"
+     * @param s The payouts, or null for {@link #WINNER_TAKES_ALL}
+     * @return The payouts as shares of the prize pool
+     */
+    public static double[] parsePayouts(String s)
+    {
+        if (s == null || s.trim().isEmpty())
+        {
+            return WINNER_TAKES_ALL;
+        }
+        String[] parts = s.split(",");
+        double[] p = new double[parts.length];
+        double total = 0;
+        for (int i = 0; i < parts.length; i++)
+        {
+            p[i] = Double.parseDouble(parts[i].trim());
+            total += p[i];
+        }
+        for (int i = 0; i < p.length; i++)
+        {
+            p[i] /= total;
+        }
+        return p;
+    }
+
+    /**
+     * Works out each player's share of the prize pool
+     * @param stacks Each player's chips. Players with no chips get nothing.
+     * @return Each player's equity, as a share of the prize pool
+     */
+    public double[] equities(int[] stacks)
+    {
+        StacksKey key = new StacksKey(stacks);
+        synchronized (cache)
+        {
+            double[] cached = cache.get(key);
+            if (cached != null)
+            {
+                return cached.clone();
+            }
+        }
+
+        double[] result = calculate(stacks);
+        synchronized (cache)
+        {
+            cache.put(key, result.clone());
+        }
+        return result;
+    }
+
+    private double[] calculate(int[] stacks)
+    {
+        /* Only players with chips are still playing for places */
+        int[] seat = new int[stacks.length];
+        int n = 0;
+        for (int i = 0; i < stacks.length; i++)
+        {
+            if (stacks[i] > 0)
+            {
+                seat[n++] = i;
+            }
+        }
+        if (n > MAX_PLAYERS)
+        {
+            throw new IllegalArgumentException("Too many players for ICM: "+n);
+        }
+
+        int full = (1 << n) - 1;
+        long[] chips = new long[1 << n];
+        for (int s = 1; s <= full; s++)
+        {
+            int low = Integer.numberOfTrailingZeros(s);
+            chips[s] = chips[s & (s - 1)] + stacks[seat[low]];
+        }
+
+        /* prob[s] - chance that exactly the players in s take the top |s| places */
+        double[] prob = new double[1 << n];
+        double[] equity = new double[stacks.length];
+        prob[0] = 1;
+        for (int s = 0; s < full; s++)
+        {
+            if (prob[s] == 0)
+            {
+                continue;
+            }
+            int place = Integer.bitCount(s);
+            double payout = place < payouts.length ? payouts[place] : 0;
+            double left = chips[full] - chips[s];
+            for (int rest = full & ~s; rest != 0; rest &= rest - 1)
+            {
+                int i = Integer.numberOfTrailingZeros(rest);
+                double p = prob[s] * stacks[seat[i]] / left;
+                equity[seat[i]] += p * payout;
+                prob[s | (1 << i)] += p;
+            }
+        }
+        return equity;
+    }
+
+    /**
+     * Works out the equity needed to call an all-in against one player, taking ICM into account
+     * @param stacks Each player's chips behind (not counting chips already in the pot)
+     * @param hero Our seat
+     * @param villain The seat of the player we're calling
+     * @param toCall Chips we'd have to put in
+     * @param pot Chips already in the pot
+     * @return The chance of winning we need for calling to be worth as much as folding (0-1)
+     */
+    public double requiredCallEquity(int[] stacks, int hero, int villain, int toCall, int pot)
+    {
+        int call = Math.min(toCall, stacks[hero]);
+
+        int[] fold = stacks.clone();
+        fold[villain] += pot;
+
+        int[] win = stacks.clone();
+        win[hero] += pot;
+
+        int[] lose = stacks.clone();
+        lose[hero] -= call;
+        lose[villain] += pot + call;
+
+        double f = equities(fold)[hero];
+        double w = equities(win)[hero];
+        double l = equities(lose)[hero];
+        if (w <= l)
+        {
+            return 1;
+        }
+        return Math.min(1, Math.max(0, (f - l) / (w - l)));
+    }
+
+    /**
+     * Key for the cache - a copy of the stacks
+     */
+    private static final class StacksKey
+    {
+        private final int[] stacks;
+        private final int hash;
+
+        StacksKey(int[] stacks)
+        {
+            this.stacks = stacks.clone();
+            this.hash = Arrays.hashCode(stacks);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof StacksKey && Arrays.equals(stacks, ((StacksKey)o).stacks);
+        }
+    }
+}
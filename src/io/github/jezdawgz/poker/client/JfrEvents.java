@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for following server events and our commands through the client, so a
+ * recording shows them next to GC pauses and lock contention.
+ * <p>
+ * Each <code>begin</code> method returns a token to pass to the matching <code>end</code> method. When the runtime
+ * has no Flight Recorder, or nothing is being recorded, the token is null and the calls cost a field read.
+ * Only the nested classes use <code>jdk.jfr</code>, and they are only loaded when it is there.
+ *
+ * @author Jeremy Collette
+ */
+public final class JfrEvents {
+
+    private static final boolean AVAILABLE = detect();
+
+    private JfrEvents()
+    {
+    }
+
+    /**
+     * Checks whether this runtime has the Flight Recorder
+     * @return Whether the events can be recorded
+     */
+    public static boolean isAvailable()
+    {
+        return AVAILABLE;
+    }
+
+    /* Whether any recording is running, so nothing is even allocated while there isn't */
+    private static volatile boolean recording;
+
+    private static boolean detect()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            Watcher.watch();
+            return true;
+        }
+        catch(Throwable t)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Keeps {@link #recording} up to date as recordings start and stop
+     */
+    private static final class Watcher implements FlightRecorderListener
+    {
+        static void watch()
+        {
+            FlightRecorder.addListener(new Watcher());
+        }
+
+        @Override
+        public void recorderInitialized(FlightRecorder recorder)
+        {
+            update();
+        }
+
+        @Override
+        public void recordingStateChanged(Recording r)
+        {
+            update();
+        }
+
+        private static void update()
+        {
+            boolean running = false;
+            for (Recording r : FlightRecorder.getFlightRecorder().getRecordings())
+            {
+                running |= r.getState() == RecordingState.RUNNING;
+            }
+            recording = running;
+        }
+    }
+
+    /**
+     * Starts timing a read of an event from the server
+     * @return The token, or null
+     */
+    public static Object beginRead()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+        ReadEvent e = new ReadEvent();
+        if (!e.isEnabled())
+        {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    /**
+     * Finishes timing a read
+     * @param token From {@link #beginRead()}
+     * @param type The event read
+     * @param table Which table it's from
+     * @param decodeNanos How long it took to decode once its bytes started arriving
+     */
+    public static void endRead(Object token, Class<?> type, String table, long decodeNanos)
+    {
+        if (token != null)
+        {
+            ReadEvent e = (ReadEvent)token;
+            e.eventType = type.getSimpleName();
+            e.table = table;
+            e.decodeTime = decodeNanos;
+            e.commit();
+        }
+    }
+
+    /**
+     * Starts timing how long an event waits to be applied, as it is handed to the Event Dispatch Thread
+     * @return The token, or null
+     */
+    public static Object beginDispatch()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+        DispatchEvent e = new DispatchEvent();
+        if (!e.isEnabled())
+        {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public static void endDispatch(Object token, Class<?> type, String table)
+    {
+        if (token != null)
+        {
+            DispatchEvent e = (DispatchEvent)token;
+            e.eventType = type.getSimpleName();
+            e.table = table;
+            e.commit();
+        }
+    }
+
+    /**
+     * Starts timing {@link GameScreen#receiveEvent} applying an event
+     * @return The token, or null
+     */
+    public static Object beginApply()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+        ApplyEvent e = new ApplyEvent();
+        if (!e.isEnabled())
+        {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public static void endApply(Object token, Class<?> type, String table)
+    {
+        if (token != null)
+        {
+            ApplyEvent e = (ApplyEvent)token;
+            e.eventType = type.getSimpleName();
+            e.table = table;
+            e.commit();
+        }
+    }
+
+    /**
+     * Starts timing a command being written to the server
+     * @return The token, or null
+     */
+    public static Object beginSend()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+        SendEvent e = new SendEvent();
+        if (!e.isEnabled())
+        {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public static void endSend(Object token, Class<?> type, String table)
+    {
+        if (token != null)
+        {
+            SendEvent e = (SendEvent)token;
+            e.eventType = type.getSimpleName();
+            e.table = table;
+            e.commit();
+        }
+    }
+
+    /**
+     * Starts timing our turn, from reading the {@link io.github.jezdawgz.poker.server.Event.PlayerTurnEvent} to our command going out
+     * @return The token, or null
+     */
+    public static Object beginTurn()
+    {
+        if (!recording)
+        {
+            return null;
+        }
+        TurnEvent e = new TurnEvent();
+        if (!e.isEnabled())
+        {
+            return null;
+        }
+        e.begin();
+        return e;
+    }
+
+    public static void endTurn(Object token, Class<?> command, String table)
+    {
+        if (token != null)
+        {
+            TurnEvent e = (TurnEvent)token;
+            e.eventType = command.getSimpleName();
+            e.table = table;
+            e.commit();
+        }
+    }
+
+    @Name("io.github.jezdawgz.poker.client.Read")
+    @Label("Server Event Read")
+    @Description("Reading an event from the server socket, including waiting for it")
+    @Category({"Poker Client", "Network"})
+    static final class ReadEvent extends Event
+    {
+        @Label("Event Type")
+        String eventType;
+
+        @Label("Table")
+        String table;
+
+        @Label("Decode Time")
+        @Description("Time from the event's first bytes arriving to it being decoded")
+        @Timespan(Timespan.NANOSECONDS)
+        long decodeTime;
+    }
+
+    @Name("io.github.jezdawgz.poker.client.Dispatch")
+    @Label("Server Event Dispatch")
+    @Description("Time an event waited to be applied on the Event Dispatch Thread")
+    @Category({"Poker Client", "Events"})
+    static final class DispatchEvent extends Event
+    {
+        @Label("Event Type")
+        String eventType;
+
+        @Label("Table")
+        String table;
+    }
+
+    @Name("io.github.jezdawgz.poker.client.Apply")
+    @Label("Server Event Apply")
+    @Description("Applying an event to the game screen")
+    @Category({"Poker Client", "Events"})
+    static final class ApplyEvent extends Event
+    {
+        @Label("Event Type")
+        String eventType;
+
+        @Label("Table")
+        String table;
+    }
+
+    @Name("io.github.jezdawgz.poker.client.Send")
+    @Label("Command Send")
+    @Description("Writing one of our commands to the server socket")
+    @Category({"Poker Client", "Network"})
+    static final class SendEvent extends Event
+    {
+        @Label("Command Type")
+        String eventType;
+
+        @Label("Table")
+        String table;
+    }
+
+    @Name("io.github.jezdawgz.poker.client.Turn")
+    @Label("Our Turn")
+    @Description("From our turn being read from the server to our command for it being sent")
+    @Category({"Poker Client", "Events"})
+    static final class TurnEvent extends Event
+    {
+        @Label("Command Type")
+        String eventType;
+
+        @Label("Table")
+        String table;
+    }
+}
@@ -0,0 +1,1237 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full-text index of every line written to the game log, kept on disk so old games can be searched.
+ * <p>
+ * New lines go into a small in-memory segment. Every {@value #FLUSH_LINES} lines that segment is written out
+ * as an immutable segment file: the lines and their times, a sorted term dictionary and a delta-coded list of
+ * the lines each term appears in. Segment files are memory-mapped and never changed. A background thread
+ * merges runs of similar-sized segments into bigger ones, so there are only ever a few segments per power of
+ * {@value #MERGE_FACTOR} lines, and deletes the old ones.
+ * <p>
+ * Each segment is named after the range of flushes it holds, so if we stop part way through a merge the
+ * segments it replaced are simply ignored next time.
+ *
+ * @author Jeremy Collette
+ */
+public class LogIndex {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(LogIndex.class);
+
+    public static final int FLUSH_LINES = 4096;
+    public static final int MERGE_FACTOR = 4;
+
+    private static final int MAGIC = 0x4C4F4749;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4 + 4 * 8;
+
+    private static LogIndex shared;
+
+    private final File dir;
+    private final ExecutorService background;
+
+    /* Guarded by this */
+    private Builder current;
+    private final List<Builder> flushing = new ArrayList<>();
+    private List<Segment> segments;
+    private long nextGeneration;
+
+    /**
+     * A line that matched a search
+     */
+    public static final class Hit
+    {
+        public final long time;
+        public final String line;
+
+        Hit(long time, String line)
+        {
+            this.time = time;
+            this.line = line;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "["+new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time))+"] "+line;
+        }
+    }
+
+    /**
+     * Opens an index, creating it if needed
+     * @param dir Directory to keep the segments in
+     * @throws IOException If the segments can't be read
+     */
+    public LogIndex(File dir) throws IOException
+    {
+        this.dir = dir;
+        dir.mkdirs();
+        segments = Collections.unmodifiableList(openSegments());
+        for (Segment s : segments)
+        {
+            nextGeneration = Math.max(nextGeneration, s.lastGeneration + 1);
+        }
+        current = new Builder(nextGeneration++);
+
+        background = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Log index");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Gets the index in the data directory, opening it the first time. It is flushed when the JVM exits.
+     * @return The index, or null if it can't be opened
+     */
+    public static synchronized LogIndex getShared()
+    {
+        if (shared == null)
+        {
+            try
+            {
+                shared = new LogIndex(new File(Utils.getDataDirectory(), "logindex"));
+                final LogIndex index = shared;
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+                {
+                    @Override
+                    public void run() {
+                        index.close();
+                    }
+                }));
+            }
+            catch(IOException e)
+            {
+                LOG.warn("Could not open the log index", e);
+                return null;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Adds a line to the index
+     * @param time When the line was logged, in ms since the epoch
+     * @param line The line
+     */
+    public synchronized void add(long time, String line)
+    {
+        current.add(time, line);
+        if (current.size() >= FLUSH_LINES)
+        {
+            flushCurrent();
+        }
+    }
+
+    /**
+     * Writes any lines still in memory to a segment, waiting until it is done
+     */
+    public void flush()
+    {
+        synchronized (this)
+        {
+            if (current.size() > 0)
+            {
+                flushCurrent();
+            }
+        }
+        try
+        {
+            background.submit(new Runnable()
+            {
+                @Override
+                public void run() {
+                }
+            }).get();
+        }
+        catch(Exception e)
+        {
+            /* Shutting down - whatever made it out is in the index */
+        }
+    }
+
+    public void close()
+    {
+        if (!background.isShutdown())
+        {
+            flush();
+            background.shutdown();
+            try
+            {
+                background.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Hands the in-memory segment to the background thread to write. It stays searchable until it's written.
+     */
+    private void flushCurrent()
+    {
+        final Builder b = current;
+        flushing.add(b);
+        current = new Builder(nextGeneration++);
+        background.execute(new Runnable()
+        {
+            @Override
+            public void run() {
+                try
+                {
+                    Segment s = write(b.generation, b.generation, b);
+                    synchronized (LogIndex.this)
+                    {
+                        List<Segment> list = new ArrayList<>(segments);
+                        list.add(s);
+                        segments = Collections.unmodifiableList(list);
+                        flushing.remove(b);
+                    }
+                    mergeSegments();
+                }
+                catch(IOException e)
+                {
+                    /* Keep it in memory - it's still searchable until we exit */
+                    LOG.warn("Could not write log index segment", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Merges the newest segments while the last few are the same size, like carrying in a counter
+     */
+    private void mergeSegments() throws IOException
+    {
+        while (true)
+        {
+            List<Segment> list;
+            synchronized (this)
+            {
+                list = segments;
+            }
+            int n = list.size();
+            if (n < MERGE_FACTOR)
+            {
+                return;
+            }
+            int tier = tierOf(list.get(n - 1));
+            for (int i = n - MERGE_FACTOR; i < n; i++)
+            {
+                if (tierOf(list.get(i)) != tier)
+                {
+                    return;
+                }
+            }
+
+            List<Segment> merging = list.subList(n - MERGE_FACTOR, n);
+            Segment merged = merge(merging);
+
+            synchronized (this)
+            {
+                List<Segment> updated = new ArrayList<>(segments);
+                updated.removeAll(merging);
+                updated.add(n - MERGE_FACTOR, merged);
+                segments = Collections.unmodifiableList(updated);
+            }
+            for (Segment s : merging)
+            {
+                s.file.delete();
+            }
+        }
+    }
+
+    private static int tierOf(Segment s)
+    {
+        int tier = 0;
+        for (long docs = s.numDocs / FLUSH_LINES; docs >= MERGE_FACTOR; docs /= MERGE_FACTOR)
+        {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Finds the newest lines matching a query. Every word has to appear in a line for it to match, and words in
+     * double quotes have to appear together in that order. Case and punctuation are ignored.
+     * @param query The query, e.g. <code>bob "wins 200"</code>
+     * @param from Earliest time to match, in ms since the epoch
+     * @param to Latest time to match
+     * @param limit Most lines to return
+     * @return The matching lines, newest first
+     */
+    public List<Hit> search(String query, long from, long to, int limit)
+    {
+        Query q = new Query(query);
+        List<Hit> hits = new ArrayList<>();
+
+        List<Segment> segs;
+        List<Builder> memory = new ArrayList<>();
+        synchronized (this)
+        {
+            segs = segments;
+            memory.addAll(flushing);
+            memory.add(current);
+            /* The in-memory segments are only ever added to, so they can be searched up to their current size */
+            for (int i = memory.size() - 1; i >= 0 && hits.size() < limit; i--)
+            {
+                memory.get(i).search(q, from, to, limit, hits);
+            }
+        }
+        for (int i = segs.size() - 1; i >= 0 && hits.size() < limit; i--)
+        {
+            segs.get(i).search(q, from, to, limit, hits);
+        }
+        return hits;
+    }
+
+    /**
+     * Splits text into lower case words
+     * @param text The text
+     * @return The words
+     */
+    static List<String> tokens(String text)
+    {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++)
+        {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0)
+            {
+                start = i;
+            }
+            else if (!word && start >= 0)
+            {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * The words every matching line must have, and the phrases to check in the lines that have them
+     */
+    private static final class Query
+    {
+        final String[] terms;
+        final List<String> phrases = new ArrayList<>();
+
+        Query(String query)
+        {
+            List<String> all = new ArrayList<>();
+            String[] parts = query.split("\"", -1);
+            for (int i = 0; i < parts.length; i++)
+            {
+                List<String> words = tokens(parts[i]);
+                for (String w : words)
+                {
+                    if (!all.contains(w))
+                    {
+                        all.add(w);
+                    }
+                }
+                /* Odd parts were inside quotes */
+                if (i % 2 == 1 && words.size() > 1)
+                {
+                    phrases.add(" "+join(words)+" ");
+                }
+            }
+            terms = all.toArray(new String[0]);
+        }
+
+        boolean matchesPhrases(String line)
+        {
+            if (phrases.isEmpty())
+            {
+                return true;
+            }
+            String normalised = " "+join(tokens(line))+" ";
+            for (String p : phrases)
+            {
+                if (!normalised.contains(p))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String join(List<String> words)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (String w : words)
+            {
+                if (sb.length() > 0)
+                {
+                    sb.append(' ');
+                }
+                sb.append(w);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Walks a segment's candidate lines newest first, adding those in the time range that match the phrases.
+     * Lines are added in time order, so the walk stops at the first line older than the range.
+     */
+    private static void collect(Searchable s, Query q, int[] candidates, int count, long from, long to, int limit, List<Hit> hits)
+    {
+        for (int j = count - 1; j >= 0 && hits.size() < limit; j--)
+        {
+            int d = candidates == null ? j : candidates[j];
+            long time = s.time(d);
+            if (time > to)
+            {
+                continue;
+            }
+            if (time < from)
+            {
+                break;
+            }
+            String line = s.line(d);
+            if (q.matchesPhrases(line))
+            {
+                hits.add(new Hit(time, line));
+            }
+        }
+    }
+
+    /**
+     * Intersects sorted lists of line numbers
+     * @return The lines in every list, or null if there are no lists
+     */
+    private static int[] intersect(int[][] lists)
+    {
+        if (lists.length == 0)
+        {
+            return null;
+        }
+        Arrays.sort(lists, new Comparator<int[]>()
+        {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a.length, b.length);
+            }
+        });
+        int[] result = lists[0];
+        for (int l = 1; l < lists.length && result.length > 0; l++)
+        {
+            int[] other = lists[l];
+            int[] out = new int[result.length];
+            int n = 0, j = 0;
+            for (int i = 0; i < result.length; i++)
+            {
+                /* Gallop through the longer list */
+                int step = 1;
+                while (j + step < other.length && other[j + step] < result[i])
+                {
+                    j += step;
+                    step <<= 1;
+                }
+                while (j < other.length && other[j] < result[i])
+                {
+                    j++;
+                }
+                if (j < other.length && other[j] == result[i])
+                {
+                    out[n++] = result[i];
+                }
+            }
+            result = Arrays.copyOf(out, n);
+        }
+        return result;
+    }
+
+    private interface Searchable
+    {
+        long time(int doc);
+        String line(int doc);
+    }
+
+    /**
+     * Lines that haven't been written to a segment yet
+     */
+    private static final class Builder implements Searchable
+    {
+        final long generation;
+        private long[] times = new long[64];
+        private final List<String> lines = new ArrayList<>();
+        private final Map<String, IntList> postings = new HashMap<>();
+
+        Builder(long generation)
+        {
+            this.generation = generation;
+        }
+
+        void add(long time, String line)
+        {
+            int doc = lines.size();
+            if (doc == times.length)
+            {
+                times = Arrays.copyOf(times, doc * 2);
+            }
+            times[doc] = time;
+            lines.add(line);
+            for (String t : tokens(line))
+            {
+                IntList docs = postings.get(t);
+                if (docs == null)
+                {
+                    docs = new IntList();
+                    postings.put(t, docs);
+                }
+                if (docs.size == 0 || docs.values[docs.size - 1] != doc)
+                {
+                    docs.add(doc);
+                }
+            }
+        }
+
+        int size()
+        {
+            return lines.size();
+        }
+
+        @Override
+        public long time(int doc)
+        {
+            return times[doc];
+        }
+
+        @Override
+        public String line(int doc)
+        {
+            return lines.get(doc);
+        }
+
+        void search(Query q, long from, long to, int limit, List<Hit> hits)
+        {
+            int[][] lists = new int[q.terms.length][];
+            for (int i = 0; i < lists.length; i++)
+            {
+                IntList docs = postings.get(q.terms[i]);
+                if (docs == null)
+                {
+                    return;
+                }
+                lists[i] = Arrays.copyOf(docs.values, docs.size);
+            }
+            int[] candidates = intersect(lists);
+            collect(this, q, candidates, candidates == null ? size() : candidates.length, from, to, limit, hits);
+        }
+    }
+
+    private static final class IntList
+    {
+        int[] values = new int[4];
+        int size;
+
+        void add(int v)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+    }
+
+    /* Segment file: header, then times, line offsets, line bytes, term offsets, term bytes, postings offsets, postings */
+
+    /**
+     * Writes lines out as a segment file and maps it
+     */
+    private Segment write(long firstGeneration, long lastGeneration, Builder b) throws IOException
+    {
+        int numDocs = b.size();
+        byte[][] lineBytes = new byte[numDocs][];
+        int lineTotal = 0;
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        for (int d = 0; d < numDocs; d++)
+        {
+            lineBytes[d] = b.lines.get(d).getBytes(StandardCharsets.UTF_8);
+            lineTotal += lineBytes[d].length;
+            minTime = Math.min(minTime, b.times[d]);
+            maxTime = Math.max(maxTime, b.times[d]);
+        }
+
+        /* Terms in byte order, so the mapped dictionary can be binary searched */
+        byte[][] terms = new byte[b.postings.size()][];
+        int t = 0;
+        for (String term : b.postings.keySet())
+        {
+            terms[t++] = term.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(terms, BYTES_ORDER);
+
+        int termTotal = 0;
+        ByteBuffer postingBytes = ByteBuffer.allocate(16 + numDocs * 4);
+        int[] postingOffsets = new int[terms.length + 1];
+        for (int i = 0; i < terms.length; i++)
+        {
+            termTotal += terms[i].length;
+            IntList docs = b.postings.get(new String(terms[i], StandardCharsets.UTF_8));
+            postingOffsets[i] = postingBytes.position();
+            int prev = -1;
+            for (int j = 0; j < docs.size; j++)
+            {
+                if (postingBytes.remaining() < 5)
+                {
+                    postingBytes = grow(postingBytes);
+                }
+                putVarInt(postingBytes, docs.values[j] - prev);
+                prev = docs.values[j];
+            }
+        }
+        postingOffsets[terms.length] = postingBytes.position();
+
+        int size = HEADER_SIZE + numDocs * 8 + (numDocs + 1) * 4 + lineTotal
+                + (terms.length + 1) * 4 + termTotal + (terms.length + 1) * 4 + postingBytes.position();
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(numDocs).putInt(terms.length);
+        out.putLong(firstGeneration).putLong(lastGeneration).putLong(minTime).putLong(maxTime);
+        for (int d = 0; d < numDocs; d++)
+        {
+            out.putLong(b.times[d]);
+        }
+        int offset = 0;
+        for (int d = 0; d < numDocs; d++)
+        {
+            out.putInt(offset);
+            offset += lineBytes[d].length;
+        }
+        out.putInt(offset);
+        for (byte[] l : lineBytes)
+        {
+            out.put(l);
+        }
+        offset = 0;
+        for (byte[] term : terms)
+        {
+            out.putInt(offset);
+            offset += term.length;
+        }
+        out.putInt(offset);
+        for (byte[] term : terms)
+        {
+            out.put(term);
+        }
+        for (int p : postingOffsets)
+        {
+            out.putInt(p);
+        }
+        out.put(postingBytes.array(), 0, postingBytes.position());
+
+        File f = new File(dir, "seg-"+firstGeneration+"-"+lastGeneration+".idx");
+        File tmp = new File(f.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"))
+        {
+            raf.setLength(0);
+            raf.write(out.array());
+            raf.getFD().sync();
+        }
+        return install(tmp, f);
+    }
+
+    /**
+     * Writes segments out as one segment, straight from the mapped files so their lines never have to be loaded.
+     * Lines are copied in order, and each term's lines are the merged segments' lines for it, moved past the
+     * lines of the segments before. The term dictionaries are walked twice: once to size the file, then to write it.
+     */
+    private Segment merge(List<Segment> merging) throws IOException
+    {
+        int[] docBase = new int[merging.size()];
+        int numDocs = 0;
+        long lineTotal = 0;
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < merging.size(); i++)
+        {
+            Segment s = merging.get(i);
+            docBase[i] = numDocs;
+            numDocs += s.numDocs;
+            lineTotal += s.lineBytes();
+            minTime = Math.min(minTime, s.minTime);
+            maxTime = Math.max(maxTime, s.maxTime);
+        }
+        long[] sizes = mergeTerms(merging, docBase, null, null, null, null);
+        int numTerms = (int)sizes[0];
+
+        long timesAt = HEADER_SIZE;
+        long lineOffsetsAt = timesAt + numDocs * 8L;
+        long linesAt = lineOffsetsAt + (numDocs + 1) * 4L;
+        long termOffsetsAt = linesAt + lineTotal;
+        long termsAt = termOffsetsAt + (numTerms + 1) * 4L;
+        long postingOffsetsAt = termsAt + sizes[1];
+        long postingsAt = postingOffsetsAt + (numTerms + 1) * 4L;
+        if (postingsAt + sizes[2] > Integer.MAX_VALUE)
+        {
+            throw new IOException("Merged log index segment would be too big to map");
+        }
+
+        File f = new File(dir, "seg-"+merging.get(0).firstGeneration+"-"+merging.get(merging.size() - 1).lastGeneration+".idx");
+        File tmp = new File(f.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel ch = raf.getChannel())
+        {
+            raf.setLength(0);
+            SectionWriter header = new SectionWriter(ch, 0);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(numDocs);
+            header.putInt(numTerms);
+            header.putLong(merging.get(0).firstGeneration);
+            header.putLong(merging.get(merging.size() - 1).lastGeneration);
+            header.putLong(minTime);
+            header.putLong(maxTime);
+            header.flush();
+
+            SectionWriter times = new SectionWriter(ch, timesAt);
+            SectionWriter lineOffsets = new SectionWriter(ch, lineOffsetsAt);
+            SectionWriter lines = new SectionWriter(ch, linesAt);
+            int lineBase = 0;
+            for (Segment s : merging)
+            {
+                times.put(s.region(s.timesAt, s.numDocs * 8));
+                for (int d = 0; d < s.numDocs; d++)
+                {
+                    lineOffsets.putInt(lineBase + s.buffer.getInt(s.lineOffsetsAt + d * 4));
+                }
+                lines.put(s.region(s.linesAt, s.lineBytes()));
+                lineBase += s.lineBytes();
+            }
+            lineOffsets.putInt(lineBase);
+            times.flush();
+            lineOffsets.flush();
+            lines.flush();
+
+            SectionWriter termOffsets = new SectionWriter(ch, termOffsetsAt);
+            SectionWriter terms = new SectionWriter(ch, termsAt);
+            SectionWriter postingOffsets = new SectionWriter(ch, postingOffsetsAt);
+            SectionWriter postings = new SectionWriter(ch, postingsAt);
+            mergeTerms(merging, docBase, termOffsets, terms, postingOffsets, postings);
+            termOffsets.flush();
+            terms.flush();
+            postingOffsets.flush();
+            postings.flush();
+            ch.force(true);
+        }
+        return install(tmp, f);
+    }
+
+    /**
+     * Walks the segments' term dictionaries together in byte order, writing each term once with the lines it
+     * appears in across all of them. With no writers it just adds up the sizes.
+     * @return The number of terms, the bytes of term text and the bytes of postings
+     */
+    private static long[] mergeTerms(List<Segment> merging, int[] docBase, SectionWriter termOffsets, SectionWriter terms,
+            SectionWriter postingOffsets, SectionWriter postings) throws IOException
+    {
+        int[] next = new int[merging.size()];
+        byte[][] heads = new byte[merging.size()][];
+        for (int i = 0; i < heads.length; i++)
+        {
+            heads[i] = merging.get(i).numTerms > 0 ? merging.get(i).term(0) : null;
+        }
+        long numTerms = 0, termTotal = 0, postingTotal = 0;
+        while (true)
+        {
+            byte[] term = null;
+            for (byte[] h : heads)
+            {
+                if (h != null && (term == null || BYTES_ORDER.compare(h, term) < 0))
+                {
+                    term = h;
+                }
+            }
+            if (term == null)
+            {
+                break;
+            }
+            if (terms != null)
+            {
+                termOffsets.putInt((int)termTotal);
+                terms.put(ByteBuffer.wrap(term));
+                postingOffsets.putInt((int)postingTotal);
+            }
+            numTerms++;
+            termTotal += term.length;
+
+            int prev = -1;
+            for (int i = 0; i < heads.length; i++)
+            {
+                if (heads[i] == null || BYTES_ORDER.compare(heads[i], term) != 0)
+                {
+                    continue;
+                }
+                Segment s = merging.get(i);
+                int pos = s.postingsAt + s.buffer.getInt(s.postingOffsetsAt + next[i] * 4);
+                int end = s.postingsAt + s.buffer.getInt(s.postingOffsetsAt + (next[i] + 1) * 4);
+                int doc = -1;
+                while (pos < end)
+                {
+                    int v = 0, shift = 0;
+                    byte b;
+                    do
+                    {
+                        b = s.buffer.get(pos++);
+                        v |= (b & 0x7F) << shift;
+                        shift += 7;
+                    }
+                    while (b < 0);
+                    doc += v;
+                    postingTotal += putVarInt(postings, docBase[i] + doc - prev);
+                    prev = docBase[i] + doc;
+                }
+                next[i]++;
+                heads[i] = next[i] < s.numTerms ? s.term(next[i]) : null;
+            }
+        }
+        if (terms != null)
+        {
+            termOffsets.putInt((int)termTotal);
+            postingOffsets.putInt((int)postingTotal);
+        }
+        return new long[]{numTerms, termTotal, postingTotal};
+    }
+
+    /**
+     * Renames a finished segment file into place and maps it
+     */
+    private static Segment install(File tmp, File f) throws IOException
+    {
+        if (!tmp.renameTo(f))
+        {
+            f.delete();
+            if (!tmp.renameTo(f))
+            {
+                throw new IOException("Could not write "+f);
+            }
+        }
+        return new Segment(f);
+    }
+
+    private static ByteBuffer grow(ByteBuffer b)
+    {
+        ByteBuffer bigger = ByteBuffer.allocate(b.capacity() * 2);
+        b.flip();
+        bigger.put(b);
+        return bigger;
+    }
+
+    private static void putVarInt(ByteBuffer b, int v)
+    {
+        while ((v & ~0x7F) != 0)
+        {
+            b.put((byte)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        b.put((byte)v);
+    }
+
+    /**
+     * Writes a varint to a section, or just sizes it if there's no section
+     * @return The number of bytes it takes
+     */
+    private static int putVarInt(SectionWriter out, int v) throws IOException
+    {
+        int n = 1;
+        while ((v & ~0x7F) != 0)
+        {
+            if (out != null)
+            {
+                out.put((byte)((v & 0x7F) | 0x80));
+            }
+            v >>>= 7;
+            n++;
+        }
+        if (out != null)
+        {
+            out.put((byte)v);
+        }
+        return n;
+    }
+
+    /**
+     * Buffers the writes to one section of a segment file, so the sections can be written side by side
+     */
+    private static final class SectionWriter
+    {
+        private final FileChannel ch;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long position;
+
+        SectionWriter(FileChannel ch, long position)
+        {
+            this.ch = ch;
+            this.position = position;
+        }
+
+        void put(byte b) throws IOException
+        {
+            if (!buffer.hasRemaining())
+            {
+                flush();
+            }
+            buffer.put(b);
+        }
+
+        void putInt(int v) throws IOException
+        {
+            if (buffer.remaining() < 4)
+            {
+                flush();
+            }
+            buffer.putInt(v);
+        }
+
+        void putLong(long v) throws IOException
+        {
+            if (buffer.remaining() < 8)
+            {
+                flush();
+            }
+            buffer.putLong(v);
+        }
+
+        void put(ByteBuffer bytes) throws IOException
+        {
+            flush();
+            while (bytes.hasRemaining())
+            {
+                position += ch.write(bytes, position);
+            }
+        }
+
+        void flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                position += ch.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final Comparator<byte[]> BYTES_ORDER = new Comparator<byte[]>()
+    {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++)
+            {
+                int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (c != 0)
+                {
+                    return c;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    /**
+     * Opens the segment files, skipping any that a merge has already replaced
+     */
+    private List<Segment> openSegments() throws IOException
+    {
+        File[] files = dir.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith("seg-") && name.endsWith(".idx");
+            }
+        });
+        List<long[]> ranges = new ArrayList<>();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                String[] parts = f.getName().substring(4, f.getName().length() - 4).split("-");
+                ranges.add(new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), ranges.size()});
+            }
+        }
+
+        List<Segment> list = new ArrayList<>();
+        for (long[] r : ranges)
+        {
+            boolean replaced = false;
+            for (long[] other : ranges)
+            {
+                if (other != r && other[0] <= r[0] && other[1] >= r[1] && other[1] - other[0] > r[1] - r[0])
+                {
+                    replaced = true;
+                }
+            }
+            File f = files[(int)r[2]];
+            if (replaced)
+            {
+                f.delete();
+            }
+            else
+            {
+                list.add(new Segment(f));
+            }
+        }
+        Collections.sort(list, new Comparator<Segment>()
+        {
+            @Override
+            public int compare(Segment a, Segment b) {
+                return Long.compare(a.firstGeneration, b.firstGeneration);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * An immutable, memory-mapped segment file
+     */
+    private static final class Segment implements Searchable
+    {
+        final File file;
+        final int numDocs;
+        final long firstGeneration, lastGeneration, minTime, maxTime;
+
+        private final MappedByteBuffer buffer;
+        private final int numTerms;
+        private final int timesAt, lineOffsetsAt, linesAt, termOffsetsAt, termsAt, postingOffsetsAt, postingsAt;
+
+        Segment(File file) throws IOException
+        {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel())
+            {
+                buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            {
+                throw new IOException(file+" is not a log index segment");
+            }
+            numDocs = buffer.getInt(8);
+            numTerms = buffer.getInt(12);
+            firstGeneration = buffer.getLong(16);
+            lastGeneration = buffer.getLong(24);
+            minTime = buffer.getLong(32);
+            maxTime = buffer.getLong(40);
+
+            timesAt = HEADER_SIZE;
+            lineOffsetsAt = timesAt + numDocs * 8;
+            linesAt = lineOffsetsAt + (numDocs + 1) * 4;
+            termOffsetsAt = linesAt + buffer.getInt(lineOffsetsAt + numDocs * 4);
+            termsAt = termOffsetsAt + (numTerms + 1) * 4;
+            postingOffsetsAt = termsAt + buffer.getInt(termOffsetsAt + numTerms * 4);
+            postingsAt = postingOffsetsAt + (numTerms + 1) * 4;
+        }
+
+        @Override
+        public long time(int doc)
+        {
+            return buffer.getLong(timesAt + doc * 8);
+        }
+
+        int lineBytes()
+        {
+            return buffer.getInt(lineOffsetsAt + numDocs * 4);
+        }
+
+        /**
+         * Gets a view of part of the file
+         */
+        ByteBuffer region(int at, int length)
+        {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(at + length);
+            view.position(at);
+            return view;
+        }
+
+        byte[] term(int term)
+        {
+            int start = buffer.getInt(termOffsetsAt + term * 4);
+            int end = buffer.getInt(termOffsetsAt + (term + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = buffer.get(termsAt + start + i);
+            }
+            return bytes;
+        }
+
+        @Override
+        public String line(int doc)
+        {
+            int start = buffer.getInt(lineOffsetsAt + doc * 4);
+            int end = buffer.getInt(lineOffsetsAt + (doc + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = buffer.get(linesAt + start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Binary searches the term dictionary
+         * @return The term's number, or -1
+         */
+        private int findTerm(byte[] term)
+        {
+            int lo = 0, hi = numTerms - 1;
+            while (lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                int start = termsAt + buffer.getInt(termOffsetsAt + mid * 4);
+                int end = termsAt + buffer.getInt(termOffsetsAt + (mid + 1) * 4);
+                int c = 0;
+                int n = Math.min(end - start, term.length);
+                for (int i = 0; i < n && c == 0; i++)
+                {
+                    c = (buffer.get(start + i) & 0xFF) - (term[i] & 0xFF);
+                }
+                if (c == 0)
+                {
+                    c = (end - start) - term.length;
+                }
+                if (c < 0)
+                {
+                    lo = mid + 1;
+                }
+                else if (c > 0)
+                {
+                    hi = mid - 1;
+                }
+                else
+                {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int[] postings(int term)
+        {
+            int pos = postingsAt + buffer.getInt(postingOffsetsAt + term * 4);
+            int end = postingsAt + buffer.getInt(postingOffsetsAt + (term + 1) * 4);
+            int[] docs = new int[16];
+            int n = 0, doc = -1;
+            while (pos < end)
+            {
+                int v = 0, shift = 0;
+                byte b;
+                do
+                {
+                    b = buffer.get(pos++);
+                    v |= (b & 0x7F) << shift;
+                    shift += 7;
+                }
+                while (b < 0);
+                doc += v;
+                if (n == docs.length)
+                {
+                    docs = Arrays.copyOf(docs, n * 2);
+                }
+                docs[n++] = doc;
+            }
+            return Arrays.copyOf(docs, n);
+        }
+
+        void search(Query q, long from, long to, int limit, List<Hit> hits)
+        {
+            if (maxTime < from || minTime > to)
+            {
+                return;
+            }
+            int[][] lists = new int[q.terms.length][];
+            for (int i = 0; i < lists.length; i++)
+            {
+                int term = findTerm(q.terms[i].getBytes(StandardCharsets.UTF_8));
+                if (term < 0)
+                {
+                    return;
+                }
+                lists[i] = postings(term);
+            }
+            int[] candidates = intersect(lists);
+            collect(this, q, candidates, candidates == null ? numDocs : candidates.length, from, to, limit, hits);
+        }
+    }
+
+    /**
+     * Searches the client's log index from the command line
+     * @param args The query, then optionally the number of days back to search
+     */
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: LogIndex <query> [days]");
+            return;
+        }
+        LogIndex index = getShared();
+        if (index == null)
+        {
+            System.out.println("Could not open the log index");
+            return;
+        }
+        long to = System.currentTimeMillis();
+        long from = args.length > 1 ? to - Long.parseLong(args[1]) * 24 * 60 * 60 * 1000 : Long.MIN_VALUE;
+        long start = System.nanoTime();
+        List<Hit> hits = index.search(args[0], from, to, 100);
+        long took = System.nanoTime() - start;
+        for (Hit h : hits)
+        {
+            System.out.println(h);
+        }
+        System.out.println(hits.size()+" lines in "+took / 1000+"us");
+    }
+}
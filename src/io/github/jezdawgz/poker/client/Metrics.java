@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/**
+ * The client's counters, gauges and latency {@link Histogram}s, in one registry per JVM.
+ * <p>
+ * Everything is published over JMX as attributes of <code>io.github.jezdawgz.poker.client:type=Metrics</code>,
+ * so it can be watched with JConsole or VisualVM. Setting the "pokerclient.metrics.file" system property also
+ * writes everything to that file every "pokerclient.metrics.interval" seconds (60 by default).
+ * <p>
+ * Looking a metric up by name goes through a map, so code on a hot path should look it up once and keep it.
+ *
+ * @author Jeremy Collette
+ */
+public class Metrics {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(Metrics.class);
+
+    /* Names used by the client */
+    public static final String DECODE = "decode";
+    public static final String QUEUE_DELAY = "queueDelay";
+    public static final String CHAT_DELAY = "chatDelay";
+    public static final String CHAT_COALESCED = "chatCoalesced";
+    /* These two and OUTBOUND_QUEUE are gauges kept per table, see sessionName */
+    public static final String INBOUND_QUEUE = "inboundQueue";
+    public static final String INBOUND_QUEUE_MAX = "inboundQueueMax";
+    public static final String INBOUND_OVERFLOWS = "inboundOverflows";
+    public static final String APPLY = "apply";
+    public static final String COMMAND_WRITE = "commandWrite";
+    public static final String PRE_ACTION = "preAction";
+    public static final String OUTBOUND_QUEUE = "outboundQueue";
+    public static final String SPECULATION_CONFIRMED = "speculationConfirmed";
+    public static final String SPECULATION_WRONG = "speculationWrong";
+    public static final String SPECULATION_ROLLED_BACK = "speculationRolledBack";
+    public static final String SPECULATION_ERROR = "speculationError";
+    public static final String SPECULATION_TIME = "speculationTime";
+    public static final String RING_RECORDS = "ringRecords";
+    public static final String TRACES_DROPPED = "tracesDropped";
+    public static final String RELAY_VIEWERS = "relayViewers";
+    public static final String RELAY_JOINS = "relayJoins";
+    public static final String RELAY_RESYNCS = "relayResyncs";
+    public static final String CONNECTS = "connects";
+    public static final String RECONNECTS = "reconnects";
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    /**
+     * A value read when the metrics are read, for things that go up and down like the length of a queue.
+     * It is called from whichever thread takes the snapshot, so it must be safe to call from any thread.
+     */
+    public interface Gauge
+    {
+        long getValue();
+    }
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<Class<?>, LongAdder> eventCounters = new ConcurrentHashMap<>();
+
+    private Metrics()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                    new ObjectName("io.github.jezdawgz.poker.client:type=Metrics"));
+        }
+        catch(Exception e)
+        {
+            /* No JMX - the file dump still works */
+        }
+
+        String file = System.getProperty("pokerclient.metrics.file");
+        if (file != null)
+        {
+            startDump(new File(file), Long.getLong("pokerclient.metrics.interval", 60));
+        }
+    }
+
+    public static Metrics get()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets a counter, creating it the first time
+     * @param name The counter's name
+     * @return The counter
+     */
+    public LongAdder counter(String name)
+    {
+        LongAdder c = counters.get(name);
+        if (c == null)
+        {
+            LongAdder created = new LongAdder();
+            c = counters.putIfAbsent(name, created);
+            c = c == null ? created : c;
+        }
+        return c;
+    }
+
+    /**
+     * Gets a histogram, creating it the first time
+     * @param name The histogram's name
+     * @return The histogram
+     */
+    public Histogram histogram(String name)
+    {
+        Histogram h = histograms.get(name);
+        if (h == null)
+        {
+            Histogram created = new Histogram();
+            h = histograms.putIfAbsent(name, created);
+            h = h == null ? created : h;
+        }
+        return h;
+    }
+
+    /**
+     * Adds or replaces a gauge
+     * @param name The gauge's name
+     * @param g The gauge
+     */
+    public void gauge(String name, Gauge g)
+    {
+        gauges.put(name, g);
+    }
+
+    /**
+     * Removes a gauge, unless another has replaced it since
+     * @param name The gauge's name
+     * @param g The gauge that was added
+     */
+    public void removeGauge(String name, Gauge g)
+    {
+        gauges.remove(name, g);
+    }
+
+    /**
+     * Names one table's copy of a metric, for gauges that would otherwise replace each other when more than one
+     * table is open
+     * @param name The metric's name
+     * @param tableId The table's name
+     * @return The name to register it under
+     */
+    public static String sessionName(String name, String tableId)
+    {
+        return name + "." + tableId;
+    }
+
+    /**
+     * Counts an event received from the server, by its type
+     * @param type The event's class
+     */
+    public void countEvent(Class<?> type)
+    {
+        LongAdder c = eventCounters.get(type);
+        if (c == null)
+        {
+            c = counter("events." + type.getSimpleName());
+            eventCounters.put(type, c);
+        }
+        c.increment();
+    }
+
+    /**
+     * Gets every metric's current value, by name
+     * @return The values, in name order. Histograms are summarised as a string.
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> values = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, LongAdder> e : counters.entrySet())
+        {
+            values.put(e.getKey(), e.getValue().sum());
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet())
+        {
+            values.put(e.getKey(), e.getValue().getValue());
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet())
+        {
+            values.put(e.getKey(), e.getValue().toString());
+        }
+        return values;
+    }
+
+    /**
+     * Writes every metric to a file
+     * @param f The file
+     * @throws IOException If it can't be written
+     */
+    public void dump(File f) throws IOException
+    {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))
+        {
+            w.write("# "+new Date()+"\n");
+            for (Map.Entry<String, Object> e : snapshot().entrySet())
+            {
+                w.write(e.getKey()+" "+e.getValue()+"\n");
+            }
+        }
+        if (!tmp.renameTo(f))
+        {
+            f.delete();
+            tmp.renameTo(f);
+        }
+    }
+
+    private void startDump(final File f, long seconds)
+    {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Metrics dump");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run() {
+                try
+                {
+                    dump(f);
+                }
+                catch(IOException e)
+                {
+                    /* Try again next time */
+                    LOG.warn("Could not write metrics to "+f, e);
+                }
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Publishes the metrics over JMX, one read-only attribute per metric
+     */
+    private final class MetricsMBean implements DynamicMBean
+    {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = snapshot().get(attribute);
+            if (value == null)
+            {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String a : attributes)
+            {
+                if (values.containsKey(a))
+                {
+                    list.add(new Attribute(a, values.get(a)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> e : snapshot().entrySet())
+            {
+                attributes.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(),
+                        e.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Poker client metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
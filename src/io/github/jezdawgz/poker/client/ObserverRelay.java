@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Passes one table's events on to local viewers, such as a coach or spectators, so they don't each need their
+ * own connection to the server.
+ * <p>
+ * The relay listens on the loopback interface only. A viewer that connects gets a snapshot of the table as it is,
+ * then every event as the client reads it. Viewers are read-only: nothing they send is passed on. If the
+ * "pokerclient.relay.token" system property is set, a viewer must first send it (as from
+ * {@link DataOutputStream#writeUTF(String)}) or it is turned away. Our hole cards are left out unless
+ * "pokerclient.relay.showHole" is true.
+ * <p>
+ * Every frame is little-endian: an int length of the rest of the frame, a short type, a short of flags (always 0)
+ * and the payload. Types and payloads are those of {@link EventRing} records, plus the snapshot:
+ * <pre>
+ *   hand number, our seat, players, dealer's seat, small blind, big blind, current bet, minimum total to raise to,
+ *   pot, then the board and our hole cards as longs of {@link CardMask} bits (hole cards are 0 if hidden),
+ *   then for each seat: stack, chips on the table, 1 if folded, name
+ * </pre>
+ * Each viewer has its own writer thread and at most "pokerclient.relay.buffer" bytes waiting (256KB by default).
+ * A viewer that falls that far behind has everything it is waiting for replaced by a fresh snapshot, so it can't
+ * hold up the client or the other viewers, and soon catches up.
+ *
+ * @author Jeremy Collette
+ */
+public class ObserverRelay implements Closeable {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(ObserverRelay.class);
+
+    public static final int DEFAULT_BUFFER = 256 * 1024;
+
+    /** How long a viewer has to send the token */
+    private static final int TOKEN_TIMEOUT_MILLIS = 5000;
+
+    /** Viewers connected to every relay in this JVM */
+    private static final LongAdder CONNECTED = new LongAdder();
+
+    static
+    {
+        Metrics.get().gauge(Metrics.RELAY_VIEWERS, new Metrics.Gauge()
+        {
+            @Override
+            public long getValue() {
+                return CONNECTED.sum();
+            }
+        });
+    }
+
+    private final ServerSocket server;
+    private final boolean showHole;
+    private final String token;
+    private final int bufferLimit;
+    private final ClientLog.Logger log;
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+    private final LongAdder joined = Metrics.get().counter(Metrics.RELAY_JOINS);
+    private final LongAdder resyncs = Metrics.get().counter(Metrics.RELAY_RESYNCS);
+
+    /* Guarded by this */
+    private final TableView.Tracker tracker = new TableView.Tracker();
+    private final ByteBuffer scratch = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Starts listening for viewers
+     * @param port Port on the loopback interface, or 0 for any free port
+     * @param tableId The table, for logging
+     * @param showHole True to pass on our hole cards
+     * @param token What viewers must send before they are let in, or null to let anyone in
+     * @param bufferLimit Most bytes kept waiting for a viewer before it is sent a snapshot instead
+     * @throws IOException If the port can't be listened on
+     */
+    public ObserverRelay(int port, String tableId, boolean showHole, String token, int bufferLimit) throws IOException
+    {
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.showHole = showHole;
+        this.token = token;
+        this.bufferLimit = bufferLimit;
+        this.log = LOG.forSession(tableId);
+
+        Thread t = new Thread(new Runnable()
+        {
+            @Override
+            public void run() {
+                acceptViewers();
+            }
+        }, "Observer relay "+tableId);
+        t.setDaemon(true);
+        t.start();
+        log.info("Relaying to viewers on port "+server.getLocalPort());
+    }
+
+    /**
+     * Starts a relay for a table if the "pokerclient.relay.port" system property asks for one
+     * @param tableId The table
+     * @return The relay, or null if there isn't one or it couldn't be started
+     */
+    public static ObserverRelay open(String tableId)
+    {
+        Integer port = Integer.getInteger("pokerclient.relay.port");
+        if (port == null)
+        {
+            return null;
+        }
+        try
+        {
+            return new ObserverRelay(port, tableId, Boolean.getBoolean("pokerclient.relay.showHole"),
+                    System.getProperty("pokerclient.relay.token"), Integer.getInteger("pokerclient.relay.buffer", DEFAULT_BUFFER));
+        }
+        catch(IOException e)
+        {
+            LOG.forSession(tableId).warn("Could not relay to viewers on port "+port, e);
+            return null;
+        }
+    }
+
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    public int getNumViewers()
+    {
+        return viewers.size();
+    }
+
+    /**
+     * Passes an event on to every viewer. Called from the reader thread as each event is read.
+     * @param e The event
+     */
+    public synchronized void receiveEvent(Event e)
+    {
+        tracker.receiveEvent(e);
+        scratch.clear();
+        int type = EventRing.encode(e, scratch);
+        if (type == EventRing.HOLE_CARD && !showHole)
+        {
+            return;
+        }
+
+        byte[] frame = frame(type, scratch);
+        byte[] snapshot = null;
+        for (Viewer v : viewers)
+        {
+            if (!v.offer(frame))
+            {
+                /* Too far behind to be worth catching up event by event */
+                snapshot = snapshot == null ? snapshot() : snapshot;
+                v.resync(snapshot);
+                resyncs.increment();
+            }
+        }
+    }
+
+    private static byte[] frame(int type, ByteBuffer payload)
+    {
+        int n = payload.position();
+        ByteBuffer f = ByteBuffer.allocate(8 + n).order(ByteOrder.LITTLE_ENDIAN);
+        f.putInt(4 + n).putShort((short)type).putShort((short)0);
+        f.put(payload.array(), 0, n);
+        return f.array();
+    }
+
+    /**
+     * Describes the table as it is now, in one frame
+     */
+    private byte[] snapshot()
+    {
+        TableView t = tracker.view(0);
+        scratch.clear();
+        scratch.putInt(t.hand).putInt(t.seat).putInt(t.numPlayers).putInt(t.dealer);
+        scratch.putInt(t.smallBlind).putInt(t.bigBlind).putInt(t.currentBet).putInt(t.minTotalBet).putInt(t.pot);
+        scratch.putLong(t.board).putLong(showHole ? t.hole : 0);
+        for (int s = 0; s < t.numPlayers; s++)
+        {
+            scratch.putInt(t.stacks[s]).putInt(t.onTable[s]).putInt(t.folded[s] ? 1 : 0);
+            EventRing.putString(scratch, t.names[s]);
+        }
+        return frame(EventRing.SNAPSHOT, scratch);
+    }
+
+    private void acceptViewers()
+    {
+        while (!server.isClosed())
+        {
+            try
+            {
+                final Socket s = server.accept();
+                Thread t = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run() {
+                        serve(s);
+                    }
+                }, "Observer "+s.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            }
+            catch(IOException e)
+            {
+                if (!server.isClosed())
+                {
+                    log.warn("Could not accept a viewer", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets a viewer in and writes to it until it goes away. Runs on the viewer's own thread.
+     */
+    private void serve(Socket s)
+    {
+        Viewer v = null;
+        try
+        {
+            s.setTcpNoDelay(true);
+            if (token != null)
+            {
+                s.setSoTimeout(TOKEN_TIMEOUT_MILLIS);
+                if (!token.equals(new DataInputStream(s.getInputStream()).readUTF()))
+                {
+                    log.warn("Turned away a viewer with the wrong token");
+                    s.close();
+                    return;
+                }
+            }
+
+            v = new Viewer(s);
+            synchronized (this)
+            {
+                /* Joining under the lock means the snapshot and the events after it line up */
+                v.resync(snapshot());
+                viewers.add(v);
+                CONNECTED.increment();
+            }
+            joined.increment();
+            log.info("Viewer joined from "+s.getRemoteSocketAddress());
+            v.write();
+        }
+        catch(IOException e)
+        {
+            /* The viewer went away */
+        }
+        finally
+        {
+            if (v != null && viewers.remove(v))
+            {
+                CONNECTED.decrement();
+                log.info("Viewer left from "+s.getRemoteSocketAddress());
+            }
+            try
+            {
+                s.close();
+            }
+            catch(IOException e)
+            {
+                /* We don't care! */
+            }
+        }
+    }
+
+    /**
+     * Stops relaying, and disconnects every viewer
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            server.close();
+        }
+        catch(IOException e)
+        {
+            /* We don't care! */
+        }
+        for (Viewer v : viewers)
+        {
+            v.close();
+        }
+    }
+
+    /**
+     * One viewer, and the frames waiting to be written to it
+     */
+    private final class Viewer
+    {
+        private final Socket socket;
+        private final ArrayDeque<byte[]> waiting = new ArrayDeque<>();
+        private int waitingBytes;
+        private boolean closed;
+
+        Viewer(Socket socket)
+        {
+            this.socket = socket;
+        }
+
+        /**
+         * Queues a frame
+         * @return False if the viewer is too far behind to take it
+         */
+        synchronized boolean offer(byte[] frame)
+        {
+            if (waitingBytes + frame.length > bufferLimit)
+            {
+                return false;
+            }
+            waiting.add(frame);
+            waitingBytes += frame.length;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Drops everything waiting in favour of a snapshot
+         */
+        synchronized void resync(byte[] snapshot)
+        {
+            waiting.clear();
+            waiting.add(snapshot);
+            waitingBytes = snapshot.length;
+            notifyAll();
+        }
+
+        void close()
+        {
+            synchronized (this)
+            {
+                closed = true;
+                notifyAll();
+            }
+            try
+            {
+                /* Unblocks a write to a viewer that has stopped reading */
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                /* We don't care! */
+            }
+        }
+
+        private synchronized byte[] take(boolean block) throws IOException
+        {
+            while (block && waiting.isEmpty() && !closed)
+            {
+                try
+                {
+                    wait();
+                }
+                catch(InterruptedException e)
+                {
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            if (closed)
+            {
+                throw new SocketException("Relay closed");
+            }
+            byte[] frame = waiting.poll();
+            waitingBytes -= frame == null ? 0 : frame.length;
+            return frame;
+        }
+
+        /**
+         * Writes frames as they are queued, flushing whenever the queue runs dry
+         */
+        void write() throws IOException
+        {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            while (true)
+            {
+                byte[] frame = take(false);
+                if (frame == null)
+                {
+                    out.flush();
+                    frame = take(true);
+                }
+                out.write(frame);
+            }
+        }
+    }
+
+    /**
+     * Connects to a relay and prints what it sends
+     * @param args The port, and the token if the relay needs one
+     * @throws IOException If the relay can't be reached
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: ObserverRelay <port> [token]");
+            return;
+        }
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])))
+        {
+            if (args.length > 1)
+            {
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                out.writeUTF(args[1]);
+                out.flush();
+            }
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            byte[] length = new byte[4];
+            while (true)
+            {
+                in.readFully(length);
+                byte[] frame = new byte[ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+                in.readFully(frame);
+                ByteBuffer f = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+                int type = f.getShort();
+                f.getShort();
+                System.out.println(type == EventRing.SNAPSHOT ? describeSnapshot(f) : EventRing.describe(type, f));
+            }
+        }
+        catch(EOFException e)
+        {
+            System.out.println("Relay closed");
+        }
+    }
+
+    private static String describeSnapshot(ByteBuffer p)
+    {
+        StringBuilder sb = new StringBuilder("snapshot: hand ").append(p.getInt()).append(", seat ").append(p.getInt());
+        int players = p.getInt();
+        sb.append(", dealer ").append(p.getInt()).append(", blinds ").append(p.getInt()).append('/').append(p.getInt());
+        sb.append(", bet ").append(p.getInt()).append(", min raise to ").append(p.getInt()).append(", pot ").append(p.getInt());
+        sb.append(", board ").append(CardMask.toString(p.getLong())).append(", hole ").append(CardMask.toString(p.getLong()));
+        for (int s = 0; s < players; s++)
+        {
+            int stack = p.getInt(), onTable = p.getInt();
+            boolean folded = p.getInt() != 0;
+            sb.append("; ").append(EventRing.getString(p)).append(' ').append(stack).append('/').append(onTable);
+            sb.append(folded ? " folded" : "");
+        }
+        return sb.toString();
+    }
+}
@@ -38,6 +38,7 @@ public class PlayerPanel extends javax.swing.JPanel {
     private String title;
     private int chipsInStack;
     private int chipsOnTable;
+    private boolean folded;
    
     private JLabel lblChipsOnTable;    
     private JPanel foreground;    
@@ -45,6 +46,7 @@ public class PlayerPanel extends javax.swing.JPanel {
     private CardHolder cards;
     private JLabel titleLabel;
     private JLabel chipsLabel;
+    private JLabel statsLabel;
     
     
     private final Color defaultBackground;
@@ -78,6 +80,10 @@ public class PlayerPanel extends javax.swing.JPanel {
         
         titleLabel = new JLabel("");
         foreground.add(titleLabel);
+        
+        statsLabel = new JLabel("");
+        statsLabel.setFont(statsLabel.getFont().deriveFont(10f));
+        foreground.add(statsLabel);
                 
         cards = new CardHolder();
         foreground.add(cards);
@@ -90,6 +96,7 @@ public class PlayerPanel extends javax.swing.JPanel {
         cards.clearCards();
         setChipsOnTable(0);
         setTitle("");
+        folded = false;
     }
     
     public void setRaisePlayer(boolean raise)
@@ -112,6 +119,7 @@ public class PlayerPanel extends javax.swing.JPanel {
            nameLabel.setForeground(Color.white);
            chipsLabel.setForeground(Color.white);
            titleLabel.setForeground(Color.white);
+           statsLabel.setForeground(Color.white);
         }
         else
         {
@@ -119,10 +127,38 @@ public class PlayerPanel extends javax.swing.JPanel {
             nameLabel.setForeground(Color.black);
             chipsLabel.setForeground(Color.black);
             titleLabel.setForeground(Color.black);
+            statsLabel.setForeground(Color.black);
         }
         
     }
     
+    public void setFolded(boolean folded)
+    {
+        this.folded = folded;
+    }
+    
+    public boolean isFolded()
+    {
+        return folded;
+    }
+    
+    /**
+     * Shows a player's stats under their name
+     * @param stats The stats, or null to show none
+     */
+    public void setStats(PlayerStats stats)
+    {
+        if (stats == null || stats.getHands() == 0)
+        {
+            statsLabel.setText("");
+            foreground.setToolTipText(null);
+            return;
+        }
+        statsLabel.setText(stats.toString());
+        foreground.setToolTipText(String.format("VPIP %.0f%%, PFR %.0f%%, aggression %.1f, fold to bet %.0f%% over %d hands",
+                stats.getVpip(), stats.getPfr(), stats.getAggressionFactor(), stats.getFoldToBet(), stats.getHands()));
+    }
+    
     public void setTitle(String title)
     {
         this.title = title;
@@ -178,6 +214,11 @@ public class PlayerPanel extends javax.swing.JPanel {
         cards.addCard(c);
     }
     
+    public long getCardMask()
+    {
+        return cards.getCardMask();
+    }
+    
     
     
     @SuppressWarnings("unchecked")
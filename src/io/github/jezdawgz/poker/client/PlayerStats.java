@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Counts what one player has done over every hand we've seen them play, for the stats shown on their
+ * {@link PlayerPanel}. Everything is a plain counter so an action only costs a couple of increments.
+ *
+ * @author Jeremy Collette
+ */
+public class PlayerStats {
+
+    private final String name;
+
+    int hands;
+    int vpip;
+    int pfr;
+    int aggressive;
+    int calls;
+    int checks;
+    int foldToBetChances;
+    int foldsToBet;
+
+    boolean dirty;
+    /* How many tables they're sat at with us, so their stats are kept in memory */
+    int seated;
+
+    public PlayerStats(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getHands()
+    {
+        return hands;
+    }
+
+    /**
+     * Gets how often they put chips in before the flop when they didn't have to
+     * @return Voluntarily put in pot, as a percentage of hands
+     */
+    public double getVpip()
+    {
+        return percent(vpip, hands);
+    }
+
+    /**
+     * Gets how often they bet or raised before the flop
+     * @return Pre-flop raise, as a percentage of hands
+     */
+    public double getPfr()
+    {
+        return percent(pfr, hands);
+    }
+
+    /**
+     * Gets how many bets and raises they make for each call
+     * @return Aggression factor, or the number of bets and raises if they've never called
+     */
+    public double getAggressionFactor()
+    {
+        return calls == 0 ? aggressive : (double)aggressive / calls;
+    }
+
+    /**
+     * Gets how often they fold after the flop when facing a bet
+     * @return Fold to bet, as a percentage of the times they faced one
+     */
+    public double getFoldToBet()
+    {
+        return percent(foldsToBet, foldToBetChances);
+    }
+
+    private static double percent(int n, int of)
+    {
+        return of == 0 ? 0 : 100.0 * n / of;
+    }
+
+    void write(DataOutput out) throws IOException
+    {
+        out.writeInt(hands);
+        out.writeInt(vpip);
+        out.writeInt(pfr);
+        out.writeInt(aggressive);
+        out.writeInt(calls);
+        out.writeInt(checks);
+        out.writeInt(foldToBetChances);
+        out.writeInt(foldsToBet);
+    }
+
+    void read(DataInput in) throws IOException
+    {
+        hands = in.readInt();
+        vpip = in.readInt();
+        pfr = in.readInt();
+        aggressive = in.readInt();
+        calls = in.readInt();
+        checks = in.readInt();
+        foldToBetChances = in.readInt();
+        foldsToBet = in.readInt();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%.0f/%.0f AF %.1f FtB %.0f (%d)", getVpip(), getPfr(), getAggressionFactor(), getFoldToBet(), hands);
+    }
+}
@@ -20,12 +20,18 @@
 
 package io.github.jezdawgz.poker.client;
 
+import io.github.jezdawgz.poker.server.ClientCommand;
 import io.github.jezdawgz.poker.server.Event.*;
 import io.github.jezdawgz.poker.server.Event;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.swing.SwingUtilities;
 
 
 /**
@@ -37,6 +43,8 @@ import java.net.Socket;
 public class PokerClient implements Runnable {
     
     public static final String VERSION = "0.9.2 (dev)";
+    
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(PokerClient.class);
    
     public static class PokerClientInitException extends Exception
     {
@@ -82,13 +90,20 @@ public class PokerClient implements Runnable {
     private GameScreen screen;
     private ObjectOutputStream dataOut;
     private ObjectInputStream dataIn;
+    private MeteredInputStream meteredIn;
+    private final String tableId;
+    private final ClientLog.Logger log;
+    private final EventRing ring;
+    private final int ringStream;
+    private final ObserverRelay relay;
     
     public PokerClient(Socket s, String name) throws PokerClientInitException
     {
         try
         {
             dataOut = new ObjectOutputStream(s.getOutputStream());
-            dataIn = new ObjectInputStream(s.getInputStream());
+            meteredIn = new MeteredInputStream(s.getInputStream());
+            dataIn = new ObjectInputStream(meteredIn);
         }
         catch(IOException e)
         {
@@ -97,7 +112,7 @@ public class PokerClient implements Runnable {
         
         try
         {
-            doHandshake();
+            doHandshake(dataOut, dataIn);
             dataOut.writeObject(new Event.NewMessageEvent(name));
         }
         catch(Exception e)
@@ -106,9 +121,23 @@ public class PokerClient implements Runnable {
         }
         
         screen = null;       
+        tableId = s.getInetAddress().getHostAddress()+":"+s.getPort();
+        log = LOG.forSession(tableId);
+        log.info("Connected as "+name);
+        
+        /* Other processes can follow the table through a shared ring, if one is set up */
+        ring = EventRing.getShared();
+        ringStream = ring == null ? 0 : ring.openStream(tableId);
+        relay = ObserverRelay.open(tableId);
     }
     
-    private void doHandshake() throws PokerClientHandshakeFailureException
+    /**
+     * Asks the server to let us join
+     * @param dataOut Stream to the server
+     * @param dataIn Stream from the server
+     * @throws PokerClientHandshakeFailureException If the server doesn't answer as expected, or turns us away
+     */
+    static void doHandshake(ObjectOutputStream dataOut, ObjectInputStream dataIn) throws PokerClientHandshakeFailureException
     {
         try
         {
@@ -145,11 +174,18 @@ public class PokerClient implements Runnable {
     public void run()
     {
         screen = new GameScreen();
+        screen.setTableId(tableId);
         screen.setVisible(true);   
 
-        ClientEventPoller poller = new ClientEventPoller(screen, dataOut);
+        ClientEventPoller poller = new ClientEventPoller(screen, dataOut, log, ring, ringStream);
         Thread t = new Thread(poller);
         t.start();
+        
+        final Histogram decode = Metrics.get().histogram(Metrics.DECODE);
+        final Histogram preActionTime = Metrics.get().histogram(Metrics.PRE_ACTION);
+        InboundDispatcher dispatcher = new InboundDispatcher(screen, tableId);
+        PreActions preActions = screen.getPreActions();
+        int ourSeat = -1;
 
         while (true) 
         {
@@ -157,7 +193,38 @@ public class PokerClient implements Runnable {
 
             try 
             {
+                Object jfr = JfrEvents.beginRead();
+                meteredIn.arm();
                 e = (Event) dataIn.readObject();
+                long decodeTime = System.nanoTime() - meteredIn.getFirstByteTime();
+                decode.record(decodeTime);
+                JfrEvents.endRead(jfr, e.getClass(), tableId, decodeTime);
+                if (ring != null)
+                {
+                    ring.publish(ringStream, e, false);
+                }
+                if (relay != null)
+                {
+                    relay.receiveEvent(e);
+                }
+                screen.traceEvent(e);
+                if (NewGameEvent.class.isInstance(e))
+                {
+                    ourSeat = ((NewGameEvent)e).clientIndex;
+                }
+                else if (PlayerTurnEvent.class.isInstance(e) && ((PlayerTurnEvent)e).playerIndex == ourSeat)
+                {
+                    /* Timed from here, so the wait to be applied on the EDT counts as part of our turn */
+                    screen.turnStarted();
+                }
+                
+                /* An action picked before our turn goes straight back, without waiting for the GUI */
+                ClientCommand preAction = preActions.receiveEvent(e);
+                if (preAction != null)
+                {
+                    send(preAction);
+                    preActionTime.record(System.nanoTime() - meteredIn.getFirstByteTime());
+                }
             } 
             catch (Exception ex) 
             {
@@ -165,15 +232,28 @@ public class PokerClient implements Runnable {
                 break;
             }
 
-           screen.receiveEvent(e);
+           /* The GUI is only touched from the Event Dispatch Thread */
+           if (!dispatcher.offer(e))
+           {
+               screen.exitDueToError(new IOException("The client fell more than "+dispatcher.getHardLimit()+" events behind the server"));
+               break;
+           }
+           
            if (GameOverEvent.class.isInstance(e))
            {
-               System.out.println("Game over!");
+               log.info("Game over!");
                break;
            }
 
         }       
         
+        if (relay != null)
+        {
+            relay.close();
+        }
+        dispatcher.close();
+        screen.sessionEnded();
+        
         try
         {
             dataOut.close();
@@ -188,15 +268,279 @@ public class PokerClient implements Runnable {
     }
     
     
+    /**
+     * Writes a command to the server from the reader thread. The poller writes under the same lock.
+     * @param c The command
+     * @throws IOException If it couldn't be written
+     */
+    private void send(ClientCommand c) throws IOException
+    {
+        screen.preActionSending(c);
+        synchronized (dataOut)
+        {
+            dataOut.writeObject(c);
+            dataOut.flush();
+        }
+        screen.clientEventSent(c);
+        if (ring != null)
+        {
+            ring.publish(ringStream, c, true);
+        }
+        log.debug("Sent pre-selected "+c.getClass().getSimpleName());
+    }
+    
+    
+    /**
+     * Notes when the bytes of each {@link Event} start to arrive, so decoding can be timed without the wait for them
+     */
+    private static class MeteredInputStream extends FilterInputStream
+    {
+        private boolean armed;
+        private long armedAt;
+        private long firstByteAt;
+        
+        public MeteredInputStream(InputStream in)
+        {
+            super(in);
+        }
+        
+        /**
+         * Starts waiting for the next event
+         */
+        public void arm()
+        {
+            armed = true;
+            armedAt = System.nanoTime();
+            firstByteAt = 0;
+        }
+        
+        /**
+         * Gets when the event's first bytes arrived (or when we armed, if they'd already been read)
+         * @return The time, from {@link System#nanoTime()}
+         */
+        public long getFirstByteTime()
+        {
+            return firstByteAt == 0 ? armedAt : firstByteAt;
+        }
+        
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+            {
+                arrived();
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0)
+            {
+                arrived();
+            }
+            return n;
+        }
+        
+        private void arrived()
+        {
+            if (armed)
+            {
+                armed = false;
+                firstByteAt = System.nanoTime();
+            }
+        }
+    }
+    
+    
+    /**
+     * Hands events from the reader thread to the Event Dispatch Thread, game events ahead of chat.
+     * <p>
+     * Events wait in {@link EventLanes} and one drain at a time is scheduled on the EDT. Each drain applies every
+     * waiting game event in order, then a limited batch of chat, and schedules itself again if anything is left.
+     * A flood of chat therefore can't sit in front of the next turn.
+     * <p>
+     * The queue is bounded, so an EDT that falls behind can't make it grow without limit. What happens under
+     * load is set with system properties:
+     * <ul>
+     * <li><code>pokerclient.inbound.chat</code> - most chat messages kept waiting (256). Older ones are dropped.</li>
+     * <li><code>pokerclient.inbound.chatPolicy</code> - <code>summarise</code> to log how many were dropped, or
+     * <code>drop</code> to drop them quietly</li>
+     * <li><code>pokerclient.inbound.limit</code> - game events waiting before the table is given up on (4096)</li>
+     * </ul>
+     */
+    private static class InboundDispatcher implements Runnable
+    {
+        /** Most chat messages applied per drain before letting other work on the EDT run */
+        private static final int CHAT_BATCH = 32;
+        
+        private final GameScreen screen;
+        private final String tableId;
+        private final EventLanes<Queued> lanes;
+        private final AtomicBoolean scheduled;
+        private final boolean summariseChat;
+        private final int hardLimit;
+        private final Histogram queueDelay;
+        private final Histogram chatDelay;
+        private final LongAdder coalesced;
+        private final Metrics.Gauge queueSize;
+        private final Metrics.Gauge queueMax;
+        
+        public InboundDispatcher(GameScreen screen, String tableId)
+        {
+            this.screen = screen;
+            this.tableId = tableId;
+            hardLimit = Integer.getInteger("pokerclient.inbound.limit", 4096);
+            summariseChat = !"drop".equalsIgnoreCase(System.getProperty("pokerclient.inbound.chatPolicy"));
+            lanes = new EventLanes<>(Integer.getInteger("pokerclient.inbound.chat", EventLanes.DEFAULT_COSMETIC_CAPACITY),
+                    hardLimit);
+            scheduled = new AtomicBoolean();
+            queueDelay = Metrics.get().histogram(Metrics.QUEUE_DELAY);
+            chatDelay = Metrics.get().histogram(Metrics.CHAT_DELAY);
+            coalesced = Metrics.get().counter(Metrics.CHAT_COALESCED);
+            /* Made where they can't see the dispatcher, so they don't keep the screen reachable */
+            queueSize = gauge(lanes, false);
+            queueMax = gauge(lanes, true);
+            Metrics.get().gauge(Metrics.sessionName(Metrics.INBOUND_QUEUE, tableId), queueSize);
+            Metrics.get().gauge(Metrics.sessionName(Metrics.INBOUND_QUEUE_MAX, tableId), queueMax);
+        }
+        
+        private static Metrics.Gauge gauge(final EventLanes<Queued> lanes, final boolean highWater)
+        {
+            return new Metrics.Gauge()
+            {
+                @Override
+                public long getValue() {
+                    return highWater ? lanes.getHighWater() : lanes.size();
+                }
+            };
+        }
+        
+        /**
+         * Stops reporting the queue's metrics, once the reader is done with it
+         */
+        public void close()
+        {
+            Metrics.get().removeGauge(Metrics.sessionName(Metrics.INBOUND_QUEUE, tableId), queueSize);
+            Metrics.get().removeGauge(Metrics.sessionName(Metrics.INBOUND_QUEUE_MAX, tableId), queueMax);
+        }
+        
+        /**
+         * Queues an event to be applied on the EDT. Called from the reader thread.
+         * @param e The event
+         * @return False if too many game events are already waiting, and the event was refused
+         */
+        public boolean offer(Event e)
+        {
+            if (!lanes.add(new Queued(e, System.nanoTime(), JfrEvents.beginDispatch()), EventLanes.isCosmetic(e)))
+            {
+                Metrics.get().counter(Metrics.INBOUND_OVERFLOWS).increment();
+                return false;
+            }
+            schedule();
+            return true;
+        }
+        
+        public int getHardLimit()
+        {
+            return hardLimit;
+        }
+        
+        private void schedule()
+        {
+            if (scheduled.compareAndSet(false, true))
+            {
+                SwingUtilities.invokeLater(this);
+            }
+        }
+        
+        @Override
+        public void run()
+        {
+            /* Cleared first, so anything offered from here on gets a drain of its own */
+            scheduled.set(false);
+            
+            Queued q;
+            while ((q = lanes.pollGame()) != null)
+            {
+                apply(q);
+            }
+            
+            int skipped = lanes.takeCoalesced();
+            if (skipped > 0)
+            {
+                coalesced.add(skipped);
+                if (summariseChat)
+                {
+                    screen.messagesSkipped(skipped);
+                }
+            }
+            
+            for (int i = 0; i < CHAT_BATCH && !lanes.hasGame() && (q = lanes.poll()) != null; i++)
+            {
+                apply(q);
+            }
+            
+            if (!lanes.isEmpty())
+            {
+                schedule();
+            }
+        }
+        
+        private void apply(Queued q)
+        {
+            long delay = System.nanoTime() - q.queued;
+            if (EventLanes.isCosmetic(q.event))
+            {
+                chatDelay.record(delay);
+            }
+            else
+            {
+                queueDelay.record(delay);
+            }
+            JfrEvents.endDispatch(q.jfr, q.event.getClass(), tableId);
+            screen.receiveEvent(q.event);
+        }
+        
+        /**
+         * An event waiting for the EDT
+         */
+        private static final class Queued
+        {
+            final Event event;
+            final long queued;
+            final Object jfr;
+            
+            Queued(Event event, long queued, Object jfr)
+            {
+                this.event = event;
+                this.queued = queued;
+                this.jfr = jfr;
+            }
+        }
+    }
+    
+    
     private static class ClientEventPoller implements Runnable
     {
         private final GameScreen client;
         private final ObjectOutputStream eventStream;
+        private final Histogram writeLatency;
+        private final ClientLog.Logger log;
+        private final EventRing ring;
+        private final int ringStream;
         
-        public ClientEventPoller(GameScreen game, ObjectOutputStream oos)
+        public ClientEventPoller(GameScreen game, ObjectOutputStream oos, ClientLog.Logger log, EventRing ring, int ringStream)
         {
             client = game;
             eventStream = oos;
+            this.log = log;
+            this.ring = ring;
+            this.ringStream = ringStream;
+            writeLatency = Metrics.get().histogram(Metrics.COMMAND_WRITE);
         }
         
         @Override
@@ -204,29 +548,42 @@ public class PokerClient implements Runnable {
         {        
             while(client.isDisplayable())
             {
-                Event e = client.getNextClientEvent();
+                Event e;
+                try
+                {
+                    e = client.takeNextClientEvent(100);
+                }
+                catch(InterruptedException ex)
+                {
+                    break;
+                }
+                
                 if (e != null)
                 {
                     //System.out.println("Sending event to server: "+e.toString());
                     try
                     {
-                        eventStream.writeObject(e);
+                        Object jfr = JfrEvents.beginSend();
+                        long start = System.nanoTime();
+                        synchronized (eventStream)
+                        {
+                            eventStream.writeObject(e);
+                            eventStream.flush();
+                        }
+                        writeLatency.record(System.nanoTime() - start);
+                        JfrEvents.endSend(jfr, e.getClass(), client.getTableId());
+                        if (ring != null)
+                        {
+                            ring.publish(ringStream, e, true);
+                        }
+                        client.clientEventSent(e);
                     }
                     catch(IOException ex)
                     {
-                        ex.printStackTrace();
+                        log.error("Error sending "+e.getClass().getSimpleName(), ex);
                         throw new RuntimeException("Error sending data!");
                     }
                 }
-                
-                try
-                {
-                    Thread.sleep(10);
-                }
-                catch(Exception ex)
-                {
-                    break;
-                }
             }   
         }      
     }
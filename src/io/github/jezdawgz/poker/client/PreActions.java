@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Actions the player picks before it is their turn, sent the moment the turn arrives.
+ * <p>
+ * The GUI arms an action with {@link #arm(Action, int)}. The reader thread passes every event from the server
+ * to {@link #receiveEvent(Event)} as soon as it is read, before the event is queued for the GUI, and keeps just
+ * enough of the betting state to decide what is legal. When our {@link PlayerTurnEvent} is read, the armed
+ * action is turned into a command there and then, so it can be written without waiting for the GUI to catch up.
+ * <p>
+ * An action only fires in the hand it was armed in. "Check" and "Call" also only fire on the street they were
+ * armed on, and "Call" only if the amount to call is still what the player saw - otherwise it is dropped and the
+ * player decides for themselves. The GUI can lag behind the reader, so which hand and street it has shown is
+ * counted separately, by {@link #applied(Event)}.
+ *
+ * @author Jeremy Collette
+ */
+public class PreActions {
+
+    public enum Action
+    {
+        CHECK_FOLD("Check/Fold"),
+        CHECK("Check"),
+        CALL("Call"),
+        CALL_ANY("Call Any");
+
+        private final String label;
+
+        Action(String label)
+        {
+            this.label = label;
+        }
+
+        @Override
+        public String toString()
+        {
+            return label;
+        }
+    }
+
+    /**
+     * An armed action, and what the player could see when they picked it
+     */
+    private static final class Armed
+    {
+        final Action action;
+        final int toCall;
+        final int hand;
+        final int street;
+
+        Armed(Action action, int toCall, int hand, int street)
+        {
+            this.action = action;
+            this.toCall = toCall;
+            this.hand = hand;
+            this.street = street;
+        }
+    }
+
+    /**
+     * A command sent for a turn event
+     */
+    private static final class Fired
+    {
+        final Event turn;
+        final ClientCommand command;
+
+        Fired(Event turn, ClientCommand command)
+        {
+            this.turn = turn;
+            this.command = command;
+        }
+    }
+
+    private final AtomicReference<Armed> armed = new AtomicReference<>();
+    private final AtomicReference<Fired> fired = new AtomicReference<>();
+
+    /* Only touched by the reader thread */
+    private int ourIndex = -1;
+    private int currentBet;
+    private int ourChipsOnTable;
+    private int hand;
+    private int street;
+
+    /* Only touched by the GUI */
+    private int shownHand;
+    private int shownStreet;
+
+    /**
+     * Arms an action, replacing any armed before. Called from the GUI.
+     * @param action The action, or null to disarm
+     * @param toCall The amount to call the player can see
+     */
+    public void arm(Action action, int toCall)
+    {
+        armed.set(action == null ? null : new Armed(action, toCall, shownHand, shownStreet));
+    }
+
+    /**
+     * Gets the armed action
+     * @return The action, or null if none is armed
+     */
+    public Action getArmed()
+    {
+        Armed a = armed.get();
+        return a == null ? null : a.action;
+    }
+
+    /**
+     * Keeps track of the hands and streets the GUI has shown. Called from the GUI for every event it applies.
+     * @param e The event
+     */
+    public void applied(Event e)
+    {
+        if (NewRoundEvent.class.isInstance(e))
+        {
+            shownHand++;
+            shownStreet = 0;
+        }
+        else if (NewCommunityCardEvent.class.isInstance(e))
+        {
+            shownStreet++;
+        }
+    }
+
+    /**
+     * Updates the betting state with an event as soon as it is read, and fires the armed action if it is our turn.
+     * Called from the reader thread.
+     * @param e The event
+     * @return The command to send straight away, or null if there is none
+     */
+    public ClientCommand receiveEvent(Event e)
+    {
+        if (NewGameEvent.class.isInstance(e))
+        {
+            ourIndex = ((NewGameEvent)e).clientIndex;
+        }
+        else if (NewRoundEvent.class.isInstance(e))
+        {
+            hand++;
+            street = 0;
+            currentBet = 0;
+            ourChipsOnTable = 0;
+        }
+        else if (NewCommunityCardEvent.class.isInstance(e))
+        {
+            street++;
+            currentBet = 0;
+            ourChipsOnTable = 0;
+        }
+        else if (PlayerChipsOnTableEvent.class.isInstance(e))
+        {
+            PlayerChipsOnTableEvent evt = (PlayerChipsOnTableEvent)e;
+            currentBet = Math.max(currentBet, evt.amount);
+            if (evt.playerIndex == ourIndex)
+            {
+                ourChipsOnTable = evt.amount;
+            }
+        }
+        else if (PlayerTurnEvent.class.isInstance(e) && ((PlayerTurnEvent)e).playerIndex == ourIndex)
+        {
+            Armed a = armed.getAndSet(null);
+            ClientCommand c = a == null ? null : commandFor(a);
+            if (c != null)
+            {
+                fired.set(new Fired(e, c));
+            }
+            return c;
+        }
+        return null;
+    }
+
+    /**
+     * Works out the command for an armed action, if it is still legal and still what the player meant
+     * @param a The armed action
+     * @return The command, or null if the action no longer applies
+     */
+    private ClientCommand commandFor(Armed a)
+    {
+        if (a.hand != hand)
+        {
+            return null;
+        }
+
+        int toCall = currentBet - ourChipsOnTable;
+        switch (a.action)
+        {
+            case CHECK_FOLD:
+                return toCall > 0 ? new ClientCommand.ClientFoldCommand() : new ClientCommand.ClientCheckCommand();
+            case CALL_ANY:
+                return toCall > 0 ? new ClientCommand.ClientCallCommand() : new ClientCommand.ClientCheckCommand();
+            case CHECK:
+                return a.street == street && toCall == 0 ? new ClientCommand.ClientCheckCommand() : null;
+            case CALL:
+                if (a.street != street || toCall != a.toCall)
+                {
+                    return null;
+                }
+                return toCall > 0 ? new ClientCommand.ClientCallCommand() : new ClientCommand.ClientCheckCommand();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the command that was sent when a turn event was read, if one was
+     * @param turn The turn event
+     * @return The command already sent, or null if the player still has to act
+     */
+    public ClientCommand takeFired(Event turn)
+    {
+        Fired f = fired.get();
+        if (f != null && f.turn == turn && fired.compareAndSet(f, null))
+        {
+            return f.command;
+        }
+        return null;
+    }
+}
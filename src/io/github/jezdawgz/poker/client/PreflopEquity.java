@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * Precomputed preflop equity of the 169 starting hand classes, memory-mapped from a file in the client's
+ * data directory.
+ * <p>
+ * The file holds the equity of each class against 1 to {@link #MAX_OPPONENTS} random hands, and of each class
+ * against each other class. Lookups read straight from the mapping, so they take constant time and use no heap.
+ * The file's checksum is verified when it is first mapped; if the file is missing or stale it is generated
+ * again in the background and {@link #getInstance()} returns null until it is ready. Run this class to
+ * generate the file up front.
+ * <p>
+ * Classes are numbered on a 13x13 grid by rank (two is 0, ace is 12): pairs on the diagonal, suited hands at
+ * [high][low] and offsuit hands at [low][high].
+ *
+ * @author Jeremy Collette
+ */
+public final class PreflopEquity {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(PreflopEquity.class);
+
+    public static final int NUM_CLASSES = CardMask.NUM_RANKS * CardMask.NUM_RANKS;
+
+    /** One less than the 8 seats of {@link GameScreen} */
+    public static final int MAX_OPPONENTS = 7;
+
+    /** Rollouts per hand class and number of opponents */
+    public static final int VS_RANDOM_SAMPLES = 100000;
+
+    /** Rollouts per pair of hand classes */
+    public static final int MATCHUP_SAMPLES = 20000;
+
+    private static final String FILE_NAME = "preflop.dat";
+    private static final int MAGIC = 0x50464551;
+    private static final int VERSION = 1;
+
+    /* Header: magic, version, classes, max opponents, vs random samples, matchup samples, CRC of the body */
+    private static final int HEADER_SIZE = 6 * 4 + 8;
+    private static final int VS_RANDOM_OFFSET = HEADER_SIZE;
+    private static final int MATCHUP_OFFSET = VS_RANDOM_OFFSET + NUM_CLASSES * MAX_OPPONENTS * 4;
+    private static final int FILE_SIZE = MATCHUP_OFFSET + NUM_CLASSES * NUM_CLASSES * 4;
+
+    private static volatile PreflopEquity instance;
+    private static boolean generating;
+
+    private final MappedByteBuffer buffer;
+
+    private PreflopEquity(MappedByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Gets the tables, mapping the file the first time.
+     * @return The tables, or null while they are still being generated
+     */
+    public static PreflopEquity getInstance()
+    {
+        PreflopEquity p = instance;
+        if (p != null)
+        {
+            return p;
+        }
+
+        synchronized (PreflopEquity.class)
+        {
+            if (instance == null && !generating)
+            {
+                final File f = getFile();
+                try
+                {
+                    instance = map(f);
+                }
+                catch(IOException e)
+                {
+                    /* Missing or stale - make a new one without holding anybody up */
+                    generating = true;
+                    Thread t = new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run() {
+                            regenerate(f);
+                        }
+                    }, "Preflop equity generator");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    t.start();
+                }
+            }
+            return instance;
+        }
+    }
+
+    private static void regenerate(File f)
+    {
+        /* A pool of our own, so live equity work on the common pool isn't kept waiting */
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("Preflop equity generator "+t.getPoolIndex());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        }, null, false);
+
+        PreflopEquity p = null;
+        try
+        {
+            generate(f, pool);
+            p = map(f);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            /* Preflop lookups won't be available until the next attempt */
+            LOG.warn("Could not generate "+f, e);
+        }
+        finally
+        {
+            pool.shutdown();
+            synchronized (PreflopEquity.class)
+            {
+                instance = p;
+                generating = false;
+            }
+        }
+    }
+
+    public static File getFile()
+    {
+        return new File(Utils.getDataDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Gets the class of a pair of hole cards
+     * @param hole Two card {@link CardMask}
+     * @return The class (0-168)
+     */
+    public static int classOf(long hole)
+    {
+        int a = CardMask.lowest(hole);
+        int b = CardMask.lowest(hole & (hole - 1));
+        int ra = CardMask.rankOfIndex(a), rb = CardMask.rankOfIndex(b);
+        int high = Math.max(ra, rb), low = Math.min(ra, rb);
+        boolean suited = CardMask.suitOfIndex(a) == CardMask.suitOfIndex(b);
+        return suited ? high * CardMask.NUM_RANKS + low : low * CardMask.NUM_RANKS + high;
+    }
+
+    /**
+     * Gets the equity of a hand class against random hands
+     * @param handClass The class from {@link #classOf(long)}
+     * @param opponents Number of opponents (1 to {@link #MAX_OPPONENTS})
+     * @return Equity (0-1)
+     */
+    public float vsRandom(int handClass, int opponents)
+    {
+        return buffer.getFloat(VS_RANDOM_OFFSET + (handClass * MAX_OPPONENTS + opponents - 1) * 4);
+    }
+
+    /**
+     * Gets the equity of one hand class against another, averaged over their suits
+     * @param handClass Our class
+     * @param opponentClass Their class
+     * @return Our equity (0-1)
+     */
+    public float vsClass(int handClass, int opponentClass)
+    {
+        return buffer.getFloat(MATCHUP_OFFSET + (handClass * NUM_CLASSES + opponentClass) * 4);
+    }
+
+    /**
+     * Gets roughly how far {@link #vsRandom} could be from the true equity
+     * @param equity A value returned by {@link #vsRandom}
+     * @return Half width of the 95% confidence interval
+     */
+    public double vsRandomHalfWidth(double equity)
+    {
+        return 1.96 * Math.sqrt(equity * (1 - equity) / buffer.getInt(16));
+    }
+
+    private static PreflopEquity map(File f) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r"))
+        {
+            if (raf.length() != FILE_SIZE)
+            {
+                throw new IOException("Stale preflop equity file: "+f);
+            }
+
+            /* The mapping stays valid after the channel is closed */
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(8) != NUM_CLASSES
+                    || buf.getInt(12) != MAX_OPPONENTS || buf.getInt(16) != VS_RANDOM_SAMPLES
+                    || buf.getInt(20) != MATCHUP_SAMPLES)
+            {
+                throw new IOException("Stale preflop equity file: "+f);
+            }
+
+            ByteBuffer body = buf.duplicate();
+            body.position(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (crc.getValue() != buf.getLong(24))
+            {
+                throw new IOException("Corrupt preflop equity file: "+f);
+            }
+            return new PreflopEquity(buf);
+        }
+    }
+
+    /**
+     * Works out every table and writes them to a file
+     * @param f The file to write
+     * @param pool Pool to do the work on
+     * @throws IOException If the file can't be written
+     */
+    public static void generate(File f, ForkJoinPool pool) throws IOException
+    {
+        float[] vsRandom = new float[NUM_CLASSES * MAX_OPPONENTS];
+        float[] matchups = new float[NUM_CLASSES * NUM_CLASSES];
+        pool.invoke(new GenerateTask(vsRandom, matchups, 0, NUM_CLASSES));
+
+        ByteBuffer out = ByteBuffer.allocate(FILE_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).putInt(NUM_CLASSES).putInt(MAX_OPPONENTS)
+                .putInt(VS_RANDOM_SAMPLES).putInt(MATCHUP_SAMPLES).putLong(0);
+        for (float e : vsRandom)
+        {
+            out.putFloat(e);
+        }
+        for (float e : matchups)
+        {
+            out.putFloat(e);
+        }
+
+        ByteBuffer body = out.duplicate();
+        body.position(HEADER_SIZE);
+        body.limit(FILE_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        out.putLong(24, crc.getValue());
+        out.flip();
+
+        File tmp = new File(f.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"))
+        {
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            while (out.hasRemaining())
+            {
+                ch.write(out);
+            }
+            ch.force(true);
+        }
+        if (!tmp.renameTo(f))
+        {
+            f.delete();
+            if (!tmp.renameTo(f))
+            {
+                throw new IOException("Could not write "+f);
+            }
+        }
+    }
+
+    /**
+     * Works out the tables for a range of hand classes
+     */
+    private static class GenerateTask extends RecursiveAction
+    {
+        private final float[] vsRandom;
+        private final float[] matchups;
+        private final int from;
+        private final int to;
+
+        GenerateTask(float[] vsRandom, float[] matchups, int from, int to)
+        {
+            this.vsRandom = vsRandom;
+            this.matchups = matchups;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1)
+            {
+                int mid = (from + to) >>> 1;
+                invokeAll(new GenerateTask(vsRandom, matchups, from, mid), new GenerateTask(vsRandom, matchups, mid, to));
+                return;
+            }
+
+            /* Seeded by class so the file comes out the same every time */
+            SplittableRandom rnd = new SplittableRandom(from);
+            int[] deck = new int[CardMask.NUM_CARDS];
+            for (int o = 1; o <= MAX_OPPONENTS; o++)
+            {
+                vsRandom[from * MAX_OPPONENTS + o - 1] = (float)rollout(rnd, deck, from, -1, o, VS_RANDOM_SAMPLES);
+            }
+            for (int c = 0; c < NUM_CLASSES; c++)
+            {
+                matchups[from * NUM_CLASSES + c] = (float)rollout(rnd, deck, from, c, 1, MATCHUP_SAMPLES);
+            }
+        }
+    }
+
+    /**
+     * Deals a random hand of a class avoiding some cards
+     */
+    private static long dealClass(SplittableRandom rnd, int handClass, long dead)
+    {
+        int row = handClass / CardMask.NUM_RANKS, col = handClass % CardMask.NUM_RANKS;
+        int high = Math.max(row, col), low = Math.min(row, col);
+        while (true)
+        {
+            int s1 = rnd.nextInt(CardMask.NUM_SUITS);
+            int s2 = row > col ? s1 : rnd.nextInt(CardMask.NUM_SUITS);
+            if (row <= col && s1 == s2)
+            {
+                continue;
+            }
+            long hand = CardMask.of(CardMask.index(s1, high)) | CardMask.of(CardMask.index(s2, low));
+            if ((hand & dead) == 0)
+            {
+                return hand;
+            }
+        }
+    }
+
+    /**
+     * Plays random deals of a hand class against either another class or random hands
+     * @param opponentClass The opponent's class, or -1 for random hands
+     * @return Our equity
+     */
+    private static double rollout(SplittableRandom rnd, int[] deck, int handClass, int opponentClass, int opponents, int samples)
+    {
+        double total = 0;
+        long[] theirs = new long[opponents];
+        for (int s = 0; s < samples; s++)
+        {
+            long hole = dealClass(rnd, handClass, 0);
+            long dead = hole;
+            if (opponentClass >= 0)
+            {
+                theirs[0] = dealClass(rnd, opponentClass, hole);
+                dead |= theirs[0];
+            }
+
+            int n = 0;
+            for (long m = CardMask.FULL_DECK & ~dead; m != 0; m &= m - 1)
+            {
+                deck[n++] = CardMask.lowest(m);
+            }
+            int needed = 5 + (opponentClass >= 0 ? 0 : 2 * opponents);
+            for (int i = 0; i < needed; i++)
+            {
+                int j = i + rnd.nextInt(n - i);
+                int t = deck[i]; deck[i] = deck[j]; deck[j] = t;
+            }
+
+            long board = 0;
+            for (int i = 0; i < 5; i++)
+            {
+                board |= CardMask.of(deck[i]);
+            }
+            if (opponentClass < 0)
+            {
+                for (int o = 0; o < opponents; o++)
+                {
+                    theirs[o] = CardMask.of(deck[5 + 2*o]) | CardMask.of(deck[6 + 2*o]);
+                }
+            }
+
+            int ours = HandEvaluator.evaluate(hole | board);
+            int tied = 0;
+            boolean lost = false;
+            for (long h : theirs)
+            {
+                int r = HandEvaluator.evaluate(h | board);
+                if (r > ours)
+                {
+                    lost = true;
+                    break;
+                }
+                tied += r == ours ? 1 : 0;
+            }
+            total += lost ? 0 : 1.0 / (tied + 1);
+        }
+        return total / samples;
+    }
+
+    /**
+     * Generates the preflop equity file
+     * @param args Not used
+     * @throws IOException If the file can't be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        long start = System.nanoTime();
+        File f = getFile();
+        generate(f, ForkJoinPool.commonPool());
+        map(f);
+        System.out.println("Wrote "+f+" in "+(System.nanoTime() - start) / 1000000000L+"s");
+    }
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays {@link Strategy}s against each other in-process, to compare them over far more hands than real games allow.
+ * <p>
+ * Hands are dealt and played here, with no server and no sockets: a small no-limit hold'em dealer hands each
+ * strategy a {@link TableView} and applies the command it returns, and {@link SidePotTracker} splits the pots at
+ * showdown. Every hand starts with fresh stacks, so hands are independent of each other.
+ * <p>
+ * Deals are duplicated to cancel out the luck of the cards. Each deal is shuffled from its own seed and then
+ * played once per strategy, with the strategies moved round one seat each time, so every strategy gets every
+ * seat's cards in every position. With more seats than strategies, strategies sit more than once at the table;
+ * moving them round more times would only repeat the same seatings. The result of one strategy over all the
+ * rotations of a deal is one sample; the big blinds won per 100 hands and its 95% confidence interval come from
+ * those samples. Deals are split over every core by a {@link ForkJoinPool}.
+ * <p>
+ * A strategy that throws, goes over its time budget, or asks for a bet whose total can't be read gets the safe
+ * action instead (check, or fold to a bet), as it would from {@link StrategyRunner}. Overruns are counted.
+ *
+ * @author Jeremy Collette
+ */
+public class SelfPlay {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(SelfPlay.class);
+
+    public static final int SMALL_BLIND = 10;
+    public static final int BIG_BLIND = 20;
+    public static final int STARTING_STACK = 100 * BIG_BLIND;
+
+    /** Deals played per task once the work has been split small enough */
+    private static final int DEALS_PER_TASK = 64;
+
+    private final Strategy[] strategies;
+    private final int seats;
+    private final long seed;
+    private final long budgetNanos;
+
+    /* Set once the failure to read a bet's total has been logged */
+    private static volatile boolean betAmountFailed;
+
+    /**
+     * Sets up a match
+     * @param strategies The strategies to compare
+     * @param seats Players at each table (2 to {@link SidePotTracker#MAX_SEATS}), at least as many as there are
+     * strategies. Strategies take seats in turn, so with more seats than strategies some sit more than once.
+     * @param seed Seed for the deals - the same seed deals the same cards
+     * @param budgetMillis Time each decision is given. A strategy that takes longer gets the safe action.
+     */
+    public SelfPlay(Strategy[] strategies, int seats, long seed, long budgetMillis)
+    {
+        if (seats < 2 || seats > SidePotTracker.MAX_SEATS)
+        {
+            throw new IllegalArgumentException("Seats must be 2 to "+SidePotTracker.MAX_SEATS+": "+seats);
+        }
+        if (strategies.length == 0 || strategies.length > seats)
+        {
+            throw new IllegalArgumentException("Need 1 to "+seats+" strategies for "+seats+" seats, not "+strategies.length);
+        }
+        if (budgetMillis <= 0)
+        {
+            throw new IllegalArgumentException("Budget must be positive: "+budgetMillis);
+        }
+        this.strategies = strategies.clone();
+        this.seats = seats;
+        this.seed = seed;
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+    /**
+     * What a match found
+     */
+    public static class Result
+    {
+        public final String[] names;
+        /** Big blinds won per 100 hands, for each strategy */
+        public final double[] bbPer100;
+        /** Half width of the 95% confidence interval of bbPer100 */
+        public final double[] halfWidth;
+        /** Decisions each strategy took longer than its budget over, and got the safe action for */
+        public final long[] overruns;
+        public final long hands;
+        public final double handsPerSecond;
+
+        Result(String[] names, double[] bbPer100, double[] halfWidth, long[] overruns, long hands, double handsPerSecond)
+        {
+            this.names = names;
+            this.bbPer100 = bbPer100;
+            this.halfWidth = halfWidth;
+            this.overruns = overruns;
+            this.hands = hands;
+            this.handsPerSecond = handsPerSecond;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder(String.format("%,d hands, %,.0f hands/s%n", hands, handsPerSecond));
+            for (int i = 0; i < names.length; i++)
+            {
+                sb.append(String.format("  %-20s %+8.2f bb/100 +/- %.2f", names[i], bbPer100[i], halfWidth[i]));
+                sb.append(overruns[i] > 0 ? String.format(", %,d over budget%n", overruns[i]) : String.format("%n"));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Plays the match
+     * @param deals Number of deals. Each is played once per strategy.
+     * @param pool Pool to play on
+     * @return The results
+     */
+    public Result run(long deals, ForkJoinPool pool)
+    {
+        long start = System.nanoTime();
+        Totals t = pool.invoke(new DealsTask(0, deals));
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        String[] names = new String[strategies.length];
+        double[] bbPer100 = new double[strategies.length];
+        double[] halfWidth = new double[strategies.length];
+        for (int i = 0; i < strategies.length; i++)
+        {
+            names[i] = strategies[i].getName();
+            double mean = t.sum[i] / deals;
+            double variance = deals > 1 ? (t.sumSquares[i] - deals * mean * mean) / (deals - 1) : 0;
+            bbPer100[i] = mean / BIG_BLIND * 100;
+            halfWidth[i] = 1.96 * Math.sqrt(Math.max(0, variance) / deals) / BIG_BLIND * 100;
+        }
+        return new Result(names, bbPer100, halfWidth, t.overruns.clone(), t.hands, secs > 0 ? t.hands / secs : 0);
+    }
+
+    /**
+     * Plays a single hand with the cards and stacks given, so the dealer can be checked against known outcomes
+     * @param bySeat The strategy in each seat. Seat 0 has the button.
+     * @param startingStacks Each seat's chips at the start of the hand
+     * @param cards Card indexes ({@link CardMask#index(int, int)}) to deal: seat s gets cards 2s and 2s+1 and the
+     * five board cards follow
+     * @return Chips won (or lost, if negative) by each seat
+     */
+    public int[] playHand(Strategy[] bySeat, int[] startingStacks, int[] cards)
+    {
+        if (bySeat.length != seats || startingStacks.length != seats || cards.length != 2 * seats + 5)
+        {
+            throw new IllegalArgumentException("Need a strategy and a stack for each of "+seats+" seats and "
+                    +(2 * seats + 5)+" cards");
+        }
+        Table table = new Table();
+        table.deal(cards);
+        return table.play(bySeat, startingStacks, 0).clone();
+    }
+
+    /**
+     * Sums of each strategy's per-deal results
+     */
+    private static final class Totals
+    {
+        final double[] sum;
+        final double[] sumSquares;
+        final long[] overruns;
+        long hands;
+
+        Totals(int strategies)
+        {
+            sum = new double[strategies];
+            sumSquares = new double[strategies];
+            overruns = new long[strategies];
+        }
+
+        void add(Totals o)
+        {
+            for (int i = 0; i < sum.length; i++)
+            {
+                sum[i] += o.sum[i];
+                sumSquares[i] += o.sumSquares[i];
+                overruns[i] += o.overruns[i];
+            }
+            hands += o.hands;
+        }
+    }
+
+    /**
+     * Plays a range of deals, splitting it in half until it is small
+     */
+    private final class DealsTask extends RecursiveTask<Totals>
+    {
+        private final long from;
+        private final long to;
+
+        DealsTask(long from, long to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute()
+        {
+            if (to - from > DEALS_PER_TASK)
+            {
+                long mid = (from + to) >>> 1;
+                DealsTask left = new DealsTask(from, mid);
+                left.fork();
+                Totals t = new DealsTask(mid, to).compute();
+                t.add(left.join());
+                return t;
+            }
+
+            Totals t = new Totals(strategies.length);
+            Table table = new Table();
+            double[] won = new double[strategies.length];
+            int[] handsPlayed = new int[strategies.length];
+            Strategy[] bySeat = new Strategy[seats];
+            int[] strategyOf = new int[seats];
+            int[] stacks = new int[seats];
+            Arrays.fill(stacks, STARTING_STACK);
+            for (long deal = from; deal < to; deal++)
+            {
+                Arrays.fill(won, 0);
+                Arrays.fill(handsPlayed, 0);
+                table.shuffle(seed * 0x9E3779B97F4A7C15L + deal);
+                for (int rotation = 0; rotation < strategies.length; rotation++)
+                {
+                    for (int s = 0; s < seats; s++)
+                    {
+                        strategyOf[s] = (s + rotation) % strategies.length;
+                        bySeat[s] = strategies[strategyOf[s]];
+                    }
+                    int[] result = table.play(bySeat, stacks, (int)deal);
+                    for (int s = 0; s < seats; s++)
+                    {
+                        won[strategyOf[s]] += result[s];
+                        handsPlayed[strategyOf[s]]++;
+                        t.overruns[strategyOf[s]] += table.overruns[s];
+                    }
+                    t.hands++;
+                }
+                for (int i = 0; i < strategies.length; i++)
+                {
+                    double perHand = handsPlayed[i] == 0 ? 0 : won[i] / handsPlayed[i];
+                    t.sum[i] += perHand;
+                    t.sumSquares[i] += perHand * perHand;
+                }
+            }
+            return t;
+        }
+    }
+
+    /**
+     * One in-process table. The button is always seat 0 - rotating the strategies moves them round it instead.
+     */
+    private final class Table
+    {
+        private final int[] deck = new int[CardMask.NUM_SUITS * CardMask.NUM_RANKS];
+        private final String[] names = new String[seats];
+        private final int[] stacks = new int[seats];
+        private final int[] onTable = new int[seats];
+        private final boolean[] folded = new boolean[seats];
+        private final boolean[] allIn = new boolean[seats];
+        private final boolean[] acted = new boolean[seats];
+        private final long[] hole = new long[seats];
+        private final int[] result = new int[seats];
+        /* Decisions each seat took too long over, this hand */
+        final int[] overruns = new int[seats];
+        private final SidePotTracker pots = new SidePotTracker();
+        private Strategy[] bySeat;
+        private long board;
+        private int currentBet;
+        private int minTotalBet;
+        private int pot;
+        private int hand;
+
+        Table()
+        {
+            int i = 0;
+            for (long m = CardMask.FULL_DECK; m != 0; m &= m - 1)
+            {
+                deck[i++] = CardMask.lowest(m);
+            }
+        }
+
+        /**
+         * Shuffles the deck for a deal. Seat s gets cards 2s and 2s+1, and the board follows.
+         * @param dealSeed The deal's seed
+         */
+        void shuffle(long dealSeed)
+        {
+            SplittableRandom rnd = new SplittableRandom(dealSeed);
+            int needed = 2 * seats + 5;
+            for (int i = 0; i < needed; i++)
+            {
+                int j = i + rnd.nextInt(deck.length - i);
+                int t = deck[i]; deck[i] = deck[j]; deck[j] = t;
+            }
+        }
+
+        /**
+         * Sets the cards for a deal instead of shuffling
+         * @param cards The cards to deal, in the order {@link #shuffle(long)} uses
+         */
+        void deal(int[] cards)
+        {
+            System.arraycopy(cards, 0, deck, 0, cards.length);
+        }
+
+        /**
+         * Plays the shuffled deal once
+         * @param bySeat The strategy in each seat
+         * @param startingStacks Each seat's chips at the start of the hand
+         * @param hand Number of the hand, passed on to the strategies
+         * @return Chips won (or lost, if negative) by each seat
+         */
+        int[] play(Strategy[] bySeat, int[] startingStacks, int hand)
+        {
+            this.bySeat = bySeat;
+            this.hand = hand;
+            pots.newHand();
+            for (int s = 0; s < seats; s++)
+            {
+                names[s] = bySeat[s].getName();
+                stacks[s] = startingStacks[s];
+                onTable[s] = 0;
+                folded[s] = false;
+                allIn[s] = false;
+                overruns[s] = 0;
+                hole[s] = CardMask.of(deck[2*s]) | CardMask.of(deck[2*s + 1]);
+            }
+            board = 0;
+            pot = 0;
+
+            /* Heads up the button posts the small blind and acts first before the flop */
+            int sb = seats == 2 ? 0 : 1;
+            int bb = (sb + 1) % seats;
+            newStreet();
+            putOnTable(sb, Math.min(SMALL_BLIND, stacks[sb]));
+            putOnTable(bb, Math.min(BIG_BLIND, stacks[bb]));
+            currentBet = BIG_BLIND;
+            minTotalBet = 2 * BIG_BLIND;
+            bet((bb + 1) % seats);
+
+            int dealt = 2 * seats;
+            for (int street = 0; street < 3; street++)
+            {
+                int cards = street == 0 ? 3 : 1;
+                for (int c = 0; c < cards; c++)
+                {
+                    board |= CardMask.of(deck[dealt++]);
+                }
+                if (playersIn() > 1)
+                {
+                    newStreet();
+                    pots.newStreet();
+                    bet(1 % seats);
+                }
+            }
+
+            /* Whatever the pots hold goes to the best hands still in them */
+            Arrays.fill(result, 0);
+            for (int p = 0; p < pots.getNumPots(); p++)
+            {
+                award(pots.getPotAmount(p), pots.getEligible(p));
+            }
+            for (int s = 0; s < seats; s++)
+            {
+                result[s] += stacks[s] - startingStacks[s];
+            }
+            return result;
+        }
+
+        private void newStreet()
+        {
+            Arrays.fill(onTable, 0);
+            currentBet = 0;
+            minTotalBet = BIG_BLIND;
+        }
+
+        private int playersIn()
+        {
+            int n = 0;
+            for (int s = 0; s < seats; s++)
+            {
+                n += folded[s] ? 0 : 1;
+            }
+            return n;
+        }
+
+        /**
+         * Plays a round of betting
+         * @param first The first seat to act
+         */
+        private void bet(int first)
+        {
+            Arrays.fill(acted, false);
+            int s = first;
+            /* Bounded in case a strategy keeps making raises nobody can match */
+            for (int actions = 0; actions < 64 * seats && !roundOver(); actions++)
+            {
+                if (!folded[s] && !allIn[s] && (!acted[s] || onTable[s] < currentBet))
+                {
+                    act(s);
+                    acted[s] = true;
+                }
+                s = (s + 1) % seats;
+            }
+        }
+
+        /**
+         * Tells whether a round of betting is over: one player is left, or everyone who can still bet has acted
+         * and matched the bet. A player with nobody left to bet against doesn't need to act.
+         */
+        private boolean roundOver()
+        {
+            if (playersIn() <= 1)
+            {
+                return true;
+            }
+            boolean alone = onlyOneCanAct();
+            for (int s = 0; s < seats; s++)
+            {
+                if (folded[s] || allIn[s])
+                {
+                    continue;
+                }
+                if (onTable[s] < currentBet || (!acted[s] && !alone))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean onlyOneCanAct()
+        {
+            int n = 0;
+            for (int s = 0; s < seats; s++)
+            {
+                n += folded[s] || allIn[s] ? 0 : 1;
+            }
+            return n <= 1;
+        }
+
+        private void act(int s)
+        {
+            long deadline = System.nanoTime() + budgetNanos;
+            TableView view = new TableView(s, names.clone(), stacks.clone(), onTable.clone(), folded.clone(), 0, hole[s],
+                    board, currentBet, minTotalBet, pot, SMALL_BLIND, BIG_BLIND, hand, deadline);
+            ClientCommand c;
+            try
+            {
+                c = bySeat[s].decide(view);
+            }
+            catch(RuntimeException e)
+            {
+                c = null;
+            }
+            if (c != null && System.nanoTime() > deadline)
+            {
+                /* Too late - a real table would already have had the safe action */
+                overruns[s]++;
+                c = null;
+            }
+            int asked = 0;
+            if (ClientCommand.ClientBetCommand.class.isInstance(c))
+            {
+                try
+                {
+                    asked = ClientCommands.betAmount(c);
+                }
+                catch(RuntimeException e)
+                {
+                    if (!betAmountFailed)
+                    {
+                        betAmountFailed = true;
+                        LOG.warn("Could not read a bet's total - playing the safe action instead", e);
+                    }
+                    c = null;
+                }
+            }
+
+            /* Only a full raise reopens the betting to a player who has already acted */
+            boolean mayRaise = !acted[s];
+            int toCall = currentBet - onTable[s];
+            if (c == null || (ClientCommand.ClientCheckCommand.class.isInstance(c) && toCall > 0))
+            {
+                c = view.safeAction();
+            }
+
+            if (ClientCommand.ClientFoldCommand.class.isInstance(c))
+            {
+                folded[s] = true;
+                pots.fold(s);
+            }
+            else if (ClientCommand.ClientCallCommand.class.isInstance(c))
+            {
+                putOnTable(s, Math.min(currentBet, onTable[s] + stacks[s]));
+            }
+            else if (ClientCommand.ClientBetCommand.class.isInstance(c))
+            {
+                int total = Math.min(Math.max(asked, minTotalBet), onTable[s] + stacks[s]);
+                if (total <= currentBet || !mayRaise)
+                {
+                    putOnTable(s, Math.min(currentBet, onTable[s] + stacks[s]));
+                }
+                else
+                {
+                    /* A full raise sets the next minimum and gives everyone another go. An all-in for less only
+                       makes the others call the extra. */
+                    if (total >= minTotalBet)
+                    {
+                        minTotalBet = total + (total - currentBet);
+                        Arrays.fill(acted, false);
+                    }
+                    currentBet = total;
+                    putOnTable(s, total);
+                }
+            }
+        }
+
+        private void putOnTable(int s, int total)
+        {
+            int put = total - onTable[s];
+            stacks[s] -= put;
+            onTable[s] = total;
+            pot += put;
+            allIn[s] = stacks[s] == 0;
+            currentBet = Math.max(currentBet, total);
+            pots.chipsOnTable(s, total, stacks[s]);
+        }
+
+        /**
+         * Splits a pot between the best hands that can win it. Odd chips go to the first winners after the button.
+         */
+        private void award(int amount, int eligible)
+        {
+            int best = -1, winners = 0;
+            int[] rank = new int[seats];
+            for (int s = 0; s < seats; s++)
+            {
+                if ((eligible & (1 << s)) == 0)
+                {
+                    continue;
+                }
+                rank[s] = playersIn() > 1 ? HandEvaluator.evaluate(hole[s] | board) : 0;
+                if (rank[s] > best)
+                {
+                    best = rank[s];
+                    winners = 0;
+                }
+                if (rank[s] == best)
+                {
+                    winners++;
+                }
+            }
+            if (winners == 0)
+            {
+                return;
+            }
+            int share = amount / winners, odd = amount % winners;
+            for (int i = 1; i <= seats; i++)
+            {
+                int s = i % seats;
+                if ((eligible & (1 << s)) != 0 && rank[s] == best)
+                {
+                    result[s] += share + (odd-- > 0 ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plays a match from the command line
+     * @param args Number of deals, seats per table, the seed, the time budget in milliseconds, then the class
+     * names of the strategies (by default {@link EquityStrategy} against {@link CallingStation})
+     * @throws Exception If a strategy couldn't be created
+     */
+    public static void main(String[] args) throws Exception
+    {
+        long deals = args.length > 0 ? Long.parseLong(args[0]) : 10000;
+        int seats = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        long budget = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        Strategy[] strategies;
+        if (args.length > 4)
+        {
+            strategies = new Strategy[args.length - 4];
+            for (int i = 4; i < args.length; i++)
+            {
+                strategies[i - 4] = (Strategy)Class.forName(args[i]).getDeclaredConstructor().newInstance();
+            }
+        }
+        else
+        {
+            strategies = new Strategy[]{new EquityStrategy(), new CallingStation()};
+        }
+
+        HandEvaluator.init();
+        ForkJoinPool pool = new ForkJoinPool();
+        System.out.println("Playing "+deals+" deals on "+pool.getParallelism()+" threads, "+seats+" seats, seed "+seed);
+        System.out.print(new SelfPlay(strategies, seats, seed, budget).run(deals, pool));
+        pool.shutdown();
+    }
+}
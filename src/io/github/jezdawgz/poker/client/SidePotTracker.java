@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.Arrays;
+
+/**
+ * Keeps track of the main pot and side pots from the server's {@link Event}s.
+ * <p>
+ * Each event only updates the seat it is about: how much that player has put in this hand, whether they
+ * are all-in and whether they have folded. The pots are rebuilt from those per-seat totals the next time
+ * they are asked for, which is bounded by the 8 seats at a table rather than by the number of bets.
+ * <p>
+ * Pot 0 is the main pot. Every later pot is a side pot that only the players with more chips in can win.
+ *
+ * @author Jeremy Collette
+ */
+public class SidePotTracker {
+
+    public static final int MAX_SEATS = 8;
+
+    private final int[] contributed = new int[MAX_SEATS];
+    private final int[] onTable = new int[MAX_SEATS];
+    private final boolean[] allIn = new boolean[MAX_SEATS];
+    private final boolean[] folded = new boolean[MAX_SEATS];
+    private final int[] won = new int[MAX_SEATS];
+
+    private final int[] potAmounts = new int[MAX_SEATS];
+    private final int[] potEligible = new int[MAX_SEATS];
+    private final int[] levels = new int[MAX_SEATS + 1];
+    private int numPots;
+    private boolean dirty;
+
+    /**
+     * Updates the pots with an event from the server. Events that don't affect the pots are ignored.
+     * @param e The event
+     */
+    public void receiveEvent(Event e)
+    {
+        if (NewRoundEvent.class.isInstance(e) || NewGameEvent.class.isInstance(e))
+        {
+            newHand();
+        }
+        else if (NewCommunityCardEvent.class.isInstance(e))
+        {
+            newStreet();
+        }
+        else if (PlayerChipsOnTableEvent.class.isInstance(e))
+        {
+            PlayerChipsOnTableEvent evt = (PlayerChipsOnTableEvent)e;
+            chipsOnTable(evt.playerIndex, evt.amount, evt.chipsRemaining);
+        }
+        else if (PlayerFoldEvent.class.isInstance(e))
+        {
+            fold(((PlayerFoldEvent)e).playerIndex);
+        }
+        else if (PlayerDisconnectEvent.class.isInstance(e))
+        {
+            fold(((PlayerDisconnectEvent)e).playerIndex);
+        }
+        else if (PlayerWinsChipsEvent.class.isInstance(e))
+        {
+            PlayerWinsChipsEvent evt = (PlayerWinsChipsEvent)e;
+            wins(evt.playerIndex, evt.amountWon);
+        }
+    }
+
+    /**
+     * Clears everything for a new hand
+     */
+    public void newHand()
+    {
+        Arrays.fill(contributed, 0);
+        Arrays.fill(onTable, 0);
+        Arrays.fill(allIn, false);
+        Arrays.fill(folded, false);
+        Arrays.fill(won, 0);
+        numPots = 0;
+        dirty = false;
+    }
+
+    /**
+     * The chips on the table have been swept into the pot
+     */
+    public void newStreet()
+    {
+        Arrays.fill(onTable, 0);
+    }
+
+    /**
+     * A player now has this many chips on the table this street
+     * @param seat The player's seat
+     * @param amount Their total chips on the table this street
+     * @param chipsRemaining Chips left in their stack
+     */
+    public void chipsOnTable(int seat, int amount, int chipsRemaining)
+    {
+        contributed[seat] += amount - onTable[seat];
+        onTable[seat] = amount;
+        allIn[seat] = chipsRemaining == 0;
+        dirty = true;
+    }
+
+    public void fold(int seat)
+    {
+        folded[seat] = true;
+        dirty = true;
+    }
+
+    /**
+     * A player has been paid from the pots they could win, lowest pot first
+     * @param seat The player's seat
+     * @param amount The amount won
+     */
+    public void wins(int seat, int amount)
+    {
+        won[seat] += amount;
+        dirty = true;
+    }
+
+    /**
+     * Gets how many chips a player has put in this hand
+     * @param seat The player's seat
+     * @return Chips put in
+     */
+    public int getContribution(int seat)
+    {
+        return contributed[seat];
+    }
+
+    public boolean isAllIn(int seat)
+    {
+        return allIn[seat];
+    }
+
+    public int getNumPots()
+    {
+        refresh();
+        return numPots;
+    }
+
+    /**
+     * Gets the chips still in a pot
+     * @param pot The pot (0 is the main pot)
+     * @return The chips in it
+     */
+    public int getPotAmount(int pot)
+    {
+        refresh();
+        return potAmounts[pot];
+    }
+
+    /**
+     * Gets who can win a pot
+     * @param pot The pot (0 is the main pot)
+     * @return Bitmask of the seats that can win it
+     */
+    public int getEligible(int pot)
+    {
+        refresh();
+        return potEligible[pot];
+    }
+
+    /**
+     * Gets the chips in every pot together
+     * @return The total
+     */
+    public int getTotal()
+    {
+        refresh();
+        int total = 0;
+        for (int p = 0; p < numPots; p++)
+        {
+            total += potAmounts[p];
+        }
+        return total;
+    }
+
+    /**
+     * Rebuilds the pots from the per-seat totals if anything has changed
+     */
+    private void refresh()
+    {
+        if (!dirty)
+        {
+            return;
+        }
+        dirty = false;
+
+        /* Each all-in player still in the hand caps a pot, and the biggest contribution caps the last one */
+        int numLevels = 0;
+        int top = 0;
+        for (int s = 0; s < MAX_SEATS; s++)
+        {
+            top = Math.max(top, contributed[s]);
+            if (allIn[s] && !folded[s] && contributed[s] > 0)
+            {
+                levels[numLevels++] = contributed[s];
+            }
+        }
+        if (top > 0)
+        {
+            levels[numLevels++] = top;
+        }
+        Arrays.sort(levels, 0, numLevels);
+
+        numPots = 0;
+        int prev = 0;
+        for (int l = 0; l < numLevels; l++)
+        {
+            int level = levels[l];
+            if (level == prev)
+            {
+                continue;
+            }
+
+            int amount = 0, eligible = 0;
+            for (int s = 0; s < MAX_SEATS; s++)
+            {
+                amount += Math.min(contributed[s], level) - Math.min(contributed[s], prev);
+                if (!folded[s] && contributed[s] >= level)
+                {
+                    eligible |= 1 << s;
+                }
+            }
+
+            /* Chips nobody left can win (everyone above the last all-in folded) stay with the pot below */
+            if (eligible == 0 && numPots > 0)
+            {
+                potAmounts[numPots - 1] += amount;
+            }
+            else
+            {
+                potAmounts[numPots] = amount;
+                potEligible[numPots] = eligible;
+                numPots++;
+            }
+            prev = level;
+        }
+
+        /* Take winnings out of the lowest pots each winner could win. Winners with the fewest chips in go first:
+           they can win the fewest pots, and the winners after them can take from any pot they leave. */
+        int paid = 0;
+        while (true)
+        {
+            int s = -1;
+            for (int i = 0; i < MAX_SEATS; i++)
+            {
+                if (won[i] > 0 && (paid & (1 << i)) == 0 && (s < 0 || contributed[i] < contributed[s]))
+                {
+                    s = i;
+                }
+            }
+            if (s < 0)
+            {
+                break;
+            }
+            paid |= 1 << s;
+            int owed = won[s];
+            for (int p = 0; p < numPots && owed > 0; p++)
+            {
+                if ((potEligible[p] & (1 << s)) != 0)
+                {
+                    int take = Math.min(owed, potAmounts[p]);
+                    potAmounts[p] -= take;
+                    owed -= take;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        refresh();
+        if (numPots == 0)
+        {
+            return "0";
+        }
+        StringBuilder sb = new StringBuilder().append(potAmounts[0]);
+        for (int p = 1; p < numPots; p++)
+        {
+            sb.append(" + ").append(potAmounts[p]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A timed piece of work in a trace, such as a hand, a street or one of our decisions.
+ * Spans are handed to a {@link TraceExporter} when they end.
+ *
+ * @author Jeremy Collette
+ */
+public class Span {
+
+    /* Wall clock time at a known System.nanoTime(), so spans get precise wall clock times */
+    private static final long EPOCH_NANOS = System.currentTimeMillis() * 1000000L;
+    private static final long NANO_BASE = System.nanoTime();
+
+    private final TraceExporter exporter;
+    private final String name;
+    private final String traceId;
+    private final String spanId;
+    private final String parentId;
+    private final long start;
+    private volatile long end;
+
+    /* Alternating keys and values */
+    private final List<Object> attributes = new ArrayList<>(8);
+
+    private Span(TraceExporter exporter, String name, String traceId, String parentId)
+    {
+        this.exporter = exporter;
+        this.name = name;
+        this.traceId = traceId;
+        this.parentId = parentId;
+        this.spanId = randomId(1);
+        this.start = now();
+    }
+
+    /**
+     * Starts a new trace
+     * @param exporter Where to send the spans of the trace
+     * @param name The name of the trace's root span
+     * @return The root span
+     */
+    public static Span startTrace(TraceExporter exporter, String name)
+    {
+        return new Span(exporter, name, randomId(2), null);
+    }
+
+    /**
+     * Starts a span inside this one
+     * @param name The span's name
+     * @return The span
+     */
+    public Span startChild(String name)
+    {
+        return new Span(exporter, name, traceId, spanId);
+    }
+
+    /**
+     * Adds an attribute
+     * @param key The attribute's name
+     * @param value Its value (a String, a whole number or a boolean)
+     * @return This span
+     */
+    public Span set(String key, Object value)
+    {
+        synchronized (attributes)
+        {
+            attributes.add(key);
+            attributes.add(value);
+        }
+        return this;
+    }
+
+    /**
+     * Ends the span and sends it to be exported. Ending a span again does nothing.
+     */
+    public void end()
+    {
+        synchronized (this)
+        {
+            if (end != 0)
+            {
+                return;
+            }
+            end = now();
+        }
+        exporter.export(this);
+    }
+
+    public boolean isEnded()
+    {
+        return end != 0;
+    }
+
+    private static long now()
+    {
+        return EPOCH_NANOS + (System.nanoTime() - NANO_BASE);
+    }
+
+    private static String randomId(int longs)
+    {
+        StringBuilder sb = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++)
+        {
+            String hex = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            for (int pad = hex.length(); pad < 16; pad++)
+            {
+                sb.append('0');
+            }
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the span as an OTLP JSON span object
+     * @param sb Where to write it
+     */
+    void toJson(StringBuilder sb)
+    {
+        sb.append("{\"traceId\":\"").append(traceId).append("\",\"spanId\":\"").append(spanId).append('"');
+        if (parentId != null)
+        {
+            sb.append(",\"parentSpanId\":\"").append(parentId).append('"');
+        }
+        sb.append(",\"name\":");
+        TraceExporter.quote(sb, name);
+        sb.append(",\"kind\":1,\"startTimeUnixNano\":\"").append(start)
+                .append("\",\"endTimeUnixNano\":\"").append(end).append("\",\"attributes\":[");
+        synchronized (attributes)
+        {
+            for (int i = 0; i < attributes.size(); i += 2)
+            {
+                if (i > 0)
+                {
+                    sb.append(',');
+                }
+                TraceExporter.attribute(sb, (String)attributes.get(i), attributes.get(i + 1));
+            }
+        }
+        sb.append("],\"status\":{}}");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What we expect the table to look like once the server has applied a bet or call of ours.
+ * <p>
+ * {@link GameScreen} shows the prediction as soon as the command is queued, instead of leaving our stack, chips
+ * on the table and the pot as they were until the server's {@link PlayerChipsOnTableEvent} comes back. The
+ * values from before the command are kept, so the prediction can be rolled back if the server does something
+ * else with our turn. Every prediction is scored when the server's answer arrives:
+ * <ul>
+ * <li><code>speculationConfirmed</code> - the server put exactly the predicted chips on the table</li>
+ * <li><code>speculationWrong</code> - it put a different amount on the table</li>
+ * <li><code>speculationRolledBack</code> - something other than our chips came back, such as another turn</li>
+ * <li><code>speculationError</code> - how many chips each wrong or rolled back prediction was out by</li>
+ * <li><code>speculationTime</code> - how long each prediction was shown before the server's answer replaced it</li>
+ * </ul>
+ *
+ * @author Jeremy Collette
+ */
+public class SpeculativeAction {
+
+    private static final LongAdder CONFIRMED = Metrics.get().counter(Metrics.SPECULATION_CONFIRMED);
+    private static final LongAdder WRONG = Metrics.get().counter(Metrics.SPECULATION_WRONG);
+    private static final LongAdder ROLLED_BACK = Metrics.get().counter(Metrics.SPECULATION_ROLLED_BACK);
+    private static final Histogram ERROR = Metrics.get().histogram(Metrics.SPECULATION_ERROR);
+    private static final Histogram TIME = Metrics.get().histogram(Metrics.SPECULATION_TIME);
+
+    public final int seat;
+    public final int stackBefore;
+    public final int onTableBefore;
+    public final int potBefore;
+    public final int stack;
+    public final int onTable;
+    public final int pot;
+    private final long shownAt;
+
+    /**
+     * Predicts the result of putting chips on the table
+     * @param seat Our seat
+     * @param stack Chips in our stack
+     * @param onTable Chips we already have on the table this street
+     * @param pot The pot, including everything on the table
+     * @param total The total we are making our chips on the table - the current bet for a call, or the bet
+     */
+    public SpeculativeAction(int seat, int stack, int onTable, int pot, int total)
+    {
+        this.seat = seat;
+        this.stackBefore = stack;
+        this.onTableBefore = onTable;
+        this.potBefore = pot;
+
+        /* We can't put in more than we have - anything past that is all-in */
+        int put = Math.max(0, Math.min(total - onTable, stack));
+        this.stack = stack - put;
+        this.onTable = onTable + put;
+        this.pot = pot + put;
+        this.shownAt = System.nanoTime();
+    }
+
+    /**
+     * Tells whether an event is the server's answer to our command
+     * @param e The event
+     * @return True if it puts chips of ours on the table
+     */
+    public boolean isAnsweredBy(Event e)
+    {
+        return PlayerChipsOnTableEvent.class.isInstance(e) && ((PlayerChipsOnTableEvent)e).playerIndex == seat;
+    }
+
+    /**
+     * Tells whether an event shows the server did something other than what we predicted with our turn
+     * @param e The event
+     * @return True if the prediction should be rolled back
+     */
+    public boolean isContradictedBy(Event e)
+    {
+        if (NewRoundEvent.class.isInstance(e) || NewCommunityCardEvent.class.isInstance(e) || GameOverEvent.class.isInstance(e))
+        {
+            return true;
+        }
+        if (PlayerTurnEvent.class.isInstance(e))
+        {
+            return ((PlayerTurnEvent)e).playerIndex == seat;
+        }
+        if (PlayerCheckEvent.class.isInstance(e))
+        {
+            return ((PlayerCheckEvent)e).playerIndex == seat;
+        }
+        if (PlayerFoldEvent.class.isInstance(e))
+        {
+            return ((PlayerFoldEvent)e).playerIndex == seat;
+        }
+        if (PlayerDisconnectEvent.class.isInstance(e))
+        {
+            return ((PlayerDisconnectEvent)e).playerIndex == seat;
+        }
+        return false;
+    }
+
+    /**
+     * Scores the prediction against the server's answer
+     * @param evt Our chips going on the table
+     * @return True if the prediction was right
+     */
+    public boolean confirm(PlayerChipsOnTableEvent evt)
+    {
+        TIME.record(System.nanoTime() - shownAt);
+        int error = Math.abs(evt.amount - onTable);
+        if (error == 0 && evt.chipsRemaining == stack)
+        {
+            CONFIRMED.increment();
+            return true;
+        }
+        WRONG.increment();
+        ERROR.record(Math.max(error, Math.abs(evt.chipsRemaining - stack)));
+        return false;
+    }
+
+    /**
+     * Scores a prediction the server didn't go along with at all
+     */
+    public void rollBack()
+    {
+        TIME.record(System.nanoTime() - shownAt);
+        ROLLED_BACK.increment();
+        ERROR.record(onTable - onTableBefore);
+    }
+}
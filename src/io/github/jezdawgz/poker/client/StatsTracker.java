@@ -0,0 +1,820 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps each player's {@link PlayerStats} up to date from the server's {@link Event}s.
+ * <p>
+ * The players at the table are looked up by name once, when the game starts, and after that every event
+ * just bumps the counters of the seat it is about. Stats are kept between games in one small file per
+ * player in the data directory. They are only read the first time a player sits down with us, and only the
+ * most recently seen players are kept in memory - the rest are written back to disk and dropped.
+ * <p>
+ * Every tracker on the same stats directory shares one cache of players, so tables with a player in common
+ * (us, at least) count into the same {@link PlayerStats} instead of each saving its own copy over the other's.
+ * Only what a player has done in the current hand is kept per table. Saving takes a copy of a player's counts
+ * and hands it to a background thread to write, so a table never waits on the disk except to read a player
+ * it hasn't seen before.
+ * <p>
+ * Trackers are not thread safe, and all the trackers on a directory must be used from one thread. In the
+ * client that is the event dispatch thread: the reader thread queues the server's events, they are applied on
+ * the EDT by the {@link GameScreen} that owns each tracker, and the player panels read the stats back there
+ * too. The {@link HandHistoryImporter} runs in its own process, and a lock on the stats directory keeps an
+ * import and the clients from writing the files at once.
+ *
+ * @author Jeremy Collette
+ */
+public class StatsTracker {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(StatsTracker.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final int STATS_MAGIC = 0x48554453;
+    private static final int STATS_VERSION = 1;
+
+    /** How many hands to play between writing the table's stats to disk */
+    private static final int SAVE_EVERY = 10;
+
+    private static final String LOCK_FILE = "stats.lock";
+    private static final String STAGING_DIR = "pending";
+
+    /* One store per stats directory, shared by every tracker on it */
+    private static final Map<String, Store> STORES = new HashMap<>();
+
+    private final Store store;
+
+    private final PlayerStats[] seats = new PlayerStats[SidePotTracker.MAX_SEATS];
+    private final int[] onTable = new int[SidePotTracker.MAX_SEATS];
+    /* What each seat has done this hand, so each hand only counts once towards hands, VPIP and PFR */
+    private final boolean[] inHand = new boolean[SidePotTracker.MAX_SEATS];
+    private final boolean[] vpipThisHand = new boolean[SidePotTracker.MAX_SEATS];
+    private final boolean[] pfrThisHand = new boolean[SidePotTracker.MAX_SEATS];
+    private int currentBet;
+    private boolean preFlop;
+    private int handsSinceSave;
+
+    public StatsTracker()
+    {
+        this(new File(Utils.getDataDirectory(), "stats"), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a tracker
+     * @param dir Directory to keep the stats files in
+     * @param cacheSize Most players to keep in memory (players at a table are always kept). If another tracker
+     *        already uses the directory, its cache is shared and this is ignored.
+     */
+    public StatsTracker(File dir, int cacheSize)
+    {
+        synchronized (STORES)
+        {
+            String key = dir.getAbsolutePath();
+            Store s = STORES.get(key);
+            if (s == null)
+            {
+                s = new Store(dir, cacheSize);
+                STORES.put(key, s);
+            }
+            store = s;
+        }
+    }
+
+    /**
+     * Updates the stats with an event from the server. Events that don't say what a player did are ignored.
+     * @param e The event
+     */
+    public void receiveEvent(Event e)
+    {
+        if (NewGameEvent.class.isInstance(e))
+        {
+            newGame(((NewGameEvent)e).playerNames);
+        }
+        else if (NewRoundEvent.class.isInstance(e))
+        {
+            newHand();
+        }
+        else if (NewCommunityCardEvent.class.isInstance(e))
+        {
+            newStreet();
+        }
+        else if (PlayerPostBlindsEvent.class.isInstance(e))
+        {
+            PlayerPostBlindsEvent evt = (PlayerPostBlindsEvent)e;
+            postBlind(evt.playerIndex, evt.amount);
+        }
+        else if (PlayerChipsOnTableEvent.class.isInstance(e))
+        {
+            PlayerChipsOnTableEvent evt = (PlayerChipsOnTableEvent)e;
+            bet(evt.playerIndex, evt.amount);
+        }
+        else if (PlayerCheckEvent.class.isInstance(e))
+        {
+            check(((PlayerCheckEvent)e).playerIndex);
+        }
+        else if (PlayerFoldEvent.class.isInstance(e))
+        {
+            fold(((PlayerFoldEvent)e).playerIndex);
+        }
+        else if (GameOverEvent.class.isInstance(e))
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Seats the players of a new game, loading the stats of any we've played before
+     * @param playerNames The players' names, by seat
+     */
+    public void newGame(String[] playerNames)
+    {
+        flush();
+        for (int i = 0; i < seats.length; i++)
+        {
+            if (seats[i] != null)
+            {
+                seats[i].seated--;
+            }
+            seats[i] = i < playerNames.length ? getStats(playerNames[i]) : null;
+            if (seats[i] != null)
+            {
+                seats[i].seated++;
+            }
+        }
+        newHand();
+    }
+
+    public void newHand()
+    {
+        Arrays.fill(inHand, false);
+        Arrays.fill(vpipThisHand, false);
+        Arrays.fill(pfrThisHand, false);
+        Arrays.fill(onTable, 0);
+        currentBet = 0;
+        preFlop = true;
+
+        if (++handsSinceSave >= SAVE_EVERY)
+        {
+            flush();
+        }
+    }
+
+    public void newStreet()
+    {
+        Arrays.fill(onTable, 0);
+        currentBet = 0;
+        preFlop = false;
+    }
+
+    /**
+     * A player has posted a blind. This doesn't count as choosing to play the hand.
+     * @param seat The player's seat
+     * @param amount Their chips on the table
+     */
+    public void postBlind(int seat, int amount)
+    {
+        PlayerStats s = seat(seat);
+        if (s != null)
+        {
+            dealtIn(s, seat);
+        }
+        putOnTable(seat, amount);
+    }
+
+    /**
+     * A player has bet, raised or called
+     * @param seat The player's seat
+     * @param amount Their total chips on the table this street
+     */
+    public void bet(int seat, int amount)
+    {
+        PlayerStats s = seat(seat);
+        if (s != null)
+        {
+            dealtIn(s, seat);
+            facedBet(s, seat);
+            if (amount > currentBet)
+            {
+                s.aggressive++;
+                if (preFlop && !pfrThisHand[seat])
+                {
+                    pfrThisHand[seat] = true;
+                    s.pfr++;
+                }
+            }
+            else
+            {
+                s.calls++;
+            }
+            if (preFlop && !vpipThisHand[seat])
+            {
+                vpipThisHand[seat] = true;
+                s.vpip++;
+            }
+        }
+        putOnTable(seat, amount);
+    }
+
+    public void check(int seat)
+    {
+        PlayerStats s = seat(seat);
+        if (s != null)
+        {
+            dealtIn(s, seat);
+            s.checks++;
+        }
+    }
+
+    public void fold(int seat)
+    {
+        PlayerStats s = seat(seat);
+        if (s != null)
+        {
+            dealtIn(s, seat);
+            if (facedBet(s, seat))
+            {
+                s.foldsToBet++;
+            }
+        }
+    }
+
+    /**
+     * Adds a hand from the history, such as an import or a rebuild from the {@link HandHistoryStore}.
+     * Only the order of the player's own actions is known, so after the flop a call or a fold is taken to
+     * mean they were facing a bet.
+     * @param name The player's name
+     * @param actions Their packed actions on each street, as kept by {@link HandHistoryStore}
+     */
+    public void addHistory(String name, int[] actions)
+    {
+        PlayerStats s = getStats(name);
+        s.hands++;
+        s.dirty = true;
+        for (int street = 0; street < actions.length; street++)
+        {
+            boolean facedBet = false, raised = false, called = false;
+            for (int a = actions[street]; a != 0; a >>>= 4)
+            {
+                switch (a & 0xF)
+                {
+                    case HandHistoryStore.BET:
+                        s.aggressive++;
+                        raised = true;
+                        break;
+                    case HandHistoryStore.CALL:
+                        s.calls++;
+                        called = true;
+                        facedBet = true;
+                        break;
+                    case HandHistoryStore.CHECK:
+                        s.checks++;
+                        break;
+                    case HandHistoryStore.FOLD:
+                        facedBet = true;
+                        if (street != HandHistoryStore.PRE_FLOP)
+                        {
+                            s.foldsToBet++;
+                        }
+                        break;
+                }
+            }
+            if (street == HandHistoryStore.PRE_FLOP)
+            {
+                s.vpip += raised || called ? 1 : 0;
+                s.pfr += raised ? 1 : 0;
+            }
+            else if (facedBet)
+            {
+                s.foldToBetChances++;
+            }
+        }
+    }
+
+    /**
+     * Counts a new hand for the player in a seat, the first time they do something in it
+     */
+    private void dealtIn(PlayerStats s, int seat)
+    {
+        if (!inHand[seat])
+        {
+            inHand[seat] = true;
+            s.hands++;
+        }
+        s.dirty = true;
+    }
+
+    /**
+     * Counts the chance to fold to a bet after the flop, if the player is facing one
+     * @return Whether they are facing a bet after the flop
+     */
+    private boolean facedBet(PlayerStats s, int seat)
+    {
+        if (preFlop || currentBet <= onTable[seat])
+        {
+            return false;
+        }
+        s.foldToBetChances++;
+        return true;
+    }
+
+    private void putOnTable(int seat, int amount)
+    {
+        if (seat >= 0 && seat < onTable.length)
+        {
+            onTable[seat] = amount;
+        }
+        currentBet = Math.max(currentBet, amount);
+    }
+
+    private PlayerStats seat(int seat)
+    {
+        return seat >= 0 && seat < seats.length ? seats[seat] : null;
+    }
+
+    /**
+     * Gets the stats of the player in a seat
+     * @param seat The seat
+     * @return Their stats, or null if nobody is sitting there
+     */
+    public PlayerStats getSeatStats(int seat)
+    {
+        return seat(seat);
+    }
+
+    /**
+     * Gets a player's stats, reading them from disk if they aren't in memory
+     * @param name The player's name
+     * @return Their stats (empty if we've never seen them)
+     */
+    public PlayerStats getStats(String name)
+    {
+        return store.get(name);
+    }
+
+    /**
+     * Hands every changed player's stats to the background thread to write to disk
+     */
+    public void flush()
+    {
+        handsSinceSave = 0;
+        store.saveAll();
+    }
+
+    /**
+     * Forgets every player's stats, on disk too, so they can be rebuilt from the history
+     */
+    public void clear()
+    {
+        store.clear();
+        Arrays.fill(seats, null);
+    }
+
+    /**
+     * Sends every save to a staging directory until {@link #commitBatch()}, so a batch of history can be added
+     * all or nothing
+     */
+    public void beginBatch()
+    {
+        store.beginBatch();
+    }
+
+    /**
+     * Moves the stats saved since {@link #beginBatch()} into place. Call {@link #flush()} first. Safe to call
+     * again if it was interrupted, to finish the job.
+     * @throws IOException If they couldn't all be moved
+     */
+    public void commitBatch() throws IOException
+    {
+        store.commitBatch();
+    }
+
+    /**
+     * Throws away the stats saved since {@link #beginBatch()}, and everything in memory that may include them
+     */
+    public void discardBatch()
+    {
+        store.discardBatch();
+        Arrays.fill(seats, null);
+    }
+
+    /**
+     * Takes the stats directory for ourselves, so no client can write to it while history is imported
+     * @throws IOException If a client is using it
+     */
+    public void lockExclusive() throws IOException
+    {
+        store.lockExclusive();
+    }
+
+    /**
+     * The players and files of one stats directory. Players are read on the calling thread and written on the
+     * store's own thread, from copies made when they are saved.
+     */
+    private static final class Store
+    {
+        final File dir;
+        private final LinkedHashMap<String, PlayerStats> cache;
+        private final ExecutorService writer;
+
+        /* Copies waiting to be written, by file, so a player read back before their write is done isn't stale */
+        private final Map<File, byte[]> pending = new HashMap<>();
+
+        private File staging;
+
+        /* Only touched on the writer thread, except by lockExclusive before anything is written */
+        private volatile FileLock lock;
+        private boolean lockWarned;
+
+        Store(File dir, final int cacheSize)
+        {
+            this.dir = dir;
+            dir.mkdirs();
+            this.cache = new LinkedHashMap<String, PlayerStats>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PlayerStats> eldest) {
+                    if (size() <= cacheSize || eldest.getValue().seated > 0)
+                    {
+                        return false;
+                    }
+                    save(eldest.getValue());
+                    return true;
+                }
+            };
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Stats writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+            {
+                @Override
+                public void run() {
+                    /* Let the saves already handed over finish */
+                    writer.shutdown();
+                    try
+                    {
+                        writer.awaitTermination(5, TimeUnit.SECONDS);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        synchronized PlayerStats get(String name)
+        {
+            PlayerStats s = cache.get(name);
+            if (s == null)
+            {
+                s = load(name);
+                cache.put(name, s);
+            }
+            return s;
+        }
+
+        synchronized void saveAll()
+        {
+            for (PlayerStats s : cache.values())
+            {
+                save(s);
+            }
+        }
+
+        /* These wait for the writer, which needs the store's lock, so they only lock it once it's done */
+
+        void clear()
+        {
+            awaitWrites();
+            synchronized (this)
+            {
+                cache.clear();
+            }
+            File[] files = dir.listFiles();
+            if (files != null)
+            {
+                for (File f : files)
+                {
+                    if (f.getName().endsWith(".stats"))
+                    {
+                        f.delete();
+                    }
+                }
+            }
+        }
+
+        synchronized void beginBatch()
+        {
+            staging = new File(dir, STAGING_DIR);
+            staging.mkdirs();
+        }
+
+        void commitBatch() throws IOException
+        {
+            if (!awaitWrites())
+            {
+                throw new InterruptedIOException("Interrupted while saving stats to "+dir);
+            }
+            File[] files = new File(dir, STAGING_DIR).listFiles();
+            if (files != null)
+            {
+                for (File f : files)
+                {
+                    if (f.getName().endsWith(".stats") && !replace(f, new File(dir, f.getName())))
+                    {
+                        throw new IOException("Could not move "+f+" into "+dir);
+                    }
+                }
+            }
+            synchronized (this)
+            {
+                staging = null;
+            }
+        }
+
+        void discardBatch()
+        {
+            awaitWrites();
+            File[] files = new File(dir, STAGING_DIR).listFiles();
+            if (files != null)
+            {
+                for (File f : files)
+                {
+                    f.delete();
+                }
+            }
+            synchronized (this)
+            {
+                cache.clear();
+                staging = null;
+            }
+        }
+
+        void lockExclusive() throws IOException
+        {
+            FileLock l = tryLock(false);
+            if (l == null)
+            {
+                throw new IOException(dir+" is in use by a running client");
+            }
+            lock = l;
+        }
+
+        /**
+         * Waits for the saves handed to the writer so far
+         * @return False if interrupted first
+         */
+        private boolean awaitWrites()
+        {
+            try
+            {
+                writer.submit(new Runnable()
+                {
+                    @Override
+                    public void run() {
+                    }
+                }).get();
+                return true;
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            catch(ExecutionException e)
+            {
+                return true;
+            }
+        }
+
+        /**
+         * Copies a changed player's counts and hands them to the writer. Called with the store locked.
+         */
+        private void save(final PlayerStats s)
+        {
+            if (!s.dirty)
+            {
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            try (DataOutputStream out = new DataOutputStream(bytes))
+            {
+                out.writeInt(STATS_MAGIC);
+                out.writeInt(STATS_VERSION);
+                s.write(out);
+            }
+            catch(IOException e)
+            {
+                /* Not from a byte array */
+                throw new IllegalStateException(e);
+            }
+            s.dirty = false;
+
+            final File f = fileOf(staging != null ? staging : dir, s.getName());
+            final byte[] copy = bytes.toByteArray();
+            pending.put(f, copy);
+            writer.execute(new Runnable()
+            {
+                @Override
+                public void run() {
+                    write(s, f, copy);
+                }
+            });
+        }
+
+        /**
+         * Writes a copy of a player's stats. Runs on the writer thread.
+         */
+        private void write(PlayerStats s, File f, byte[] copy)
+        {
+            boolean written = false;
+            if (lockShared())
+            {
+                File tmp = new File(f.getPath() + ".tmp");
+                try
+                {
+                    try (FileOutputStream out = new FileOutputStream(tmp))
+                    {
+                        out.write(copy);
+                    }
+                    written = replace(tmp, f);
+                }
+                catch(IOException e)
+                {
+                    LOG.warn("Could not save stats for "+s.getName(), e);
+                }
+            }
+            synchronized (this)
+            {
+                if (pending.get(f) == copy)
+                {
+                    pending.remove(f);
+                    if (!written)
+                    {
+                        /* Try again next time they're saved */
+                        s.dirty = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Makes sure we hold a lock on the stats directory before writing to it, sharing it with other clients
+         * @return False if an import has it, and nothing should be written
+         */
+        private boolean lockShared()
+        {
+            if (lock != null)
+            {
+                return true;
+            }
+            lock = tryLock(true);
+            if (lock == null && !lockWarned)
+            {
+                LOG.warn("Stats in "+dir+" are locked by an import, so won't be saved until it finishes");
+                lockWarned = true;
+            }
+            return lock != null;
+        }
+
+        private FileLock tryLock(boolean shared)
+        {
+            FileChannel ch = null;
+            try
+            {
+                ch = new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel();
+                FileLock l = ch.tryLock(0, Long.MAX_VALUE, shared);
+                if (l == null)
+                {
+                    ch.close();
+                }
+                return l;
+            }
+            catch(IOException | OverlappingFileLockException e)
+            {
+                try
+                {
+                    if (ch != null)
+                    {
+                        ch.close();
+                    }
+                }
+                catch(IOException ex)
+                {
+                    /* We don't care! */
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Reads a player's stats, from a save still waiting to be written if there is one. Called with the store
+         * locked.
+         */
+        private PlayerStats load(String name)
+        {
+            PlayerStats s = new PlayerStats(name);
+            File f = fileOf(dir, name);
+            if (staging != null && (pending.containsKey(fileOf(staging, name)) || fileOf(staging, name).exists()))
+            {
+                f = fileOf(staging, name);
+            }
+            byte[] waiting = pending.get(f);
+            if (waiting == null && !f.exists())
+            {
+                return s;
+            }
+
+            try (DataInputStream in = new DataInputStream(waiting != null ? new ByteArrayInputStream(waiting)
+                    : new BufferedInputStream(new FileInputStream(f))))
+            {
+                if (in.readInt() == STATS_MAGIC && in.readInt() == STATS_VERSION)
+                {
+                    s.read(in);
+                }
+            }
+            catch(IOException e)
+            {
+                /* Unreadable - start them again */
+                LOG.warn("Could not read stats for "+name, e);
+                s = new PlayerStats(name);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Renames one file over another
+     * @return True if it was moved
+     */
+    private static boolean replace(File from, File to)
+    {
+        if (!from.renameTo(to))
+        {
+            to.delete();
+            return from.renameTo(to);
+        }
+        return true;
+    }
+
+    private static File fileOf(File dir, String name)
+    {
+        /* Names can contain anything, so name the file after the hex of the name */
+        StringBuilder sb = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8))
+        {
+            sb.append(String.format("%02x", b));
+        }
+        return new File(dir, sb.append(".stats").toString());
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+
+/**
+ * Decides what an automated player does on its turn.
+ * <p>
+ * Strategies are run by a {@link StrategyRunner}, which calls {@link #decide(TableView)} on a pool thread each time
+ * it is the player's turn. Calls for one table are never made at the same time or out of order, but calls for
+ * different tables can be, so a strategy shared between tables must not keep per-table state in fields.
+ * <p>
+ * Each call has a deadline, {@link TableView#deadline}. A strategy that is still thinking when it passes has a safe
+ * action (check, or fold if there's a bet to call) sent for it, and whatever it returns afterwards is ignored.
+ * Strategies that search should check {@link TableView#timeLeft()} and settle for their best answer so far.
+ *
+ * @author Jeremy Collette
+ */
+public interface Strategy {
+
+    /**
+     * Gets the name the strategy's decision times are reported under
+     * @return The name
+     */
+    String getName();
+
+    /**
+     * Decides what to do
+     * @param table The table as it was when our turn came
+     * @return The command to send, or null for the safe action
+     */
+    ClientCommand decide(TableView table);
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs {@link Strategy} decisions for any number of tables on one shared pool.
+ * <p>
+ * Each table is a {@link Session}. Its events are tracked on the thread that reads them, and when our turn comes a
+ * snapshot of the table is queued for the strategy. The queue is drained by one task at a time on a work-stealing
+ * {@link ForkJoinPool}, so decisions for a table are made in order and never overlap, while busy tables spread
+ * over every core.
+ * <p>
+ * The time budget starts when the turn is read, not when a pool thread gets to it. A timer on the shared
+ * {@link TimerWheel} claims the turn if the budget runs out first (within a tick of the deadline) and hands the
+ * table's safe action to the pool to send, so a slow socket never holds up the wheel; a decision that comes back
+ * after that is counted and dropped. Per strategy, the time each decision took is kept
+ * in the histogram <code>decision.&lt;name&gt;</code>, next to the counters <code>decisionTimeouts.&lt;name&gt;</code>,
+ * <code>decisionsLate.&lt;name&gt;</code> and <code>decisionErrors.&lt;name&gt;</code>.
+ *
+ * @author Jeremy Collette
+ */
+public class StrategyRunner {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(StrategyRunner.class);
+
+    /** Default time a strategy has to decide */
+    public static final long DEFAULT_BUDGET_MILLIS = 2000;
+
+    private static StrategyRunner shared;
+
+    /**
+     * Sends a decision to the server. Called from any of the pool's threads, so it must be thread safe.
+     */
+    public interface Sink
+    {
+        void send(ClientCommand c) throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+    private final TimerWheel timer;
+
+    /**
+     * Creates a runner
+     * @param parallelism Most decisions to make at once
+     */
+    public StrategyRunner(int parallelism)
+    {
+        /* Async mode - queued tasks run first in, first out */
+        pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        timer = TimerWheel.getShared();
+    }
+
+    /**
+     * Gets the runner shared by every table in the JVM, with one thread per core
+     * @return The shared runner
+     */
+    public static synchronized StrategyRunner getShared()
+    {
+        if (shared == null)
+        {
+            shared = new StrategyRunner(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    /**
+     * Starts following a table
+     * @param id The table's name, for logging
+     * @param strategy Decides what we do
+     * @param budgetMillis Time the strategy has for each decision
+     * @param sink Where decisions go
+     * @return The session, to be given every event from the server
+     */
+    public Session newSession(String id, Strategy strategy, long budgetMillis, Sink sink)
+    {
+        return new Session(id, strategy, budgetMillis, sink);
+    }
+
+    /**
+     * Stops the pool. Decisions still queued are abandoned.
+     */
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * One table played by a strategy
+     */
+    public class Session implements Runnable
+    {
+        private final Strategy strategy;
+        private final long budgetNanos;
+        private final Sink sink;
+        private final ClientLog.Logger log;
+        private final TableView.Tracker tracker;
+        private final ConcurrentLinkedQueue<Turn> turns;
+        private final AtomicBoolean running;
+        private final Histogram latency;
+        private final LongAdder timeouts;
+        private final LongAdder late;
+        private final LongAdder errors;
+
+        private Session(String id, Strategy strategy, long budgetMillis, Sink sink)
+        {
+            this.strategy = strategy;
+            this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+            this.sink = sink;
+            this.log = LOG.forSession(id);
+            tracker = new TableView.Tracker();
+            turns = new ConcurrentLinkedQueue<>();
+            running = new AtomicBoolean();
+            Metrics m = Metrics.get();
+            latency = m.histogram("decision."+strategy.getName());
+            timeouts = m.counter("decisionTimeouts."+strategy.getName());
+            late = m.counter("decisionsLate."+strategy.getName());
+            errors = m.counter("decisionErrors."+strategy.getName());
+        }
+
+        /**
+         * Updates the table with an event from the server, and asks the strategy for a decision if it's our turn.
+         * Must be called from one thread, in the order the events arrived.
+         * @param e The event
+         */
+        public void receiveEvent(Event e)
+        {
+            tracker.receiveEvent(e);
+            if (PlayerTurnEvent.class.isInstance(e) && ((PlayerTurnEvent)e).playerIndex == tracker.getSeat())
+            {
+                final Turn turn = new Turn(tracker.view(System.nanoTime() + budgetNanos));
+                turn.timeout = timer.schedule(new Runnable()
+                {
+                    @Override
+                    public void run() {
+                        /* The turn is claimed on time here, but the write could block, so it goes to the pool */
+                        if (turn.answered.compareAndSet(false, true))
+                        {
+                            timeouts.increment();
+                            pool.execute(new Runnable()
+                            {
+                                @Override
+                                public void run() {
+                                    log.warn(strategy.getName()+" ran out of time, sending the safe action");
+                                    send(turn.view.safeAction());
+                                }
+                            });
+                        }
+                    }
+                }, budgetNanos, TimeUnit.NANOSECONDS);
+                turns.add(turn);
+                if (running.compareAndSet(false, true))
+                {
+                    pool.execute(this);
+                }
+            }
+        }
+
+        /**
+         * Makes the queued decisions, one at a time
+         */
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                try
+                {
+                    Turn turn;
+                    while ((turn = turns.poll()) != null)
+                    {
+                        decide(turn);
+                    }
+                }
+                finally
+                {
+                    /* Even if a decision throws, or the session would never decide again */
+                    running.set(false);
+                }
+
+                /* A turn queued after the last poll but before running was cleared would otherwise wait */
+                if (turns.isEmpty() || !running.compareAndSet(false, true))
+                {
+                    return;
+                }
+            }
+        }
+
+        private void decide(Turn turn)
+        {
+            if (turn.answered.get())
+            {
+                /* The timer got there before a pool thread did */
+                return;
+            }
+
+            ClientCommand c = null;
+            long start = System.nanoTime();
+            try
+            {
+                c = strategy.decide(turn.view);
+            }
+            catch(RuntimeException ex)
+            {
+                errors.increment();
+                log.warn(strategy.getName()+" failed to decide", ex);
+            }
+            latency.record(System.nanoTime() - start);
+
+            if (!turn.answered.compareAndSet(false, true))
+            {
+                late.increment();
+                return;
+            }
+            turn.timeout.cancel();
+            send(c != null ? c : turn.view.safeAction());
+        }
+
+        private void send(ClientCommand c)
+        {
+            try
+            {
+                sink.send(c);
+            }
+            catch(IOException ex)
+            {
+                log.warn("Couldn't send "+c.getClass().getSimpleName(), ex);
+            }
+            catch(RuntimeException ex)
+            {
+                /* A broken sink loses this command, not the session */
+                log.warn("Dropped "+c.getClass().getSimpleName()+" that the sink failed on", ex);
+            }
+        }
+    }
+
+    /**
+     * A decision waiting to be made
+     */
+    private static final class Turn
+    {
+        final TableView view;
+        final AtomicBoolean answered = new AtomicBoolean();
+        volatile TimerWheel.Timeout timeout;
+
+        Turn(TableView view)
+        {
+            this.view = view;
+        }
+    }
+}
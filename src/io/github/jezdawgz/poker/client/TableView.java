@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Event.*;
+import java.util.Arrays;
+
+/**
+ * The state of a table as an automated player sees it, without a GUI.
+ * <p>
+ * A view is a snapshot: it is made by a {@link Tracker} when our turn comes and never changes afterwards, so a
+ * {@link Strategy} can read it from any thread. Seats are the server's player indexes. Cards are {@link CardMask}s.
+ *
+ * @author Jeremy Collette
+ */
+public class TableView {
+
+    /** Our seat */
+    public final int seat;
+    public final int numPlayers;
+    public final String[] names;
+    /** Chips behind for each seat */
+    public final int[] stacks;
+    /** Chips on the table this street for each seat */
+    public final int[] onTable;
+    /** Seats that are out of the hand (folded, disconnected or out of chips) */
+    public final boolean[] folded;
+    public final int dealer;
+    public final long hole;
+    public final long board;
+    /** The most anybody has on the table this street */
+    public final int currentBet;
+    /** The least we can make our total on the table if we bet or raise */
+    public final int minTotalBet;
+    /** Everything in the pot, including the chips on the table */
+    public final int pot;
+    public final int smallBlind;
+    public final int bigBlind;
+    /** Hands started since the game began, counting this one */
+    public final int hand;
+    /** When the decision must be made by, from {@link System#nanoTime()} */
+    public final long deadline;
+
+    /**
+     * Makes a view from state kept somewhere other than a {@link Tracker}, such as a table played in-process.
+     * The arrays are taken as they are, not copied.
+     */
+    TableView(int seat, String[] names, int[] stacks, int[] onTable, boolean[] folded, int dealer, long hole, long board,
+            int currentBet, int minTotalBet, int pot, int smallBlind, int bigBlind, int hand, long deadline)
+    {
+        this.seat = seat;
+        this.numPlayers = names.length;
+        this.names = names;
+        this.stacks = stacks;
+        this.onTable = onTable;
+        this.folded = folded;
+        this.dealer = dealer;
+        this.hole = hole;
+        this.board = board;
+        this.currentBet = currentBet;
+        this.minTotalBet = minTotalBet;
+        this.pot = pot;
+        this.smallBlind = smallBlind;
+        this.bigBlind = bigBlind;
+        this.hand = hand;
+        this.deadline = deadline;
+    }
+
+    private TableView(Tracker t, long deadline)
+    {
+        seat = t.seat;
+        numPlayers = t.numPlayers;
+        names = t.names.clone();
+        stacks = t.stacks.clone();
+        onTable = t.onTable.clone();
+        folded = t.folded.clone();
+        dealer = t.dealer;
+        hole = t.hole;
+        board = t.board;
+        currentBet = t.currentBet;
+        minTotalBet = t.minTotalBet;
+        pot = t.pot;
+        smallBlind = t.smallBlind;
+        bigBlind = t.bigBlind;
+        hand = t.hand;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Gets the chips we need to put in to call
+     * @return The amount, 0 if we can check
+     */
+    public int toCall()
+    {
+        return Math.max(0, currentBet - onTable[seat]);
+    }
+
+    /**
+     * Gets how many other players are still in the hand
+     * @return The number of opponents
+     */
+    public int opponents()
+    {
+        int n = 0;
+        for (int i = 0; i < numPlayers; i++)
+        {
+            if (i != seat && !folded[i])
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Gets the time left before the deadline
+     * @return Nanoseconds left, negative once it has passed
+     */
+    public long timeLeft()
+    {
+        return deadline - System.nanoTime();
+    }
+
+    /**
+     * Gets the action sent when a strategy doesn't decide in time: check if we can, otherwise fold
+     * @return The command
+     */
+    public ClientCommand safeAction()
+    {
+        return toCall() > 0 ? new ClientCommand.ClientFoldCommand() : new ClientCommand.ClientCheckCommand();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Hand "+hand+", seat "+seat+": "+CardMask.toString(hole)+" on "+CardMask.toString(board)
+                +", pot "+pot+", to call "+toCall()+", stacks "+Arrays.toString(stacks);
+    }
+
+    /**
+     * Follows the server's {@link Event}s for one table and makes {@link TableView}s of it. Not thread safe: the
+     * events must come from one thread, in order.
+     */
+    public static class Tracker
+    {
+        private int seat = -1;
+        private int numPlayers;
+        private String[] names = new String[0];
+        private int[] stacks = new int[0];
+        private int[] onTable = new int[0];
+        private boolean[] folded = new boolean[0];
+        private int dealer;
+        private long hole;
+        private long board;
+        private int currentBet;
+        private int minTotalBet;
+        private int pot;
+        private int smallBlind;
+        private int bigBlind;
+        private int hand;
+
+        /**
+         * Updates the table with an event from the server
+         * @param e The event
+         */
+        public void receiveEvent(Event e)
+        {
+            if (NewGameEvent.class.isInstance(e))
+            {
+                NewGameEvent evt = (NewGameEvent)e;
+                seat = evt.clientIndex;
+                numPlayers = evt.playerNames.length;
+                names = evt.playerNames.clone();
+                stacks = new int[numPlayers];
+                Arrays.fill(stacks, evt.startingStack);
+                onTable = new int[numPlayers];
+                folded = new boolean[numPlayers];
+                smallBlind = evt.smallBlind;
+                bigBlind = evt.bigBlind;
+                hand = 0;
+            }
+            else if (NewRoundEvent.class.isInstance(e))
+            {
+                hand++;
+                dealer = ((NewRoundEvent)e).dealerIndex;
+                for (int i = 0; i < numPlayers; i++)
+                {
+                    folded[i] = stacks[i] == 0;
+                }
+                hole = 0;
+                board = 0;
+                pot = 0;
+                newStreet();
+            }
+            else if (NewPlayerCardEvent.class.isInstance(e))
+            {
+                hole |= CardMask.of(((NewPlayerCardEvent)e).newCard);
+            }
+            else if (NewCommunityCardEvent.class.isInstance(e))
+            {
+                board |= CardMask.of(((NewCommunityCardEvent)e).newCard);
+                newStreet();
+            }
+            else if (PlayerChipsOnTableEvent.class.isInstance(e))
+            {
+                PlayerChipsOnTableEvent evt = (PlayerChipsOnTableEvent)e;
+                onTable[evt.playerIndex] = evt.amount;
+                stacks[evt.playerIndex] = evt.chipsRemaining;
+                pot = evt.totalPot;
+                currentBet = Math.max(currentBet, evt.amount);
+                if (PlayerPostBlindsEvent.class.isInstance(e))
+                {
+                    minTotalBet = Math.max(minTotalBet, evt.amount * 2);
+                }
+                else if (PlayerBetEvent.class.isInstance(e))
+                {
+                    minTotalBet = ((PlayerBetEvent)e).minTotalBet;
+                }
+            }
+            else if (PlayerFoldEvent.class.isInstance(e))
+            {
+                folded[((PlayerFoldEvent)e).playerIndex] = true;
+            }
+            else if (PlayerDisconnectEvent.class.isInstance(e))
+            {
+                int p = ((PlayerDisconnectEvent)e).playerIndex;
+                folded[p] = true;
+                stacks[p] = 0;
+            }
+            else if (PlayerWinsChipsEvent.class.isInstance(e))
+            {
+                PlayerWinsChipsEvent evt = (PlayerWinsChipsEvent)e;
+                stacks[evt.playerIndex] += evt.amountWon;
+                pot = evt.remainingPot;
+            }
+        }
+
+        private void newStreet()
+        {
+            Arrays.fill(onTable, 0);
+            currentBet = 0;
+            minTotalBet = bigBlind;
+        }
+
+        /**
+         * Gets our seat
+         * @return The seat, or -1 before the game has started
+         */
+        public int getSeat()
+        {
+            return seat;
+        }
+
+        /**
+         * Takes a snapshot of the table
+         * @param deadline When a decision about it must be made by, from {@link System#nanoTime()}
+         * @return The view
+         */
+        public TableView view(long deadline)
+        {
+            return new TableView(this, deadline);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel: one thread keeping any number of timers for every session in the JVM.
+ * <p>
+ * Time is cut into ticks, and the wheel is a ring of buckets, one per tick. A timer goes in the bucket its
+ * deadline falls in, with a count of how many more times the wheel must go round before it is due. Scheduling
+ * and cancelling are O(1): {@link #schedule} just queues the timer, and {@link Timeout#cancel()} just marks it
+ * and queues it for removal. The wheel's thread moves queued timers into their buckets once per tick, unlinks
+ * the cancelled ones, and then expires everything due in the current bucket as one batch - on its own thread,
+ * or as a single task on an {@link Executor}.
+ * <p>
+ * A timer fires up to one tick late, never early. Tasks run on the wheel's thread must be short; anything slow
+ * should be handed off, or the wheel given an executor.
+ *
+ * @author Jeremy Collette
+ */
+public class TimerWheel {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(TimerWheel.class);
+
+    /** Default length of a tick, overridden by the <code>pokerclient.timer.tick</code> property */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    /** Default number of buckets */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Most queued timers moved into buckets per tick, so a flood of new timers can't stall expiry */
+    private static final int MAX_TRANSFERS_PER_TICK = 1 << 20;
+
+    private static TimerWheel shared;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final long startTime;
+    private final Thread worker;
+    private volatile boolean stopped;
+
+    /* Only touched by the worker */
+    private long tick;
+    private volatile long fired;
+
+    public TimerWheel()
+    {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, null);
+    }
+
+    /**
+     * Creates a wheel and starts its thread
+     * @param tick Length of a tick - the resolution timers fire at
+     * @param unit Unit of tick
+     * @param wheelSize Number of buckets (rounded up to a power of two). More buckets mean fewer timers to look
+     * at each tick.
+     * @param executor Runs each batch of expired tasks, or null to run them on the wheel's thread
+     */
+    public TimerWheel(long tick, TimeUnit unit, int wheelSize, Executor executor)
+    {
+        tickNanos = Math.max(1, unit.toNanos(tick));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) * 2;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        this.executor = executor;
+        startTime = System.nanoTime();
+
+        worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "Timer wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Gets the wheel shared by every session in the JVM
+     * @return The shared wheel
+     */
+    public static synchronized TimerWheel getShared()
+    {
+        if (shared == null)
+        {
+            shared = new TimerWheel(Long.getLong("pokerclient.timer.tick", DEFAULT_TICK_MILLIS), TimeUnit.MILLISECONDS,
+                    DEFAULT_WHEEL_SIZE, null);
+        }
+        return shared;
+    }
+
+    /**
+     * Schedules a task to run once after a delay
+     * @param task The task
+     * @param delay How long to wait
+     * @param unit Unit of delay
+     * @return The timer, which can be cancelled
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        if (stopped)
+        {
+            throw new IllegalStateException("Timer wheel has been stopped");
+        }
+        Timeout t = new Timeout(this, task, System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+        pending.incrementAndGet();
+        scheduled.add(t);
+        return t;
+    }
+
+    /**
+     * Gets how many timers are waiting to fire
+     * @return The number of timers
+     */
+    public long getPending()
+    {
+        return pending.get();
+    }
+
+    /**
+     * Gets how many timers have fired
+     * @return The number fired so far
+     */
+    public long getFired()
+    {
+        return fired;
+    }
+
+    public long getTickNanos()
+    {
+        return tickNanos;
+    }
+
+    /**
+     * Stops the wheel. Timers that haven't fired never will.
+     */
+    public void stop()
+    {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void work()
+    {
+        ArrayList<Timeout> batch = new ArrayList<>();
+        while (!stopped)
+        {
+            /* Wait for the end of the current tick */
+            long wakeAt = startTime + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = wakeAt - System.nanoTime()) > 0 && !stopped)
+            {
+                LockSupport.parkNanos(this, wait);
+            }
+            if (stopped)
+            {
+                break;
+            }
+
+            removeCancelled();
+            transferScheduled();
+            wheel[(int)(tick & mask)].expire(batch);
+            tick++;
+
+            if (!batch.isEmpty())
+            {
+                fired += batch.size();
+                pending.addAndGet(-batch.size());
+                run(batch);
+                batch = new ArrayList<>();
+            }
+        }
+    }
+
+    private void removeCancelled()
+    {
+        Timeout t;
+        while ((t = cancelled.poll()) != null)
+        {
+            if (t.bucket != null)
+            {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferScheduled()
+    {
+        Timeout t;
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK && (t = scheduled.poll()) != null; i++)
+        {
+            if (t.state != Timeout.WAITING)
+            {
+                continue;
+            }
+            /* Anything already overdue goes in the bucket that expires now */
+            long due = Math.max(t.deadline / tickNanos, tick);
+            t.rounds = (due - tick) / wheel.length;
+            wheel[(int)(due & mask)].add(t);
+        }
+    }
+
+    private void run(final ArrayList<Timeout> batch)
+    {
+        if (executor == null)
+        {
+            runAll(batch);
+            return;
+        }
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run() {
+                runAll(batch);
+            }
+        });
+    }
+
+    private static void runAll(ArrayList<Timeout> batch)
+    {
+        for (int i = 0; i < batch.size(); i++)
+        {
+            try
+            {
+                batch.get(i).task.run();
+            }
+            catch(RuntimeException e)
+            {
+                LOG.warn("Timer task failed", e);
+            }
+        }
+    }
+
+    /**
+     * A scheduled task
+     */
+    public static final class Timeout
+    {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+
+        /* Only touched by the wheel's thread */
+        private long rounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline)
+        {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stops the task from running, if it hasn't already
+         * @return True if it was cancelled, false if it had already fired or been cancelled
+         */
+        public boolean cancel()
+        {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED))
+            {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled()
+        {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired()
+        {
+            return state == EXPIRED;
+        }
+    }
+
+    /**
+     * The timers due in one slot of the wheel, as a doubly linked list
+     */
+    private static final class Bucket
+    {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t)
+        {
+            t.bucket = this;
+            t.prev = tail;
+            t.next = null;
+            if (tail == null)
+            {
+                head = t;
+            }
+            else
+            {
+                tail.next = t;
+            }
+            tail = t;
+        }
+
+        void remove(Timeout t)
+        {
+            if (t.prev == null)
+            {
+                head = t.next;
+            }
+            else
+            {
+                t.prev.next = t.next;
+            }
+            if (t.next == null)
+            {
+                tail = t.prev;
+            }
+            else
+            {
+                t.next.prev = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        /**
+         * Takes out the timers due this time round and counts down the rest
+         * @param batch Gets the timers to fire
+         */
+        void expire(ArrayList<Timeout> batch)
+        {
+            Timeout t = head;
+            while (t != null)
+            {
+                Timeout next = t.next;
+                if (t.rounds <= 0)
+                {
+                    remove(t);
+                    if (Timeout.STATE.compareAndSet(t, Timeout.WAITING, Timeout.EXPIRED))
+                    {
+                        batch.add(t);
+                    }
+                }
+                else
+                {
+                    t.rounds--;
+                }
+                t = next;
+            }
+        }
+    }
+}
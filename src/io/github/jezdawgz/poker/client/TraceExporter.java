@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes finished {@link Span}s to local files in the OTLP JSON layout, so trace viewers can open them offline.
+ * <p>
+ * Spans are queued and written by a background thread in batches: each batch is one line holding an OTLP
+ * <code>ExportTraceServiceRequest</code>, the same layout as the OpenTelemetry Collector's file exporter.
+ * Once a file passes {@value #MAX_FILE_BYTES} bytes a new one is started, and only the newest
+ * {@value #MAX_FILES} are kept. If the queue fills up, spans are dropped rather than holding up the game.
+ * Whatever is still queued or waiting for its batch to fill is written out when the JVM shuts down.
+ *
+ * @author Jeremy Collette
+ */
+public class TraceExporter implements Runnable {
+
+    private static final ClientLog.Logger LOG = ClientLog.getLogger(TraceExporter.class);
+
+    public static final int MAX_FILE_BYTES = 8 << 20;
+    public static final int MAX_FILES = 10;
+
+    private static final int QUEUE_SIZE = 8192;
+    private static final int BATCH_SIZE = 512;
+    private static final long BATCH_MILLIS = 5000;
+    private static final String SERVICE_NAME = "pokerclient";
+
+    private static TraceExporter shared;
+
+    private final File dir;
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private long dropped;
+
+    /* Guarded by writeLock, so a flush can write out the batch the exporter thread is still filling */
+    private final Object writeLock = new Object();
+    private final List<Span> batch = new ArrayList<>(BATCH_SIZE);
+    private OutputStream out;
+    private long written;
+
+    /**
+     * Creates an exporter and starts its thread
+     * @param dir Directory to write the trace files to
+     */
+    public TraceExporter(File dir)
+    {
+        this.dir = dir;
+        dir.mkdirs();
+        Thread t = new Thread(this, "Trace exporter");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            @Override
+            public void run() {
+                flush();
+            }
+        }));
+    }
+
+    /**
+     * Gets the exporter writing to the data directory, unless tracing is turned off with "pokerclient.trace=false"
+     * @return The exporter, or null if tracing is off
+     */
+    public static synchronized TraceExporter getShared()
+    {
+        if (shared == null && !"false".equals(System.getProperty("pokerclient.trace")))
+        {
+            shared = new TraceExporter(new File(Utils.getDataDirectory(), "traces"));
+            final TraceExporter exporter = shared;
+            Metrics.get().gauge(Metrics.TRACES_DROPPED, new Metrics.Gauge()
+            {
+                @Override
+                public long getValue() {
+                    return exporter.getDropped();
+                }
+            });
+        }
+        return shared;
+    }
+
+    /**
+     * Queues a finished span to be written
+     * @param s The span
+     */
+    public void export(Span s)
+    {
+        if (!queue.offer(s))
+        {
+            synchronized (this)
+            {
+                dropped++;
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                Span first = queue.poll(BATCH_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                int size;
+                synchronized (writeLock)
+                {
+                    batch.add(first);
+                    size = batch.size();
+                }
+
+                /* Give the rest of the batch a moment to turn up */
+                long deadline = System.currentTimeMillis() + BATCH_MILLIS;
+                while (size < BATCH_SIZE)
+                {
+                    long wait = deadline - System.currentTimeMillis();
+                    Span s = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (s == null)
+                    {
+                        break;
+                    }
+                    synchronized (writeLock)
+                    {
+                        batch.add(s);
+                        size = batch.size();
+                    }
+                }
+                synchronized (writeLock)
+                {
+                    writeBatch();
+                }
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes out every span queued so far, including the batch the exporter thread is filling. Called when the
+     * JVM shuts down.
+     */
+    public void flush()
+    {
+        synchronized (writeLock)
+        {
+            while (queue.drainTo(batch, BATCH_SIZE - batch.size()) > 0 || !batch.isEmpty())
+            {
+                writeBatch();
+            }
+        }
+    }
+
+    /**
+     * Writes the batch, if there is one, and empties it
+     */
+    private void writeBatch()
+    {
+        if (batch.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            write(batch);
+        }
+        catch(IOException e)
+        {
+            /* Lose this batch and start a new file next time */
+            LOG.warn("Could not write traces to "+dir, e);
+            out = null;
+        }
+        batch.clear();
+    }
+
+    private void write(List<Span> batch) throws IOException
+    {
+        StringBuilder sb = new StringBuilder(256 * batch.size());
+        sb.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        attribute(sb, "service.name", SERVICE_NAME);
+        sb.append("]},\"scopeSpans\":[{\"scope\":{\"name\":\"").append(TraceExporter.class.getPackage().getName())
+                .append("\",\"version\":\"").append(PokerClient.VERSION).append("\"},\"spans\":[");
+        for (int i = 0; i < batch.size(); i++)
+        {
+            if (i > 0)
+            {
+                sb.append(',');
+            }
+            batch.get(i).toJson(sb);
+        }
+        sb.append("]}]}]}\n");
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (out == null || written + bytes.length > MAX_FILE_BYTES)
+        {
+            rotate();
+        }
+        out.write(bytes);
+        out.flush();
+        written += bytes.length;
+    }
+
+    /**
+     * Starts a new file, deleting the oldest ones
+     */
+    private void rotate() throws IOException
+    {
+        if (out != null)
+        {
+            out.close();
+        }
+        out = new FileOutputStream(new File(dir, String.format("traces-%d.json", System.currentTimeMillis())));
+        written = 0;
+
+        File[] files = dir.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith("traces-") && name.endsWith(".json");
+            }
+        });
+        if (files != null && files.length > MAX_FILES)
+        {
+            /* Names sort by time as long as the timestamps have the same number of digits */
+            Arrays.sort(files);
+            for (int i = 0; i < files.length - MAX_FILES; i++)
+            {
+                files[i].delete();
+            }
+        }
+    }
+
+    public synchronized long getDropped()
+    {
+        return dropped;
+    }
+
+    static void attribute(StringBuilder sb, String key, Object value)
+    {
+        sb.append("{\"key\":");
+        quote(sb, key);
+        sb.append(",\"value\":{");
+        if (value instanceof Boolean)
+        {
+            sb.append("\"boolValue\":").append(value);
+        }
+        else if (value instanceof Integer || value instanceof Long)
+        {
+            /* OTLP JSON writes 64-bit integers as strings */
+            sb.append("\"intValue\":\"").append(value).append('"');
+        }
+        else
+        {
+            sb.append("\"stringValue\":");
+            quote(sb, String.valueOf(value));
+        }
+        sb.append("}}");
+    }
+
+    static void quote(StringBuilder sb, String s)
+    {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                sb.append(String.format("\\u%04x", (int)c));
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
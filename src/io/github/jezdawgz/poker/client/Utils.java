@@ -5,6 +5,7 @@
  */
 package io.github.jezdawgz.poker.client;
 
+import java.io.File;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
@@ -16,6 +17,19 @@ import javax.swing.text.DocumentFilter;
  */
 public class Utils {
 
+    /**
+     * Gets the directory the client keeps its local data in (generated tables, stats, history and logs).
+     * Defaults to ".pokerclient" in the user's home directory and can be overridden with the
+     * "pokerclient.data.dir" system property.
+     * @return The data directory, created if it did not exist
+     */
+    public static File getDataDirectory() {
+        File dir = new File(System.getProperty("pokerclient.data.dir",
+                System.getProperty("user.home") + File.separator + ".pokerclient"));
+        dir.mkdirs();
+        return dir;
+    }
+
     static class IntFilter extends DocumentFilter {
 
         @Override
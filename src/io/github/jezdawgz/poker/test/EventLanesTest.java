@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.EventLanes;
+import io.github.jezdawgz.poker.server.Event;
+
+
+/**
+ * Checks the ordering and overflow rules of {@link EventLanes}.
+ * <p>
+ * Game items must come out in the order they went in and ahead of any cosmetic item still waiting, and cosmetic
+ * items in their own order. A full cosmetic lane drops its oldest item and counts it; a full game lane refuses
+ * the item and drops nothing. Then a producer thread feeds a mix of both through small lanes to a consumer using
+ * {@link EventLanes#take(long)}, and every game item must arrive, in order, with every cosmetic item either
+ * arriving in order or counted as dropped.
+ * Pass the number of items the producer sends.
+ * @author Jeremy Collette
+ */
+public class EventLanesTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        final int items = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        if (!EventLanes.isCosmetic(new Event.NewMessageEvent("hi")) || EventLanes.isCosmetic(TestEvents.turn(0)))
+        {
+            fail("isCosmetic: chat should be cosmetic and turns shouldn't");
+        }
+
+        /* Game items jump the cosmetic ones and each lane keeps its order */
+        EventLanes<String> lanes = new EventLanes<>(4);
+        lanes.add("c1", true);
+        lanes.add("g1", false);
+        lanes.add("c2", true);
+        lanes.add("g2", false);
+        expect("order", lanes, "g1", "g2", "c1", "c2");
+
+        /* pollGame leaves the cosmetic items alone */
+        lanes.add("c1", true);
+        lanes.add("g1", false);
+        if (!"g1".equals(lanes.pollGame()) || lanes.pollGame() != null || lanes.hasGame() || lanes.size() != 1)
+        {
+            fail("pollGame: should take only the game item");
+        }
+        lanes.poll();
+
+        /* A full cosmetic lane drops its oldest items */
+        for (int i = 1; i <= 6; i++)
+        {
+            lanes.add("c"+i, true);
+        }
+        lanes.add("g1", false);
+        if (lanes.takeCoalesced() != 2 || lanes.takeCoalesced() != 0)
+        {
+            fail("cosmetic overflow: expected 2 dropped, counted once");
+        }
+        if (lanes.getHighWater() != 5)
+        {
+            fail("cosmetic overflow: high water "+lanes.getHighWater()+", expected 5");
+        }
+        expect("cosmetic overflow", lanes, "g1", "c3", "c4", "c5", "c6");
+
+        /* A full game lane refuses more, and drops nothing */
+        lanes = new EventLanes<>(4, 2);
+        boolean added = lanes.add("g1", false) & lanes.add("g2", false);
+        if (!added || lanes.add("g3", false))
+        {
+            fail("game overflow: the first two should be added and the third refused");
+        }
+        if (!lanes.add("c1", true) || lanes.takeCoalesced() != 0)
+        {
+            fail("game overflow: cosmetic items should still be taken");
+        }
+        expect("game overflow", lanes, "g1", "g2", "c1");
+
+        /* A producer and a consumer, with lanes small enough to overflow */
+        final EventLanes<Integer> shared = new EventLanes<>(16, 64);
+        final int[] sent = new int[2];
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run() {
+                int game = 0, cosmetic = 0;
+                for (int i = 0; i < items; i++)
+                {
+                    if ((i * 0x9E3779B9) >>> 30 == 0)
+                    {
+                        /* Game items are never dropped, so wait for room */
+                        while (!shared.add(game, false))
+                        {
+                            Thread.yield();
+                        }
+                        game++;
+                    }
+                    else
+                    {
+                        shared.add(-1 - cosmetic, true);
+                        cosmetic++;
+                    }
+                }
+                sent[0] = game;
+                sent[1] = cosmetic;
+            }
+        }, "Producer");
+        long start = System.nanoTime();
+        producer.start();
+
+        int nextGame = 0, lastCosmetic = 0, cosmeticReceived = 0;
+        while (true)
+        {
+            Integer item = shared.take(100);
+            if (item == null)
+            {
+                /* Anything added just before the producer finished is still waiting */
+                if (!producer.isAlive() && shared.isEmpty())
+                {
+                    break;
+                }
+                continue;
+            }
+            if (item >= 0)
+            {
+                if (item != nextGame)
+                {
+                    fail("threads: game item "+item+" arrived when "+nextGame+" was next");
+                    nextGame = item;
+                }
+                nextGame++;
+            }
+            else
+            {
+                int c = -1 - item;
+                if (cosmeticReceived > 0 && c <= lastCosmetic)
+                {
+                    fail("threads: cosmetic item "+c+" arrived after "+lastCosmetic);
+                }
+                lastCosmetic = c;
+                cosmeticReceived++;
+            }
+        }
+        producer.join();
+        int dropped = shared.takeCoalesced();
+        if (nextGame != sent[0] || cosmeticReceived + dropped != sent[1])
+        {
+            fail("threads: sent "+sent[0]+" game and "+sent[1]+" cosmetic items, received "+nextGame+" game and "
+                    +cosmeticReceived+" cosmetic items with "+dropped+" dropped");
+        }
+        System.out.printf("%,d items in %.1fs: %,d game, %,d cosmetic, %,d dropped, high water %d%n", items,
+                (System.nanoTime() - start) / 1e9, sent[0], cosmeticReceived, dropped, shared.getHighWater());
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void expect(String name, EventLanes<String> lanes, String... expected)
+    {
+        StringBuilder got = new StringBuilder();
+        for (String s; (s = lanes.poll()) != null; )
+        {
+            got.append(got.length() > 0 ? " " : "").append(s);
+        }
+        if (!got.toString().equals(String.join(" ", expected)))
+        {
+            fail(name+": got "+got+", expected "+String.join(" ", expected));
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.EventRing;
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Checks that {@link EventRing} readers see every record whole, and count what they miss when they are lapped.
+ * <p>
+ * First a few events and commands are written and read back. Then a reader is lapped many times over while it
+ * isn't reading, and must skip to the newest records and count the rest as lost once the next record tells it
+ * how many it missed. Last, a writer thread fills a
+ * small ring with chat messages as fast as it can while a reader follows it. Each message's text is made from
+ * its own number, so a record torn by the writer overtaking the reader would show up as text that doesn't match
+ * its sequence number. Every record must be either read whole or counted as lost.
+ * Pass the number of messages the writer thread sends.
+ * @author Jeremy Collette
+ */
+public class EventRingTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        File f = File.createTempFile("eventringtest", ".ring");
+        f.deleteOnExit();
+
+        /* Records come back as they were written */
+        EventRing ring = new EventRing(f, EventRing.MIN_CAPACITY);
+        EventRing.Reader reader = new EventRing.Reader(f);
+        int stream = ring.openStream("table 1");
+        ring.publish(stream, TestEvents.newGame(1, new String[]{"alice", "bob"}, 1000, 10, 20), false);
+        ring.publish(stream, TestEvents.bet(0, 60, 940, 90, 100), false);
+        ring.publish(stream, new ClientCommand.ClientBetCommand(200), true);
+        ring.publish(stream, new Event.NewMessageEvent("gl \u00e9"), false);
+        expect(reader, EventRing.STREAM, false, "stream table 1");
+        expect(reader, EventRing.NEW_GAME, false, "new game: seat 1, stack 1000, blinds 10/20, alice bob");
+        expect(reader, EventRing.BET, false, "bet: seat 0, total 60, remaining 940, pot 90, min raise to 100");
+        expect(reader, EventRing.BET_COMMAND, true, "bet 200");
+        expect(reader, EventRing.MESSAGE, false, "message: gl \u00e9");
+        if (reader.next() || reader.getLost() != 0 || !"table 1".equals(reader.getStreamName(stream)))
+        {
+            fail("round trip: expected nothing more, nothing lost and the stream's name");
+        }
+
+        /* A reader that is lapped skips to the newest records, and counts the rest as lost from the next record's
+           sequence number */
+        int lapped = 10 * EventRing.MIN_CAPACITY / 64;
+        for (int i = 0; i < lapped; i++)
+        {
+            ring.publish(stream, new Event.NewMessageEvent(message(i)), false);
+        }
+        if (reader.next())
+        {
+            fail("lapped: read a record from a ring that had gone round since");
+        }
+        ring.publish(stream, new Event.NewMessageEvent(message(lapped)), false);
+        lapped++;
+        long read = 0;
+        long last = -1;
+        while (reader.next())
+        {
+            if (reader.getSequence() <= last)
+            {
+                fail("lapped: sequence "+reader.getSequence()+" after "+last);
+            }
+            last = reader.getSequence();
+            read++;
+        }
+        if (read == 0 || read + reader.getLost() != lapped)
+        {
+            fail("lapped: wrote "+lapped+", read "+read+" and lost "+reader.getLost());
+        }
+        System.out.printf("Lapped: wrote %,d, read %,d, lost %,d%n", lapped, read, reader.getLost());
+        reader.close();
+
+        /* A reader following a writer that keeps lapping it */
+        final EventRing racing = new EventRing(f, EventRing.MIN_CAPACITY);
+        EventRing.Reader follower = new EventRing.Reader(f);
+        final int racingStream = racing.openStream("table 2");
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run() {
+                for (int i = 0; i < messages; i++)
+                {
+                    racing.publish(racingStream, new Event.NewMessageEvent(message(i)), false);
+                    /* Let the reader in now and then when there aren't enough cores to run both at once */
+                    if ((i & 255) == 0)
+                    {
+                        Thread.yield();
+                    }
+                }
+            }
+        }, "Writer");
+        long start = System.nanoTime();
+        writer.start();
+
+        read = 0;
+        last = -1;
+        int torn = 0;
+        boolean sentLast = false;
+        while (true)
+        {
+            boolean writing = writer.isAlive();
+            if (!follower.next())
+            {
+                if (writing)
+                {
+                    Thread.yield();
+                    continue;
+                }
+                if (sentLast)
+                {
+                    break;
+                }
+                /* One more record tells the reader how many it lost if it was lapped at the very end */
+                racing.publish(racingStream, new Event.NewMessageEvent(message(messages)), false);
+                sentLast = true;
+                continue;
+            }
+
+            long sequence = follower.getSequence();
+            if (sequence <= last)
+            {
+                fail("racing: sequence "+sequence+" after "+last);
+            }
+            last = sequence;
+            read++;
+            if (follower.getType() != EventRing.MESSAGE)
+            {
+                continue;
+            }
+            /* The stream's record is sequence 0, so message i is sequence i + 1 */
+            String text = EventRing.getString(follower.getPayload());
+            if (!text.equals(message((int)(sequence - 1))))
+            {
+                torn++;
+                fail("racing: record "+sequence+" has the text of another record: "+text);
+            }
+        }
+        long written = messages + 2;
+        if (read + follower.getLost() != written)
+        {
+            fail("racing: wrote "+written+", read "+read+" and lost "+follower.getLost());
+        }
+        System.out.printf("Racing: wrote %,d in %.1fs, read %,d, lost %,d, torn %d%n", written,
+                (System.nanoTime() - start) / 1e9, read, follower.getLost(), torn);
+        follower.close();
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Makes a message whose text and length both depend on its number
+     */
+    private static String message(int i)
+    {
+        StringBuilder sb = new StringBuilder().append(i).append(':');
+        for (int n = i % 97; n >= 0; n--)
+        {
+            sb.append((char)('a' + (i + n) % 26));
+        }
+        return sb.toString();
+    }
+
+    private static void expect(EventRing.Reader reader, int type, boolean sent, String description)
+    {
+        if (!reader.next())
+        {
+            fail("round trip: missing "+description);
+            return;
+        }
+        String got = EventRing.describe(reader.getType(), reader.getPayload());
+        if (reader.getType() != type || reader.isSent() != sent || !got.equals(description))
+        {
+            fail("round trip: got type "+reader.getType()+(reader.isSent() ? " sent" : "")+" \""+got+"\", expected type "
+                    +type+(sent ? " sent" : "")+" \""+description+"\"");
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.CardMask;
+import io.github.jezdawgz.poker.client.ExactEquity;
+import io.github.jezdawgz.poker.client.HandEvaluator;
+import io.github.jezdawgz.poker.client.HandRange;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Times {@link ExactEquity} on a single thread against all cores, over a few flop, turn and river spots.
+ * @author Jeremy Collette
+ */
+public class ExactEquityBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args)
+    {
+        HandEvaluator.init();
+        long hole = CardMask.parse("AsKs");
+        String[] boards = new String[]{"Qs7h2s", "Qs7h2sJd", "Qs7h2sJd3c"};
+        HandRange[][] opponents = new HandRange[][]{
+            {HandRange.random()},
+            {HandRange.parse("22+, ATs+, KQs, AJo+"), HandRange.parse("77+, AQ+")}
+        };
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ExactEquity baseline = new ExactEquity(single);
+        ExactEquity parallel = new ExactEquity(ForkJoinPool.commonPool());
+        int cores = ForkJoinPool.commonPool().getParallelism();
+
+        for (String b : boards)
+        {
+            long board = CardMask.parse(b);
+            for (HandRange[] ranges : opponents)
+            {
+                double evaluations = ExactEquity.countEvaluations(hole, board, ranges);
+                double[] equity = null;
+                long baseTime = 0, parTime = 0;
+                for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++)
+                {
+                    long start = System.nanoTime();
+                    equity = baseline.calculate(hole, board, ranges, null);
+                    long mid = System.nanoTime();
+                    parallel.calculate(hole, board, ranges, null);
+                    long end = System.nanoTime();
+                    if (round >= WARMUP_ROUNDS)
+                    {
+                        baseTime += mid - start;
+                        parTime += end - mid;
+                    }
+                }
+
+                System.out.println(String.format("AsKs on %s vs %d range(s): equity %.2f%%, ~%,.0f evaluations",
+                        b, ranges.length, equity[0] * 100, evaluations));
+                System.out.println(String.format("    1 thread: %.1f ms, %d threads: %.1f ms (%.1fx)",
+                        baseTime / 1e6 / ROUNDS, cores, parTime / 1e6 / ROUNDS, (double)baseTime / parTime));
+            }
+        }
+        single.shutdown();
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.CardMask;
+import io.github.jezdawgz.poker.client.HandEvaluator;
+import io.github.jezdawgz.poker.server.Card;
+import io.github.jezdawgz.poker.server.Card.CardSet;
+import io.github.jezdawgz.poker.server.Hand;
+import io.github.jezdawgz.poker.server.HandAnalyser;
+import java.util.Random;
+
+
+/**
+ * Compares how many 7 card hands per second {@link HandAnalyser} and {@link HandEvaluator} can rank.
+ * <p>
+ * Both run over the same random hands, with warm-up rounds first so the timed rounds are JIT compiled.
+ * @author Jeremy Collette
+ */
+public class HandEvaluatorBenchmark {
+
+    private static final int NUM_HANDS = 1 << 16;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    /* Written to so the JIT can't throw the work away */
+    private static long sink;
+
+    public static void main(String[] args)
+    {
+        Random rnd = new Random(42);
+        long[] masks = new long[NUM_HANDS];
+        CardSet[] boards = new CardSet[NUM_HANDS];
+        CardSet[] holes = new CardSet[NUM_HANDS];
+        int[] deck = new int[CardMask.NUM_CARDS];
+        int k = 0;
+        for (int s = 0; s < CardMask.NUM_SUITS; s++)
+        {
+            for (int r = 0; r < CardMask.NUM_RANKS; r++)
+            {
+                deck[k++] = CardMask.index(s, r);
+            }
+        }
+
+        for (int h = 0; h < NUM_HANDS; h++)
+        {
+            for (int i = 0; i < 7; i++)
+            {
+                int j = i + rnd.nextInt(deck.length - i);
+                int t = deck[i]; deck[i] = deck[j]; deck[j] = t;
+            }
+            Card[] board = new Card[5];
+            for (int i = 0; i < 5; i++)
+            {
+                board[i] = CardMask.toCard(deck[i]);
+            }
+            Card[] hole = new Card[]{CardMask.toCard(deck[5]), CardMask.toCard(deck[6])};
+            boards[h] = new CardSet(board);
+            holes[h] = new CardSet(hole);
+            masks[h] = CardMask.of(board) | CardMask.of(hole);
+        }
+        HandEvaluator.init();
+
+        double analyser = 0, evaluator = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            for (int h = 0; h < NUM_HANDS; h++)
+            {
+                Hand hand = HandAnalyser.getBestHand(null, boards[h], holes[h]);
+                sink += hand.hashCode();
+            }
+            long mid = System.nanoTime();
+            for (int h = 0; h < NUM_HANDS; h++)
+            {
+                sink += HandEvaluator.evaluate(masks[h]);
+            }
+            long end = System.nanoTime();
+
+            if (round >= WARMUP_ROUNDS)
+            {
+                analyser += NUM_HANDS / ((mid - start) / 1e9);
+                evaluator += NUM_HANDS / ((end - mid) / 1e9);
+            }
+        }
+
+        analyser /= ROUNDS;
+        evaluator /= ROUNDS;
+        System.out.println(String.format("HandAnalyser:  %,.0f hands/s", analyser));
+        System.out.println(String.format("HandEvaluator: %,.0f hands/s", evaluator));
+        System.out.println(String.format("Speedup: %.1fx", evaluator / analyser));
+        System.out.println("(sink "+sink+")");
+    }
+
+}
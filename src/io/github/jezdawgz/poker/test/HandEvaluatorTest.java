@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.CardMask;
+import io.github.jezdawgz.poker.client.HandEvaluator;
+import io.github.jezdawgz.poker.client.Utils;
+import io.github.jezdawgz.poker.server.Card;
+import io.github.jezdawgz.poker.server.Card.CardSet;
+import io.github.jezdawgz.poker.server.Hand;
+import io.github.jezdawgz.poker.server.HandAnalyser;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Checks {@link HandEvaluator} against {@link HandAnalyser} and {@link Hand.HandComparator} over every 7 card hand,
+ * and against a plain best-five-cards evaluator over 5, 6 and 7 card hands.
+ * <p>
+ * First a table file with a corrupt length is left in the data directory, and the evaluator must throw it away
+ * and build the tables again rather than fail to load. Then every 5 card hand and a random sample of 6 and 7 card
+ * hands are ranked by both evaluators, sorted together by the plain evaluator's rank, and every hand must rank
+ * the same way against the next - so the order is checked across categories and hand sizes, not just between
+ * neighbouring hands of one size. Last, each worker walks the 7 card hands starting with one pair of cards and
+ * checks that {@link HandAnalyser} and the evaluator order every hand the same way against the hand before it.
+ * Pass a number as the first argument to only check every n-th hand, and the number of 6 and 7 card hands to
+ * sample as the second.
+ * @author Jeremy Collette
+ */
+public class HandEvaluatorTest {
+
+    private static final Hand.HandComparator COMPARATOR = new Hand.HandComparator();
+    private static final int[] DECK = new int[CardMask.NUM_CARDS];
+
+    private static int comparatorSign;
+
+    public static void main(String[] args) throws Exception
+    {
+        final int stride = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        int k = 0;
+        for (int s = 0; s < CardMask.NUM_SUITS; s++)
+        {
+            for (int r = 0; r < CardMask.NUM_RANKS; r++)
+            {
+                DECK[k++] = CardMask.index(s, r);
+            }
+        }
+
+        /* Work out which way round HandComparator orders a royal flush and a nine high */
+        Hand royal = analyse(new int[]{DECK[8], DECK[9], DECK[10], DECK[11], DECK[12], DECK[13], DECK[27]});
+        Hand nine = analyse(new int[]{DECK[0], DECK[14], DECK[28], DECK[3], DECK[44], DECK[19], DECK[33]});
+        comparatorSign = Integer.signum(COMPARATOR.compare(royal, nine));
+
+        /* A length this big would run out of memory if it were believed */
+        File tables = new File(Utils.getDataDirectory(), "handranks.dat");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tables)))
+        {
+            out.writeInt(0x504B4852);
+            out.writeInt(1);
+            out.writeInt(4);
+            out.writeInt(Integer.MAX_VALUE - 8);
+        }
+        HandEvaluator.init();
+        int royalRank = HandEvaluator.evaluate(mask(new int[]{DECK[8], DECK[9], DECK[10], DECK[11], DECK[12]}));
+        if (HandEvaluator.category(royalRank) != HandEvaluator.STRAIGHT_FLUSH)
+        {
+            System.out.println("Corrupt table file: a royal flush came out as "+HandEvaluator.describe(royalRank));
+            System.exit(1);
+        }
+        System.out.println("Corrupt table file: rebuilt");
+
+        long crossMismatches = checkAgainstReference(samples);
+        if (crossMismatches > 0)
+        {
+            System.out.println("Mismatches against the plain evaluator: "+crossMismatches);
+            System.exit(1);
+        }
+
+        final AtomicLong checked = new AtomicLong();
+        final AtomicLong mismatches = new AtomicLong();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int a = 0; a < CardMask.NUM_CARDS; a++)
+        {
+            for (int b = a + 1; b < CardMask.NUM_CARDS; b++)
+            {
+                final int first = a, second = b;
+                results.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run() {
+                        checkFrom(first, second, stride, checked, mismatches);
+                    }
+                }));
+            }
+        }
+
+        for (Future<?> f : results)
+        {
+            f.get();
+        }
+        pool.shutdown();
+
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.println("Checked "+checked.get()+" hands on "+threads+" threads in "+String.format("%.1f", secs)+"s");
+        System.out.println("Mismatches: "+mismatches.get());
+        if (mismatches.get() > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void checkFrom(int a, int b, int stride, AtomicLong checked, AtomicLong mismatches)
+    {
+        int[] hand = new int[7];
+        hand[0] = DECK[a];
+        hand[1] = DECK[b];
+        Hand prevHand = null;
+        int prevRank = 0;
+        long prevMask = 0;
+        long n = 0, count = 0;
+
+        for (int c = b + 1; c < CardMask.NUM_CARDS; c++)
+        {
+            for (int d = c + 1; d < CardMask.NUM_CARDS; d++)
+            {
+                for (int e = d + 1; e < CardMask.NUM_CARDS; e++)
+                {
+                    for (int f = e + 1; f < CardMask.NUM_CARDS; f++)
+                    {
+                        for (int g = f + 1; g < CardMask.NUM_CARDS; g++)
+                        {
+                            if (n++ % stride != 0)
+                            {
+                                continue;
+                            }
+                            hand[2] = DECK[c]; hand[3] = DECK[d]; hand[4] = DECK[e]; hand[5] = DECK[f]; hand[6] = DECK[g];
+
+                            long mask = 0;
+                            for (int i : hand)
+                            {
+                                mask |= CardMask.of(i);
+                            }
+                            Hand h = analyse(hand);
+                            int rank = HandEvaluator.evaluate(mask);
+
+                            if (prevHand != null)
+                            {
+                                int expected = comparatorSign * Integer.signum(COMPARATOR.compare(h, prevHand));
+                                int actual = Integer.signum(Integer.compare(rank, prevRank));
+                                if (expected != actual && mismatches.incrementAndGet() <= 20)
+                                {
+                                    System.out.println("Mismatch: "+CardMask.toString(mask)+" vs "+CardMask.toString(prevMask)
+                                            +" - HandComparator says "+expected+", HandEvaluator says "+actual);
+                                }
+                            }
+                            prevHand = h;
+                            prevRank = rank;
+                            prevMask = mask;
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        checked.addAndGet(count);
+    }
+
+    /**
+     * Ranks every 5 card hand and a sample of 6 and 7 card hands both ways, and checks the two orders agree
+     * @return The number of mismatches
+     */
+    private static long checkAgainstReference(int samples)
+    {
+        long start = System.nanoTime();
+        int fives = 2598960;
+        long[] keys = new long[fives + 2 * samples];
+        int n = 0;
+        int[] hand = new int[7];
+        for (int a = 0; a < CardMask.NUM_CARDS; a++)
+        {
+            for (int b = a + 1; b < CardMask.NUM_CARDS; b++)
+            {
+                for (int c = b + 1; c < CardMask.NUM_CARDS; c++)
+                {
+                    for (int d = c + 1; d < CardMask.NUM_CARDS; d++)
+                    {
+                        for (int e = d + 1; e < CardMask.NUM_CARDS; e++)
+                        {
+                            hand[0] = a; hand[1] = b; hand[2] = c; hand[3] = d; hand[4] = e;
+                            keys[n++] = key(hand, 5);
+                        }
+                    }
+                }
+            }
+        }
+
+        Random random = new Random(27);
+        int[] deck = new int[CardMask.NUM_CARDS];
+        for (int i = 0; i < deck.length; i++)
+        {
+            deck[i] = i;
+        }
+        for (int size = 6; size <= 7; size++)
+        {
+            for (int i = 0; i < samples; i++)
+            {
+                for (int j = 0; j < size; j++)
+                {
+                    int k = j + random.nextInt(deck.length - j);
+                    int t = deck[j];
+                    deck[j] = deck[k];
+                    deck[k] = t;
+                    hand[j] = deck[j];
+                }
+                keys[n++] = key(hand, size);
+            }
+        }
+
+        /* Sorted by the plain rank, so checking each hand against the next checks the whole order */
+        Arrays.sort(keys, 0, n);
+        long mismatches = 0;
+        int[] categories = new int[HandEvaluator.STRAIGHT_FLUSH + 1];
+        for (int i = 0; i < n; i++)
+        {
+            int expectedCategory = (int)(keys[i] >>> 52);
+            int rank = (int)keys[i];
+            categories[expectedCategory]++;
+            if (HandEvaluator.category(rank) != expectedCategory && mismatches++ < 20)
+            {
+                System.out.println("Category: expected "+expectedCategory+", HandEvaluator says "+HandEvaluator.describe(rank));
+            }
+            if (i > 0)
+            {
+                boolean sameReference = keys[i] >>> 32 == keys[i - 1] >>> 32;
+                int previous = (int)keys[i - 1];
+                if ((sameReference ? rank != previous : rank <= previous) && mismatches++ < 20)
+                {
+                    System.out.println("Order: "+HandEvaluator.describe(rank)+" ("+rank+") after "
+                            +HandEvaluator.describe(previous)+" ("+previous+") should "+(sameReference ? "tie" : "win"));
+                }
+            }
+        }
+        for (int c = 0; c < categories.length; c++)
+        {
+            if (categories[c] == 0 && mismatches++ < 20)
+            {
+                System.out.println("No hands of category "+c+" were checked");
+            }
+        }
+        System.out.println("Checked "+n+" 5, 6 and 7 card hands against the plain evaluator in "
+                +String.format("%.1f", (System.nanoTime() - start) / 1e9)+"s");
+        return mismatches;
+    }
+
+    /**
+     * Packs the plain rank of a hand above the evaluator's, so sorting orders hands by the plain rank
+     */
+    private static long key(int[] hand, int size)
+    {
+        int best = 0;
+        int[] five = new int[5];
+        for (int skip = 0; skip < 1 << size; skip++)
+        {
+            if (Integer.bitCount(skip) != size - 5)
+            {
+                continue;
+            }
+            int k = 0;
+            for (int i = 0; i < size; i++)
+            {
+                if ((skip & (1 << i)) == 0)
+                {
+                    five[k++] = hand[i];
+                }
+            }
+            best = Math.max(best, rankFive(five));
+        }
+        long mask = 0;
+        for (int i = 0; i < size; i++)
+        {
+            mask |= CardMask.of(DECK[hand[i]]);
+        }
+        return (long)best << 32 | (HandEvaluator.evaluate(mask) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Ranks five cards the slow, obvious way: the category, then the deciding ranks from most to least important
+     * @param five Cards as indexes into {@link #DECK}, which runs two to ace in each suit
+     */
+    private static int rankFive(int[] five)
+    {
+        int[] counts = new int[CardMask.NUM_RANKS];
+        boolean flush = true;
+        int rankBits = 0;
+        for (int c : five)
+        {
+            counts[c % CardMask.NUM_RANKS]++;
+            rankBits |= 1 << (c % CardMask.NUM_RANKS);
+            flush &= c / CardMask.NUM_RANKS == five[0] / CardMask.NUM_RANKS;
+        }
+        int straightHigh = -1;
+        for (int high = CardMask.NUM_RANKS - 1; high >= 4 && straightHigh < 0; high--)
+        {
+            if ((rankBits >> (high - 4) & 0x1F) == 0x1F)
+            {
+                straightHigh = high;
+            }
+        }
+        if (straightHigh < 0 && rankBits == (1 << 12 | 0xF))
+        {
+            /* Ace to five */
+            straightHigh = 3;
+        }
+
+        /* Ranks with more cards first, then higher ranks first */
+        int[] order = new int[5];
+        int distinct = 0;
+        for (int count = 4; count >= 1; count--)
+        {
+            for (int r = CardMask.NUM_RANKS - 1; r >= 0; r--)
+            {
+                if (counts[r] == count)
+                {
+                    order[distinct++] = r;
+                }
+            }
+        }
+        int top = counts[order[0]], second = distinct > 1 ? counts[order[1]] : 0;
+
+        int category;
+        if (straightHigh >= 0)
+        {
+            category = flush ? HandEvaluator.STRAIGHT_FLUSH : HandEvaluator.STRAIGHT;
+            order[0] = straightHigh;
+            distinct = 1;
+        }
+        else if (top == 4)
+        {
+            category = HandEvaluator.FOUR_OF_A_KIND;
+        }
+        else if (top == 3 && second == 2)
+        {
+            category = HandEvaluator.FULL_HOUSE;
+        }
+        else if (flush)
+        {
+            category = HandEvaluator.FLUSH;
+        }
+        else if (top == 3)
+        {
+            category = HandEvaluator.THREE_OF_A_KIND;
+        }
+        else if (top == 2 && second == 2)
+        {
+            category = HandEvaluator.TWO_PAIR;
+        }
+        else if (top == 2)
+        {
+            category = HandEvaluator.PAIR;
+        }
+        else
+        {
+            category = HandEvaluator.HIGH_CARD;
+        }
+
+        int rank = category;
+        for (int i = 0; i < 5; i++)
+        {
+            rank = rank * 16 + (i < distinct ? order[i] + 1 : 0);
+        }
+        return rank;
+    }
+
+    private static long mask(int[] hand)
+    {
+        long mask = 0;
+        for (int i : hand)
+        {
+            mask |= CardMask.of(i);
+        }
+        return mask;
+    }
+
+    private static Hand analyse(int[] hand)
+    {
+        Card[] hole = new Card[]{CardMask.toCard(hand[0]), CardMask.toCard(hand[1])};
+        Card[] board = new Card[5];
+        for (int i = 0; i < 5; i++)
+        {
+            board[i] = CardMask.toCard(hand[i + 2]);
+        }
+        return HandAnalyser.getBestHand(null, new CardSet(board), new CardSet(hole));
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.HandHistoryStore;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+
+/**
+ * Writes random hands to a {@link HandHistoryStore} and checks its scans add up to the same totals as the
+ * hands that went in, then times full and filtered scans.
+ * Pass the number of hands and a directory to put the store in (it is deleted first).
+ * @author Jeremy Collette
+ */
+public class HandHistoryTest {
+
+    private static final String[] PLAYERS = {"alice", "bob", "carol", "dave", "erin", "frank", "grace", "heidi", "ivan", "judy"};
+
+    public static void main(String[] args) throws IOException
+    {
+        int hands = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        File dir = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir") + File.separator + "handhistorytest");
+        File[] old = dir.listFiles();
+        if (old != null)
+        {
+            for (File f : old)
+            {
+                f.delete();
+            }
+        }
+
+        Random rnd = new Random(1);
+        long[] invested = new long[PLAYERS.length];
+        long[] won = new long[PLAYERS.length];
+        long[] rows = new long[PLAYERS.length];
+        long start = System.nanoTime();
+        long lateRows = 0;
+
+        HandHistoryStore store = new HandHistoryStore(dir);
+        for (int h = 0; h < hands; h++)
+        {
+            int n = 2 + rnd.nextInt(7);
+            int first = rnd.nextInt(PLAYERS.length);
+            HandHistoryStore.Hand hand = new HandHistoryStore.Hand();
+            hand.time = h;
+            hand.board = rnd.nextLong() & 0x1FFF1FFF1FFF1FFFL;
+            hand.players = new String[n];
+            hand.positions = new int[n];
+            hand.actions = new int[n][HandHistoryStore.NUM_STREETS];
+            hand.invested = new int[n];
+            hand.won = new int[n];
+            hand.hole = new long[n];
+            int winner = rnd.nextInt(n);
+            int pot = 0;
+            for (int i = 0; i < n; i++)
+            {
+                int p = (first + i) % PLAYERS.length;
+                hand.players[i] = PLAYERS[p];
+                hand.positions[i] = i;
+                hand.actions[i][HandHistoryStore.PRE_FLOP] = rnd.nextBoolean() ? HandHistoryStore.CALL : HandHistoryStore.FOLD;
+                hand.invested[i] = rnd.nextInt(500);
+                pot += hand.invested[i];
+                invested[p] += hand.invested[i];
+                rows[p]++;
+                if (h >= hands / 2)
+                {
+                    lateRows++;
+                }
+            }
+            hand.won[winner] = pot;
+            won[(first + winner) % PLAYERS.length] += pot;
+            store.record(hand);
+        }
+        store.flush();
+        long written = System.nanoTime() - start;
+        store.close();
+
+        long size = new File(dir, "hands.col").length();
+        System.out.println("Wrote "+hands+" hands in "+written / 1000000+"ms, "+size / 1024+"KB ("+
+                String.format("%.1f", (double)size / hands)+" bytes a hand)");
+
+        /* Reopen to read it back the way a later session would */
+        store = new HandHistoryStore(dir);
+        int failures = 0;
+        for (int p = 0; p < PLAYERS.length; p++)
+        {
+            HandHistoryStore.Filter f = new HandHistoryStore.Filter();
+            f.player = PLAYERS[p];
+            start = System.nanoTime();
+            HandHistoryStore.Summary s = store.summarise(f);
+            long took = System.nanoTime() - start;
+            if (s.rows != rows[p] || s.invested != invested[p] || s.won != won[p])
+            {
+                failures++;
+                System.out.println(PLAYERS[p]+": expected "+rows[p]+" rows, "+invested[p]+" in, "+won[p]+" won but got "+s);
+            }
+            else
+            {
+                System.out.println(PLAYERS[p]+": "+s+" in "+took / 1000000+"ms");
+            }
+        }
+
+        /* The second half of the hands only - zone maps should skip the first half's blocks */
+        HandHistoryStore.Filter late = new HandHistoryStore.Filter();
+        late.minTime = hands / 2;
+        start = System.nanoTime();
+        HandHistoryStore.Summary s = store.summarise(late);
+        System.out.println("Second half: "+s+" in "+(System.nanoTime() - start) / 1000000+"ms");
+        if (s.rows != lateRows)
+        {
+            failures++;
+            System.out.println("Expected "+lateRows+" rows in the second half");
+        }
+        store.close();
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.IcmCalculator;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks {@link IcmCalculator} against the Malmuth-Harville model worked out the slow way, and times it.
+ * <p>
+ * For random stacks (some of them empty) and payout structures at up to 7 players, every finishing order is
+ * walked and weighted by the chance of it happening, and each player's equity must match the calculator's.
+ * Cached results must match too. Then the equities of 8 players' stacks, each set new so the cache can't
+ * help, must take well under a millisecond on average.
+ * Pass the number of random cases to check.
+ * @author Jeremy Collette
+ */
+public class IcmCalculatorTest {
+
+    /** Longest an 8 player calculation may take on average */
+    private static final long MAX_NANOS = 200000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args)
+    {
+        int cases = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Random random = new Random(33);
+
+        for (int c = 0; c < cases; c++)
+        {
+            int players = 1 + random.nextInt(7);
+            int[] stacks = new int[players];
+            for (int i = 0; i < players; i++)
+            {
+                stacks[i] = random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(5000);
+            }
+            double[] payouts = new double[1 + random.nextInt(players + 1)];
+            for (int i = 0; i < payouts.length; i++)
+            {
+                payouts[i] = random.nextInt(100);
+            }
+
+            IcmCalculator icm = new IcmCalculator(payouts);
+            double[] expected = new double[players];
+            harville(stacks, payouts, new boolean[players], 0, 1, expected);
+            check("case "+c, stacks, payouts, icm.equities(stacks), expected);
+            check("case "+c+" cached", stacks, payouts, icm.equities(stacks), expected);
+        }
+
+        /* The cache is no help here - every set of stacks is new */
+        IcmCalculator icm = new IcmCalculator(IcmCalculator.parsePayouts("50,30,20"));
+        int[] stacks = new int[8];
+        int runs = 20000;
+        long nanos = 0;
+        for (int round = 0; round < 2; round++)
+        {
+            /* The first round warms up the JIT */
+            long start = System.nanoTime();
+            for (int r = 0; r < runs; r++)
+            {
+                for (int i = 0; i < stacks.length; i++)
+                {
+                    stacks[i] = 1 + random.nextInt(10000);
+                }
+                icm.equities(stacks);
+            }
+            nanos = System.nanoTime() - start;
+        }
+        System.out.println("8 players: "+String.format("%.1f", nanos / 1000.0 / runs)+"us per calculation");
+        if (nanos / runs > MAX_NANOS)
+        {
+            fail("8 players took "+nanos / runs / 1000+"us on average, more than "+MAX_NANOS / 1000+"us");
+        }
+
+        if (failures == 0)
+        {
+            System.out.println("OK");
+        }
+        else
+        {
+            System.out.println(failures+" failures");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Walks every finishing order of the players not yet placed. Each next place goes to a player with chance
+     * proportional to their stack among those left.
+     */
+    private static void harville(int[] stacks, double[] payouts, boolean[] placed, int place, double chance, double[] equity)
+    {
+        double left = 0;
+        for (int i = 0; i < stacks.length; i++)
+        {
+            left += placed[i] ? 0 : stacks[i];
+        }
+        if (left == 0)
+        {
+            return;
+        }
+        for (int i = 0; i < stacks.length; i++)
+        {
+            if (placed[i] || stacks[i] == 0)
+            {
+                continue;
+            }
+            double p = chance * stacks[i] / left;
+            equity[i] += p * (place < payouts.length ? payouts[place] : 0);
+            placed[i] = true;
+            harville(stacks, payouts, placed, place + 1, p, equity);
+            placed[i] = false;
+        }
+    }
+
+    private static void check(String name, int[] stacks, double[] payouts, double[] actual, double[] expected)
+    {
+        for (int i = 0; i < expected.length; i++)
+        {
+            if (Math.abs(actual[i] - expected[i]) > 1e-9 * Math.max(1, Math.abs(expected[i])))
+            {
+                fail(name+": stacks "+Arrays.toString(stacks)+", payouts "+Arrays.toString(payouts)
+                        +": seat "+i+" has "+actual[i]+", expected "+expected[i]);
+                return;
+            }
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.LogIndex;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Checks that {@link LogIndex} finds the same lines as a plain scan once they've been flushed to segments and
+ * merged in the background.
+ * <p>
+ * Enough lines are added for the background thread to merge segments twice over, into one segment of
+ * {@value LogIndex#FLUSH_LINES} times {@value LogIndex#MERGE_FACTOR} squared lines, plus some left in memory.
+ * Queries with common and rare words, phrases and time ranges are then checked against a scan of the lines,
+ * newest first, while some lines are still in memory, after everything is flushed, and after the index is
+ * reopened from its files. After the flush there must be exactly the segment files the merges leave behind.
+ * Pass the number of extra lines to add past the first merge of merges.
+ * @author Jeremy Collette
+ */
+public class LogIndexTest {
+
+    private static int failures = 0;
+
+    private static final String[] NAMES = {"alice", "bob", "carol", "dave", "erin", "frank", "grace"};
+
+    public static void main(String[] args) throws IOException
+    {
+        int extra = args.length > 0 ? Integer.parseInt(args[0]) : LogIndex.FLUSH_LINES + 100;
+        int count = LogIndex.FLUSH_LINES * LogIndex.MERGE_FACTOR * LogIndex.MERGE_FACTOR + extra;
+        File dir = File.createTempFile("logindextest", "");
+        dir.delete();
+
+        List<String> lines = new ArrayList<>();
+        LogIndex index = new LogIndex(dir);
+        for (int i = 0; i < count; i++)
+        {
+            /* Every word but "hand" is in some lines and not others, and "line<i>" is in just one */
+            String line = "Hand "+i / 50+": "+NAMES[i % NAMES.length]+" wins "+(i % 13) * 10+" chips, line"+i;
+            lines.add(line);
+            index.add(1000L + i, line);
+        }
+
+        check(index, lines, "with lines in memory");
+        index.flush();
+        check(index, lines, "flushed");
+
+        String[] files = dir.list(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(".idx") || name.endsWith(".tmp");
+            }
+        });
+        int expected = 0;
+        for (int flushes = (count + LogIndex.FLUSH_LINES - 1) / LogIndex.FLUSH_LINES; flushes > 0; flushes /= LogIndex.MERGE_FACTOR)
+        {
+            expected += flushes % LogIndex.MERGE_FACTOR;
+        }
+        if (files == null || files.length != expected)
+        {
+            fail("merges: expected "+expected+" segment files after the merges, found "+(files == null ? 0 : files.length));
+        }
+
+        index.close();
+        index = new LogIndex(dir);
+        check(index, lines, "reopened");
+        index.close();
+
+        for (File f : dir.listFiles())
+        {
+            f.delete();
+        }
+        dir.delete();
+
+        if (failures == 0)
+        {
+            System.out.println("OK");
+        }
+        else
+        {
+            System.out.println(failures+" failures");
+            System.exit(1);
+        }
+    }
+
+    private static void check(LogIndex index, List<String> lines, String when)
+    {
+        int n = lines.size();
+        long first = 1000L, last = 1000L + n - 1;
+        expect(index, lines, when, "hand", first, last, n);
+        expect(index, lines, when, "Bob", first, last, 100);
+        expect(index, lines, when, "bob wins", first + 3 * n / 4, last, n);
+        expect(index, lines, when, "\"carol wins 70\"", first, last, n);
+        expect(index, lines, when, "\"wins 70 carol\"", first, last, n);
+        expect(index, lines, when, "grace \"120 chips\"", first + n / 3, first + 2 * n / 3, 25);
+        expect(index, lines, when, "line"+n / 2, first, last, 10);
+        expect(index, lines, when, "line"+(n - 1)+" line0", first, last, 10);
+        expect(index, lines, when, "frank nobody", first, last, 10);
+        expect(index, lines, when, "alice", last + 1, last + 100, 10);
+    }
+
+    /**
+     * Checks a search against a scan of the lines, newest first
+     */
+    private static void expect(LogIndex index, List<String> lines, String when, String query, long from, long to, int limit)
+    {
+        List<String> want = new ArrayList<>();
+        for (int i = lines.size() - 1; i >= 0 && want.size() < limit; i--)
+        {
+            long time = 1000L + i;
+            if (time >= from && time <= to && matches(query, lines.get(i)))
+            {
+                want.add(time+" "+lines.get(i));
+            }
+        }
+        List<String> got = new ArrayList<>();
+        for (LogIndex.Hit h : index.search(query, from, to, limit))
+        {
+            got.add(h.time+" "+h.line);
+        }
+        if (!got.equals(want))
+        {
+            fail(when+": '"+query+"' found "+got.size()+" lines, expected "+want.size()
+                    +(got.isEmpty() ? "" : ", first "+got.get(0))+(want.isEmpty() ? "" : ", expected first "+want.get(0)));
+        }
+    }
+
+    /**
+     * The query's words all have to be in the line, and quoted phrases have to be there together
+     */
+    private static boolean matches(String query, String line)
+    {
+        String words = " "+normalise(line)+" ";
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++)
+        {
+            String part = normalise(parts[i]);
+            if (part.isEmpty())
+            {
+                continue;
+            }
+            if (i % 2 == 1)
+            {
+                if (!words.contains(" "+part+" "))
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                for (String w : part.split(" "))
+                {
+                    if (!words.contains(" "+w+" "))
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String normalise(String text)
+    {
+        return text.toLowerCase().replaceAll("[^a-z0-9]+", " ").trim();
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.CardMask;
+import io.github.jezdawgz.poker.client.EventRing;
+import io.github.jezdawgz.poker.client.Metrics;
+import io.github.jezdawgz.poker.client.ObserverRelay;
+import io.github.jezdawgz.poker.server.Event;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Checks what {@link ObserverRelay} sends its viewers.
+ * <p>
+ * A viewer that joins part way through a hand must first get a snapshot of the table as it is, then the events
+ * after it in order. Our hole cards must be left out of the snapshot and the events unless the relay is told to
+ * show them. A viewer with the wrong token must be turned away. A viewer that stops reading must be resynced with
+ * a fresh snapshot once it is too far behind, and after each snapshot it must get every event in order.
+ * Pass the number of chat messages to flood the stalled viewer with.
+ * @author Jeremy Collette
+ */
+public class ObserverRelayTest {
+
+    private static final String TOKEN = "let me watch";
+    private static final String[] NAMES = {"alice", "us", "carol"};
+    private static final int US = 1;
+    private static final int MESSAGE_BYTES = 1000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int flood = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        for (boolean showHole : new boolean[]{false, true})
+        {
+            String name = showHole ? "showing hole cards" : "hiding hole cards";
+            ObserverRelay relay = new ObserverRelay(0, "test", showHole, TOKEN, ObserverRelay.DEFAULT_BUFFER);
+            startHand(relay);
+
+            /* The wrong token is turned away */
+            Viewer intruder = new Viewer(relay, "let me in", 0);
+            try
+            {
+                intruder.read();
+                fail(name+": a viewer with the wrong token was let in");
+            }
+            catch(EOFException | SocketException e)
+            {
+                /* Turned away */
+            }
+            intruder.close();
+
+            /* Joining part way through the hand starts with a snapshot */
+            Viewer viewer = new Viewer(relay, TOKEN, 0);
+            Frame f = viewer.read();
+            checkSnapshot(name, f, showHole);
+            waitForViewers(relay, 1);
+            if (relay.getNumViewers() != 1 || counter(Metrics.RELAY_VIEWERS) != 1)
+            {
+                fail(name+": "+relay.getNumViewers()+" viewers and "+counter(Metrics.RELAY_VIEWERS)+" counted, expected 1");
+            }
+
+            /* Then the events, with our hole cards only if they are shown */
+            relay.receiveEvent(TestEvents.bet(0, 60, 940, 90, 100));
+            relay.receiveEvent(TestEvents.newRound(1));
+            relay.receiveEvent(TestEvents.holeCard("Qh"));
+            relay.receiveEvent(TestEvents.holeCard("Qs"));
+            relay.receiveEvent(TestEvents.turn(2));
+            expect(name, viewer.read(), EventRing.BET, "bet: seat 0, total 60, remaining 940, pot 90, min raise to 100");
+            expect(name, viewer.read(), EventRing.NEW_HAND, "new hand: dealer 1");
+            if (showHole)
+            {
+                expect(name, viewer.read(), EventRing.HOLE_CARD, "hole card Qh");
+                expect(name, viewer.read(), EventRing.HOLE_CARD, "hole card Qs");
+            }
+            expect(name, viewer.read(), EventRing.TURN, "turn: seat 2");
+
+            relay.close();
+            viewer.close();
+            waitForViewers(relay, 0);
+        }
+
+        stalledViewer(flood);
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A viewer stops reading while the table keeps going. It must be sent a snapshot in place of what it
+     * couldn't keep up with, and every event after that.
+     */
+    private static void stalledViewer(int flood) throws IOException, InterruptedException
+    {
+        long resyncsBefore = counter(Metrics.RELAY_RESYNCS);
+        ObserverRelay relay = new ObserverRelay(0, "test", false, TOKEN, 16 * 1024);
+        startHand(relay);
+        Viewer viewer = new Viewer(relay, TOKEN, 4096);
+        checkSnapshot("stalled", viewer.read(), false);
+        waitForViewers(relay, 1);
+
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < MESSAGE_BYTES)
+        {
+            padding.append('x');
+        }
+        for (int i = 0; i < flood; i++)
+        {
+            relay.receiveEvent(new Event.NewMessageEvent(i+" "+padding));
+        }
+        relay.receiveEvent(TestEvents.gameOver(0));
+        long resyncs = counter(Metrics.RELAY_RESYNCS) - resyncsBefore;
+        if (resyncs == 0)
+        {
+            fail("stalled: the viewer was never resynced");
+        }
+
+        /* Messages must follow on from each other except straight after a snapshot */
+        int next = 0, received = 0, snapshots = 0;
+        boolean afterSnapshot = false;
+        while (true)
+        {
+            Frame f = viewer.read();
+            if (f.type == EventRing.SNAPSHOT)
+            {
+                checkSnapshot("stalled", f, false);
+                snapshots++;
+                afterSnapshot = true;
+                continue;
+            }
+            if (f.type == EventRing.GAME_OVER)
+            {
+                break;
+            }
+            String text = EventRing.getString(f.payload);
+            int n = Integer.parseInt(text.substring(0, text.indexOf(' ')));
+            if (n != next && !(afterSnapshot && n > next))
+            {
+                fail("stalled: message "+n+" arrived when "+next+" was next, with no snapshot in between");
+            }
+            next = n + 1;
+            received++;
+            afterSnapshot = false;
+        }
+        if (snapshots == 0)
+        {
+            fail("stalled: "+resyncs+" resyncs counted but no snapshot arrived");
+        }
+        System.out.printf("Stalled viewer: %,d messages sent, %,d received, %d resyncs, %d snapshots%n", flood, received,
+                resyncs, snapshots);
+        relay.close();
+        viewer.close();
+    }
+
+    /**
+     * Starts a game and a hand, and deals the flop
+     */
+    private static void startHand(ObserverRelay relay)
+    {
+        relay.receiveEvent(TestEvents.newGame(US, NAMES, 1000, 10, 20));
+        relay.receiveEvent(TestEvents.newRound(0));
+        relay.receiveEvent(TestEvents.holeCard("As"));
+        relay.receiveEvent(TestEvents.holeCard("Kd"));
+        relay.receiveEvent(TestEvents.blind(US, 10, 990, 10));
+        relay.receiveEvent(TestEvents.blind(2, 20, 980, 30));
+        relay.receiveEvent(TestEvents.bet(0, 20, 980, 50, 40));
+        relay.receiveEvent(TestEvents.bet(US, 20, 980, 60, 40));
+        relay.receiveEvent(TestEvents.check(2));
+        relay.receiveEvent(TestEvents.boardCard("2c"));
+        relay.receiveEvent(TestEvents.boardCard("7d"));
+        relay.receiveEvent(TestEvents.boardCard("9h"));
+    }
+
+    /**
+     * Checks a snapshot of the table from {@link #startHand(ObserverRelay)}
+     */
+    private static void checkSnapshot(String name, Frame f, boolean showHole)
+    {
+        if (f.type != EventRing.SNAPSHOT)
+        {
+            fail(name+": expected a snapshot, got type "+f.type);
+            return;
+        }
+        ByteBuffer p = f.payload;
+        int hand = p.getInt(), seat = p.getInt(), players = p.getInt(), dealer = p.getInt();
+        int smallBlind = p.getInt(), bigBlind = p.getInt(), currentBet = p.getInt(), minTotalBet = p.getInt();
+        int pot = p.getInt();
+        long board = p.getLong(), hole = p.getLong();
+        if (hand != 1 || seat != US || players != NAMES.length || dealer != 0 || smallBlind != 10 || bigBlind != 20
+                || currentBet != 0 || minTotalBet != 20 || pot != 60)
+        {
+            fail(name+": snapshot has hand "+hand+", seat "+seat+", "+players+" players, dealer "+dealer+", blinds "
+                    +smallBlind+"/"+bigBlind+", bet "+currentBet+", min raise to "+minTotalBet+", pot "+pot);
+        }
+        if (board != CardMask.parse("2c7d9h"))
+        {
+            fail(name+": snapshot board is "+CardMask.toString(board));
+        }
+        if (hole != (showHole ? CardMask.parse("AsKd") : 0))
+        {
+            fail(name+": snapshot hole cards are "+CardMask.toString(hole));
+        }
+        for (int s = 0; s < players; s++)
+        {
+            int stack = p.getInt(), onTable = p.getInt(), folded = p.getInt();
+            String player = EventRing.getString(p);
+            if (stack != 980 || onTable != 0 || folded != 0 || !player.equals(NAMES[s]))
+            {
+                fail(name+": snapshot seat "+s+" is "+player+" with "+stack+", "+onTable+" on the table, folded "+folded);
+            }
+        }
+    }
+
+    private static void expect(String name, Frame f, int type, String description)
+    {
+        String got = f.type == EventRing.SNAPSHOT ? "snapshot" : EventRing.describe(f.type, f.payload);
+        if (f.type != type || !got.equals(description))
+        {
+            fail(name+": got \""+got+"\", expected \""+description+"\"");
+        }
+    }
+
+    private static void waitForViewers(ObserverRelay relay, int viewers) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((relay.getNumViewers() != viewers || counter(Metrics.RELAY_VIEWERS) != viewers)
+                && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    private static long counter(String name)
+    {
+        Object v = Metrics.get().snapshot().get(name);
+        return v == null ? 0 : (Long)v;
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * One frame from the relay
+     */
+    private static final class Frame
+    {
+        final int type;
+        final ByteBuffer payload;
+
+        Frame(int type, ByteBuffer payload)
+        {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A viewer connected to a relay
+     */
+    private static final class Viewer
+    {
+        private final Socket socket;
+        private final DataInputStream in;
+
+        /**
+         * Connects and sends the token
+         * @param receiveBuffer Size of the socket's receive buffer, or 0 for the default
+         */
+        Viewer(ObserverRelay relay, String token, int receiveBuffer) throws IOException
+        {
+            socket = new Socket();
+            if (receiveBuffer > 0)
+            {
+                socket.setReceiveBufferSize(receiveBuffer);
+            }
+            socket.setSoTimeout(10000);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), relay.getPort()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            out.flush();
+            in = new DataInputStream(socket.getInputStream());
+        }
+
+        Frame read() throws IOException
+        {
+            byte[] length = new byte[4];
+            in.readFully(length);
+            byte[] frame = new byte[ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+            in.readFully(frame);
+            ByteBuffer f = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+            int type = f.getShort();
+            f.getShort();
+            return new Frame(type, f.slice().order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        void close() throws IOException
+        {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.PreActions;
+import io.github.jezdawgz.poker.client.PreActions.Action;
+import io.github.jezdawgz.poker.server.ClientCommand;
+import io.github.jezdawgz.poker.server.Event;
+
+
+/**
+ * Checks when {@link PreActions} fires an armed action and when it drops it, by feeding it the server's events
+ * the way the reader thread and the GUI do.
+ * <p>
+ * An action armed in one hand must not fire in the next, even when the reader is already in the next hand while
+ * the GUI still shows the last one. "Check" and "Call" must not fire on a later street, and "Call" must not fire
+ * once the amount to call has changed. A fired command must be handed to the GUI exactly once, for the turn
+ * event it was sent for.
+ * @author Jeremy Collette
+ */
+public class PreActionsTest {
+
+    private static final int US = 1;
+
+    private static int failures = 0;
+
+    public static void main(String[] args)
+    {
+        /* Same hand */
+        PreActions p = startHand();
+        p.arm(Action.CALL_ANY, 10);
+        p.receiveEvent(TestEvents.newRound(1));
+        check("armed in the hand before", p.receiveEvent(TestEvents.turn(US)), null);
+
+        p = startHand();
+        p.receiveEvent(TestEvents.newRound(1));
+        /* The GUI hasn't shown the new hand yet, so this is armed for the old one */
+        p.arm(Action.CHECK_FOLD, 0);
+        check("armed while the GUI lags a hand", p.receiveEvent(TestEvents.turn(US)), null);
+
+        p = startHand();
+        p.arm(Action.CALL_ANY, 10);
+        check("call any", p.receiveEvent(TestEvents.turn(US)), ClientCommand.ClientCallCommand.class);
+
+        /* Same street */
+        p = startHand();
+        callBlind(p);
+        p.arm(Action.CHECK, 0);
+        flop(p, false);
+        check("check armed before the flop", p.receiveEvent(TestEvents.turn(US)), null);
+
+        p = startHand();
+        callBlind(p);
+        p.arm(Action.CHECK, 0);
+        check("check on the same street", p.receiveEvent(TestEvents.turn(US)), ClientCommand.ClientCheckCommand.class);
+
+        p = startHand();
+        callBlind(p);
+        p.arm(Action.CHECK_FOLD, 0);
+        flop(p, false);
+        both(p, TestEvents.bet(0, 40, 900, 80, 80));
+        check("check/fold carries over to a bet on the flop", p.receiveEvent(TestEvents.turn(US)),
+                ClientCommand.ClientFoldCommand.class);
+
+        p = startHand();
+        callBlind(p);
+        p.arm(Action.CALL, 0);
+        flop(p, true);
+        check("call armed before the flop, GUI behind", p.receiveEvent(TestEvents.turn(US)), null);
+
+        /* The amount to call */
+        p = startHand();
+        p.arm(Action.CALL, 10);
+        check("call with the same amount", p.receiveEvent(TestEvents.turn(US)), ClientCommand.ClientCallCommand.class);
+
+        p = startHand();
+        p.arm(Action.CALL, 10);
+        both(p, TestEvents.bet(0, 60, 940, 90, 100));
+        check("call after a raise", p.receiveEvent(TestEvents.turn(US)), null);
+
+        p = startHand();
+        p.arm(Action.CALL_ANY, 10);
+        both(p, TestEvents.bet(0, 60, 940, 90, 100));
+        check("call any after a raise", p.receiveEvent(TestEvents.turn(US)), ClientCommand.ClientCallCommand.class);
+
+        /* Another player's turn doesn't fire it */
+        p = startHand();
+        p.arm(Action.CALL_ANY, 10);
+        check("someone else's turn", p.receiveEvent(TestEvents.turn(0)), null);
+        if (p.getArmed() != Action.CALL_ANY)
+        {
+            fail("someone else's turn: the action should still be armed, but "+p.getArmed()+" is");
+        }
+
+        /* Handing the fired command to the GUI */
+        p = startHand();
+        p.arm(Action.CALL_ANY, 10);
+        Event turn = TestEvents.turn(US);
+        ClientCommand sent = p.receiveEvent(turn);
+        if (p.getArmed() != null)
+        {
+            fail("takeFired: "+p.getArmed()+" is still armed after firing");
+        }
+        if (p.takeFired(TestEvents.turn(US)) != null)
+        {
+            fail("takeFired: handed over for a different turn event");
+        }
+        if (sent == null || p.takeFired(turn) != sent)
+        {
+            fail("takeFired: didn't hand over the command sent for the turn");
+        }
+        if (p.takeFired(turn) != null)
+        {
+            fail("takeFired: handed over twice");
+        }
+        Event next = TestEvents.turn(US);
+        if (p.receiveEvent(next) != null || p.takeFired(next) != null)
+        {
+            fail("takeFired: the next turn fired without anything armed");
+        }
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Starts a game and a hand that both the reader and the GUI have seen, with us in the small blind and 10 more
+     * to call
+     */
+    private static PreActions startHand()
+    {
+        PreActions p = new PreActions();
+        both(p, TestEvents.newGame(US, new String[]{"alice", "us"}, 1000, 10, 20));
+        both(p, TestEvents.newRound(0));
+        both(p, TestEvents.blind(US, 10, 990, 10));
+        both(p, TestEvents.blind(0, 20, 980, 30));
+        return p;
+    }
+
+    private static void callBlind(PreActions p)
+    {
+        both(p, TestEvents.bet(US, 20, 980, 40, 40));
+    }
+
+    /**
+     * Deals the flop
+     * @param readerOnly Whether only the reader has seen it, and the GUI is still showing the last street
+     */
+    private static void flop(PreActions p, boolean readerOnly)
+    {
+        for (String c : new String[]{"2c", "7d", "9h"})
+        {
+            if (readerOnly)
+            {
+                p.receiveEvent(TestEvents.boardCard(c));
+            }
+            else
+            {
+                both(p, TestEvents.boardCard(c));
+            }
+        }
+    }
+
+    /**
+     * Passes an event to the reader's side and then the GUI's, as if the GUI had caught up
+     */
+    private static void both(PreActions p, Event e)
+    {
+        p.receiveEvent(e);
+        p.applied(e);
+    }
+
+    private static void check(String name, ClientCommand c, Class<?> expected)
+    {
+        if (expected == null ? c != null : !expected.isInstance(c))
+        {
+            fail(name+": sent "+(c == null ? "nothing" : c.getClass().getSimpleName())+", expected "
+                    +(expected == null ? "nothing" : expected.getSimpleName()));
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        System.out.println(message);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.CallingStation;
+import io.github.jezdawgz.poker.client.CardMask;
+import io.github.jezdawgz.poker.client.HandEvaluator;
+import io.github.jezdawgz.poker.client.SelfPlay;
+import io.github.jezdawgz.poker.client.Strategy;
+import io.github.jezdawgz.poker.client.TableView;
+import io.github.jezdawgz.poker.server.ClientCommand;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Checks the dealer in {@link SelfPlay} on hands with known cards: the blinds, a short stack's side pot,
+ * splitting a pot with an odd chip, that an all-in for less than a full raise doesn't reopen the betting, and
+ * that a strategy over its time budget gets the safe action. Checks that a match won't take more strategies
+ * than seats, and plays each deal once per strategy when there are more seats. Then plays random hands with
+ * random stacks and actions and checks no chips are made or lost.
+ * Pass the number of random hands.
+ * @author Jeremy Collette
+ */
+public class SelfPlayTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args)
+    {
+        int hands = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        HandEvaluator.init();
+
+        /* Heads up the button posts the small blind and acts first */
+        check("heads up fold", play(new Strategy[]{folder(), calls()}, new int[]{2000, 2000},
+                "2c7d" + "AsAh" + "3s4h9dTcJc"), -10, 10);
+
+        /* Three handed the button acts first, then the small blind folds to the big blind */
+        check("blinds", play(new Strategy[]{folder(), folder(), calls()}, new int[]{2000, 2000, 2000},
+                "2c7d" + "3c8d" + "AsAh" + "3s4h9dTcJc"), 0, -10, 10);
+
+        /* Best hand at showdown takes the pot */
+        check("showdown", play(new Strategy[]{calls(), calls()}, new int[]{2000, 2000},
+                "2c7d" + "AsAh" + "3s4h9dTcJc"), -20, 20);
+
+        /* The button is all-in for 15 and wins the 45 everyone matched; the 10 above it goes to the better blind */
+        check("side pot", play(new Strategy[]{calls(), calls(), calls()}, new int[]{15, 2000, 2000},
+                "AcAd" + "KcKd" + "QcQd" + "2s3h7d8h9s"), 30, -10, -20);
+
+        /* The blinds tie on the board's straight: 45 splits 23/22 with the odd chip to the first seat after the
+           button, and they share the side pot */
+        check("odd chip", play(new Strategy[]{calls(), calls(), calls()}, new int[]{15, 2000, 2000},
+                "7c8c" + "Th3c" + "Tc4d" + "AsKsQsJh2d"), -15, 8, 7);
+
+        /* The button raises to 60 and the small blind goes all-in for 80, short of the 100 a full raise needs.
+           The big blind calls. The button's re-raise to 300 must only call, so the most anyone can lose is 80. */
+        final int[] toCall = new int[1];
+        Strategy raiser = new Strategy()
+        {
+            private int turn = 0;
+
+            @Override
+            public String getName()
+            {
+                return "Raiser";
+            }
+
+            @Override
+            public ClientCommand decide(TableView table)
+            {
+                switch (turn++)
+                {
+                    case 0:
+                        return new ClientCommand.ClientBetCommand(60);
+                    case 1:
+                        toCall[0] = table.toCall();
+                        return new ClientCommand.ClientBetCommand(300);
+                    default:
+                        return new CallingStation().decide(table);
+                }
+            }
+        };
+        Strategy shover = new Strategy()
+        {
+            @Override
+            public String getName()
+            {
+                return "Shover";
+            }
+
+            @Override
+            public ClientCommand decide(TableView table)
+            {
+                return new ClientCommand.ClientBetCommand(table.stacks[table.seat] + table.onTable[table.seat]);
+            }
+        };
+        check("short all-in", play(new Strategy[]{raiser, shover, calls()}, new int[]{2000, 80, 2000},
+                "2c7d" + "AsAh" + "3c8d" + "4s5h9dTcJc"), -80, 160, -80);
+        if (toCall[0] != 20)
+        {
+            System.out.println("short all-in: the button had "+toCall[0]+" to call, not 20");
+            failures++;
+        }
+
+        /* A call that comes too late is a fold to the big blind */
+        Strategy slow = new Strategy()
+        {
+            @Override
+            public String getName()
+            {
+                return "Slow";
+            }
+
+            @Override
+            public ClientCommand decide(TableView table)
+            {
+                try
+                {
+                    Thread.sleep(30);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return new ClientCommand.ClientCallCommand();
+            }
+        };
+        Strategy[] slowFirst = new Strategy[]{slow, calls()};
+        check("over budget", new SelfPlay(slowFirst, 2, 1, 5).playHand(slowFirst, new int[]{2000, 2000},
+                deal("2c7d" + "AsAh" + "3s4h9dTcJc")), -10, 10);
+
+        try
+        {
+            new SelfPlay(new Strategy[]{calls(), calls(), calls()}, 2, 1, 1000);
+            System.out.println("too many strategies: three strategies were given two seats");
+            failures++;
+        }
+        catch(IllegalArgumentException e)
+        {
+            /* Expected */
+        }
+
+        /* Two strategies at three seats: each deal is played twice, not three times over the same two seatings */
+        SelfPlay.Result match = new SelfPlay(new Strategy[]{calls(), folder()}, 3, 1, 1000).run(100, new ForkJoinPool(1));
+        if (match.hands != 200)
+        {
+            System.out.println("rotations: 100 deals with two strategies played "+match.hands+" hands, not 200");
+            failures++;
+        }
+        if (match.bbPer100[0] <= 0 || match.bbPer100[1] >= 0)
+        {
+            System.out.println("rotations: expected the calling station to beat the folder: "+match);
+            failures++;
+        }
+
+        /* Random hands never make or lose chips, and nobody loses more than they started with */
+        Random rnd = new Random(1);
+        long start = System.nanoTime();
+        for (int h = 0; h < hands; h++)
+        {
+            int seats = 2 + rnd.nextInt(7);
+            Strategy[] bySeat = new Strategy[seats];
+            int[] stacks = new int[seats];
+            for (int s = 0; s < seats; s++)
+            {
+                bySeat[s] = random(rnd);
+                stacks[s] = 1 + rnd.nextInt(3000);
+            }
+            int[] cards = new int[2 * seats + 5];
+            long used = 0;
+            for (int i = 0; i < cards.length; i++)
+            {
+                do
+                {
+                    cards[i] = CardMask.index(rnd.nextInt(CardMask.NUM_SUITS), rnd.nextInt(CardMask.NUM_RANKS));
+                }
+                while (CardMask.contains(used, cards[i]));
+                used |= CardMask.of(cards[i]);
+            }
+
+            int[] result = new SelfPlay(bySeat, seats, 1, 1000).playHand(bySeat, stacks, cards);
+            int sum = 0;
+            for (int s = 0; s < seats; s++)
+            {
+                sum += result[s];
+                if (result[s] < -stacks[s])
+                {
+                    System.out.println("Hand "+h+": seat "+s+" lost "+(-result[s])+" from a stack of "+stacks[s]);
+                    failures++;
+                }
+            }
+            if (sum != 0)
+            {
+                System.out.println("Hand "+h+": results "+Arrays.toString(result)+" add up to "+sum);
+                failures++;
+            }
+        }
+        System.out.printf("%,d random hands in %.1fs%n", hands, (System.nanoTime() - start) / 1e9);
+
+        if (failures == 0)
+        {
+            System.out.println("OK");
+        }
+        else
+        {
+            System.out.println(failures+" failures");
+            System.exit(1);
+        }
+    }
+
+    private static int[] play(Strategy[] bySeat, int[] stacks, String cards)
+    {
+        return new SelfPlay(bySeat, bySeat.length, 1, 1000).playHand(bySeat, stacks, deal(cards));
+    }
+
+    private static int[] deal(String cards)
+    {
+        int[] deal = new int[cards.length() / 2];
+        for (int i = 0; i < deal.length; i++)
+        {
+            deal[i] = CardMask.lowest(CardMask.parse(cards.substring(2 * i, 2 * i + 2)));
+        }
+        return deal;
+    }
+
+    private static void check(String name, int[] result, int... expected)
+    {
+        if (!Arrays.equals(result, expected))
+        {
+            System.out.println(name+": got "+Arrays.toString(result)+", expected "+Arrays.toString(expected));
+            failures++;
+        }
+    }
+
+    private static Strategy calls()
+    {
+        return new CallingStation();
+    }
+
+    private static Strategy folder()
+    {
+        return new Strategy()
+        {
+            @Override
+            public String getName()
+            {
+                return "Folder";
+            }
+
+            @Override
+            public ClientCommand decide(TableView table)
+            {
+                return new ClientCommand.ClientFoldCommand();
+            }
+        };
+    }
+
+    /**
+     * A strategy that folds, calls or bets at random, sometimes betting less than the minimum or more than it has
+     */
+    private static Strategy random(final Random rnd)
+    {
+        return new Strategy()
+        {
+            @Override
+            public String getName()
+            {
+                return "Random";
+            }
+
+            @Override
+            public ClientCommand decide(TableView table)
+            {
+                switch (rnd.nextInt(4))
+                {
+                    case 0:
+                        return new ClientCommand.ClientFoldCommand();
+                    case 1:
+                        return new ClientCommand.ClientCallCommand();
+                    case 2:
+                        return new ClientCommand.ClientCheckCommand();
+                    default:
+                        return new ClientCommand.ClientBetCommand(rnd.nextInt(2 * table.minTotalBet + 1000));
+                }
+            }
+        };
+    }
+}
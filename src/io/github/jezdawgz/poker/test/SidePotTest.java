@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.SidePotTracker;
+import io.github.jezdawgz.poker.server.Event;
+import io.github.jezdawgz.poker.server.Player;
+import io.github.jezdawgz.poker.server.Pot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks {@link SidePotTracker} by feeding it the server's events, against hands worked out by hand and
+ * against {@link Pot} over random all-in hands.
+ * <p>
+ * The hands worked out by hand cover a player who folds or disconnects after putting chips in, and paying the
+ * pots out with {@link Event.PlayerWinsChipsEvent}s until they are empty and the next round clears them.
+ * <p>
+ * Each random hand gives 2 to 8 players random stacks, has some of them go all-in, some fold and the rest match
+ * the biggest bet, spreading the chips over up to four streets. The pots from the tracker are then compared with
+ * the shared winnings {@link Pot} works out for the players still in, the same way {@link PokerCustomTest} walks
+ * them, and paid out to random winners; after each payout the tracker must hold what the server says is left.
+ * Pass the number of hands and the seed.
+ * @author Jeremy Collette
+ */
+public class SidePotTest {
+
+    private static final String[] BOARD = {"2c", "7d", "9h", "Js", "Kc"};
+
+    private static int failures = 0;
+
+    public static void main(String[] args)
+    {
+        int hands = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random rnd = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+
+        checkFolded();
+        checkDisconnected();
+        checkPayout(false);
+        checkPayout(true);
+
+        for (int h = 0; h < hands; h++)
+        {
+            randomHand(rnd);
+        }
+
+        System.out.println("Checked "+hands+" hands, "+failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Seat 1 is all-in for 50 against 100 from seats 0 and 2, then seat 2 folds to a bet on the flop. Its chips
+     * stay in the pots but it can't win any of them.
+     */
+    private static SidePotTracker checkFolded()
+    {
+        SidePotTracker tracker = new SidePotTracker();
+        send(tracker, TestEvents.newRound(0),
+                TestEvents.bet(0, 100, 900, 100, 200),
+                TestEvents.bet(1, 50, 0, 150, 200),
+                TestEvents.bet(2, 100, 900, 250, 200),
+                TestEvents.boardCard(BOARD[0]), TestEvents.boardCard(BOARD[1]), TestEvents.boardCard(BOARD[2]),
+                TestEvents.bet(0, 200, 700, 450, 400),
+                TestEvents.fold(2));
+        expect("folded", tracker, 150, 0b011, 300, 0b001);
+        return tracker;
+    }
+
+    /**
+     * A player who disconnects is out of the hand just like one who folds
+     */
+    private static void checkDisconnected()
+    {
+        SidePotTracker tracker = new SidePotTracker();
+        send(tracker, TestEvents.newRound(0),
+                TestEvents.blind(1, 10, 990, 10),
+                TestEvents.blind(2, 20, 980, 30),
+                TestEvents.bet(0, 60, 0, 90, 100),
+                TestEvents.bet(1, 60, 940, 140, 100),
+                TestEvents.disconnect(2));
+        expect("disconnected", tracker, 140, 0b011);
+    }
+
+    /**
+     * Pays out the pots from {@link #checkFolded()}: 150 to seat 1 and 300 to seat 0. However the server orders
+     * the payouts, the pots must be emptied, and the next round must start with none. Paying seat 0 first can't
+     * tell which pot its chips came from until seat 1 is paid, so only the total is checked in between.
+     */
+    private static void checkPayout(boolean bigStackFirst)
+    {
+        SidePotTracker tracker = checkFolded();
+        String name = bigStackFirst ? "payout, side pot first" : "payout, main pot first";
+        if (bigStackFirst)
+        {
+            send(tracker, TestEvents.wins(0, 300, 150));
+            if (tracker.getTotal() != 150)
+            {
+                fail(name+": expected 150 left, got "+tracker);
+            }
+            send(tracker, TestEvents.wins(1, 150, 0));
+        }
+        else
+        {
+            send(tracker, TestEvents.wins(1, 150, 300));
+            expect(name, tracker, 0, 0b011, 300, 0b001);
+            send(tracker, TestEvents.wins(0, 300, 0));
+        }
+        expect(name, tracker, 0, 0b011, 0, 0b001);
+
+        send(tracker, TestEvents.newRound(1));
+        expect(name+", next round", tracker);
+    }
+
+    private static void randomHand(Random rnd)
+    {
+        int numPlayers = 2 + rnd.nextInt(SidePotTracker.MAX_SEATS - 1);
+        Player[] players = new Player[numPlayers];
+        int[] total = new int[numPlayers];
+        int[] stack = new int[numPlayers];
+        boolean[] allIn = new boolean[numPlayers];
+        boolean[] folded = new boolean[numPlayers];
+
+        /* Everyone either puts in their whole stack, matches the call or folds somewhere short of it */
+        int call = 50 + rnd.nextInt(2000);
+        int callers = 0;
+        for (int i = 0; i < numPlayers; i++)
+        {
+            players[i] = new Player("Player "+i, null, null);
+            allIn[i] = rnd.nextInt(3) == 0;
+            folded[i] = !allIn[i] && rnd.nextInt(4) == 0;
+            total[i] = allIn[i] ? 1 + rnd.nextInt(call) : folded[i] ? rnd.nextInt(call + 1) : call;
+            stack[i] = allIn[i] ? total[i] : total[i] + 1 + rnd.nextInt(1000);
+            callers += allIn[i] || folded[i] ? 0 : 1;
+        }
+        /* Somebody has to have called, unless everyone is all-in */
+        for (int i = 0; i < numPlayers && callers == 0; i++)
+        {
+            if (folded[i])
+            {
+                folded[i] = false;
+                total[i] = call;
+                callers++;
+            }
+        }
+
+        /* Play the chips in over some streets */
+        SidePotTracker tracker = new SidePotTracker();
+        tracker.receiveEvent(TestEvents.newRound(0));
+        int streets = 1 + rnd.nextInt(4);
+        int[] left = total.clone();
+        int pot = 0;
+        for (int street = 0; street < streets; street++)
+        {
+            if (street > 0)
+            {
+                for (int c = street == 1 ? 0 : street + 1; c < street + 2; c++)
+                {
+                    tracker.receiveEvent(TestEvents.boardCard(BOARD[c]));
+                }
+            }
+            int[] onTable = new int[numPlayers];
+            for (int i = 0; i < numPlayers; i++)
+            {
+                int put = street == streets - 1 ? left[i] : rnd.nextInt(left[i] + 1);
+                if (put == 0)
+                {
+                    continue;
+                }
+                /* Put it on in a couple of steps, like a bet and then a call */
+                int first = 1 + rnd.nextInt(put);
+                stack[i] -= first;
+                pot += first;
+                tracker.receiveEvent(TestEvents.bet(i, onTable[i] + first, stack[i], pot, 0));
+                if (first < put)
+                {
+                    stack[i] -= put - first;
+                    pot += put - first;
+                    tracker.receiveEvent(TestEvents.bet(i, onTable[i] + put, stack[i], pot, 0));
+                }
+                onTable[i] += put;
+                left[i] -= put;
+            }
+        }
+        for (int i = 0; i < numPlayers; i++)
+        {
+            if (folded[i])
+            {
+                tracker.receiveEvent(rnd.nextBoolean() ? TestEvents.fold(i) : TestEvents.disconnect(i));
+            }
+        }
+
+        /* What the server's Pot makes of the same bets, sharing it between the players still in */
+        Pot serverPot = new Pot(players);
+        ArrayList<Player> remaining = new ArrayList<>();
+        for (int i = 0; i < numPlayers; i++)
+        {
+            serverPot.setBet(players[i], total[i]);
+            if (!folded[i])
+            {
+                remaining.add(players[i]);
+            }
+        }
+        ArrayList<Integer> expected = new ArrayList<>();
+        while (remaining.size() > 0)
+        {
+            int shared = serverPot.getTotalSharedWinnings(remaining.toArray(new Player[0]));
+            if (shared > 0)
+            {
+                expected.add(shared);
+            }
+            ArrayList<Player> rem = new ArrayList<>();
+            for (Player p : remaining)
+            {
+                if (serverPot.getContribution(p) == 0)
+                {
+                    rem.add(p);
+                }
+            }
+            if (rem.isEmpty())
+            {
+                break;
+            }
+            remaining.removeAll(rem);
+        }
+
+        ArrayList<Integer> actual = new ArrayList<>();
+        boolean foldedCanWin = false;
+        for (int p = 0; p < tracker.getNumPots(); p++)
+        {
+            actual.add(tracker.getPotAmount(p));
+            for (int i = 0; i < numPlayers; i++)
+            {
+                foldedCanWin |= folded[i] && (tracker.getEligible(p) & (1 << i)) != 0;
+            }
+        }
+
+        if (!expected.equals(actual) || foldedCanWin || tracker.getTotal() != pot)
+        {
+            fail(describe(total, allIn, folded)+": Pot says "+expected+", SidePotTracker says "+actual
+                    +(foldedCanWin ? " with a folded player able to win" : ""));
+            return;
+        }
+
+        /* Pay each pot to one or two of the players who can win it */
+        int[] won = new int[numPlayers];
+        int[] amounts = new int[tracker.getNumPots()];
+        int[] eligible = new int[amounts.length];
+        for (int p = 0; p < amounts.length; p++)
+        {
+            amounts[p] = tracker.getPotAmount(p);
+            eligible[p] = tracker.getEligible(p);
+        }
+        for (int p = 0; p < amounts.length; p++)
+        {
+            int[] seats = new int[Integer.bitCount(eligible[p])];
+            for (int i = 0, n = 0; i < numPlayers; i++)
+            {
+                if ((eligible[p] & (1 << i)) != 0)
+                {
+                    seats[n++] = i;
+                }
+            }
+            int a = seats[rnd.nextInt(seats.length)];
+            int b = seats[rnd.nextInt(seats.length)];
+            if (a == b)
+            {
+                won[a] += amounts[p];
+            }
+            else
+            {
+                won[a] += amounts[p] - amounts[p] / 2;
+                won[b] += amounts[p] / 2;
+            }
+        }
+        /* The server pays each winner once, in whatever order it likes */
+        int start = rnd.nextInt(numPlayers);
+        for (int n = 0; n < numPlayers; n++)
+        {
+            int i = (start + n) % numPlayers;
+            if (won[i] == 0)
+            {
+                continue;
+            }
+            pot -= won[i];
+            tracker.receiveEvent(TestEvents.wins(i, won[i], pot));
+            if (tracker.getTotal() != pot)
+            {
+                fail(describe(total, allIn, folded)+": paid "+Arrays.toString(won)+" and the server has "+pot
+                        +" left, SidePotTracker has "+tracker);
+                return;
+            }
+        }
+    }
+
+    private static void send(SidePotTracker tracker, Event... events)
+    {
+        for (Event e : events)
+        {
+            tracker.receiveEvent(e);
+        }
+    }
+
+    /**
+     * Checks the tracker's pots
+     * @param expected The amount and then the eligible seats of each pot in turn
+     */
+    private static void expect(String name, SidePotTracker tracker, int... expected)
+    {
+        int[] actual = new int[2 * tracker.getNumPots()];
+        for (int p = 0; p < tracker.getNumPots(); p++)
+        {
+            actual[2 * p] = tracker.getPotAmount(p);
+            actual[2 * p + 1] = tracker.getEligible(p);
+        }
+        if (!Arrays.equals(expected, actual))
+        {
+            fail(name+": expected pots and eligible seats "+Arrays.toString(expected)+", got "+Arrays.toString(actual));
+        }
+    }
+
+    private static String describe(int[] total, boolean[] allIn, boolean[] folded)
+    {
+        StringBuilder sb = new StringBuilder("Bets");
+        for (int i = 0; i < total.length; i++)
+        {
+            sb.append(" ").append(total[i]).append(allIn[i] ? "(all-in)" : folded[i] ? "(folded)" : "");
+        }
+        return sb.toString();
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.Metrics;
+import io.github.jezdawgz.poker.client.SpeculativeAction;
+import io.github.jezdawgz.poker.server.Event;
+
+
+/**
+ * Checks {@link SpeculativeAction}'s predictions and how it scores them against the server's answers.
+ * <p>
+ * A call, a bet and a bet bigger than the stack must predict the right stack, chips on the table and pot, and
+ * keep the values from before. Our chips going on the table answer a prediction; another turn of ours, a check
+ * or fold of ours, or the hand moving on contradict it, and nothing another player does should. Answers that
+ * match are counted as confirmed, answers that don't as wrong, and contradictions as rolled back.
+ * @author Jeremy Collette
+ */
+public class SpeculativeActionTest {
+
+    private static final int US = 2;
+
+    private static int failures = 0;
+
+    public static void main(String[] args)
+    {
+        /* Calling 60 with 20 already on the table */
+        SpeculativeAction call = new SpeculativeAction(US, 1000, 20, 150, 60);
+        predicts("call", call, 960, 60, 190);
+        /* Betting 200 on a new street */
+        predicts("bet", new SpeculativeAction(US, 1000, 0, 300, 200), 800, 200, 500);
+        /* Betting more than we have is all-in */
+        predicts("all-in", new SpeculativeAction(US, 150, 50, 400, 1000), 0, 200, 550);
+        /* A total below what we have on the table puts nothing in */
+        predicts("nothing to put in", new SpeculativeAction(US, 500, 100, 400, 60), 500, 100, 400);
+        if (call.stackBefore != 1000 || call.onTableBefore != 20 || call.potBefore != 150)
+        {
+            fail("call: lost the values to roll back to");
+        }
+
+        /* What answers a prediction and what contradicts it */
+        answers(call, TestEvents.bet(US, 60, 960, 190, 100), true);
+        answers(call, TestEvents.blind(US, 60, 960, 190), true);
+        answers(call, TestEvents.bet(0, 60, 960, 190, 100), false);
+        contradicts(call, TestEvents.turn(US), true);
+        contradicts(call, TestEvents.check(US), true);
+        contradicts(call, TestEvents.fold(US), true);
+        contradicts(call, TestEvents.disconnect(US), true);
+        contradicts(call, TestEvents.newRound(0), true);
+        contradicts(call, TestEvents.boardCard("Ah"), true);
+        contradicts(call, TestEvents.gameOver(0), true);
+        contradicts(call, TestEvents.turn(0), false);
+        contradicts(call, TestEvents.check(0), false);
+        contradicts(call, TestEvents.fold(0), false);
+        contradicts(call, TestEvents.disconnect(0), false);
+        contradicts(call, TestEvents.bet(0, 200, 800, 390, 340), false);
+        contradicts(call, TestEvents.wins(0, 100, 0), false);
+        contradicts(call, new Event.NewMessageEvent("gl"), false);
+
+        /* Scoring */
+        long confirmed = counter(Metrics.SPECULATION_CONFIRMED);
+        long wrong = counter(Metrics.SPECULATION_WRONG);
+        long rolledBack = counter(Metrics.SPECULATION_ROLLED_BACK);
+
+        if (!new SpeculativeAction(US, 1000, 20, 150, 60).confirm(TestEvents.bet(US, 60, 960, 190, 100)))
+        {
+            fail("confirm: the server put in exactly what we predicted");
+        }
+        if (new SpeculativeAction(US, 1000, 20, 150, 60).confirm(TestEvents.bet(US, 80, 940, 210, 140)))
+        {
+            fail("confirm: the server put in a different amount");
+        }
+        if (new SpeculativeAction(US, 1000, 20, 150, 60).confirm(TestEvents.bet(US, 60, 900, 190, 100)))
+        {
+            fail("confirm: the server left a different stack");
+        }
+        new SpeculativeAction(US, 1000, 20, 150, 60).rollBack();
+
+        scored(Metrics.SPECULATION_CONFIRMED, confirmed, 1);
+        scored(Metrics.SPECULATION_WRONG, wrong, 2);
+        scored(Metrics.SPECULATION_ROLLED_BACK, rolledBack, 1);
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void predicts(String name, SpeculativeAction a, int stack, int onTable, int pot)
+    {
+        if (a.stack != stack || a.onTable != onTable || a.pot != pot)
+        {
+            fail(name+": predicted stack "+a.stack+", on table "+a.onTable+", pot "+a.pot+", expected "+stack+", "
+                    +onTable+", "+pot);
+        }
+    }
+
+    private static void answers(SpeculativeAction a, Event e, boolean expected)
+    {
+        if (a.isAnsweredBy(e) != expected)
+        {
+            fail(e.getClass().getSimpleName()+(expected ? " should" : " shouldn't")+" answer the prediction");
+        }
+    }
+
+    private static void contradicts(SpeculativeAction a, Event e, boolean expected)
+    {
+        if (a.isContradictedBy(e) != expected)
+        {
+            fail(e.getClass().getSimpleName()+(expected ? " should" : " shouldn't")+" contradict the prediction");
+        }
+    }
+
+    private static long counter(String name)
+    {
+        Object v = Metrics.get().snapshot().get(name);
+        return v == null ? 0 : (Long)v;
+    }
+
+    private static void scored(String name, long before, int expected)
+    {
+        long n = counter(name) - before;
+        if (n != expected)
+        {
+            fail(name+": counted "+n+", expected "+expected);
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        System.out.println(message);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.CardMask;
+import io.github.jezdawgz.poker.server.Card;
+import io.github.jezdawgz.poker.server.Event.*;
+
+
+/**
+ * Builds the server's {@link io.github.jezdawgz.poker.server.Event}s for the tests, so they can drive the
+ * client's classes with the same events a game sends.
+ * @author Jeremy Collette
+ */
+public final class TestEvents {
+
+    private TestEvents()
+    {
+    }
+
+    public static NewGameEvent newGame(int clientIndex, String[] names, int startingStack, int smallBlind, int bigBlind)
+    {
+        NewGameEvent e = new NewGameEvent();
+        e.clientIndex = clientIndex;
+        e.playerNames = names;
+        e.startingStack = startingStack;
+        e.smallBlind = smallBlind;
+        e.bigBlind = bigBlind;
+        return e;
+    }
+
+    public static NewRoundEvent newRound(int dealer)
+    {
+        NewRoundEvent e = new NewRoundEvent();
+        e.dealerIndex = dealer;
+        return e;
+    }
+
+    /**
+     * Deals us a hole card
+     * @param card The card, e.g. "As"
+     * @return The event
+     */
+    public static NewPlayerCardEvent holeCard(String card)
+    {
+        NewPlayerCardEvent e = new NewPlayerCardEvent();
+        e.newCard = card(card);
+        return e;
+    }
+
+    /**
+     * Deals a card to the board
+     * @param card The card, e.g. "As"
+     * @return The event
+     */
+    public static NewCommunityCardEvent boardCard(String card)
+    {
+        NewCommunityCardEvent e = new NewCommunityCardEvent();
+        e.newCard = card(card);
+        return e;
+    }
+
+    public static PlayerTurnEvent turn(int seat)
+    {
+        PlayerTurnEvent e = new PlayerTurnEvent();
+        e.playerIndex = seat;
+        return e;
+    }
+
+    public static PlayerFoldEvent fold(int seat)
+    {
+        PlayerFoldEvent e = new PlayerFoldEvent();
+        e.playerIndex = seat;
+        return e;
+    }
+
+    public static PlayerCheckEvent check(int seat)
+    {
+        PlayerCheckEvent e = new PlayerCheckEvent();
+        e.playerIndex = seat;
+        return e;
+    }
+
+    public static PlayerDisconnectEvent disconnect(int seat)
+    {
+        PlayerDisconnectEvent e = new PlayerDisconnectEvent();
+        e.playerIndex = seat;
+        return e;
+    }
+
+    /**
+     * A player posts a blind
+     * @param seat The player's seat
+     * @param amount The blind
+     * @param chipsRemaining Chips left in their stack
+     * @param totalPot Chips in the pot and on the table, including this blind
+     * @return The event
+     */
+    public static PlayerPostBlindsEvent blind(int seat, int amount, int chipsRemaining, int totalPot)
+    {
+        PlayerPostBlindsEvent e = new PlayerPostBlindsEvent();
+        e.playerIndex = seat;
+        e.amount = amount;
+        e.chipsRemaining = chipsRemaining;
+        e.totalPot = totalPot;
+        return e;
+    }
+
+    /**
+     * A player bets, raises or calls
+     * @param seat The player's seat
+     * @param amount Their total chips on the table this street
+     * @param chipsRemaining Chips left in their stack
+     * @param totalPot Chips in the pot and on the table, including this bet
+     * @param minTotalBet The least the next player can raise to
+     * @return The event
+     */
+    public static PlayerBetEvent bet(int seat, int amount, int chipsRemaining, int totalPot, int minTotalBet)
+    {
+        PlayerBetEvent e = new PlayerBetEvent();
+        e.playerIndex = seat;
+        e.amount = amount;
+        e.chipsRemaining = chipsRemaining;
+        e.totalPot = totalPot;
+        e.minTotalBet = minTotalBet;
+        return e;
+    }
+
+    public static PlayerWinsChipsEvent wins(int seat, int amountWon, int remainingPot)
+    {
+        PlayerWinsChipsEvent e = new PlayerWinsChipsEvent();
+        e.playerIndex = seat;
+        e.amountWon = amountWon;
+        e.remainingPot = remainingPot;
+        return e;
+    }
+
+    public static GameOverEvent gameOver(int winner)
+    {
+        GameOverEvent e = new GameOverEvent();
+        e.winnerIndex = winner;
+        return e;
+    }
+
+    /**
+     * Gets a card from its short name
+     * @param card The card, e.g. "As" or "Td"
+     * @return The card
+     */
+    public static Card card(String card)
+    {
+        return CardMask.toCard(CardMask.lowest(CardMask.parse(card)));
+    }
+}
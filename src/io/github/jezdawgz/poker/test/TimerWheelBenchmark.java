@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.Histogram;
+import io.github.jezdawgz.poker.client.TimerWheel;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Times {@link TimerWheel} against a {@link ScheduledThreadPoolExecutor} with a million pending timers.
+ * <p>
+ * Each round schedules the timers with random delays of up to two seconds, cancels half of them (as most
+ * timeouts are, once the action they guard happens), and waits for the rest to fire. Scheduling and cancelling
+ * are timed per timer, and how late each timer fired is kept in a {@link Histogram}. Pass the number of timers
+ * as the first argument and the wheel's tick in milliseconds as the second.
+ * @author Jeremy Collette
+ */
+public class TimerWheelBenchmark {
+
+    private static final long MAX_DELAY_MILLIS = 2000;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        long tick = args.length > 1 ? Long.parseLong(args[1]) : TimerWheel.DEFAULT_TICK_MILLIS;
+
+        /* Warm up, then measure */
+        for (int round = 0; round < 2; round++)
+        {
+            boolean report = round == 1;
+            int n = report ? timers : timers / 10;
+
+            TimerWheel wheel = new TimerWheel(tick, TimeUnit.MILLISECONDS, TimerWheel.DEFAULT_WHEEL_SIZE, null);
+            run("TimerWheel (" + tick + "ms tick)", n, report, new WheelScheduler(wheel));
+            wheel.stop();
+
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            run("ScheduledThreadPoolExecutor", n, report, new ExecutorScheduler(executor));
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Something timers can be scheduled on
+     */
+    private interface Scheduler
+    {
+        Object schedule(Runnable task, long delayNanos);
+        boolean cancel(Object timer);
+    }
+
+    private static void run(String name, int n, boolean report, Scheduler scheduler) throws InterruptedException
+    {
+        Random rnd = new Random(1);
+        final Histogram lateness = new Histogram();
+        final AtomicLong fired = new AtomicLong();
+        Object[] handles = new Object[n];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+        {
+            final long delay = (long)(rnd.nextDouble() * MAX_DELAY_MILLIS * 1000000);
+            final long due = System.nanoTime() + delay;
+            handles[i] = scheduler.schedule(new Runnable()
+            {
+                @Override
+                public void run() {
+                    lateness.record(System.nanoTime() - due);
+                    fired.incrementAndGet();
+                }
+            }, delay);
+        }
+        long scheduled = System.nanoTime();
+        int expected = n;
+        for (int i = 0; i < n; i += 2)
+        {
+            /* The shortest may have fired already */
+            if (scheduler.cancel(handles[i]))
+            {
+                expected--;
+            }
+        }
+        long cancelled = System.nanoTime();
+
+        while (fired.get() < expected && System.nanoTime() - start < (MAX_DELAY_MILLIS + 30000) * 1000000L)
+        {
+            Thread.sleep(50);
+        }
+
+        if (report)
+        {
+            System.out.println(String.format("%s: %,d timers", name, n));
+            System.out.println(String.format("    schedule %.0f ns/timer, cancel %.0f ns/timer, %,d of %,d fired",
+                    (double)(scheduled - start) / n, (double)(cancelled - scheduled) / ((n + 1) / 2), fired.get(), expected));
+            System.out.println(String.format("    lateness p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    lateness.getPercentile(50) / 1e6, lateness.getPercentile(99) / 1e6, lateness.getMax() / 1e6));
+        }
+    }
+
+    private static class WheelScheduler implements Scheduler
+    {
+        private final TimerWheel wheel;
+
+        WheelScheduler(TimerWheel wheel)
+        {
+            this.wheel = wheel;
+        }
+
+        @Override
+        public Object schedule(Runnable task, long delayNanos)
+        {
+            return wheel.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean cancel(Object timer)
+        {
+            return ((TimerWheel.Timeout)timer).cancel();
+        }
+    }
+
+    private static class ExecutorScheduler implements Scheduler
+    {
+        private final ScheduledThreadPoolExecutor executor;
+
+        ExecutorScheduler(ScheduledThreadPoolExecutor executor)
+        {
+            this.executor = executor;
+        }
+
+        @Override
+        public Object schedule(Runnable task, long delayNanos)
+        {
+            return executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean cancel(Object timer)
+        {
+            return ((ScheduledFuture<?>)timer).cancel(false);
+        }
+    }
+
+}
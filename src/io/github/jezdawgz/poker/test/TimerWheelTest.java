@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015-2016 Jeremy Collette
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+
+package io.github.jezdawgz.poker.test;
+
+import io.github.jezdawgz.poker.client.TimerWheel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Checks that {@link TimerWheel} never fires a timer early and that cancelling works.
+ * <p>
+ * Timers are given random delays spanning several turns of a small wheel, and each task checks that its delay
+ * has passed. Half are cancelled before they are due; those must never run and the rest must each run exactly
+ * once. Then timers are cancelled right around their deadlines, racing the wheel: each must either have been
+ * cancelled or have run, never both and never neither. Both are done with tasks run on the wheel's thread and on
+ * an executor. Pass the number of timers.
+ * @author Jeremy Collette
+ */
+public class TimerWheelTest {
+
+    private static final long TICK_MILLIS = 1;
+    private static final int WHEEL_SIZE = 16;
+    private static final long MAX_DELAY_MILLIS = 200;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        for (int round = 0; round < 2; round++)
+        {
+            String name = round == 0 ? "wheel thread" : "executor";
+            TimerWheel wheel = new TimerWheel(TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE, round == 0 ? null : executor);
+            neverEarly(name, wheel, timers, new Random(round));
+            raceCancel(name, wheel, timers / 10, new Random(round));
+            wheel.stop();
+        }
+        executor.shutdown();
+
+        System.out.println(failures == 0 ? "OK" : failures+" failures");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void neverEarly(String name, TimerWheel wheel, int timers, Random rnd) throws InterruptedException
+    {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(timers);
+        final AtomicLong ran = new AtomicLong();
+        final AtomicLong early = new AtomicLong();
+        final AtomicLong maxLate = new AtomicLong();
+        TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[timers];
+        long firedBefore = wheel.getFired();
+
+        for (int i = 0; i < timers; i++)
+        {
+            final int id = i;
+            final long delay = TimeUnit.MILLISECONDS.toNanos(rnd.nextInt((int)MAX_DELAY_MILLIS + 1));
+            final long due = System.nanoTime() + delay;
+            timeouts[i] = wheel.schedule(new Runnable()
+            {
+                @Override
+                public void run() {
+                    long late = System.nanoTime() - due;
+                    if (late < 0)
+                    {
+                        early.incrementAndGet();
+                    }
+                    long max;
+                    while (late > (max = maxLate.get()) && !maxLate.compareAndSet(max, late))
+                    {
+                        /* Try again */
+                    }
+                    runs.incrementAndGet(id);
+                    ran.incrementAndGet();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        /* Cancel every other timer, and make sure a second cancel says it had already been done */
+        int cancelled = 0;
+        for (int i = 0; i < timers; i += 2)
+        {
+            if (timeouts[i].cancel())
+            {
+                cancelled++;
+                if (timeouts[i].cancel() || !timeouts[i].isCancelled())
+                {
+                    fail(name+": timer "+i+" cancelled twice, or not marked as cancelled");
+                }
+            }
+        }
+
+        waitFor(name, wheel, ran, timers - cancelled);
+        for (int i = 0; i < timers; i++)
+        {
+            boolean wasCancelled = timeouts[i].isCancelled();
+            int expected = wasCancelled ? 0 : 1;
+            if (runs.get(i) != expected || wasCancelled == timeouts[i].isExpired())
+            {
+                fail(name+": timer "+i+(wasCancelled ? " was cancelled" : " wasn't cancelled")+" and ran "
+                        +runs.get(i)+" times");
+            }
+            if (!wasCancelled && timeouts[i].cancel())
+            {
+                fail(name+": timer "+i+" could be cancelled after it had fired");
+            }
+        }
+        if (early.get() > 0)
+        {
+            fail(name+": "+early.get()+" timers fired early");
+        }
+        if (wheel.getFired() - firedBefore != timers - cancelled)
+        {
+            fail(name+": "+(wheel.getFired() - firedBefore)+" fired, expected "+(timers - cancelled));
+        }
+        System.out.printf("%s: %,d timers, %,d cancelled, latest fired %.1fms late%n", name, timers, cancelled,
+                maxLate.get() / 1e6);
+    }
+
+    private static void raceCancel(String name, TimerWheel wheel, int timers, Random rnd) throws InterruptedException
+    {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(timers);
+        final AtomicLong ran = new AtomicLong();
+        boolean[] cancelled = new boolean[timers];
+        int won = 0;
+        for (int i = 0; i < timers; i++)
+        {
+            final int id = i;
+            long delay = TimeUnit.MILLISECONDS.toNanos(rnd.nextInt(3));
+            TimerWheel.Timeout t = wheel.schedule(new Runnable()
+            {
+                @Override
+                public void run() {
+                    runs.incrementAndGet(id);
+                    ran.incrementAndGet();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+            /* Cancel somewhere between a little before the deadline and a little after */
+            long spin = System.nanoTime() + rnd.nextInt((int)(2 * delay + TimeUnit.MILLISECONDS.toNanos(1)));
+            while (System.nanoTime() < spin)
+            {
+                Thread.onSpinWait();
+            }
+            cancelled[i] = t.cancel();
+            won += cancelled[i] ? 1 : 0;
+        }
+
+        waitFor(name, wheel, ran, timers - won);
+        for (int i = 0; i < timers; i++)
+        {
+            if (runs.get(i) != (cancelled[i] ? 0 : 1))
+            {
+                fail(name+": racing timer "+i+(cancelled[i] ? " was cancelled" : " wasn't cancelled")+" and ran "
+                        +runs.get(i)+" times");
+            }
+        }
+        System.out.printf("%s: %,d timers cancelled around their deadlines, %,d cancelled in time%n", name, timers, won);
+    }
+
+    /**
+     * Waits for every timer to fire or be cancelled, and for the tasks that fired to finish running
+     */
+    private static void waitFor(String name, TimerWheel wheel, AtomicLong ran, long expected) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10 * MAX_DELAY_MILLIS + 5000;
+        while ((wheel.getPending() > 0 || ran.get() < expected) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        if (wheel.getPending() > 0 || ran.get() < expected)
+        {
+            fail(name+": "+wheel.getPending()+" timers never fired, and "+ran.get()+" of "+expected+" tasks ran");
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        if (failures <= 20)
+        {
+            System.out.println(message);
+        }
+    }
+}